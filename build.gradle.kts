@@ -4,6 +4,7 @@ plugins {
     id("org.jetbrains.intellij") version "1.17.4"
     id("jacoco")
     id("org.sonarqube") version "5.0.0.4638"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 jacoco {
@@ -50,6 +51,77 @@ dependencies {
     testImplementation("org.junit.jupiter:junit-jupiter:5.9.2")
     testImplementation("org.mockito:mockito-core:5.6.0")
     testImplementation("org.mockito:mockito-junit-jupiter:5.6.0")
+    // In-process transport for the fake Vertex AI server used by the end-to-end tests
+    testImplementation("io.grpc:grpc-inprocess:1.70.0")
+}
+
+// Micro-benchmarks under src/jmh; run with ./gradlew jmh
+jmh {
+    jmhVersion.set("1.37")
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    // The client pool benchmark uses the fake Vertex AI server from the tests
+    includeTests.set(true)
+    jvmArgsAppend.add("-Djava.awt.headless=true")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results.json"))
+}
+
+// Baseline results are kept in the repository; record them on the reference
+// machine with ./gradlew jmh jmhSaveBaseline and check a build against them
+// with ./gradlew jmh jmhCompareBaseline (-PjmhTolerance=0.10 by default)
+val jmhResults = layout.buildDirectory.file("reports/jmh/results.json")
+val jmhBaseline = layout.projectDirectory.file("src/jmh/baseline/results.json")
+
+tasks.register<Copy>("jmhSaveBaseline") {
+    group = "benchmark"
+    description = "Stores the last JMH results as the baseline"
+    mustRunAfter("jmh")
+    from(jmhResults)
+    into(jmhBaseline.asFile.parentFile)
+}
+
+tasks.register("jmhCompareBaseline") {
+    group = "benchmark"
+    description = "Fails if a benchmark is slower than the baseline by more than the tolerance"
+    mustRunAfter("jmh")
+    doLast {
+        val tolerance = (project.findProperty("jmhTolerance") as String?)?.toDouble() ?: 0.10
+
+        @Suppress("UNCHECKED_CAST")
+        fun scores(file: File): Map<String, Pair<Double, String>> =
+            (groovy.json.JsonSlurper().parse(file) as List<Map<String, Any?>>).associate { result ->
+                val params = (result["params"] as Map<String, Any?>?)?.toSortedMap()?.toString() ?: ""
+                val metric = result["primaryMetric"] as Map<String, Any?>
+                "${result["benchmark"]}$params" to
+                        Pair((metric["score"] as Number).toDouble(), metric["scoreUnit"] as String)
+            }
+
+        val baselineFile = jmhBaseline.asFile
+        if (!baselineFile.exists()) {
+            throw GradleException("No JMH baseline at $baselineFile; record one with jmhSaveBaseline")
+        }
+        val baseline = scores(baselineFile)
+        val current = scores(jmhResults.get().asFile)
+
+        val regressions = current.mapNotNull { (name, result) ->
+            val (score, unit) = result
+            val reference = baseline[name]?.first ?: return@mapNotNull null
+            // Time per operation gets worse as it grows, throughput as it shrinks
+            val change = if (unit.endsWith("/op")) score / reference - 1 else reference / score - 1
+            if (change > tolerance) "$name: $reference -> $score $unit" else null
+        }
+        if (regressions.isNotEmpty()) {
+            throw GradleException("JMH regressions over ${tolerance * 100}%:\n" + regressions.joinToString("\n"))
+        }
+        logger.lifecycle("JMH results within ${tolerance * 100}% of the baseline (${current.size} benchmarks)")
+    }
+}
+
+// Benchmarks load plugin classes that reference the IntelliJ Platform API
+configurations.named("jmhImplementation") {
+    extendsFrom(configurations.compileOnly.get())
 }
 
 // Configure Gradle IntelliJ Plugin
@@ -0,0 +1,52 @@
+package com.technology.ncode.AskAQuestion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the ask-a-question prompt, which repeats the whole conversation on
+ * every turn, for short and long conversations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConversationPromptBenchmark {
+
+    @Param({ "2", "40" })
+    public int turns;
+
+    private final List<DisplayQuestionToolWindowContent.UserConversation> history = new ArrayList<>();
+    private String selectedCode;
+
+    @Setup
+    public void setUp() {
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            code.append("    private int field").append(i).append(" = ").append(i).append(";\n");
+        }
+        selectedCode = code.toString();
+
+        for (int i = 0; i < turns; i++) {
+            history.add(new DisplayQuestionToolWindowContent.UserConversation("user",
+                    "Why does field" + i + " need to be initialised here?"));
+            history.add(new DisplayQuestionToolWindowContent.UserConversation("assistant",
+                    "Because the constructor reads it before any setter runs. ".repeat(8)));
+        }
+    }
+
+    @Benchmark
+    public String buildPrompt() {
+        return DisplayQuestionToolWindowContent.buildPromptPrefix(selectedCode, "")
+                + DisplayQuestionToolWindowContent.buildConversationPrompt(history);
+    }
+}
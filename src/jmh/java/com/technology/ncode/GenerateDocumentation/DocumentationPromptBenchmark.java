@@ -0,0 +1,54 @@
+package com.technology.ncode.GenerateDocumentation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the documentation chat prompt for the first request, which carries
+ * the code context, and for follow-ups, which repeat the conversation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DocumentationPromptBenchmark {
+
+    @Param({ "1", "40" })
+    public int turns;
+
+    private final List<GenerateDocumentationFactoryContent.UserConversation> history = new ArrayList<>();
+    private String selectedCode;
+
+    @Setup
+    public void setUp() {
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            code.append("    public void step").append(i).append("() { run(").append(i).append("); }\n");
+        }
+        selectedCode = code.toString();
+
+        history.add(new GenerateDocumentationFactoryContent.UserConversation("system", "Code Context:\n" + selectedCode));
+        for (int i = 0; i < turns; i++) {
+            history.add(new GenerateDocumentationFactoryContent.UserConversation("user",
+                    "Explain step" + i + " in more detail"));
+            if (i < turns - 1) {
+                history.add(new GenerateDocumentationFactoryContent.UserConversation("assistant",
+                        "## step" + i + "\n\nRuns the task and records the result.\n".repeat(6)));
+            }
+        }
+    }
+
+    @Benchmark
+    public String buildPrompt() {
+        return GenerateDocumentationFactoryContent.buildPrompt(history, selectedCode, "", "Explain the last step");
+    }
+}
@@ -0,0 +1,95 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the context extraction with the fixed five-line window it
+ * replaced, on a 10k-line document and on a 1 MB single-line (minified)
+ * document. Run with {@code ./gradlew jmh} and use {@code -prof gc} to see the
+ * allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContextExtractionBenchmark {
+    private static final int LEGACY_CONTEXT_LINES = 5;
+
+    @Param({ "LINES_10K", "SINGLE_LINE_1MB" })
+    public String shape;
+
+    private String text;
+    private ContextText contextText;
+    private int caretOffset;
+    private final CompletionContextBuilder builder = new CompletionContextBuilder(
+            CompletionContextBuilder.DEFAULT_TOKEN_BUDGET);
+    private final StringBuilder buffer = new StringBuilder(8192);
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder();
+        if ("LINES_10K".equals(shape)) {
+            for (int i = 0; i < 10_000; i++) {
+                sb.append("    int value").append(i).append(" = compute(value").append(i - 1).append(", ")
+                        .append(i).append(");\n");
+            }
+        } else {
+            while (sb.length() < 1_000_000) {
+                sb.append("var a=function(b,c){return b.map(function(d){return d+c})};");
+            }
+        }
+        text = sb.toString();
+
+        // Line offsets are computed once, like the document's own line set
+        contextText = ContextText.of(text);
+        caretOffset = text.length() / 2;
+    }
+
+    @Benchmark
+    public String contextBuilder() {
+        return builder.build(contextText, caretOffset, null, buffer);
+    }
+
+    @Benchmark
+    public String legacySurroundingLines() {
+        return legacySurroundingLines(contextText, caretOffset);
+    }
+
+    /**
+     * The previous extraction: a String per line plus a substring for the
+     * caret line, copied again into the result.
+     */
+    private static String legacySurroundingLines(ContextText text, int currentOffset) {
+        int caretLineStart = text.lineStart(currentOffset);
+        int start = caretLineStart;
+        for (int i = 0; i < LEGACY_CONTEXT_LINES && start > 0; i++) {
+            start = text.lineStart(start - 1);
+        }
+
+        StringBuilder lines = new StringBuilder(1024);
+        int lineStart = start;
+        for (int i = 0; i <= 2 * LEGACY_CONTEXT_LINES && lineStart <= text.length(); i++) {
+            int lineEnd = text.lineEnd(lineStart);
+            String lineText = text.subSequence(lineStart, lineEnd).toString();
+            if (lineStart == caretLineStart) {
+                int caretPositionInLine = currentOffset - lineStart;
+                lines.append(lineText, 0, caretPositionInLine)
+                        .append("{caret is here}")
+                        .append(lineText.substring(caretPositionInLine));
+            } else {
+                lines.append(lineText);
+            }
+            lines.append('\n');
+            lineStart = lineEnd + 1;
+        }
+        return lines.toString();
+    }
+}
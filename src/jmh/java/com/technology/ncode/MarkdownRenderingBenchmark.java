@@ -0,0 +1,52 @@
+package com.technology.ncode;
+
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders a README-sized documentation response, as produced by the
+ * documentation and test case tool windows, with the shared renderer and with
+ * a parser and renderer built per call as the tool windows used to do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MarkdownRenderingBenchmark {
+    private String markdown;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder("# OrderService\n\n");
+        for (int i = 0; i < 20; i++) {
+            sb.append("## Step ").append(i).append("\n\n")
+                    .append("The service **validates** the order, reserves stock and emits an `OrderPlaced` event.\n\n")
+                    .append("1. Load the order\n2. Check the inventory\n3. Publish the event\n\n")
+                    .append("```java\n@Test\nvoid placesOrder").append(i).append("() {\n")
+                    .append("    assertEquals(Status.PLACED, service.place(order).getStatus());\n}\n```\n\n");
+        }
+        markdown = sb.toString();
+    }
+
+    @Benchmark
+    public String sharedRenderer() {
+        return MarkdownRenderer.render(markdown);
+    }
+
+    @Benchmark
+    public String rendererPerCall() {
+        MutableDataSet options = new MutableDataSet();
+        Parser parser = Parser.builder(options).build();
+        HtmlRenderer renderer = HtmlRenderer.builder(options).build();
+        return renderer.render(parser.parse(markdown));
+    }
+}
@@ -0,0 +1,56 @@
+package com.technology.ncode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the work done for every reported suggestion: counting the
+ * suggested lines and building the JSON payload with the completion metrics.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UsageMetricsBenchmark {
+    private String suggestion;
+    private final Map<String, Number> completionMetrics = new LinkedHashMap<>();
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            sb.append("        result.add(transform(items.get(").append(i).append(")));\n");
+        }
+        suggestion = sb.toString();
+
+        completionMetrics.put("debounceDelayMs", 320L);
+        completionMetrics.put("debounceHitRate", 0.42);
+        completionMetrics.put("requestsCancelled", 118L);
+        completionMetrics.put("responsesStaleDropped", 12L);
+        completionMetrics.put("responsesDelivered", 240L);
+        completionMetrics.put("speculationsStarted", 90L);
+        completionMetrics.put("speculationsWasted", 31L);
+        completionMetrics.put("speculationsSkipped", 4L);
+        completionMetrics.put("speculationHitRate", 0.58);
+        completionMetrics.put("candidatesCycled", 7L);
+    }
+
+    @Benchmark
+    public int countLines() {
+        return UsageMetricsReporter.countLines(suggestion);
+    }
+
+    @Benchmark
+    public String buildPayload() {
+        return UsageMetricsReporter.buildPayload("developer@example.com", "ncode-project",
+                UsageMetricsReporter.countLines(suggestion), 0, "completion", completionMetrics);
+    }
+}
@@ -0,0 +1,75 @@
+package com.technology.ncode.vertexai;
+
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import com.google.cloud.vertexai.api.GenerationConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of a completion request against the in-process fake server,
+ * through the shared client pool and with a client and model built for every
+ * request as before the pool existed. The fake has no TLS or credential
+ * lookup, so the difference is a lower bound of what the pool saves against
+ * the real endpoint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClientPoolBenchmark {
+    private static final String LOCATION = "us-central1";
+    private static final String MODEL_ID = "fake-model";
+    private static final GenerationConfig CONFIG = GenerationConfig.newBuilder()
+            .setTemperature(0.3f)
+            .setMaxOutputTokens(300)
+            .build();
+
+    private FakePredictionServer server;
+    private VertexAiClientPool sharedPool;
+    // Separate server so closing the per-request channels leaves the shared pool alone
+    private FakePredictionServer perRequestServer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new FakePredictionServer();
+        server.setDefaultReply(FakePredictionServer.Reply.text("return a + b;\n"));
+        server.setRecordRequests(false);
+        sharedPool = server.newClientPool();
+
+        perRequestServer = new FakePredictionServer();
+        perRequestServer.setDefaultReply(FakePredictionServer.Reply.text("return a + b;\n"));
+        perRequestServer.setRecordRequests(false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        sharedPool.dispose();
+        server.close();
+        perRequestServer.close();
+    }
+
+    @Benchmark
+    public GenerateContentResponse pooledClient() throws IOException {
+        return sharedPool.getModel(LOCATION, MODEL_ID, CONFIG, null).generateContent("int add(int a, int b) {");
+    }
+
+    @Benchmark
+    public GenerateContentResponse clientPerRequest() throws IOException {
+        VertexAiClientPool pool = perRequestServer.newClientPool();
+        try {
+            return pool.getModel(LOCATION, MODEL_ID, CONFIG, null).generateContent("int add(int a, int b) {");
+        } finally {
+            pool.dispose();
+            perRequestServer.shutdownClientChannels();
+        }
+    }
+}
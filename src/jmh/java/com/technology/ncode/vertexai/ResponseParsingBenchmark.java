@@ -0,0 +1,60 @@
+package com.technology.ncode.vertexai;
+
+import com.google.cloud.vertexai.api.Candidate;
+import com.google.cloud.vertexai.api.Content;
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import com.google.cloud.vertexai.api.Part;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracts the suggestion text from responses with many text parts, and the
+ * alternatives from a multi-candidate response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseParsingBenchmark {
+
+    @Param({ "1", "64", "1024" })
+    public int parts;
+
+    private GenerateContentResponse response;
+    private GenerateContentResponse candidatesResponse;
+
+    @Setup
+    public void setUp() {
+        Content.Builder content = Content.newBuilder().setRole("model");
+        for (int i = 0; i < parts; i++) {
+            content.addParts(Part.newBuilder().setText("    values.add(compute(" + i + "));\n"));
+        }
+        response = GenerateContentResponse.newBuilder()
+                .addCandidates(Candidate.newBuilder().setContent(content))
+                .build();
+
+        GenerateContentResponse.Builder candidates = GenerateContentResponse.newBuilder();
+        for (int i = 0; i < InlineVertexAi.CANDIDATE_COUNT; i++) {
+            candidates.addCandidates(Candidate.newBuilder().setIndex(i).setContent(content));
+        }
+        candidatesResponse = candidates.build();
+    }
+
+    @Benchmark
+    public String extractGeneratedText() {
+        return InlineVertexAi.extractGeneratedText(response);
+    }
+
+    @Benchmark
+    public List<String> extractCandidates() {
+        return InlineVertexAi.extractCandidates(candidatesResponse);
+    }
+}
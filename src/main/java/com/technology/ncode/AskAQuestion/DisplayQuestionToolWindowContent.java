@@ -54,6 +54,7 @@ import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.project.Project;
 import com.technology.ncode.UsageMetricsReporter;
 import com.technology.ncode.vertexai.AskAQuestionVertexAi;
+import com.technology.ncode.vertexai.RelatedCodeIndex;
 import com.vladsch.flexmark.ast.BulletList;
 import com.vladsch.flexmark.ast.FencedCodeBlock;
 import com.vladsch.flexmark.ast.ListItem;
@@ -64,6 +65,10 @@ import com.vladsch.flexmark.util.ast.Node;
 import com.vladsch.flexmark.util.data.MutableDataSet;
 
 public class DisplayQuestionToolWindowContent extends JPanel {
+    private static final Map<String, String> AUTHOR_LABELS = Map.of(
+            "user", "User",
+            "assistant", "AI");
+
     private JTextPane selectedCodeArea;
     private JTextPane chatOutputArea;
     private JTextField askQuestionField;
@@ -83,7 +88,7 @@ public class DisplayQuestionToolWindowContent extends JPanel {
         setLayout(new BorderLayout());
         setBackground(new Color(25, 25, 25));
         executorService = Executors.newSingleThreadExecutor();
-        askAQuestionVertexAi = new AskAQuestionVertexAi(); // Initialize
+        askAQuestionVertexAi = new AskAQuestionVertexAi(project.getLocationHash()); // Initialize
 
         // Chat Output Area
         chatOutputArea = new JTextPane();
@@ -236,6 +241,11 @@ public class DisplayQuestionToolWindowContent extends JPanel {
 
     private String previousSelectedCode = "";
 
+    // Related project code found for relatedCodeSelection; only touched on
+    // the executor
+    private String relatedCodeSelection;
+    private String relatedCode = "";
+
     private void appendUserMessage(String text, boolean isNewChat) {
         SwingUtilities.invokeLater(() -> {
             StyledDocument doc = chatOutputArea.getStyledDocument();
@@ -415,19 +425,24 @@ public class DisplayQuestionToolWindowContent extends JPanel {
                 System.out.println("[User Query]");
                 System.out.println(message);
 
+                String prefix = null;
                 String prompt;
                 if (isAutoExplain) {
-                    prompt = "Please explain the following code:\n\n" + lastSelectedCode;
+                    String related = findRelatedCode(lastSelectedCode);
+                    prompt = "Please explain the following code:\n\n" + lastSelectedCode
+                            + (related.isEmpty() ? "" : "\n\n" + related);
                 } else {
                     conversationHistory.add(new UserConversation("user", message));
-                    prompt = buildPrompt();
+                    prefix = buildPromptPrefix(lastSelectedCode, findRelatedCode(lastSelectedCode));
+                    prompt = buildConversationPrompt(conversationHistory);
                 }
 
                 System.out.println("[Prompt Sent to VertexAI]");
                 System.out.println(prompt);
 
+                // The prefix is the same every turn, so it can be served from the context cache
                 String response = AskAQuestionVertexAi
-                        .extractGeneratedText(askAQuestionVertexAi.generateContent(prompt));
+                        .extractGeneratedText(askAQuestionVertexAi.generateContent(prefix, prompt));
 
                 System.out.println("[Response from VertexAI]");
                 System.out.println(response);
@@ -500,18 +515,40 @@ public class DisplayQuestionToolWindowContent extends JPanel {
         // return scrollPane; // or panel containing all components
     }
 
-    private String buildPrompt() {
-        Map<String, String> userTypes = Map.of(
-                "user", "User",
-                "assistant", "AI");
-
+    /**
+     * The instruction and code context, which stay the same for every turn of
+     * a conversation about the same selection.
+     */
+    static String buildPromptPrefix(String lastSelectedCode, String relatedCode) {
         String context = !lastSelectedCode.isEmpty()
                 ? "Code Context:\n" + lastSelectedCode + "\n\n"
                 : "";
 
+        return "Instruction: You are an intelligent assistant helping the user with programming queries. " +
+                "Please refer to the previous conversation history and code context to provide relevant and accurate responses.\n\n"
+                +
+                context + relatedCode;
+    }
+
+    // Looks up the related project code once per selection, so the prompt
+    // prefix stays the same across turns and can be served from the context
+    // cache. Runs on the executor.
+    private String findRelatedCode(String code) {
+        if (!code.equals(relatedCodeSelection)) {
+            relatedCode = RelatedCodeIndex.getInstance(project).findRelatedCode(code);
+            relatedCodeSelection = code;
+        }
+        return relatedCode;
+    }
+
+    /**
+     * Builds the part of the prompt that follows the prefix: the whole
+     * conversation so far.
+     */
+    static String buildConversationPrompt(List<UserConversation> conversationHistory) {
         StringBuilder conversation = new StringBuilder();
         for (UserConversation uc : conversationHistory) {
-            conversation.append(userTypes.getOrDefault(uc.author, uc.author))
+            conversation.append(AUTHOR_LABELS.getOrDefault(uc.author, uc.author))
                     .append(": ")
                     .append(uc.message)
                     .append("\n\n");
@@ -520,14 +557,11 @@ public class DisplayQuestionToolWindowContent extends JPanel {
         // Add "AI:" at the end to prompt the model to reply
         conversation.append("AI:");
 
-        return "Instruction: You are an intelligent assistant helping the user with programming queries. " +
-                "Please refer to the previous conversation history and code context to provide relevant and accurate responses.\n\n"
-                +
-                context + conversation.toString().trim();
+        return conversation.toString().trim();
     }
 
     // Helper class for conversation history
-    private static class UserConversation {
+    static class UserConversation {
         String author;
         String message;
 
@@ -574,13 +608,14 @@ public class DisplayQuestionToolWindowContent extends JPanel {
                 System.out.println(questionText);
                 conversationHistory.add(new UserConversation("user", questionText));
 
-                String prompt = buildPrompt();
+                String prefix = buildPromptPrefix(lastSelectedCode, findRelatedCode(lastSelectedCode));
+                String prompt = buildConversationPrompt(conversationHistory);
                 System.out.println("[Prompt Sent to VertexAI]");
                 System.out.println(prompt);
 
                 // Always include conversation history
                 String response = AskAQuestionVertexAi
-                        .extractGeneratedText(askAQuestionVertexAi.generateContent(prompt));
+                        .extractGeneratedText(askAQuestionVertexAi.generateContent(prefix, prompt));
                 System.out.println("[Response from VertexAI]");
                 System.out.println(response);
 
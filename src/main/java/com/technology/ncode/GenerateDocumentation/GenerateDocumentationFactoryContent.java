@@ -23,6 +23,7 @@ import java.awt.event.KeyEvent;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
@@ -47,11 +48,11 @@ import javax.swing.text.StyledDocument;
 
 import com.google.cloud.vertexai.api.GenerateContentResponse;
 import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.technology.ncode.MarkdownRenderer;
 import com.technology.ncode.UsageMetricsReporter;
 import com.technology.ncode.vertexai.DocumentationVertexAi;
-import com.vladsch.flexmark.html.HtmlRenderer;
-import com.vladsch.flexmark.parser.Parser;
-import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.technology.ncode.vertexai.RelatedCodeIndex;
 
 public class GenerateDocumentationFactoryContent extends JPanel {
     private JTextPane chatOutputArea;
@@ -59,10 +60,17 @@ public class GenerateDocumentationFactoryContent extends JPanel {
     private JButton sendButton;
     private JLabel waitingMessageLabel;
     private String lastSelectedCode = "";
+    // Related project code found for relatedCodeSelection; only touched on
+    // the executor
+    private String relatedCodeSelection;
+    private String relatedCode = "";
     private static final String PLACEHOLDER_TEXT = "Ask NCode...";
     private List<UserConversation> conversationHistory = new ArrayList<>();
     private JPanel chatPanel;
     private final Project project;
+    // One request at a time per window; the conversation history is not thread-safe
+    private final ExecutorService executorService =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("NCode Documentation", 1);
 
     public GenerateDocumentationFactoryContent(Project project) {
         this.project = project;
@@ -229,10 +237,11 @@ public class GenerateDocumentationFactoryContent extends JPanel {
 
             conversationHistory.add(new UserConversation("user", userPrompt));
 
-            new Thread(() -> {
-                String prompt = buildPrompt(userPrompt);
+            executorService.execute(() -> {
+                String prompt = buildPrompt(conversationHistory, lastSelectedCode,
+                        findRelatedCode(lastSelectedCode), userPrompt);
 
-                DocumentationVertexAi docVertexAi = new DocumentationVertexAi();
+                DocumentationVertexAi docVertexAi = new DocumentationVertexAi(project.getLocationHash());
                 try {
                     GenerateContentResponse response = docVertexAi.generateContent(prompt);
                     String documentation = DocumentationVertexAi.extractGeneratedDocumentation(response);
@@ -246,7 +255,7 @@ public class GenerateDocumentationFactoryContent extends JPanel {
                             project, // Pass the project reference
                             "documentation");
 
-                    String markdownResponse = renderMarkdown(documentation);
+                    String markdownResponse = MarkdownRenderer.render(documentation);
 
                     SwingUtilities.invokeLater(() -> {
                         removeWaitingMessage();
@@ -262,7 +271,7 @@ public class GenerateDocumentationFactoryContent extends JPanel {
                         enableInput();
                     });
                 }
-            }).start();
+            });
         } else {
             // No code selected: do not append the "Generate Documentation" label, allow
             // input
@@ -284,10 +293,11 @@ public class GenerateDocumentationFactoryContent extends JPanel {
         // Store the user's query in history
         conversationHistory.add(new UserConversation("user", userQuery));
 
-        new Thread(() -> {
-            String prompt = buildPrompt(userQuery);
+        executorService.execute(() -> {
+            String prompt = buildPrompt(conversationHistory, lastSelectedCode,
+                    findRelatedCode(lastSelectedCode), userQuery);
 
-            DocumentationVertexAi docVertexAi = new DocumentationVertexAi();
+            DocumentationVertexAi docVertexAi = new DocumentationVertexAi(project.getLocationHash());
             try {
                 GenerateContentResponse response = docVertexAi.generateContent(prompt);
                 String documentation = DocumentationVertexAi.extractGeneratedDocumentation(response);
@@ -304,7 +314,7 @@ public class GenerateDocumentationFactoryContent extends JPanel {
                 // Store assistant response in history
                 conversationHistory.add(new UserConversation("assistant", documentation));
 
-                String markdownResponse = renderMarkdown(documentation);
+                String markdownResponse = MarkdownRenderer.render(documentation);
 
                 SwingUtilities.invokeLater(() -> {
                     removeWaitingMessage();
@@ -319,10 +329,10 @@ public class GenerateDocumentationFactoryContent extends JPanel {
                     enableInput();
                 });
             }
-        }).start();
+        });
     }
 
-    public class UserConversation {
+    public static class UserConversation {
         public String author;
         public String message;
 
@@ -332,7 +342,13 @@ public class GenerateDocumentationFactoryContent extends JPanel {
         }
     }
 
-    private String buildPrompt(String latestMessage) {
+    /**
+     * Builds the prompt for the latest user message: the instruction and code
+     * context for the first message, the labelled conversation afterwards.
+     * Related project code, if any, is included either way.
+     */
+    static String buildPrompt(List<UserConversation> conversationHistory, String lastSelectedCode,
+            String relatedCode, String latestMessage) {
         long userMessageCount = conversationHistory.stream()
                 .filter(c -> c.author.equals("user"))
                 .count();
@@ -344,11 +360,11 @@ public class GenerateDocumentationFactoryContent extends JPanel {
                     "Please refer to the code context to provide relevant and accurate responses.\n\n";
             String context = !lastSelectedCode.isEmpty() ? "Code Context:\n" + lastSelectedCode + "\n\n" : "";
             String userMessage = "User: " + latestMessage + "\nAI:";
-            return instruction + context + userMessage;
+            return instruction + context + relatedCode + userMessage;
         }
 
         // Follow-up: format all conversation history with proper User/AI labels
-        StringBuilder promptBuilder = new StringBuilder();
+        StringBuilder promptBuilder = new StringBuilder(relatedCode);
         for (UserConversation uc : conversationHistory) {
             if (uc.author.equals("user")) {
                 promptBuilder.append("User: ");
@@ -362,11 +378,14 @@ public class GenerateDocumentationFactoryContent extends JPanel {
         return promptBuilder.toString();
     }
 
-    private String renderMarkdown(String markdown) {
-        MutableDataSet options = new MutableDataSet();
-        Parser parser = Parser.builder(options).build();
-        HtmlRenderer renderer = HtmlRenderer.builder(options).build();
-        return renderer.render(parser.parse(markdown));
+    // Looks up the related project code once per selection. Runs on the
+    // executor.
+    private String findRelatedCode(String code) {
+        if (!code.equals(relatedCodeSelection)) {
+            relatedCode = RelatedCodeIndex.getInstance(project).findRelatedCode(code);
+            relatedCodeSelection = code;
+        }
+        return relatedCode;
     }
 
     private void appendUserMessage(String text, boolean isNewChat) {
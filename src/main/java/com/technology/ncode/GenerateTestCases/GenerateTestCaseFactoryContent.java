@@ -23,6 +23,7 @@ import java.awt.event.KeyEvent;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -49,11 +50,11 @@ import javax.swing.text.StyleConstants;
 import javax.swing.text.StyledDocument;
 
 import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.technology.ncode.MarkdownRenderer;
 import com.technology.ncode.UsageMetricsReporter;
+import com.technology.ncode.vertexai.RelatedCodeIndex;
 import com.technology.ncode.vertexai.TestCaseCodeVertexAi;
-import com.vladsch.flexmark.html.HtmlRenderer;
-import com.vladsch.flexmark.parser.Parser;
-import com.vladsch.flexmark.util.data.MutableDataSet;
 
 public class GenerateTestCaseFactoryContent extends JPanel {
     private JTextPane chatOutputArea;
@@ -61,9 +62,16 @@ public class GenerateTestCaseFactoryContent extends JPanel {
     private JButton sendButton;
     private JLabel waitingMessageLabel;
     private String lastSelectedCode = "";
+    // Related project code found for relatedCodeSelection; only touched on
+    // the executor
+    private String relatedCodeSelection;
+    private String relatedCode = "";
     private static final String PLACEHOLDER_TEXT = "Ask NCode...";
     private List<UserConversation> conversationHistory = new ArrayList<>();
     private final Project project;
+    // One request at a time per window; the conversation history is not thread-safe
+    private final ExecutorService executorService =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("NCode Test Generation", 1);
 
     public GenerateTestCaseFactoryContent(Project project) {
         this.project = project;
@@ -250,7 +258,17 @@ public class GenerateTestCaseFactoryContent extends JPanel {
         return "Instruction: You are an intelligent assistant generating unit test cases. " +
                 "Ensure that all function calls to external dependencies or complex objects are properly mocked. " +
                 "Also, provide clear explanations where necessary.\n\n" +
-                context + conversation + "\n\nAI:";
+                context + findRelatedCode(lastSelectedCode) + conversation + "\n\nAI:";
+    }
+
+    // Looks up the related project code once per selection. Runs on the
+    // executor.
+    private String findRelatedCode(String code) {
+        if (!code.equals(relatedCodeSelection)) {
+            relatedCode = RelatedCodeIndex.getInstance(project).findRelatedCode(code);
+            relatedCodeSelection = code;
+        }
+        return relatedCode;
     }
 
     public void setSelectedCode(String code) {
@@ -268,11 +286,11 @@ public class GenerateTestCaseFactoryContent extends JPanel {
             // ✅ Store user message
             conversationHistory.add(new UserConversation("user", userPrompt));
 
-            new Thread(() -> {
+            executorService.execute(() -> {
                 String prompt = buildFullPrompt(userPrompt);
 
                 try {
-                    TestCaseCodeVertexAi vertexAi = new TestCaseCodeVertexAi();
+                    TestCaseCodeVertexAi vertexAi = new TestCaseCodeVertexAi(project.getLocationHash());
                     String testCase = vertexAi.generateContent(prompt);
 
                     // Report metrics for test case generation
@@ -287,7 +305,7 @@ public class GenerateTestCaseFactoryContent extends JPanel {
                     // ✅ Store AI response
                     conversationHistory.add(new UserConversation("assistant", testCase));
 
-                    String markdownResponse = renderMarkdown(testCase);
+                    String markdownResponse = MarkdownRenderer.render(testCase);
 
                     SwingUtilities.invokeLater(() -> {
                         removeWaitingMessage();
@@ -301,7 +319,7 @@ public class GenerateTestCaseFactoryContent extends JPanel {
                         enableInput();
                     });
                 }
-            }).start();
+            });
         } else {
             // If no code is selected, just inform and allow manual input
             enableInput();
@@ -322,11 +340,11 @@ public class GenerateTestCaseFactoryContent extends JPanel {
         // ✅ Store user message before sending
         conversationHistory.add(new UserConversation("user", userQuery));
 
-        new Thread(() -> {
+        executorService.execute(() -> {
             String prompt = buildFullPrompt(userQuery);
 
             try {
-                TestCaseCodeVertexAi vertexAi = new TestCaseCodeVertexAi();
+                TestCaseCodeVertexAi vertexAi = new TestCaseCodeVertexAi(project.getLocationHash());
                 String response = vertexAi.generateContent(prompt);
 
                 // Report metrics for test case generation
@@ -341,7 +359,7 @@ public class GenerateTestCaseFactoryContent extends JPanel {
                 // ✅ Store assistant response
                 conversationHistory.add(new UserConversation("assistant", response));
 
-                String markdownResponse = renderMarkdown(response);
+                String markdownResponse = MarkdownRenderer.render(response);
 
                 SwingUtilities.invokeLater(() -> {
                     removeWaitingMessage();
@@ -355,7 +373,7 @@ public class GenerateTestCaseFactoryContent extends JPanel {
                     enableInput();
                 });
             }
-        }).start();
+        });
     }
 
     public void clearChatHistory() {
@@ -636,11 +654,4 @@ public class GenerateTestCaseFactoryContent extends JPanel {
         inputField.setEnabled(true);
         sendButton.setEnabled(true);
     }
-
-    private String renderMarkdown(String markdown) {
-        MutableDataSet options = new MutableDataSet();
-        Parser parser = Parser.builder(options).build();
-        HtmlRenderer renderer = HtmlRenderer.builder(options).build();
-        return renderer.render(parser.parse(markdown));
-    }
 }
\ No newline at end of file
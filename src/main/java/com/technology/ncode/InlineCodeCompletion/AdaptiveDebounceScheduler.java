@@ -0,0 +1,200 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Debounce scheduler that adapts its delay to the user's typing cadence.
+ * It keeps a window of recent inter-keystroke intervals and fires once the
+ * current pause is longer than almost all of them, i.e. once the pause is
+ * probably real. When the model is slow, a higher quantile is used so fewer
+ * requests are wasted on pauses that turn out to be short.
+ * The delay always stays between the configured floor and ceiling.
+ */
+public class AdaptiveDebounceScheduler {
+    // Intervals longer than this are pauses, not part of the typing rhythm
+    private static final long MAX_TYPING_INTERVAL_MS = 2000;
+    private static final int INTERVAL_WINDOW = 256;
+    private static final int LATENCY_WINDOW = 64;
+    private static final int MIN_SAMPLES = 20;
+    private static final double PAUSE_QUANTILE = 0.90;
+    private static final double SLOW_MODEL_PAUSE_QUANTILE = 0.97;
+    private static final long SLOW_MODEL_LATENCY_MS = 1500;
+    private static final double SAFETY_FACTOR = 1.2;
+
+    private final ScheduledExecutorService executor;
+    private final long floorMs;
+    private final long ceilingMs;
+    private final LongSupplier clock;
+
+    private final long[] intervals = new long[INTERVAL_WINDOW];
+    private int intervalCount = 0;
+    private int intervalNext = 0;
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount = 0;
+    private int latencyNext = 0;
+    private long lastKeystrokeMs = -1;
+
+    // Time of the last fire that has not been judged yet, or -1
+    private long lastFireMs = -1;
+    private volatile long currentDelayMs;
+
+    private final AtomicLong fires = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong falseFires = new AtomicLong();
+
+    public AdaptiveDebounceScheduler(ScheduledExecutorService executor, long floorMs, long ceilingMs) {
+        this(executor, floorMs, ceilingMs, System::currentTimeMillis);
+    }
+
+    AdaptiveDebounceScheduler(ScheduledExecutorService executor, long floorMs, long ceilingMs, LongSupplier clock) {
+        this.executor = executor;
+        this.floorMs = floorMs;
+        this.ceilingMs = ceilingMs;
+        this.clock = clock;
+        this.currentDelayMs = ceilingMs;
+    }
+
+    /**
+     * Records a keystroke (document change). Updates the interval distribution
+     * and judges the previous fire: a keystroke arriving before a typical model
+     * response would have been shown means that fire was wasted.
+     */
+    public synchronized void recordKeystroke() {
+        long now = clock.getAsLong();
+        if (lastKeystrokeMs >= 0) {
+            long interval = now - lastKeystrokeMs;
+            if (interval <= MAX_TYPING_INTERVAL_MS) {
+                intervals[intervalNext] = interval;
+                intervalNext = (intervalNext + 1) % INTERVAL_WINDOW;
+                intervalCount = Math.min(intervalCount + 1, INTERVAL_WINDOW);
+            }
+        }
+        lastKeystrokeMs = now;
+
+        if (lastFireMs >= 0) {
+            if (now - lastFireMs < medianLatencyMs()) {
+                falseFires.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            lastFireMs = -1;
+        }
+    }
+
+    /**
+     * Records how long the model took to produce a visible suggestion.
+     */
+    public synchronized void recordModelLatency(long latencyMs) {
+        latencies[latencyNext] = latencyMs;
+        latencyNext = (latencyNext + 1) % LATENCY_WINDOW;
+        latencyCount = Math.min(latencyCount + 1, LATENCY_WINDOW);
+    }
+
+    /**
+     * Creates a debounce for one owner, typically one editor. Each debounce has
+     * its own pending task, while the typing and latency statistics are shared.
+     */
+    public Debounce newDebounce() {
+        return new Debounce();
+    }
+
+    /**
+     * Pending-task slot of a single owner.
+     */
+    public class Debounce {
+        private final AtomicReference<ScheduledFuture<?>> pendingTask = new AtomicReference<>();
+
+        private Debounce() {
+        }
+
+        /**
+         * Schedules the task after the adaptive delay, cancelling any task that
+         * is still pending for this owner.
+         */
+        public void schedule(Runnable task) {
+            long delay = computeDelayMs();
+            currentDelayMs = delay;
+
+            ScheduledFuture<?> oldTask = pendingTask.getAndSet(null);
+            if (oldTask != null && !oldTask.isDone()) {
+                oldTask.cancel(false);
+            }
+
+            pendingTask.set(executor.schedule(() -> {
+                recordFire();
+                task.run();
+            }, delay, TimeUnit.MILLISECONDS));
+        }
+
+        public void cancel() {
+            ScheduledFuture<?> task = pendingTask.getAndSet(null);
+            if (task != null) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    private synchronized void recordFire() {
+        lastFireMs = clock.getAsLong();
+        fires.incrementAndGet();
+    }
+
+    synchronized long computeDelayMs() {
+        if (intervalCount < MIN_SAMPLES) {
+            return ceilingMs;
+        }
+
+        double quantile = medianLatencyMs() > SLOW_MODEL_LATENCY_MS ? SLOW_MODEL_PAUSE_QUANTILE : PAUSE_QUANTILE;
+        long pause = (long) (quantile(intervals, intervalCount, quantile) * SAFETY_FACTOR);
+        return Math.max(floorMs, Math.min(ceilingMs, pause));
+    }
+
+    synchronized long medianLatencyMs() {
+        return latencyCount == 0 ? 0 : quantile(latencies, latencyCount, 0.5);
+    }
+
+    private static long quantile(long[] samples, int count, double q) {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(q * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    /**
+     * Returns the delay used for the most recent schedule.
+     */
+    public long getCurrentDelayMs() {
+        return currentDelayMs;
+    }
+
+    public long getFires() {
+        return fires.get();
+    }
+
+    public long getFalseFires() {
+        return falseFires.get();
+    }
+
+    /**
+     * Returns the share of judged fires that were real pauses, or 0 if none
+     * have been judged yet.
+     */
+    public double getHitRate() {
+        long judged = hits.get() + falseFires.get();
+        return judged == 0 ? 0.0 : (double) hits.get() / judged;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveDebounceScheduler{delayMs=" + currentDelayMs
+                + ", fires=" + fires.get()
+                + ", falseFires=" + falseFires.get()
+                + ", hitRate=" + String.format("%.2f", getHitRate()) + "}";
+    }
+}
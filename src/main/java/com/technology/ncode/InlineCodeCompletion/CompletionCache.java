@@ -0,0 +1,240 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded LRU cache of inline completions keyed by a hash of the normalized
+ * caret context, the file language and the model id.
+ * The cache is bounded by the total number of cached characters rather than
+ * the entry count, and also remembers positions where the model had nothing to
+ * suggest so those are not asked again.
+ */
+public class CompletionCache {
+    // Rough per-entry overhead (key, node, timestamps) counted against the budget
+    private static final int ENTRY_OVERHEAD_CHARS = 64;
+
+    private final int maxChars;
+    private final long ttlMs;
+    private final long negativeTtlMs;
+    private final LongSupplier clock;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private int usedChars = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * Result of a cache lookup.
+     */
+    public static final class Lookup {
+        static final Lookup MISS = new Lookup(false, null);
+
+        public final boolean hit;
+        // Cached suggestion, or null for a cached "no completion" outcome
+        public final String text;
+
+        private Lookup(boolean hit, String text) {
+            this.hit = hit;
+            this.text = text;
+        }
+    }
+
+    private static final class Entry {
+        final String text;
+        final long expiresAt;
+        final int weight;
+
+        Entry(String key, String text, long expiresAt) {
+            this.text = text;
+            this.expiresAt = expiresAt;
+            this.weight = key.length() + (text != null ? text.length() : 0) + ENTRY_OVERHEAD_CHARS;
+        }
+    }
+
+    public CompletionCache(int maxChars, long ttlMs, long negativeTtlMs) {
+        this(maxChars, ttlMs, negativeTtlMs, System::currentTimeMillis);
+    }
+
+    CompletionCache(int maxChars, long ttlMs, long negativeTtlMs, LongSupplier clock) {
+        this.maxChars = maxChars;
+        this.ttlMs = ttlMs;
+        this.negativeTtlMs = negativeTtlMs;
+        this.clock = clock;
+    }
+
+    /**
+     * Builds the cache key for a caret context.
+     *
+     * @param context  The prompt context around the caret
+     * @param language File type or language id
+     * @param modelId  Model that produced the completion
+     * @return A fixed-size key for the context
+     */
+    public static String key(String context, String language, String modelId) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(normalize(context).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(language).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(modelId).getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().withoutPadding().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is mandatory on every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Normalizes line endings and trailing whitespace so contexts that differ
+     * only in invisible characters share a key.
+     */
+    static String normalize(String context) {
+        if (context == null) {
+            return "";
+        }
+
+        StringBuilder sb = new StringBuilder(context.length());
+        int lineStart = 0;
+        int length = context.length();
+        while (lineStart <= length) {
+            int lineEnd = context.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = length;
+            }
+
+            int end = lineEnd;
+            while (end > lineStart && Character.isWhitespace(context.charAt(end - 1))) {
+                end--;
+            }
+            sb.append(context, lineStart, end);
+            if (lineEnd < length) {
+                sb.append('\n');
+            }
+            lineStart = lineEnd + 1;
+        }
+        return sb.toString();
+    }
+
+    public synchronized Lookup get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return Lookup.MISS;
+        }
+
+        if (entry.expiresAt <= clock.getAsLong()) {
+            remove(key, entry);
+            expirations.incrementAndGet();
+            misses.incrementAndGet();
+            return Lookup.MISS;
+        }
+
+        if (entry.text == null) {
+            negativeHits.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return new Lookup(true, entry.text);
+    }
+
+    /**
+     * Returns true if an unexpired entry exists for the key, without counting
+     * a hit or miss.
+     */
+    public synchronized boolean contains(String key) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.expiresAt > clock.getAsLong();
+    }
+
+    /**
+     * Stores a suggestion for the key.
+     *
+     * @param text The suggestion, or null/empty to remember that the position
+     *             had no completion
+     */
+    public synchronized void put(String key, String text) {
+        boolean negative = text == null || text.isEmpty();
+        Entry entry = new Entry(key, negative ? null : text,
+                clock.getAsLong() + (negative ? negativeTtlMs : ttlMs));
+        if (entry.weight > maxChars) {
+            return;
+        }
+
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            usedChars -= previous.weight;
+        }
+        usedChars += entry.weight;
+
+        // Evict least recently used entries until we are back under budget
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (usedChars > maxChars && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            usedChars -= eldest.getValue().weight;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        usedChars = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int usedChars() {
+        return usedChars;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CompletionCache{hits=" + hits.get()
+                + ", negativeHits=" + negativeHits.get()
+                + ", misses=" + misses.get()
+                + ", evictions=" + evictions.get()
+                + ", expirations=" + expirations.get()
+                + ", size=" + size()
+                + ", usedChars=" + usedChars() + "}";
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        usedChars -= entry.weight;
+    }
+}
@@ -0,0 +1,458 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiComment;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiNameIdentifierOwner;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.PsiWhiteSpace;
+import com.intellij.psi.util.PsiTreeUtil;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembles the prompt context for an inline completion within a token budget.
+ * The code around the caret is always included, preferably the whole enclosing
+ * declaration. The rest of the budget is filled in order of rank with the
+ * signatures of the outer declarations, the file's imports, the
+ * declarations of symbols referenced near the caret and, from the
+ * {@link ProjectSymbolIndex}, the signatures of names near the caret that are
+ * declared in other files.
+ * Only the generic PSI is used, so this works for every language with a
+ * parser; without PSI just the code around the caret is sent.
+ */
+public class CompletionContextBuilder {
+    private static final Logger LOG = Logger.getInstance(CompletionContextBuilder.class);
+
+    static final String CARET_MARKER = "{caret is here}";
+    static final int DEFAULT_TOKEN_BUDGET = 1024;
+
+    // Rough average for source code
+    private static final int CHARS_PER_TOKEN = 4;
+    // Share of the budget reserved for the code around the caret
+    private static final double WINDOW_SHARE = 0.6;
+    private static final int MAX_REFERENCES = 32;
+    // Resolving can be slow in large files; what is resolved by then is used
+    private static final long MAX_RESOLVE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    // Share of the budget for declarations from other files
+    private static final double PROJECT_SYMBOL_SHARE = 0.15;
+    private static final int MAX_PROJECT_SYMBOL_NAMES = 24;
+    private static final int MIN_PROJECT_SYMBOL_LENGTH = 3;
+    private static final int MAX_DECLARATION_LINE_CHARS = 200;
+    // Longer lines (minified or generated code) are clipped
+    private static final int MAX_LINE_CHARS = 400;
+    private static final String[] IMPORT_PREFIXES = {
+            "package ", "import ", "from ", "#include", "using ", "require", "use " };
+
+    private static final int RANK_SIGNATURE = 0;
+    private static final int RANK_IMPORTS = 1;
+    private static final int RANK_REFERENCE = 2;
+    private static final int RANK_PROJECT_SYMBOL = 3;
+
+    private final int budgetChars;
+
+    // A ranked part of the context outside the caret window
+    private static class Piece {
+        final int rank;
+        final int weight;
+        final int offset;
+        final String text;
+
+        Piece(int rank, int weight, int offset, String text) {
+            this.rank = rank;
+            this.weight = weight;
+            this.offset = offset;
+            this.text = text;
+        }
+    }
+
+    public CompletionContextBuilder(int tokenBudget) {
+        this.budgetChars = Math.max(1, tokenBudget) * CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Builds the context for the caret. The prompt is assembled in
+     * {@code buffer}, which callers reuse between requests, and copied out
+     * once at the end. Needs read access; checks for cancellation while
+     * resolving references, so it can run in a non-blocking read action.
+     *
+     * @param text        Document text, possibly with a pending insertion the
+     *                    PSI doesn't contain yet
+     * @param caretOffset Caret offset in the text
+     * @param file        Committed PSI of the document, or null if not available
+     * @param buffer      Scratch buffer; its contents are replaced
+     * @return The prompt context with the caret marker
+     */
+    public String build(ContextText text, int caretOffset, @Nullable PsiFile file, StringBuilder buffer) {
+        buffer.setLength(0);
+        int length = text.length();
+        if (length == 0) {
+            return "";
+        }
+        caretOffset = Math.max(0, Math.min(length, caretOffset));
+
+        int windowBudget = (int) (budgetChars * WINDOW_SHARE);
+        int insertOffset = text.insertOffset();
+        PsiElement enclosing = null;
+        if (file != null && insertOffset <= file.getTextLength()) {
+            enclosing = findEnclosingDeclaration(file, insertOffset);
+        }
+
+        // Prefer the whole enclosing declaration if it fits
+        int start;
+        int end;
+        TextRange enclosingRange = enclosing != null ? shiftRange(text, enclosing.getTextRange()) : null;
+        if (enclosingRange != null && enclosingRange.getLength() <= windowBudget) {
+            start = text.lineStart(enclosingRange.getStartOffset());
+            end = text.lineEnd(enclosingRange.getEndOffset());
+        } else {
+            start = text.lineStart(caretOffset);
+            end = text.lineEnd(caretOffset);
+        }
+        int windowChars = CARET_MARKER.length() + windowLength(text, start, end);
+
+        // Grow the window a line at a time, alternating up and down
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            if (start > 0) {
+                int newStart = text.lineStart(start - 1);
+                int cost = clippedLength(newStart, start - 1) + 1;
+                if (windowChars + cost <= windowBudget) {
+                    start = newStart;
+                    windowChars += cost;
+                    grown = true;
+                }
+            }
+            if (end < length) {
+                int newEnd = text.lineEnd(end + 1);
+                int cost = clippedLength(end + 1, newEnd) + 1;
+                if (windowChars + cost <= windowBudget) {
+                    end = newEnd;
+                    windowChars += cost;
+                    grown = true;
+                }
+            }
+        }
+
+        List<Piece> selected = file != null
+                ? selectPieces(text, file, enclosing, start, end, caretOffset, budgetChars - windowChars)
+                : List.of();
+
+        if (!selected.isEmpty()) {
+            appendSection(buffer, "imports", selected, RANK_IMPORTS);
+            appendSection(buffer, "enclosing_declarations", selected, RANK_SIGNATURE);
+            appendSection(buffer, "referenced_declarations", selected, RANK_REFERENCE);
+            appendSection(buffer, "project_declarations", selected, RANK_PROJECT_SYMBOL);
+            buffer.append("<code>\n");
+        }
+        appendWindow(buffer, text, start, end, caretOffset);
+        if (!selected.isEmpty()) {
+            buffer.append("</code>\n");
+        }
+        return buffer.toString();
+    }
+
+    private List<Piece> selectPieces(ContextText text, PsiFile file, @Nullable PsiElement enclosing,
+            int start, int end, int caretOffset, int remaining) {
+        List<Piece> pieces = new ArrayList<>();
+        try {
+            collectSignatures(text, enclosing, start, end, pieces);
+            collectImports(text, file, start, pieces);
+            collectReferences(text, file, start, end, caretOffset, pieces);
+            collectProjectSymbols(text, file, start, end, caretOffset, pieces);
+        } catch (ProcessCanceledException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // The context is best effort; fall back to the window alone
+            LOG.warn("Could not collect PSI context", e);
+            return List.of();
+        }
+
+        // Fill the remaining budget by rank
+        pieces.sort(Comparator.comparingInt((Piece p) -> p.rank).thenComparingInt(p -> -p.weight));
+        List<Piece> selected = new ArrayList<>();
+        for (Piece piece : pieces) {
+            if (piece.text.length() + 1 <= remaining) {
+                selected.add(piece);
+                remaining -= piece.text.length() + 1;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Appends the lines from {@code start} to {@code end} with the caret
+     * marker. Lines longer than the cap are clipped; the caret line keeps the
+     * part around the caret.
+     */
+    private static void appendWindow(StringBuilder buffer, ContextText text, int start, int end, int caretOffset) {
+        int lineStart = start;
+        while (true) {
+            int lineEnd = text.lineEnd(lineStart);
+            boolean caretLine = caretOffset >= lineStart && caretOffset <= lineEnd;
+
+            int from = lineStart;
+            if (lineEnd - lineStart > MAX_LINE_CHARS && caretLine) {
+                from = Math.max(lineStart, Math.min(caretOffset - MAX_LINE_CHARS * 2 / 3, lineEnd - MAX_LINE_CHARS));
+            }
+            int to = Math.min(lineEnd, from + MAX_LINE_CHARS);
+
+            if (caretLine) {
+                text.appendTo(buffer, from, caretOffset);
+                buffer.append(CARET_MARKER);
+                text.appendTo(buffer, caretOffset, to);
+            } else {
+                text.appendTo(buffer, from, to);
+            }
+            buffer.append('\n');
+
+            if (lineEnd >= end) {
+                return;
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private static int windowLength(ContextText text, int start, int end) {
+        int total = 0;
+        int lineStart = start;
+        while (true) {
+            int lineEnd = text.lineEnd(lineStart);
+            total += clippedLength(lineStart, lineEnd) + 1;
+            if (lineEnd >= end) {
+                return total;
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private static int clippedLength(int lineStart, int lineEnd) {
+        return Math.min(lineEnd - lineStart, MAX_LINE_CHARS);
+    }
+
+    private static void appendSection(StringBuilder context, String name, List<Piece> selected, int rank) {
+        List<Piece> section = new ArrayList<>();
+        for (Piece piece : selected) {
+            if (piece.rank == rank) {
+                section.add(piece);
+            }
+        }
+        if (section.isEmpty()) {
+            return;
+        }
+
+        // Keep source order within a section
+        section.sort(Comparator.comparingInt(p -> p.offset));
+        context.append('<').append(name).append(">\n");
+        for (Piece piece : section) {
+            context.append(piece.text).append('\n');
+        }
+        context.append("</").append(name).append(">\n");
+    }
+
+    /**
+     * Returns the innermost named declaration around the offset, such as the
+     * enclosing method or function.
+     */
+    private static @Nullable PsiElement findEnclosingDeclaration(PsiFile file, int offset) {
+        PsiElement element = file.findElementAt(Math.max(0, Math.min(offset, file.getTextLength() - 1)));
+        return PsiTreeUtil.getParentOfType(element, PsiNameIdentifierOwner.class, false);
+    }
+
+    private static void collectSignatures(ContextText text, @Nullable PsiElement enclosing, int start, int end,
+            List<Piece> pieces) {
+        int depth = 0;
+        for (PsiElement element = enclosing; element != null && !(element instanceof PsiFile);
+                element = element.getParent()) {
+            if (!(element instanceof PsiNameIdentifierOwner)) {
+                continue;
+            }
+
+            // The header of a declaration is the line with its name
+            PsiElement nameIdentifier = ((PsiNameIdentifierOwner) element).getNameIdentifier();
+            int nameOffset = shift(text, nameIdentifier != null
+                    ? nameIdentifier.getTextOffset()
+                    : element.getTextOffset());
+            if (nameOffset >= start && nameOffset <= end) {
+                continue;
+            }
+
+            // Inner declarations rank before outer ones
+            pieces.add(new Piece(RANK_SIGNATURE, -depth++, nameOffset, lineText(text, nameOffset)));
+        }
+    }
+
+    private void collectImports(ContextText text, PsiFile file, int windowStart, List<Piece> pieces) {
+        for (PsiElement child = file.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof PsiWhiteSpace || child instanceof PsiComment) {
+                continue;
+            }
+
+            TextRange range = shiftRange(text, child.getTextRange());
+            if (range.getEndOffset() > windowStart || range.getLength() > budgetChars
+                    || !startsWithImport(text, range.getStartOffset())) {
+                continue;
+            }
+
+            String imports = text.subSequence(range.getStartOffset(), range.getEndOffset()).toString().strip();
+            pieces.add(new Piece(RANK_IMPORTS, 0, range.getStartOffset(), imports));
+        }
+    }
+
+    private static boolean startsWithImport(CharSequence text, int offset) {
+        for (String prefix : IMPORT_PREFIXES) {
+            if (regionMatches(text, offset, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionMatches(CharSequence text, int offset, String prefix) {
+        if (offset + prefix.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(offset + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the declaration lines of symbols that are referenced in the window
+     * and declared elsewhere in the same file, ranked by reference count.
+     * Stops after a fixed number of resolves or a short time, whichever comes
+     * first.
+     */
+    private static void collectReferences(ContextText text, PsiFile file, int start, int end, int caretOffset,
+            List<Piece> pieces) {
+        if (DumbService.isDumb(file.getProject())) {
+            return;
+        }
+
+        // The inserted text has no PSI, so only the part of the window before it is scanned
+        int insertOffset = text.insertOffset();
+        int insertedLength = text.insertedLength();
+        int psiStart = Math.min(start, insertOffset);
+        int psiEnd = end <= insertOffset ? end : Math.max(insertOffset, end - insertedLength);
+        psiEnd = Math.min(psiEnd, file.getTextLength());
+
+        Map<Integer, int[]> counts = new LinkedHashMap<>();
+        int resolved = 0;
+        long deadline = System.nanoTime() + MAX_RESOLVE_NANOS;
+        PsiElement leaf = file.findElementAt(psiStart);
+        while (leaf != null && leaf.getTextRange().getStartOffset() < psiEnd && resolved < MAX_REFERENCES
+                && System.nanoTime() - deadline < 0) {
+            ProgressManager.checkCanceled();
+            if (!(leaf instanceof PsiWhiteSpace) && !(leaf instanceof PsiComment)) {
+                PsiReference reference = file.findReferenceAt(leaf.getTextRange().getStartOffset());
+                if (reference != null) {
+                    resolved++;
+                    PsiElement target = reference.resolve();
+                    if (target != null && target.getContainingFile() == file) {
+                        int declarationOffset = shift(text, target.getTextOffset());
+                        if (declarationOffset < start || declarationOffset > end) {
+                            counts.computeIfAbsent(declarationOffset, k -> new int[1])[0]++;
+                        }
+                    }
+                }
+            }
+            leaf = PsiTreeUtil.nextLeaf(leaf);
+        }
+
+        for (Map.Entry<Integer, int[]> entry : counts.entrySet()) {
+            int offset = entry.getKey();
+            // More references first, then closer to the caret
+            int weight = entry.getValue()[0] * 1_000_000 - Math.min(999_999, Math.abs(caretOffset - offset));
+            pieces.add(new Piece(RANK_REFERENCE, weight, offset, lineText(text, offset)));
+        }
+    }
+
+    /**
+     * Adds the signatures of names in the window that are declared in other
+     * files of the project, nearest to the caret first, within a small share
+     * of the budget. Names are matched by text, so this needs neither
+     * resolving nor smart mode: one index lookup per request.
+     */
+    private void collectProjectSymbols(ContextText text, PsiFile file, int start, int end, int caretOffset,
+            List<Piece> pieces) {
+        VirtualFile virtualFile = file.getVirtualFile();
+        if (virtualFile == null) {
+            return;
+        }
+        List<String> names = identifiersByDistance(text, start, end, caretOffset);
+        Map<String, List<String>> declarations = ProjectSymbolIndex.getInstance(file.getProject())
+                .lookup(names, virtualFile);
+
+        int remaining = (int) (budgetChars * PROJECT_SYMBOL_SHARE);
+        Set<String> added = new HashSet<>();
+        int order = 0;
+        for (String name : names) {
+            for (String signature : declarations.getOrDefault(name, List.of())) {
+                if (signature.length() + 1 <= remaining && added.add(signature)) {
+                    pieces.add(new Piece(RANK_PROJECT_SYMBOL, -order, order, signature));
+                    remaining -= signature.length() + 1;
+                    order++;
+                }
+            }
+        }
+    }
+
+    // Distinct identifiers of the window, nearest to the caret first
+    private static List<String> identifiersByDistance(ContextText text, int start, int end, int caretOffset) {
+        Map<String, Integer> distances = new LinkedHashMap<>();
+        int i = start;
+        while (i < end) {
+            if (!Character.isJavaIdentifierStart(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int identifierEnd = i + 1;
+            while (identifierEnd < end && Character.isJavaIdentifierPart(text.charAt(identifierEnd))) {
+                identifierEnd++;
+            }
+            // The identifier being typed at the caret isn't complete yet
+            if (identifierEnd - i >= MIN_PROJECT_SYMBOL_LENGTH && identifierEnd != caretOffset) {
+                int distance = caretOffset < i ? i - caretOffset : Math.max(0, caretOffset - identifierEnd);
+                distances.merge(text.subSequence(i, identifierEnd).toString(), distance, Math::min);
+            }
+            i = identifierEnd;
+        }
+
+        List<String> names = new ArrayList<>(distances.keySet());
+        names.sort(Comparator.comparingInt(distances::get));
+        return names.size() > MAX_PROJECT_SYMBOL_NAMES ? names.subList(0, MAX_PROJECT_SYMBOL_NAMES) : names;
+    }
+
+    private static String lineText(ContextText text, int offset) {
+        int lineStart = text.lineStart(offset);
+        int lineEnd = Math.min(text.lineEnd(offset), lineStart + MAX_DECLARATION_LINE_CHARS);
+        return text.subSequence(lineStart, lineEnd).toString().strip();
+    }
+
+    private static int shift(ContextText text, int psiOffset) {
+        return psiOffset < text.insertOffset() ? psiOffset : psiOffset + text.insertedLength();
+    }
+
+    private static TextRange shiftRange(ContextText text, TextRange range) {
+        return new TextRange(shift(text, range.getStartOffset()), shift(text, range.getEndOffset()));
+    }
+}
@@ -0,0 +1,153 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Where the time goes between a keystroke and visible ghost text.
+ * Each completion request carries a {@link Trace} that is stamped as it passes
+ * through debounce, context building, the model call, the EDT and rendering;
+ * every phase is aggregated into its own {@link LatencyHistogram}.
+ */
+public class CompletionLatency {
+
+    /**
+     * Points in the life of a completion request.
+     */
+    enum Event {
+        KEYSTROKE,
+        DEBOUNCE_FIRED,
+        CONTEXT_STARTED,
+        CONTEXT_BUILT,
+        REQUEST_SENT,
+        FIRST_BYTE,
+        RESPONSE_COMPLETE,
+        DISPATCHED,
+        EDT_STARTED,
+        RENDERED
+    }
+
+    /**
+     * Measured intervals, each between two events of the same request.
+     */
+    public enum Phase {
+        DEBOUNCE("debounce", Event.KEYSTROKE, Event.DEBOUNCE_FIRED),
+        CONTEXT_BUILD("contextBuild", Event.CONTEXT_STARTED, Event.CONTEXT_BUILT),
+        REQUEST_SEND("requestSend", Event.CONTEXT_BUILT, Event.REQUEST_SENT),
+        FIRST_BYTE("firstByte", Event.REQUEST_SENT, Event.FIRST_BYTE),
+        RESPONSE_COMPLETE("responseComplete", Event.REQUEST_SENT, Event.RESPONSE_COMPLETE),
+        EDT_DISPATCH("edtDispatch", Event.DISPATCHED, Event.EDT_STARTED),
+        RENDER("render", Event.EDT_STARTED, Event.RENDERED),
+        TOTAL("total", Event.KEYSTROKE, Event.RENDERED);
+
+        final String metricName;
+        final Event from;
+        final Event to;
+
+        Phase(String metricName, Event from, Event to) {
+            this.metricName = metricName;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final Map<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+
+    public CompletionLatency() {
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Starts a trace for a request triggered by the keystroke at the given
+     * {@link System#nanoTime()}.
+     */
+    Trace newTrace(long keystrokeNanos) {
+        Trace trace = new Trace();
+        trace.times.set(Event.KEYSTROKE.ordinal(), keystrokeNanos);
+        return trace;
+    }
+
+    public LatencyHistogram getHistogram(Phase phase) {
+        return histograms.get(phase);
+    }
+
+    /**
+     * Returns p50 and p99 of every phase in milliseconds, keyed for the usage
+     * metrics payload, e.g. {@code latencyFirstByteP99Ms}.
+     */
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram histogram = histograms.get(phase);
+            String name = "latency" + Character.toUpperCase(phase.metricName.charAt(0))
+                    + phase.metricName.substring(1);
+            metrics.put(name + "P50Ms", toMillis(histogram.getPercentile(0.50)));
+            metrics.put(name + "P99Ms", toMillis(histogram.getPercentile(0.99)));
+        }
+        return metrics;
+    }
+
+    /**
+     * Formats the per-phase breakdown as a fixed-width table, in milliseconds.
+     */
+    public String formatReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-18s %8s %9s %9s %9s %9s%n", "phase", "count", "p50", "p90", "p99", "max"));
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram histogram = histograms.get(phase);
+            sb.append(String.format("%-18s %8d %9.1f %9.1f %9.1f %9.1f%n",
+                    phase.metricName,
+                    histogram.getCount(),
+                    toMillis(histogram.getPercentile(0.50)),
+                    toMillis(histogram.getPercentile(0.90)),
+                    toMillis(histogram.getPercentile(0.99)),
+                    toMillis(histogram.getMax())));
+        }
+        return sb.toString();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    private static double toMillis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private void record(Phase phase, long nanos) {
+        histograms.get(phase).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Timestamps of one request. Only the first occurrence of an event counts,
+     * so a streamed suggestion is measured up to its first visible line. Events
+     * may be marked from any thread.
+     */
+    class Trace {
+        // 0 means not reached yet
+        private final AtomicLongArray times = new AtomicLongArray(Event.values().length);
+
+        void mark(Event event) {
+            long now = System.nanoTime();
+            if (!times.compareAndSet(event.ordinal(), 0, now)) {
+                return;
+            }
+
+            for (Phase phase : Phase.values()) {
+                if (phase.to == event) {
+                    long from = times.get(phase.from.ordinal());
+                    if (from != 0) {
+                        record(phase, now - from);
+                    }
+                }
+            }
+        }
+    }
+}
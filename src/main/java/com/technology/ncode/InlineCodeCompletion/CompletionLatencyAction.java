@@ -0,0 +1,36 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import com.intellij.codeInsight.editorActions.TypedHandlerDelegate;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.ui.Messages;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Internal diagnostics action that shows where inline completion time goes,
+ * phase by phase, since the IDE was started or the statistics were reset.
+ */
+public class CompletionLatencyAction extends AnAction implements DumbAware {
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        NCodeInlineCompletionProvider provider = TypedHandlerDelegate.EP_NAME
+                .findExtension(NCodeInlineCompletionProvider.class);
+        if (provider == null) {
+            Messages.showWarningDialog(e.getProject(), "Inline completion is not running.",
+                    "NCode Completion Latency");
+            return;
+        }
+
+        CompletionLatency latency = provider.getLatency();
+        int choice = Messages.showDialog(e.getProject(),
+                "<html><pre>" + latency.formatReport() + "</pre>Times in milliseconds.</html>",
+                "NCode Completion Latency",
+                new String[] { "Close", "Reset" }, 0, Messages.getInformationIcon());
+        if (choice == 1) {
+            latency.reset();
+        }
+    }
+}
@@ -0,0 +1,1302 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.actionSystem.*;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.Inlay;
+import com.intellij.openapi.editor.event.CaretEvent;
+import com.intellij.openapi.editor.event.CaretListener;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.technology.ncode.InlineCodeCompletion.CompletionLatency.Event;
+import com.technology.ncode.UsageMetricsReporter;
+import com.technology.ncode.config.EnvironmentConfig;
+import com.technology.ncode.vertexai.AdmissionController;
+import com.technology.ncode.vertexai.AdmissionRejectedException;
+import com.technology.ncode.vertexai.CircuitBreaker;
+import com.technology.ncode.vertexai.InlineVertexAi;
+import com.technology.ncode.vertexai.VertexAiClientPool;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.KeyStroke;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Inline completion state of a single editor.
+ * Each session owns its debounce, in-flight request and displayed suggestion,
+ * so split panes and editors of different projects don't interfere with each
+ * other. The session is stored in the editor's user data and disposed together
+ * with the editor, which also removes its listeners.
+ */
+public class CompletionSession implements Disposable {
+    private static final Logger LOG = Logger.getInstance(CompletionSession.class);
+    private static final Key<CompletionSession> SESSION_KEY = Key.create("ncode.completion.session");
+
+    // Configuration constants
+    // Ask for several alternatives in one unary call instead of streaming one
+    private static final boolean CANDIDATES_ENABLED = Boolean.parseBoolean(EnvironmentConfig.COMPLETION_CANDIDATES);
+    // A pause this long at a suppressed position counts as waiting for a suggestion
+    private static final long SUPPRESSED_PAUSE_MS = 1000;
+    private static final KeyStroke NEXT_CANDIDATE_KEY = KeyStroke.getKeyStroke(KeyEvent.VK_CLOSE_BRACKET,
+            InputEvent.ALT_DOWN_MASK);
+    private static final KeyStroke PREVIOUS_CANDIDATE_KEY = KeyStroke.getKeyStroke(KeyEvent.VK_OPEN_BRACKET,
+            InputEvent.ALT_DOWN_MASK);
+    private static final KeyStroke ACCEPT_WORD_KEY = KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT,
+            InputEvent.CTRL_DOWN_MASK);
+    private static final KeyStroke ACCEPT_LINE_KEY = KeyStroke.getKeyStroke(KeyEvent.VK_DOWN,
+            InputEvent.CTRL_DOWN_MASK);
+    // Keys that act on the shown suggestion instead of dismissing it
+    private static final Set<KeyStroke> SUGGESTION_KEYS = Set.of(NEXT_CANDIDATE_KEY, PREVIOUS_CANDIDATE_KEY,
+            ACCEPT_WORD_KEY, ACCEPT_LINE_KEY);
+
+    private final Editor editor;
+    private final NCodeInlineCompletionProvider provider;
+    private final AdaptiveDebounceScheduler.Debounce debounce;
+
+    // Completion state
+    private CompletionState completionState;
+
+    // Key listener to handle all key presses while a suggestion is shown
+    private KeyListener activeKeyListener;
+
+    // Flag to track if metrics have been reported for the current suggestion
+    private final AtomicBoolean metricsReported = new AtomicBoolean(false);
+
+    // Streaming request feeding the current suggestion, if any
+    private volatile StreamingCompletion activeStream;
+
+    // Request generation; bumped on every document change or caret move
+    private final AtomicLong requestGeneration = new AtomicLong();
+
+    // Unary request that has not completed yet, if any
+    private final AtomicReference<Future<?>> inFlightRequest = new AtomicReference<>();
+
+    // Reused for assembling prompts; only touched on the EDT
+    private final StringBuilder contextBuffer = new StringBuilder(8192);
+    // Reused for the prompts processCompletion builds off the EDT
+    private final StringBuilder requestContextBuffer = new StringBuilder(8192);
+
+    // Request for what would follow the shown suggestion once accepted, if any
+    private volatile Speculation speculation;
+
+    // System.nanoTime() of the last user keystroke, where latency traces start
+    private volatile long lastKeystrokeNanos;
+
+    // Set while the session edits the document or moves the caret itself
+    // (accepting or typing through a suggestion), so the listeners don't
+    // mistake that for user activity
+    private boolean internalEdit = false;
+
+    // We're using static inner classes to improve memory efficiency
+    static class CompletionState {
+        final String text;
+        final int offset;
+        final List<Inlay<?>> inlays;
+        final AnAction tabAction;
+        // Alternatives from the same response; text is candidates[candidateIndex]
+        final List<String> candidates;
+        final int candidateIndex;
+        // Candidate cycling and partial acceptance, registered while shown
+        final List<AnAction> shortcutActions;
+        // Position whose request produced the suggestion, or null if no
+        // trigger decision led to it; the suggestion's fate trains the
+        // trigger classifier
+        final TriggerContext trigger;
+
+        CompletionState(List<String> candidates, int candidateIndex, int offset, List<Inlay<?>> inlays,
+                AnAction tabAction, List<AnAction> shortcutActions, TriggerContext trigger) {
+            this.text = candidates.get(candidateIndex);
+            this.offset = offset;
+            this.inlays = inlays;
+            this.tabAction = tabAction;
+            this.candidates = candidates;
+            this.candidateIndex = candidateIndex;
+            this.shortcutActions = shortcutActions;
+            this.trigger = trigger;
+        }
+
+        /**
+         * Returns the state with the shown candidate replaced by the text,
+         * keeping the other candidates and the registered actions so cleanup
+         * still unregisters them.
+         */
+        CompletionState withText(String newText, List<Inlay<?>> newInlays) {
+            List<String> newCandidates = new ArrayList<>(candidates);
+            newCandidates.set(candidateIndex, newText);
+            return new CompletionState(newCandidates, candidateIndex, offset, newInlays, tabAction,
+                    shortcutActions, trigger);
+        }
+
+        void cleanup(Editor editor) {
+            disposeInlays(inlays);
+
+            if (tabAction != null) {
+                tabAction.unregisterCustomShortcutSet(editor.getContentComponent());
+            }
+            for (AnAction shortcutAction : shortcutActions) {
+                shortcutAction.unregisterCustomShortcutSet(editor.getContentComponent());
+            }
+        }
+    }
+
+    // Tracks how much of a streamed completion has been received and shown
+    private static class StreamingCompletion {
+        final TriggerContext trigger;
+        final StringBuilder received = new StringBuilder();
+        int shownLength = 0;
+        volatile boolean cancelled = false;
+        volatile boolean finished = false;
+        // Reads the stream; interrupting it cancels the request on the server
+        volatile Future<?> task;
+
+        StreamingCompletion(TriggerContext trigger) {
+            this.trigger = trigger;
+        }
+    }
+
+    // Speculative request for the continuation of the shown suggestion
+    private static class Speculation {
+        final String cacheKey;
+        volatile Future<?> future;
+        // Set once the suggestion was accepted and the result should be shown on arrival
+        volatile boolean awaited = false;
+        volatile long awaitedGeneration;
+
+        Speculation(String cacheKey) {
+            this.cacheKey = cacheKey;
+        }
+    }
+
+    private CompletionSession(Editor editor, NCodeInlineCompletionProvider provider) {
+        this.editor = editor;
+        this.provider = provider;
+        this.debounce = provider.getDebounceScheduler().newDebounce();
+    }
+
+    /**
+     * Returns the session of the editor, creating and installing it on first use.
+     */
+    static CompletionSession getOrCreate(Editor editor, NCodeInlineCompletionProvider provider) {
+        CompletionSession session = editor.getUserData(SESSION_KEY);
+        if (session == null && !editor.isDisposed()) {
+            session = new CompletionSession(editor, provider);
+            editor.putUserData(SESSION_KEY, session);
+            Disposer.register(provider, session);
+            session.installListeners();
+        }
+        return session;
+    }
+
+    static CompletionSession get(Editor editor) {
+        return editor.getUserData(SESSION_KEY);
+    }
+
+    /**
+     * Disposes the session of an editor that is being released.
+     */
+    static void release(Editor editor) {
+        CompletionSession session = editor.getUserData(SESSION_KEY);
+        if (session != null) {
+            Disposer.dispose(session);
+        }
+    }
+
+    private void installListeners() {
+        // Listeners are removed automatically when the session is disposed
+        editor.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void documentChanged(@NotNull DocumentEvent event) {
+                if (internalEdit) {
+                    return;
+                }
+
+                // Requests still in flight were made for a context that no longer exists
+                invalidateRequests();
+
+                // The document is shared by every editor showing the file; only
+                // the editor the user is typing in treats the change as a
+                // keystroke, the others just drop what they had pending
+                if (!isOwnChange()) {
+                    debounce.cancel();
+                    if (completionState != null) {
+                        cleanupCurrentCompletion(false);
+                    }
+                    return;
+                }
+                lastKeystrokeNanos = System.nanoTime();
+
+                // Feed the typing cadence into the adaptive debounce
+                provider.getDebounceScheduler().recordKeystroke();
+
+                // If there's an active completion, any document change should cancel it
+                if (completionState != null) {
+                    cleanupCurrentCompletion(false);
+                }
+
+                Project project = editor.getProject();
+                if (project == null || project.isDisposed()) {
+                    return;
+                }
+
+                // Skip positions where a suggestion is rarely wanted
+                TriggerContext trigger = TriggerContext.of(editor, event);
+                if (provider.shouldTrigger(trigger)) {
+                    debounce.schedule(() -> processCompletion(project, trigger));
+                } else {
+                    debounce.cancel();
+                    watchSuppressedPosition();
+                }
+            }
+        }, this);
+
+        // Moving the caret also makes in-flight requests stale
+        editor.getCaretModel().addCaretListener(new CaretListener() {
+            @Override
+            public void caretPositionChanged(@NotNull CaretEvent event) {
+                if (!internalEdit) {
+                    invalidateRequests();
+                }
+            }
+        }, this);
+    }
+
+    /**
+     * Returns whether a change of the shared document was made in this
+     * editor, which holds the focus while the user types in it.
+     */
+    private boolean isOwnChange() {
+        return editor.getContentComponent().hasFocus();
+    }
+
+    /**
+     * Handles a character about to be typed. Returns true if the character was
+     * consumed by typing through the current suggestion.
+     */
+    boolean beforeCharTyped(char c) {
+        CompletionState state = completionState;
+        if (state == null) {
+            return false;
+        }
+
+        // Typing the next character of the suggestion keeps the rest of it alive
+        if (editor.getCaretModel().getOffset() == state.offset
+                && !state.text.isEmpty() && state.text.charAt(0) == c) {
+            commitPrefix(state, String.valueOf(c));
+            return true;
+        }
+
+        // The typed text diverged: drop the suggestion and let the document
+        // listener schedule a fresh request for the new text
+        cleanupCurrentCompletion(false);
+        return false;
+    }
+
+    void charTyped() {
+        // If there's an active completion, any character typed should cancel it
+        if (completionState != null) {
+            cleanupCurrentCompletion(false);
+        }
+    }
+
+    /**
+     * Accepts the start of the suggestion, either typed through or accepted
+     * word by word or line by line: the prefix is inserted as an internal edit
+     * and the rest stays on display. Must run inside a write action.
+     * Alternatives that don't start with the prefix are dropped.
+     */
+    private void commitPrefix(CompletionState state, String prefix) {
+        int newOffset = state.offset + prefix.length();
+        runInternalEdit(() -> {
+            editor.getDocument().insertString(state.offset, prefix);
+            editor.getCaretModel().moveToOffset(newOffset);
+        });
+        disposeInlays(state.inlays);
+
+        String remainder = state.text.substring(prefix.length());
+        if (remainder.isEmpty()) {
+            // The whole suggestion was taken piece by piece, which counts as accepting it
+            completionState = new CompletionState(List.of(remainder), 0, newOffset, List.of(),
+                    state.tabAction, state.shortcutActions, state.trigger);
+            cleanupCurrentCompletion(true);
+            continueAfterAccept();
+            return;
+        }
+
+        List<String> candidates = new ArrayList<>(state.candidates.size());
+        int candidateIndex = 0;
+        for (int i = 0; i < state.candidates.size(); i++) {
+            String candidate = state.candidates.get(i);
+            if (i == state.candidateIndex) {
+                candidateIndex = candidates.size();
+                candidates.add(remainder);
+            } else if (candidate.length() > prefix.length() && candidate.startsWith(prefix)) {
+                candidates.add(candidate.substring(prefix.length()));
+            }
+        }
+
+        completionState = new CompletionState(candidates, candidateIndex, newOffset,
+                renderGhostText(newOffset, remainder), state.tabAction, state.shortcutActions, state.trigger);
+    }
+
+    /**
+     * Accepts the next word or line of the suggestion and keeps the rest on
+     * display, without a new request.
+     */
+    private void acceptPartially(boolean wholeLine) {
+        CompletionState state = completionState;
+        Project project = editor.getProject();
+        if (state == null || state.text.isEmpty() || project == null || project.isDisposed()) {
+            return;
+        }
+
+        int length = wholeLine ? nextLineLength(state.text) : nextWordLength(state.text);
+        provider.countPartialAccept();
+        WriteCommandAction.runWriteCommandAction(project, () -> {
+            try {
+                commitPrefix(state, state.text.substring(0, length));
+            } catch (Exception e) {
+                LOG.error("Error accepting part of the completion", e);
+                cleanupCurrentCompletion(false);
+            }
+        });
+    }
+
+    /**
+     * Returns the length of the suggestion's first word: leading blanks and an
+     * identifier, or a single other character. A line break together with the
+     * indentation after it counts as one word.
+     */
+    static int nextWordLength(String text) {
+        int length = text.length();
+        int i = 0;
+        if (text.charAt(0) == '\n') {
+            i = 1;
+            while (i < length && isBlank(text.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+
+        while (i < length && isBlank(text.charAt(i))) {
+            i++;
+        }
+        if (i < length && Character.isJavaIdentifierPart(text.charAt(i))) {
+            while (i < length && Character.isJavaIdentifierPart(text.charAt(i))) {
+                i++;
+            }
+        } else if (i < length && text.charAt(i) != '\n') {
+            i++;
+        }
+        return Math.max(i, 1);
+    }
+
+    /**
+     * Returns the length of the suggestion up to and including the end of its
+     * first line. A suggestion that starts with a line break takes the next
+     * line along with it.
+     */
+    static int nextLineLength(String text) {
+        int newline = text.indexOf('\n', text.charAt(0) == '\n' ? 1 : 0);
+        return newline < 0 ? text.length() : newline + 1;
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /**
+     * Marks every outstanding request of this editor as stale: the generation
+     * token is bumped, the unary future (and with it the gRPC call) is
+     * cancelled and a running stream stops at its next chunk.
+     */
+    private void invalidateRequests() {
+        requestGeneration.incrementAndGet();
+
+        Future<?> request = inFlightRequest.getAndSet(null);
+        if (request != null && request.cancel(true)) {
+            provider.countCancelledRequest();
+        }
+
+        StreamingCompletion stream = activeStream;
+        if (stream != null && !stream.finished && !stream.cancelled) {
+            provider.countCancelledRequest();
+        }
+        cancelActiveStream();
+
+        // A speculation still matters while its suggestion is shown; once it
+        // was accepted, the user moving on makes it stale
+        if (completionState == null) {
+            cancelSpeculation();
+        }
+    }
+
+    /**
+     * Runs an edit made by the session itself, such as inserting suggestion
+     * text, without treating it as user activity.
+     */
+    private void runInternalEdit(Runnable edit) {
+        internalEdit = true;
+        try {
+            edit.run();
+        } finally {
+            internalEdit = false;
+        }
+    }
+
+    /**
+     * Requests a suggestion at the caret.
+     *
+     * @param trigger Position that was allowed to trigger the request, or
+     *                null if it follows an accepted suggestion
+     */
+    void processCompletion(Project project, TriggerContext trigger) {
+        // Avoid processing if editor is disposed or project is closed
+        if (project.isDisposed() || editor.isDisposed()) {
+            return;
+        }
+
+        CompletionLatency.Trace trace = provider.getLatency().newTrace(lastKeystrokeNanos);
+        trace.mark(Event.DEBOUNCE_FIRED);
+        long generation = requestGeneration.get();
+
+        // Assemble the context in a background read action, as resolving the
+        // references near the caret can take a while; typing or a write
+        // action cancels it. Showing a suggestion no longer modifies the
+        // document, so the rest runs on the EDT without a write action
+        ReadAction.nonBlocking(() -> buildRequestContext(trace))
+                .expireWith(this)
+                .expireWhen(() -> project.isDisposed() || editor.isDisposed()
+                        || requestGeneration.get() != generation)
+                .coalesceBy(this)
+                .finishOnUiThread(ModalityState.defaultModalityState(),
+                        surroundingLines -> requestCompletion(surroundingLines, trace, trigger))
+                .submit(AppExecutorUtil.getAppExecutorService());
+    }
+
+    private String buildRequestContext(CompletionLatency.Trace trace) {
+        trace.mark(Event.CONTEXT_STARTED);
+        String surroundingLines;
+        // A cancelled build may still be winding down when the next one starts
+        synchronized (requestContextBuffer) {
+            surroundingLines = provider.getContextBuilder().build(
+                    ContextText.of(editor.getDocument()),
+                    editor.getCaretModel().getOffset(),
+                    getCommittedPsiFile(),
+                    requestContextBuffer);
+        }
+        trace.mark(Event.CONTEXT_BUILT);
+        return surroundingLines;
+    }
+
+    private void requestCompletion(String surroundingLines, CompletionLatency.Trace trace, TriggerContext trigger) {
+        try {
+            // Clean up any existing completion state
+            cleanupCurrentCompletion(false);
+            LOG.debug("Processing completion with surrounding lines: " + surroundingLines);
+
+            // Serve repeated contexts (undo/redo, type-and-delete) without a request
+            CompletionCache completionCache = provider.getCompletionCache();
+            String cacheKey = CompletionCache.key(surroundingLines, getLanguageId(),
+                    EnvironmentConfig.VERTEX_MODEL_ID);
+            CompletionCache.Lookup cached = completionCache.get(cacheKey);
+            if (cached.hit) {
+                LOG.debug("Completion cache hit: " + completionCache);
+                if (cached.text != null) {
+                    trace.mark(Event.EDT_STARTED);
+                    showSuggestion(cached.text, trigger);
+                    trace.mark(Event.RENDERED);
+                }
+                return;
+            }
+
+            // Finish lines the project's own code makes obvious without a request
+            if (showLocalCompletion(LocalCompletionTier.CONFIDENT, trace, trigger)) {
+                return;
+            }
+
+            generateCompletion(surroundingLines, cacheKey, trace, trigger);
+        } catch (Exception e) {
+            LOG.error("Error processing completion", e);
+            cleanupCurrentCompletion(false);
+        }
+    }
+
+    private void generateCompletion(String surroundingLines, String cacheKey, CompletionLatency.Trace trace,
+            TriggerContext trigger) {
+        // Skip if we're already showing a completion
+        if (completionState != null) {
+            return;
+        }
+
+        // While the breaker is open only cached and local suggestions are
+        // shown; don't start a request or a streaming thread just to have it
+        // rejected
+        if (VertexAiClientPool.getInstance().getCircuitBreaker().getState() == CircuitBreaker.State.OPEN) {
+            showLocalCompletion(LocalCompletionTier.FALLBACK, trace, trigger);
+            return;
+        }
+
+        if (CANDIDATES_ENABLED) {
+            generateCandidates(surroundingLines, cacheKey, trace, trigger);
+            return;
+        }
+
+        generateStreamingCompletion(surroundingLines, cacheKey, trace, trigger);
+    }
+
+    /**
+     * Shows a suggestion from the project's n-gram model if it is sure enough
+     * of one. Only done at the end of a line, as completing the line is what
+     * the model predicts.
+     *
+     * @param minConfidence How sure the model has to be, from 0 to 1
+     * @return Whether a suggestion was shown
+     */
+    private boolean showLocalCompletion(double minConfidence, CompletionLatency.Trace trace,
+            TriggerContext trigger) {
+        Project project = editor.getProject();
+        if (project == null || project.isDisposed()) {
+            return false;
+        }
+        Document document = editor.getDocument();
+        CharSequence text = document.getImmutableCharSequence();
+        int offset = editor.getCaretModel().getOffset();
+        int lineEnd = document.getLineEndOffset(document.getLineNumber(offset));
+        for (int i = offset; i < lineEnd; i++) {
+            if (!isBlank(text.charAt(i))) {
+                return false;
+            }
+        }
+
+        NGramModel.Prediction prediction = LocalCompletionTier.getInstance(project)
+                .complete(text, offset, minConfidence);
+        if (prediction == null) {
+            return false;
+        }
+        LOG.debug("Local completion with confidence " + prediction.confidence);
+        trace.mark(Event.EDT_STARTED);
+        provider.countLocalCompletion();
+        showSuggestion(prediction.text, trigger);
+        trace.mark(Event.RENDERED);
+        return true;
+    }
+
+    /**
+     * Requests several alternative completions in one call. The first one is
+     * shown and cached; the others can be cycled through without another
+     * request.
+     */
+    private void generateCandidates(String surroundingLines, String cacheKey, CompletionLatency.Trace trace,
+            TriggerContext trigger) {
+        long generation = requestGeneration.get();
+        long requestStartMs = System.currentTimeMillis();
+        try {
+            ApiFuture<GenerateContentResponse> future = newInlineVertexAi().generateCandidatesAsync(surroundingLines);
+            inFlightRequest.set(future);
+            trace.mark(Event.REQUEST_SENT);
+
+            ApiFutures.addCallback(future, new ApiFutureCallback<GenerateContentResponse>() {
+                @Override
+                public void onSuccess(GenerateContentResponse response) {
+                    inFlightRequest.compareAndSet(future, null);
+                    trace.mark(Event.FIRST_BYTE);
+                    trace.mark(Event.RESPONSE_COMPLETE);
+                    provider.getDebounceScheduler().recordModelLatency(System.currentTimeMillis() - requestStartMs);
+
+                    List<String> candidates = InlineVertexAi.extractCandidates(response);
+                    provider.getCompletionCache().put(cacheKey, candidates.isEmpty() ? null : candidates.get(0));
+
+                    if (candidates.isEmpty()) {
+                        LOG.warn("No valid completion candidates generated. Raw response: " + response);
+                        return;
+                    }
+
+                    if (requestGeneration.get() != generation) {
+                        provider.countStaleDroppedResponse();
+                        return;
+                    }
+
+                    trace.mark(Event.DISPATCHED);
+                    ApplicationManager.getApplication().invokeLater(() -> {
+                        trace.mark(Event.EDT_STARTED);
+                        if (requestGeneration.get() != generation) {
+                            provider.countStaleDroppedResponse();
+                            return;
+                        }
+                        provider.countDeliveredResponse();
+                        showSuggestion(candidates, trigger);
+                        trace.mark(Event.RENDERED);
+                    });
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    inFlightRequest.compareAndSet(future, null);
+                    if (t instanceof CancellationException || t instanceof AdmissionRejectedException) {
+                        return;
+                    }
+                    LOG.warn("Error getting completion candidates", t);
+                }
+            }, AppExecutorUtil.getAppExecutorService());
+        } catch (AdmissionRejectedException e) {
+            LOG.debug("Completion request not admitted: " + e.getMessage());
+        } catch (Exception e) {
+            LOG.error("Unexpected error during completion generation", e);
+        }
+    }
+
+    /**
+     * Streams the completion and shows it line by line: the first complete line
+     * is displayed as soon as it arrives and the suggestion is extended as more
+     * lines come in. The stream is abandoned once the suggestion is dismissed or
+     * the suggested block is syntactically complete.
+     */
+    private void generateStreamingCompletion(String surroundingLines, String cacheKey,
+            CompletionLatency.Trace trace, TriggerContext trigger) {
+        StreamingCompletion stream = new StreamingCompletion(trigger);
+        activeStream = stream;
+        long generation = requestGeneration.get();
+        long requestStartMs = System.currentTimeMillis();
+
+        stream.task = AppExecutorUtil.getAppExecutorService().submit(() -> {
+            try {
+                trace.mark(Event.REQUEST_SENT);
+                boolean completed = newInlineVertexAi().generateContentStream(surroundingLines, chunk -> {
+                    if (stream.cancelled || requestGeneration.get() != generation) {
+                        return false;
+                    }
+
+                    // Time to the first chunk is what the user waits for
+                    if (stream.received.length() == 0) {
+                        trace.mark(Event.FIRST_BYTE);
+                        provider.getDebounceScheduler()
+                                .recordModelLatency(System.currentTimeMillis() - requestStartMs);
+                    }
+
+                    stream.received.append(chunk);
+                    int lastNewline = stream.received.lastIndexOf("\n");
+                    if (lastNewline < 0) {
+                        return true;
+                    }
+
+                    String ready = stream.received.substring(0, lastNewline + 1);
+                    publishStreamedText(stream, ready, generation, trace);
+
+                    // Stop reading once the suggested block has been closed
+                    return !NCodeInlineCompletionProvider.isBlockComplete(ready);
+                });
+
+                if (!stream.cancelled) {
+                    trace.mark(Event.RESPONSE_COMPLETE);
+                }
+                if (completed) {
+                    String fullText = stream.received.toString();
+                    provider.getCompletionCache().put(cacheKey, fullText);
+                    if (!stream.cancelled) {
+                        publishStreamedText(stream, fullText, generation, trace);
+                    }
+                } else if (!stream.cancelled) {
+                    // Stopped at the end of a complete block; cache what was shown
+                    provider.getCompletionCache().put(cacheKey, stream.received.substring(0, stream.shownLength));
+                }
+
+                // The suggestion is final now, so its continuation can be prefetched
+                if (!stream.cancelled) {
+                    ApplicationManager.getApplication().invokeLater(() -> {
+                        if (stream == activeStream && !stream.cancelled) {
+                            activeStream = null;
+                            speculateContinuation();
+                        }
+                    });
+                }
+            } catch (AdmissionRejectedException e) {
+                LOG.debug("Completion request not admitted: " + e.getMessage());
+            } catch (InterruptedIOException e) {
+                // Cancelled by the session
+            } catch (Exception e) {
+                LOG.warn("Error streaming completion result", e);
+            } finally {
+                stream.finished = true;
+            }
+        });
+    }
+
+    // Requests count against the admission limits of the editor's project
+    private InlineVertexAi newInlineVertexAi() {
+        Project project = editor.getProject();
+        return new InlineVertexAi(project != null ? project.getLocationHash() : AdmissionController.DEFAULT_SCOPE);
+    }
+
+    private void publishStreamedText(StreamingCompletion stream, String text, long generation,
+            CompletionLatency.Trace trace) {
+        if (text.length() <= stream.shownLength) {
+            return;
+        }
+
+        // Drop late chunks without touching the EDT
+        if (requestGeneration.get() != generation) {
+            provider.countStaleDroppedResponse();
+            return;
+        }
+
+        String delta = text.substring(stream.shownLength);
+        boolean first = stream.shownLength == 0;
+        stream.shownLength = text.length();
+
+        trace.mark(Event.DISPATCHED);
+        ApplicationManager.getApplication().invokeLater(() -> {
+            trace.mark(Event.EDT_STARTED);
+            if (stream.cancelled || stream != activeStream) {
+                return;
+            }
+            if (requestGeneration.get() != generation) {
+                provider.countStaleDroppedResponse();
+                return;
+            }
+
+            if (first) {
+                provider.countDeliveredResponse();
+                showSuggestion(delta, stream.trigger);
+                trace.mark(Event.RENDERED);
+            } else {
+                extendSuggestion(delta);
+            }
+        });
+    }
+
+    private void showSuggestion(String generatedText, TriggerContext trigger) {
+        showSuggestion(List.of(generatedText), trigger);
+    }
+
+    private void showSuggestion(List<String> candidates, TriggerContext trigger) {
+        if (editor.isDisposed() || editor.getProject() == null
+                || editor.getProject().isDisposed()) {
+            return;
+        }
+
+        // Get the current caret position - it might have changed
+        int currentOffset = editor.getCaretModel().getOffset();
+
+        try {
+            // Reset metrics flag
+            metricsReported.set(false);
+
+            // Render the suggestion as ghost text at the caret
+            List<Inlay<?>> inlays = renderGhostText(currentOffset, candidates.get(0));
+
+            // Install tab action with current position
+            AnAction tabAction = installTabCompletionAction();
+
+            // Partial acceptance, and cycling when there are alternatives
+            List<AnAction> shortcutActions = new ArrayList<>(4);
+            shortcutActions.add(installShortcutAction(ACCEPT_WORD_KEY, () -> acceptPartially(false)));
+            shortcutActions.add(installShortcutAction(ACCEPT_LINE_KEY, () -> acceptPartially(true)));
+            if (candidates.size() > 1) {
+                shortcutActions.add(installShortcutAction(NEXT_CANDIDATE_KEY, () -> cycleCandidate(1)));
+                shortcutActions.add(installShortcutAction(PREVIOUS_CANDIDATE_KEY, () -> cycleCandidate(-1)));
+            }
+
+            // Install key listener
+            installKeyListener();
+
+            // Store completion state
+            completionState = new CompletionState(
+                    candidates,
+                    0,
+                    currentOffset,
+                    inlays,
+                    tabAction,
+                    shortcutActions,
+                    trigger);
+
+            // A streamed suggestion is still growing; it is prefetched once complete
+            if (activeStream == null) {
+                speculateContinuation();
+            }
+        } catch (Exception e) {
+            LOG.error("Error processing completion after async retrieval", e);
+            cleanupCurrentCompletion(false);
+        }
+    }
+
+    /**
+     * Replaces the shown suggestion with another candidate of the same
+     * response. The prefetched continuation belonged to the previous candidate,
+     * so it is dropped and requested again.
+     */
+    private void cycleCandidate(int step) {
+        CompletionState state = completionState;
+        if (state == null || state.candidates.size() < 2 || editor.isDisposed()) {
+            return;
+        }
+
+        try {
+            disposeInlays(state.inlays);
+            int index = Math.floorMod(state.candidateIndex + step, state.candidates.size());
+            completionState = new CompletionState(state.candidates, index, state.offset,
+                    renderGhostText(state.offset, state.candidates.get(index)), state.tabAction,
+                    state.shortcutActions, state.trigger);
+            provider.countCandidateCycled();
+
+            cancelSpeculation();
+            speculateContinuation();
+        } catch (Exception e) {
+            LOG.error("Error cycling completion candidates", e);
+            cleanupCurrentCompletion(false);
+        }
+    }
+
+    /**
+     * Appends streamed text to the suggestion that is currently displayed.
+     */
+    private void extendSuggestion(String moreText) {
+        CompletionState state = completionState;
+        if (state == null || editor.isDisposed()) {
+            return;
+        }
+
+        try {
+            // Re-render the ghost text to cover the new text
+            disposeInlays(state.inlays);
+            String fullText = state.text + moreText;
+            completionState = state.withText(fullText, renderGhostText(state.offset, fullText));
+        } catch (Exception e) {
+            LOG.error("Error extending streamed completion", e);
+            cleanupCurrentCompletion(false);
+        }
+    }
+
+    /**
+     * Shows the text as inlays at the offset: the first line inline after the
+     * caret and any further lines as a block below it. The document is not
+     * modified, so there is no reparse, highlighting pass or undo entry.
+     */
+    private List<Inlay<?>> renderGhostText(int offset, String text) {
+        List<String> lines = new ArrayList<>(Arrays.asList(text.split("\n", -1)));
+        // A trailing newline doesn't start a visible line
+        if (lines.size() > 1 && lines.get(lines.size() - 1).isEmpty()) {
+            lines.remove(lines.size() - 1);
+        }
+
+        List<Inlay<?>> inlays = new ArrayList<>(2);
+        String firstLine = lines.get(0);
+        if (!firstLine.isEmpty()) {
+            Inlay<?> inline = editor.getInlayModel().addInlineElement(offset, true,
+                    new GhostTextRenderer(List.of(firstLine)));
+            if (inline != null) {
+                inlays.add(inline);
+            }
+        }
+        if (lines.size() > 1) {
+            Inlay<?> block = editor.getInlayModel().addBlockElement(offset, true, false, 0,
+                    new GhostTextRenderer(List.copyOf(lines.subList(1, lines.size()))));
+            if (block != null) {
+                inlays.add(block);
+            }
+        }
+        return inlays;
+    }
+
+    private static void disposeInlays(List<Inlay<?>> inlays) {
+        for (Inlay<?> inlay : inlays) {
+            if (inlay.isValid()) {
+                Disposer.dispose(inlay);
+            }
+        }
+    }
+
+    /**
+     * Inserts the suggestion into the document; the only point where the
+     * document is touched.
+     */
+    private void acceptSuggestion() {
+        CompletionState state = completionState;
+        Project project = editor.getProject();
+        if (state == null || project == null || project.isDisposed()) {
+            return;
+        }
+
+        WriteCommandAction.runWriteCommandAction(project, () -> {
+            try {
+                Document document = editor.getDocument();
+                runInternalEdit(() -> {
+                    document.insertString(state.offset, state.text);
+
+                    // Move the caret to the end of the generated text
+                    editor.getCaretModel().moveToOffset(state.offset + state.text.length());
+                });
+            } catch (Exception e) {
+                LOG.error("Error inserting accepted completion", e);
+            } finally {
+                // Clean up and report metrics for an accepted suggestion
+                cleanupCurrentCompletion(true);
+            }
+        });
+        continueAfterAccept();
+    }
+
+    /**
+     * Requests what would follow the shown suggestion, as if it had already
+     * been accepted. The result goes into the completion cache under the
+     * context the editor will have after acceptance, so accepting can show the
+     * next suggestion without waiting for the model.
+     */
+    private void speculateContinuation() {
+        CompletionState state = completionState;
+        if (state == null || speculation != null || state.text.isEmpty()) {
+            return;
+        }
+
+        ContextText accepted = ContextText.withInsertion(editor.getDocument(), state.offset, state.text);
+        String context = provider.getContextBuilder().build(accepted, state.offset + state.text.length(),
+                getCommittedPsiFile(), contextBuffer);
+        String cacheKey = CompletionCache.key(context, getLanguageId(), EnvironmentConfig.VERTEX_MODEL_ID);
+        CompletionCache completionCache = provider.getCompletionCache();
+        if (completionCache.contains(cacheKey)) {
+            // Already known; no request needed
+            speculation = new Speculation(cacheKey);
+            return;
+        }
+
+        if (!provider.tryStartSpeculation()) {
+            return;
+        }
+
+        Speculation spec = new Speculation(cacheKey);
+        speculation = spec;
+        try {
+            ApiFuture<GenerateContentResponse> future = newInlineVertexAi().generateContentAsync(context);
+            spec.future = future;
+
+            ApiFutures.addCallback(future, new ApiFutureCallback<GenerateContentResponse>() {
+                @Override
+                public void onSuccess(GenerateContentResponse response) {
+                    provider.finishSpeculation();
+                    // An empty answer isn't cached, so it doesn't keep the
+                    // regular request after acceptance from being made
+                    String generatedText = InlineVertexAi.extractGeneratedText(response);
+                    if (generatedText != null && !generatedText.isEmpty()) {
+                        completionCache.put(cacheKey, generatedText);
+                    }
+
+                    // Accepted while the request was running: show it now
+                    if (spec.awaited) {
+                        ApplicationManager.getApplication().invokeLater(() -> showSpeculation(spec));
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    provider.finishSpeculation();
+                    // Accepted while the request was running: fall back to a regular one
+                    if (spec.awaited) {
+                        ApplicationManager.getApplication().invokeLater(() -> showSpeculation(spec));
+                    }
+                    if (t instanceof CancellationException || t instanceof AdmissionRejectedException) {
+                        return;
+                    }
+                    LOG.warn("Speculative completion failed", t);
+                }
+            }, AppExecutorUtil.getAppExecutorService());
+        } catch (AdmissionRejectedException e) {
+            // Speculation is the first thing to give up when at the limits
+            provider.finishSpeculation();
+            speculation = null;
+        } catch (Exception e) {
+            provider.finishSpeculation();
+            speculation = null;
+            LOG.warn("Could not start speculative completion", e);
+        }
+    }
+
+    /**
+     * Follows an accepted suggestion with the prefetched continuation if it is
+     * ready, waits for it if it is still running, or schedules a regular
+     * request otherwise.
+     */
+    private void continueAfterAccept() {
+        // Accepting is the keystroke the next request's latency counts from
+        lastKeystrokeNanos = System.nanoTime();
+        Speculation spec = speculation;
+        if (spec == null) {
+            Project project = editor.getProject();
+            if (project != null && !project.isDisposed()) {
+                debounce.schedule(() -> processCompletion(project, null));
+            }
+            return;
+        }
+
+        spec.awaitedGeneration = requestGeneration.get();
+        spec.awaited = true;
+        if (provider.getCompletionCache().contains(spec.cacheKey)) {
+            showSpeculation(spec);
+        }
+    }
+
+    /**
+     * Shows the continuation of an accepted suggestion. If the speculation
+     * came back empty or failed, a regular request is made straight away,
+     * as the user has already waited for it.
+     */
+    private void showSpeculation(Speculation spec) {
+        if (speculation != spec || completionState != null || editor.isDisposed()
+                || requestGeneration.get() != spec.awaitedGeneration) {
+            return;
+        }
+
+        speculation = null;
+        CompletionCache.Lookup cached = provider.getCompletionCache().get(spec.cacheKey);
+        if (cached.hit && cached.text != null && !cached.text.isEmpty()) {
+            if (spec.future != null) {
+                provider.countSpeculationHit();
+            }
+            showSuggestion(cached.text, null);
+            return;
+        }
+
+        Project project = editor.getProject();
+        if (project != null && !project.isDisposed()) {
+            processCompletion(project, null);
+        }
+    }
+
+    private void cancelSpeculation() {
+        Speculation spec = speculation;
+        if (spec == null) {
+            return;
+        }
+
+        speculation = null;
+        Future<?> future = spec.future;
+        if (future != null) {
+            provider.countSpeculationWasted();
+            future.cancel(true);
+        }
+    }
+
+    public void cleanupCurrentCompletion(boolean wasAccepted) {
+        // Stop feeding a suggestion that is being dismissed
+        cancelActiveStream();
+
+        // Report metrics for current suggestion if they haven't been reported yet
+        CompletionState state = completionState;
+        if (state != null && !metricsReported.getAndSet(true)) {
+            UsageMetricsReporter.reportEditorMetrics(editor, state.text, wasAccepted,
+                    provider.getCompletionMetrics());
+        }
+
+        if (state != null) {
+            state.cleanup(editor);
+            completionState = null;
+
+            if (state.trigger != null) {
+                provider.getTriggerClassifier().recordOutcome(state.trigger, wasAccepted);
+            }
+
+            // Nothing follows a rejected suggestion
+            if (!wasAccepted) {
+                cancelSpeculation();
+            }
+        }
+
+        // Remove key listener if it exists
+        if (activeKeyListener != null) {
+            editor.getContentComponent().removeKeyListener(activeKeyListener);
+            activeKeyListener = null;
+        }
+    }
+
+    /**
+     * Counts a suppressed position if the user stays there, neither typing
+     * nor moving the caret, about as long as a suggestion would take; that
+     * is the best sign available that a suggestion was wanted.
+     */
+    private void watchSuppressedPosition() {
+        long generation = requestGeneration.get();
+        AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> {
+            if (requestGeneration.get() == generation && !editor.isDisposed()) {
+                provider.countSuppressedPause();
+            }
+        }, SUPPRESSED_PAUSE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the PSI of the editor's file if it matches the document text;
+     * an uncommitted PSI would point at the wrong offsets.
+     */
+    private PsiFile getCommittedPsiFile() {
+        Project project = editor.getProject();
+        if (project == null || project.isDisposed()) {
+            return null;
+        }
+
+        PsiDocumentManager psiDocumentManager = PsiDocumentManager.getInstance(project);
+        Document document = editor.getDocument();
+        return psiDocumentManager.isCommitted(document) ? psiDocumentManager.getPsiFile(document) : null;
+    }
+
+    private String getLanguageId() {
+        VirtualFile file = FileDocumentManager.getInstance().getFile(editor.getDocument());
+        return file != null ? file.getFileType().getName() : "";
+    }
+
+    private void cancelActiveStream() {
+        StreamingCompletion stream = activeStream;
+        if (stream != null) {
+            stream.cancelled = true;
+            activeStream = null;
+
+            // Don't wait for the next chunk to notice; stop the generation now
+            Future<?> task = stream.task;
+            if (task != null && !stream.finished) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    private AnAction installTabCompletionAction() {
+        ActionManager actionManager = ActionManager.getInstance();
+        AnAction defaultTabAction = actionManager.getAction(IdeActions.ACTION_EDITOR_TAB);
+
+        AnAction tabAction = new AnAction() {
+            @Override
+            public void actionPerformed(@NotNull AnActionEvent e) {
+                acceptSuggestion();
+            }
+
+            @Override
+            public void update(@NotNull AnActionEvent e) {
+                e.getPresentation().setEnabled(true);
+            }
+        };
+
+        tabAction.registerCustomShortcutSet(
+                defaultTabAction.getShortcutSet(),
+                editor.getContentComponent());
+
+        return tabAction;
+    }
+
+    private AnAction installShortcutAction(KeyStroke keyStroke, Runnable handler) {
+        AnAction action = new AnAction() {
+            @Override
+            public void actionPerformed(@NotNull AnActionEvent e) {
+                handler.run();
+            }
+        };
+
+        action.registerCustomShortcutSet(new CustomShortcutSet(keyStroke), editor.getContentComponent());
+        return action;
+    }
+
+    private void installKeyListener() {
+        // Remove any existing listener
+        if (activeKeyListener != null) {
+            editor.getContentComponent().removeKeyListener(activeKeyListener);
+        }
+
+        // Create a new key listener
+        activeKeyListener = new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                // If Tab key is pressed, the tab action will handle it
+                if (e.getKeyCode() == KeyEvent.VK_TAB) {
+                    return;
+                }
+
+                // Printable characters are handled by beforeCharTyped, which lets
+                // the user type through the suggestion
+                if (isTypedCharacter(e) || isModifierKey(e)) {
+                    return;
+                }
+
+                // Cycling and partial acceptance keep the suggestion
+                if (SUGGESTION_KEYS.contains(KeyStroke.getKeyStrokeForEvent(e))) {
+                    return;
+                }
+
+                // For any other key, reject the completion. The suggestion is not
+                // part of the document, so the key is left to its normal handling.
+                cleanupCurrentCompletion(false);
+            }
+        };
+
+        // Add the key listener
+        editor.getContentComponent().addKeyListener(activeKeyListener);
+    }
+
+    private static boolean isTypedCharacter(KeyEvent e) {
+        char c = e.getKeyChar();
+        return c != KeyEvent.CHAR_UNDEFINED
+                && !Character.isISOControl(c)
+                && !e.isControlDown() && !e.isAltDown() && !e.isMetaDown();
+    }
+
+    private static boolean isModifierKey(KeyEvent e) {
+        switch (e.getKeyCode()) {
+            case KeyEvent.VK_SHIFT:
+            case KeyEvent.VK_CONTROL:
+            case KeyEvent.VK_ALT:
+            case KeyEvent.VK_META:
+            case KeyEvent.VK_CAPS_LOCK:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    CompletionState getCompletionState() {
+        return completionState;
+    }
+
+    @Override
+    public void dispose() {
+        debounce.cancel();
+        invalidateRequests();
+        cancelSpeculation();
+
+        if (activeKeyListener != null) {
+            editor.getContentComponent().removeKeyListener(activeKeyListener);
+            activeKeyListener = null;
+        }
+
+        if (completionState != null) {
+            completionState.cleanup(editor);
+            completionState = null;
+        }
+        editor.putUserData(SESSION_KEY, null);
+    }
+}
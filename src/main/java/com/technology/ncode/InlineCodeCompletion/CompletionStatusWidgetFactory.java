@@ -0,0 +1,117 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import java.awt.Component;
+import java.util.function.Consumer;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.wm.StatusBar;
+import com.intellij.openapi.wm.StatusBarWidget;
+import com.intellij.openapi.wm.StatusBarWidgetFactory;
+import com.technology.ncode.vertexai.CircuitBreaker;
+import com.technology.ncode.vertexai.VertexAiClientPool;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Shows in the status bar whether inline completions are running normally,
+ * paused by the circuit breaker because the model backend is unhealthy, or
+ * not configured at all.
+ */
+public class CompletionStatusWidgetFactory implements StatusBarWidgetFactory {
+    static final String ID = "NCodeCompletionStatus";
+
+    @Override
+    public @NotNull String getId() {
+        return ID;
+    }
+
+    @Override
+    public @NotNull String getDisplayName() {
+        return "NCode Completion Status";
+    }
+
+    @Override
+    public @NotNull StatusBarWidget createWidget(@NotNull Project project) {
+        VertexAiClientPool clientPool = VertexAiClientPool.getInstance();
+        return new CompletionStatusWidget(clientPool.getCircuitBreaker(), clientPool.isConfigured());
+    }
+
+    private static final class CompletionStatusWidget implements StatusBarWidget, StatusBarWidget.TextPresentation {
+        private final CircuitBreaker circuitBreaker;
+        private final boolean configured;
+        private final Consumer<CircuitBreaker.State> listener = state -> update();
+        private StatusBar statusBar;
+
+        CompletionStatusWidget(CircuitBreaker circuitBreaker, boolean configured) {
+            this.circuitBreaker = circuitBreaker;
+            this.configured = configured;
+        }
+
+        @Override
+        public @NotNull String ID() {
+            return ID;
+        }
+
+        @Override
+        public void install(@NotNull StatusBar statusBar) {
+            this.statusBar = statusBar;
+            circuitBreaker.addListener(listener);
+        }
+
+        @Override
+        public @Nullable WidgetPresentation getPresentation() {
+            return this;
+        }
+
+        @Override
+        public @NotNull String getText() {
+            if (!configured) {
+                return "NCode: not configured";
+            }
+            switch (circuitBreaker.getState()) {
+                case OPEN:
+                    return "NCode: paused";
+                case HALF_OPEN:
+                    return "NCode: reconnecting";
+                default:
+                    return "NCode";
+            }
+        }
+
+        @Override
+        public float getAlignment() {
+            return Component.CENTER_ALIGNMENT;
+        }
+
+        @Override
+        public @Nullable String getTooltipText() {
+            if (!configured) {
+                return "Inline completions are off until VERTEX_LOCATION is set";
+            }
+            switch (circuitBreaker.getState()) {
+                case OPEN:
+                    return "Inline completions are paused because the model backend is failing or slow";
+                case HALF_OPEN:
+                    return "Checking whether the model backend has recovered";
+                default:
+                    return "Inline completions are active";
+            }
+        }
+
+        // State changes come from request threads
+        private void update() {
+            StatusBar bar = statusBar;
+            if (bar != null) {
+                ApplicationManager.getApplication().invokeLater(() -> bar.updateWidget(ID));
+            }
+        }
+
+        @Override
+        public void dispose() {
+            circuitBreaker.removeListener(listener);
+            statusBar = null;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import com.intellij.openapi.editor.Document;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Read-only view of document text for context extraction, optionally with a
+ * pending insertion (a suggestion about to be accepted) spliced in without
+ * copying the document. Line boundaries come from precomputed line offsets,
+ * so finding the caret line doesn't scan the text.
+ */
+class ContextText implements CharSequence {
+    /**
+     * Line offsets of the underlying text, as provided by {@link Document}.
+     */
+    interface LineIndex {
+        int getLineNumber(int offset);
+
+        int getLineStartOffset(int line);
+
+        int getLineEndOffset(int line);
+    }
+
+    private final CharSequence base;
+    private final LineIndex lines;
+    private final int insertOffset;
+    private final String inserted;
+
+    private ContextText(CharSequence base, LineIndex lines, int insertOffset, String inserted) {
+        this.base = base;
+        this.lines = lines;
+        this.insertOffset = insertOffset;
+        this.inserted = inserted;
+    }
+
+    static ContextText of(Document document) {
+        return new ContextText(document.getImmutableCharSequence(), lineIndex(document), 0, "");
+    }
+
+    /**
+     * Returns the document text as it will be once {@code text} is inserted
+     * at {@code offset}.
+     */
+    static ContextText withInsertion(Document document, int offset, String text) {
+        return new ContextText(document.getImmutableCharSequence(), lineIndex(document), offset, text);
+    }
+
+    /**
+     * Returns a view of plain text with line offsets computed once up front.
+     */
+    static ContextText of(CharSequence text) {
+        return new ContextText(text, lineIndex(text), 0, "");
+    }
+
+    /**
+     * Returns plain text as it will be once {@code inserted} is inserted at
+     * {@code offset}.
+     */
+    static ContextText withInsertion(CharSequence text, int offset, String inserted) {
+        return new ContextText(text, lineIndex(text), offset, inserted);
+    }
+
+    private static LineIndex lineIndex(Document document) {
+        return new LineIndex() {
+            @Override
+            public int getLineNumber(int offset) {
+                return document.getLineNumber(offset);
+            }
+
+            @Override
+            public int getLineStartOffset(int line) {
+                return document.getLineStartOffset(line);
+            }
+
+            @Override
+            public int getLineEndOffset(int line) {
+                return document.getLineEndOffset(line);
+            }
+        };
+    }
+
+    private static LineIndex lineIndex(CharSequence text) {
+        int count = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                count++;
+            }
+        }
+
+        int[] starts = new int[count];
+        int line = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                starts[line++] = i + 1;
+            }
+        }
+
+        return new LineIndex() {
+            @Override
+            public int getLineNumber(int offset) {
+                int index = Arrays.binarySearch(starts, offset);
+                return index >= 0 ? index : -index - 2;
+            }
+
+            @Override
+            public int getLineStartOffset(int line) {
+                return starts[line];
+            }
+
+            @Override
+            public int getLineEndOffset(int line) {
+                return line + 1 < starts.length ? starts[line + 1] - 1 : text.length();
+            }
+        };
+    }
+
+    int insertOffset() {
+        return insertOffset;
+    }
+
+    int insertedLength() {
+        return inserted.length();
+    }
+
+    /**
+     * Returns the start of the line containing the offset.
+     */
+    int lineStart(int offset) {
+        int length = inserted.length();
+        if (offset <= insertOffset) {
+            return baseLineStart(offset);
+        }
+        if (offset <= insertOffset + length) {
+            int newline = inserted.lastIndexOf('\n', offset - insertOffset - 1);
+            return newline >= 0 ? insertOffset + newline + 1 : baseLineStart(insertOffset);
+        }
+
+        int lineStart = baseLineStart(offset - length);
+        if (lineStart > insertOffset) {
+            return lineStart + length;
+        }
+        int newline = inserted.lastIndexOf('\n');
+        return newline >= 0 ? insertOffset + newline + 1 : lineStart;
+    }
+
+    /**
+     * Returns the end of the line containing the offset, excluding the line
+     * break.
+     */
+    int lineEnd(int offset) {
+        int length = inserted.length();
+        if (offset >= insertOffset + length) {
+            return baseLineEnd(offset - length) + length;
+        }
+        if (offset >= insertOffset) {
+            int newline = inserted.indexOf('\n', offset - insertOffset);
+            return newline >= 0 ? insertOffset + newline : baseLineEnd(insertOffset) + length;
+        }
+
+        int lineEnd = baseLineEnd(offset);
+        if (lineEnd < insertOffset) {
+            return lineEnd;
+        }
+        int newline = inserted.indexOf('\n');
+        return newline >= 0 ? insertOffset + newline : lineEnd + length;
+    }
+
+    private int baseLineStart(int offset) {
+        return lines.getLineStartOffset(lines.getLineNumber(offset));
+    }
+
+    private int baseLineEnd(int offset) {
+        return lines.getLineEndOffset(lines.getLineNumber(offset));
+    }
+
+    /**
+     * Appends the range to the builder in bulk rather than char by char.
+     */
+    void appendTo(StringBuilder builder, int start, int end) {
+        int insertEnd = insertOffset + inserted.length();
+        if (start < insertOffset) {
+            builder.append(base, start, Math.min(end, insertOffset));
+        }
+        if (end > insertOffset && start < insertEnd) {
+            builder.append(inserted, Math.max(start, insertOffset) - insertOffset,
+                    Math.min(end, insertEnd) - insertOffset);
+        }
+        if (end > insertEnd) {
+            int length = inserted.length();
+            builder.append(base, Math.max(start, insertEnd) - length, end - length);
+        }
+    }
+
+    @Override
+    public int length() {
+        return base.length() + inserted.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < insertOffset) {
+            return base.charAt(index);
+        }
+        if (index < insertOffset + inserted.length()) {
+            return inserted.charAt(index - insertOffset);
+        }
+        return base.charAt(index - inserted.length());
+    }
+
+    @Override
+    public @NotNull CharSequence subSequence(int start, int end) {
+        if (inserted.isEmpty()) {
+            return base.subSequence(start, end);
+        }
+        StringBuilder builder = new StringBuilder(end - start);
+        appendTo(builder, start, end);
+        return builder;
+    }
+
+    @Override
+    public @NotNull String toString() {
+        StringBuilder builder = new StringBuilder(length());
+        appendTo(builder, 0, length());
+        return builder.toString();
+    }
+}
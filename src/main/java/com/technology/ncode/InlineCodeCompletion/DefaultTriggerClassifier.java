@@ -0,0 +1,86 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scores positions with fixed rules for the places where a suggestion is
+ * almost never wanted (read-only or huge files, deletions, strings, comments,
+ * the middle of an identifier), adjusted by how often suggestions at similar
+ * positions were accepted.
+ */
+final class DefaultTriggerClassifier implements TriggerClassifier {
+    // Building the context for these costs more than a suggestion is worth
+    static final int MAX_DOCUMENT_LENGTH = 1_000_000;
+
+    private static final double BASE_SCORE = 0.7;
+    private static final double STRING_SCORE = 0.1;
+    private static final double MID_IDENTIFIER_SCORE = 0.1;
+    private static final double COMMENT_SCORE = 0.2;
+    private static final double CODE_AFTER_CARET_PENALTY = 0.2;
+    private static final double TRIGGER_CHAR_BONUS = 0.2;
+
+    // Acceptance history only counts once there is enough of it
+    private static final int MIN_OUTCOMES = 5;
+    private static final double ACCEPTANCE_ALPHA = 0.1;
+    // Acceptance rate that neither raises nor lowers the score
+    private static final double NEUTRAL_ACCEPTANCE = 0.25;
+    private static final double ACCEPTANCE_WEIGHT = 0.4;
+
+    private static final class Acceptance {
+        double rate = NEUTRAL_ACCEPTANCE;
+        int count;
+    }
+
+    // TriggerContext.positionKey() -> acceptance of suggestions shown there
+    private final Map<String, Acceptance> acceptance = new ConcurrentHashMap<>();
+
+    @Override
+    public double score(TriggerContext context) {
+        if (!context.writable || context.documentLength > MAX_DOCUMENT_LENGTH
+                || context.editKind == TriggerContext.EditKind.DELETE) {
+            return 0.0;
+        }
+        if (context.tokenKind == TriggerContext.TokenKind.STRING) {
+            return STRING_SCORE;
+        }
+        if (context.midIdentifier) {
+            return MID_IDENTIFIER_SCORE;
+        }
+        if (context.tokenKind == TriggerContext.TokenKind.COMMENT) {
+            return COMMENT_SCORE;
+        }
+
+        double score = BASE_SCORE;
+        if (context.codeAfterCaret) {
+            score -= CODE_AFTER_CARET_PENALTY;
+        }
+        if (isTriggerChar(context.typedChar)) {
+            score += TRIGGER_CHAR_BONUS;
+        }
+
+        Acceptance history = acceptance.get(context.positionKey());
+        if (history != null) {
+            synchronized (history) {
+                if (history.count >= MIN_OUTCOMES) {
+                    score += (history.rate - NEUTRAL_ACCEPTANCE) * ACCEPTANCE_WEIGHT;
+                }
+            }
+        }
+        return Math.max(0.0, Math.min(1.0, score));
+    }
+
+    @Override
+    public void recordOutcome(TriggerContext context, boolean accepted) {
+        Acceptance history = acceptance.computeIfAbsent(context.positionKey(), key -> new Acceptance());
+        synchronized (history) {
+            history.rate += ((accepted ? 1.0 : 0.0) - history.rate) * ACCEPTANCE_ALPHA;
+            history.count++;
+        }
+    }
+
+    // Characters after which code usually continues
+    private static boolean isTriggerChar(char c) {
+        return c == '.' || c == '(' || c == '=' || c == ',' || c == ' ' || c == '{' || c == '\n';
+    }
+}
@@ -0,0 +1,84 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorCustomElementRenderer;
+import com.intellij.openapi.editor.Inlay;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.colors.EditorFontType;
+import com.intellij.openapi.editor.markup.TextAttributes;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * Paints suggestion text as ghost text inside an inlay, so a suggestion can be
+ * shown without modifying the document. Used both for the inline part after
+ * the caret and for the block of following lines.
+ */
+public class GhostTextRenderer implements EditorCustomElementRenderer {
+    private static final int FOREGROUND_ALPHA = 120;
+
+    private final List<String> lines;
+
+    public GhostTextRenderer(List<String> lines) {
+        this.lines = lines;
+    }
+
+    @Override
+    public int calcWidthInPixels(@NotNull Inlay inlay) {
+        Editor editor = inlay.getEditor();
+        FontMetrics metrics = editor.getContentComponent().getFontMetrics(getFont(editor));
+        int width = 1;
+        for (String line : lines) {
+            width = Math.max(width, metrics.stringWidth(expandTabs(editor, line)));
+        }
+        return width;
+    }
+
+    @Override
+    public int calcHeightInPixels(@NotNull Inlay inlay) {
+        return Math.max(1, lines.size()) * inlay.getEditor().getLineHeight();
+    }
+
+    @Override
+    public void paint(@NotNull Inlay inlay, @NotNull Graphics g, @NotNull Rectangle targetRegion,
+            @NotNull TextAttributes textAttributes) {
+        Editor editor = inlay.getEditor();
+        g.setFont(getFont(editor));
+        g.setColor(getColor(editor.getColorsScheme()));
+
+        int lineHeight = editor.getLineHeight();
+        int y = targetRegion.y + editor.getAscent();
+        for (String line : lines) {
+            g.drawString(expandTabs(editor, line), targetRegion.x, y);
+            y += lineHeight;
+        }
+    }
+
+    public List<String> getLines() {
+        return lines;
+    }
+
+    private static Font getFont(Editor editor) {
+        return editor.getColorsScheme().getFont(EditorFontType.ITALIC);
+    }
+
+    private static Color getColor(EditorColorsScheme scheme) {
+        Color foreground = scheme.getDefaultForeground();
+        return new Color(foreground.getRed(), foreground.getGreen(), foreground.getBlue(), FOREGROUND_ALPHA);
+    }
+
+    private static String expandTabs(Editor editor, String line) {
+        if (line.indexOf('\t') < 0) {
+            return line;
+        }
+        int tabSize = editor.getSettings().getTabSize(editor.getProject());
+        return line.replace("\t", " ".repeat(Math.max(1, tabSize)));
+    }
+}
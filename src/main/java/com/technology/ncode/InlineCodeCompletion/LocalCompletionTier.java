@@ -0,0 +1,147 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Completes lines from an n-gram model of the project's own sources, without
+ * a model request. Suggestions the model is confident of are shown instead of
+ * calling Vertex AI, and while the circuit breaker keeps the backend paused
+ * less certain ones are shown too, so completion keeps working offline. The
+ * model is trained in the background when a project first asks for a
+ * completion and again for every source file that is saved.
+ */
+@Service(Service.Level.PROJECT)
+public final class LocalCompletionTier implements Disposable {
+    private static final Logger LOG = Logger.getInstance(LocalCompletionTier.class);
+
+    // Predictions this likely are shown without asking the model
+    static final double CONFIDENT = 0.8;
+    // Lower bar while the model backend is unavailable
+    static final double FALLBACK = 0.4;
+
+    private static final int MAX_FILE_CHARS = 256 * 1024;
+    private static final int MAX_INDEXED_FILES = 10_000;
+    // A file saved repeatedly is counted again at most this often
+    private static final long RETRAIN_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private final Project project;
+    private final NGramModel model = new NGramModel();
+    private final ExecutorService executor =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("NCode Local Completion", 1);
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    // File path -> when it was last trained on
+    private final Map<String, Long> lastTrained = new ConcurrentHashMap<>();
+
+    public LocalCompletionTier(Project project) {
+        this.project = project;
+    }
+
+    static LocalCompletionTier getInstance(Project project) {
+        return project.getService(LocalCompletionTier.class);
+    }
+
+    /**
+     * Predicts how the line continues at the offset.
+     *
+     * @return The prediction, or null if the model isn't at least
+     *         {@code minConfidence} sure of one
+     */
+    NGramModel.Prediction complete(CharSequence text, int offset, double minConfidence) {
+        ensureStarted();
+        return model.predict(text, offset, minConfidence);
+    }
+
+    private void ensureStarted() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        project.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void after(@NotNull List<? extends @NotNull VFileEvent> events) {
+                for (VFileEvent event : events) {
+                    VirtualFile file = event.getFile();
+                    if (file != null && (event instanceof VFileContentChangeEvent
+                            || event instanceof VFileCreateEvent)) {
+                        executor.execute(() -> trainFile(file));
+                    }
+                }
+            }
+        });
+        executor.execute(this::trainProject);
+    }
+
+    private void trainProject() {
+        long start = System.currentTimeMillis();
+        List<VirtualFile> files = new ArrayList<>();
+        ReadAction.run(() -> ProjectFileIndex.getInstance(project).iterateContent(file -> {
+            if (isTrainable(file)) {
+                files.add(file);
+            }
+            return files.size() < MAX_INDEXED_FILES && !project.isDisposed();
+        }));
+
+        for (VirtualFile file : files) {
+            if (project.isDisposed()) {
+                return;
+            }
+            trainFile(file);
+        }
+        LOG.info("Local completion model trained on " + files.size() + " files in "
+                + (System.currentTimeMillis() - start) + "ms: " + model.getContextCount() + " contexts, "
+                + model.getVocabularySize() + " tokens");
+    }
+
+    private void trainFile(VirtualFile file) {
+        long now = System.currentTimeMillis();
+        Long last = lastTrained.get(file.getPath());
+        if (project.isDisposed() || last != null && now - last < RETRAIN_INTERVAL_MS) {
+            return;
+        }
+        try {
+            CharSequence text = ReadAction.compute(() -> isTrainable(file) ? LoadTextUtil.loadText(file) : null);
+            if (text != null) {
+                lastTrained.put(file.getPath(), now);
+                model.train(text);
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Could not train local completion model on " + file.getPath(), e);
+        }
+    }
+
+    // Must be called in a read action
+    private boolean isTrainable(VirtualFile file) {
+        return file.isValid()
+                && !file.isDirectory()
+                && !file.getFileType().isBinary()
+                && file.getLength() <= MAX_FILE_CHARS
+                && ProjectFileIndex.getInstance(project).isInSourceContent(file);
+    }
+
+    @Override
+    public void dispose() {
+        executor.shutdownNow();
+    }
+}
@@ -1,546 +1,317 @@
 package com.technology.ncode.InlineCodeCompletion;
 
-import com.google.api.core.ApiFuture;
-import com.google.cloud.vertexai.api.GenerateContentResponse;
 import com.intellij.codeInsight.editorActions.TypedHandlerDelegate;
 import com.intellij.openapi.Disposable;
-import com.intellij.openapi.actionSystem.*;
-import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.editor.CaretModel;
-import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
-import com.intellij.openapi.editor.colors.EditorColors;
-import com.intellij.openapi.editor.colors.EditorColorsManager;
-import com.intellij.openapi.editor.colors.EditorColorsScheme;
-import com.intellij.openapi.editor.event.*;
-import com.intellij.openapi.editor.markup.HighlighterLayer;
-import com.intellij.openapi.editor.markup.HighlighterTargetArea;
-import com.intellij.openapi.editor.markup.RangeHighlighter;
-import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.EditorFactoryEvent;
+import com.intellij.openapi.editor.event.EditorFactoryListener;
+import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiFile;
 import com.intellij.util.concurrency.AppExecutorUtil;
-import com.technology.ncode.vertexai.InlineVertexAi;
+import com.technology.ncode.config.EnvironmentConfig;
+import com.technology.ncode.vertexai.VertexAiClientPool;
 
 import org.jetbrains.annotations.NotNull;
 
-import javax.swing.*;
-
-import java.awt.Color;
-import java.awt.event.KeyAdapter;
-import java.awt.event.KeyEvent;
-import java.awt.event.KeyListener;
-import java.util.Optional;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-import com.technology.ncode.UsageMetricsReporter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Provides inline code completion functionality using Vertex AI.
  * Monitors typing and displays AI-generated code suggestions after a debounce
- * period.
+ * period. Each editor gets its own {@link CompletionSession}; the provider only
+ * holds what is shared between editors: the completion cache, the typing and
+ * latency statistics behind the debounce, and the request counters.
  */
 public class NCodeInlineCompletionProvider extends TypedHandlerDelegate implements Disposable {
     private static final Logger LOG = Logger.getInstance(NCodeInlineCompletionProvider.class);
 
     // Configuration constants
-    private static final int DEBOUNCE_DELAY_MS = 3000;
-    private static final int TOP_CONTEXT_LINES = 5;
-    private static final int BOTTOM_CONTEXT_LINES = 5;
-    private static final int HIGHLIGHTING_ALPHA = 40;
-    private static final int FOREGROUND_ALPHA = 180;
-    private static final int FALLBACK_BG_RED = 200;
-    private static final int FALLBACK_BG_GREEN = 200;
-    private static final int FALLBACK_BG_BLUE = 200;
-    private static final int COOLDOWN_AFTER_ACCEPT_MS = 5000;
-
-    // Use IntelliJ's executor service for better integration with the platform
-    private final ScheduledExecutorService scheduler = AppExecutorUtil.getAppScheduledExecutorService();
-    private final AtomicReference<ScheduledFuture<?>> pendingTask = new AtomicReference<>();
-
-    // Completion state
-    private CompletionState completionState;
-
-    // Key listener to handle all key presses
-    private KeyListener activeKeyListener;
-
-    // Document listener to handle document changes
-    private DocumentListener documentListener;
-
-    // Flag to prevent suggestion after accepting one
-    private boolean suggestionJustAccepted = false;
-
-    // Timer to reset the suggestion-just-accepted flag
-    private ScheduledFuture<?> suggestionCooldownTask;
-
-    // Flag to track if metrics have been reported for the current suggestion
-    private AtomicBoolean metricsReported = new AtomicBoolean(false);
-
-    // We're using static inner classes to improve memory efficiency
-    private static class CompletionState {
-        final String text;
-        final int offset;
-        final RangeHighlighter highlighter;
-        final AnAction tabAction;
-
-        CompletionState(String text, int offset, RangeHighlighter highlighter, AnAction tabAction) {
-            this.text = text;
-            this.offset = offset;
-            this.highlighter = highlighter;
-            this.tabAction = tabAction;
-        }
-
-        void cleanup(Editor editor) {
-            if (highlighter != null && highlighter.isValid()) {
-                editor.getMarkupModel().removeHighlighter(highlighter);
-            }
-
-            if (tabAction != null) {
-                tabAction.unregisterCustomShortcutSet(editor.getContentComponent());
-            }
-        }
-    }
+    private static final int DEBOUNCE_FLOOR_MS = 250;
+    private static final int DEBOUNCE_CEILING_MS = 3000;
+    private static final int CACHE_MAX_CHARS = 512 * 1024;
+    private static final long CACHE_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final long NEGATIVE_CACHE_TTL_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final int MAX_SPECULATIVE_REQUESTS = 2;
+    // Positions the trigger classifier scores lower don't get a request
+    static final double TRIGGER_THRESHOLD = 0.5;
+
+    // Debounce statistics shared by all editors; each session has its own pending task
+    private final AdaptiveDebounceScheduler debounceScheduler = new AdaptiveDebounceScheduler(
+            AppExecutorUtil.getAppScheduledExecutorService(), DEBOUNCE_FLOOR_MS, DEBOUNCE_CEILING_MS);
+
+    // Assembles the prompt context from the caret window and the file's PSI
+    private final CompletionContextBuilder contextBuilder = new CompletionContextBuilder(contextTokenBudget());
+
+    // Recent completions keyed by caret context, including "no completion" results
+    private final CompletionCache completionCache = new CompletionCache(
+            CACHE_MAX_CHARS, CACHE_TTL_MS, NEGATIVE_CACHE_TTL_MS);
+
+    private final AtomicLong cancelledRequests = new AtomicLong();
+    private final AtomicLong staleDroppedResponses = new AtomicLong();
+    private final AtomicLong deliveredResponses = new AtomicLong();
+
+    // Speculative requests for the continuation of a shown suggestion, across all editors
+    private final AtomicInteger speculativeInFlight = new AtomicInteger();
+    private final AtomicLong speculationsStarted = new AtomicLong();
+    private final AtomicLong speculationHits = new AtomicLong();
+    private final AtomicLong speculationsWasted = new AtomicLong();
+    private final AtomicLong speculationsSkipped = new AtomicLong();
+
+    // Per-phase latency from keystroke to visible suggestion
+    private final CompletionLatency latency = new CompletionLatency();
+
+    // Switches between alternatives of a multi-candidate response
+    private final AtomicLong candidatesCycled = new AtomicLong();
+
+    // Words or lines accepted from a suggestion that stayed on display
+    private final AtomicLong partialAccepts = new AtomicLong();
+
+    // Suggestions from the project's n-gram model, shown without a request
+    private final AtomicLong localCompletions = new AtomicLong();
+
+    // Decides whether a document change is worth a request at all
+    private volatile TriggerClassifier triggerClassifier = new DefaultTriggerClassifier();
+    private final AtomicLong triggersAllowed = new AtomicLong();
+    private final AtomicLong triggersSuppressed = new AtomicLong();
+    // Suppressed positions where the user then paused, as if waiting for a suggestion
+    private final AtomicLong suppressedThenPaused = new AtomicLong();
 
     public NCodeInlineCompletionProvider() {
         // Register to get notifications for all editors
-        com.intellij.openapi.editor.EditorFactory.getInstance().addEditorFactoryListener(
-                new EditorFactoryAdapter() {
+        EditorFactory.getInstance().addEditorFactoryListener(
+                new EditorFactoryListener() {
                     @Override
                     public void editorCreated(@NotNull EditorFactoryEvent event) {
-                        setupEditorListeners(event.getEditor());
+                        CompletionSession.getOrCreate(event.getEditor(), NCodeInlineCompletionProvider.this);
+                    }
+
+                    @Override
+                    public void editorReleased(@NotNull EditorFactoryEvent event) {
+                        CompletionSession.release(event.getEditor());
                     }
                 },
                 this // Disposable to ensure listener is removed when provider is disposed
         );
     }
 
-    private void setupEditorListeners(Editor editor) {
-        // Create and install document listener
-        documentListener = new DocumentListener() {
-            @Override
-            public void documentChanged(@NotNull DocumentEvent event) {
-                // If there's an active completion, any document change should cancel it
-                if (completionState != null) {
-                    cleanupCurrentCompletion(editor, false);
-                }
-
-                // Don't trigger completion if a suggestion was just accepted
-                if (suggestionJustAccepted) {
-                    return;
-                }
-
-                // Trigger completion after debounce period for all document changes
-                Project project = editor.getProject();
-                if (project != null && !project.isDisposed()) {
-                    debounce(() -> processCompletion(project, editor), DEBOUNCE_DELAY_MS);
-                }
-            }
-        };
-
-        // Add the document listener to the editor's document
-        editor.getDocument().addDocumentListener(documentListener);
+    @Override
+    public @NotNull Result beforeCharTyped(char c, @NotNull Project project, @NotNull Editor editor,
+            @NotNull PsiFile file, @NotNull FileType fileType) {
+        // Editors opened before the provider was loaded get their session here
+        CompletionSession session = CompletionSession.getOrCreate(editor, this);
+        if (session != null && session.beforeCharTyped(c)) {
+            return Result.STOP;
+        }
+        return Result.CONTINUE;
     }
 
     @Override
     public @NotNull Result charTyped(char c, @NotNull Project project, @NotNull Editor editor, @NotNull PsiFile file) {
-        // If there's an active completion, any character typed should cancel it
-        if (completionState != null) {
-            cleanupCurrentCompletion(editor, false);
+        CompletionSession session = CompletionSession.get(editor);
+        if (session != null) {
+            session.charTyped();
         }
 
         // Character typing is already handled by the document listener
         return Result.CONTINUE;
     }
 
-    public void processCompletion(Project project, Editor editor) {
-        // Avoid processing if editor is disposed or project is closed
-        if (project.isDisposed() || editor.isDisposed()) {
-            return;
-        }
-
-        // Skip if we're in the cooldown period after accepting a suggestion
-        if (suggestionJustAccepted) {
-            return;
-        }
-
-        // Schedule modifications on the EDT and wrap them in a write action
-        ApplicationManager.getApplication().invokeLater(() -> {
-            if (project.isDisposed() || editor.isDisposed()) {
-                return;
+    /**
+     * Returns true if the text opens a brace block and closes it again, or
+     * closes a block it did not open. String and character literals are skipped.
+     */
+    static boolean isBlockComplete(CharSequence text) {
+        int depth = 0;
+        boolean opened = false;
+        char quote = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+                continue;
             }
 
-            WriteCommandAction.runWriteCommandAction(project, () -> {
-                try {
-                    // Clean up any existing completion state
-                    cleanupCurrentCompletion(editor, false);
-
-                    // Get the current caret offset
-                    int offset = editor.getCaretModel().getOffset();
-
-                    // Get the surrounding lines text
-                    String surroundingLines = getSurroundingLines(editor);
-                    LOG.debug("Processing completion with surrounding lines: " + surroundingLines);
-
-                    generateCompletion(editor, offset, surroundingLines);
-                } catch (Exception e) {
-                    LOG.error("Error processing completion", e);
-                    cleanupCurrentCompletion(editor, false);
+            if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '{') {
+                depth++;
+                opened = true;
+            } else if (c == '}') {
+                depth--;
+                if (depth < 0) {
+                    return true;
                 }
-            });
-        });
-    }
-
-    private void generateCompletion(Editor editor, int offset, String surroundingLines) {
-        // Skip if we're already showing a completion
-        if (completionState != null) {
-            return;
+            }
         }
 
-        InlineVertexAi inlineVertexAi = new InlineVertexAi();
-        try {
-            // Get the completion asynchronously
-            ApiFuture<GenerateContentResponse> future = inlineVertexAi.generateContentAsync(surroundingLines);
-
-            // Execute this in a background thread to avoid blocking EDT
-            AppExecutorUtil.getAppExecutorService().submit(() -> {
-                try {
-                    // Get the result - this might block, but we're on a background thread
-                    GenerateContentResponse response = future.get();
-                    String generatedText = InlineVertexAi.extractGeneratedText(response);
-
-                    if (generatedText != null && !generatedText.isEmpty()) {
-                        // Schedule modifications on the EDT
-                        ApplicationManager.getApplication().invokeLater(() -> {
-                            if (editor.isDisposed() || editor.getProject() == null
-                                    || editor.getProject().isDisposed()) {
-                                return;
-                            }
-
-                            // Get the current caret position - it might have changed
-                            int currentOffset = editor.getCaretModel().getOffset();
-
-                            WriteCommandAction.runWriteCommandAction(editor.getProject(), () -> {
-                                try {
-                                    Document document = editor.getDocument();
-
-                                    // Temporarily remove document listener
-                                    if (documentListener != null) {
-                                        document.removeDocumentListener(documentListener);
-                                    }
-
-                                    document.insertString(currentOffset, generatedText);
-
-                                    // Re-add document listener
-                                    if (documentListener != null) {
-                                        document.addDocumentListener(documentListener);
-                                    }
-
-                                    // Reset metrics flag
-                                    metricsReported.set(false);
-
-                                    // Apply highlighting with current position
-                                    RangeHighlighter highlighter = applyTransparentHighlighting(editor, currentOffset,
-                                            currentOffset + generatedText.length());
-
-                                    // Install tab action with current position
-                                    AnAction tabAction = installTabCompletionAction(editor, currentOffset,
-                                            generatedText);
-
-                                    // Install key listener with current position
-                                    installKeyListener(editor, currentOffset, generatedText);
-
-                                    // Store completion state
-                                    completionState = new CompletionState(
-                                            generatedText,
-                                            currentOffset,
-                                            highlighter,
-                                            tabAction);
-                                } catch (Exception e) {
-                                    LOG.error("Error processing completion after async retrieval", e);
-                                    cleanupCurrentCompletion(editor, false);
-                                }
-                            });
-                        });
-                    } else {
-                        LOG.warn("No valid completion generated. Raw response: " + response);
-                    }
-                } catch (Exception e) {
-                    LOG.error("Error getting completion result", e);
-                }
-            });
-        } catch (Exception e) {
-            LOG.error("Unexpected error during completion generation", e);
-        }
+        return opened && depth == 0;
     }
 
-    public void cleanupCurrentCompletion(Editor editor, boolean wasAccepted) {
-        // Report metrics for current suggestion if they haven't been reported yet
-        if (completionState != null && !metricsReported.getAndSet(true)) {
-            UsageMetricsReporter.reportEditorMetrics(editor, completionState.text, wasAccepted);
-        }
-
-        Optional.ofNullable(completionState).ifPresent(state -> {
-            state.cleanup(editor);
-            completionState = null;
-        });
-
-        // Remove key listener if it exists
-        if (activeKeyListener != null && editor != null) {
-            editor.getContentComponent().removeKeyListener(activeKeyListener);
-            activeKeyListener = null;
-        }
+    AdaptiveDebounceScheduler getDebounceScheduler() {
+        return debounceScheduler;
     }
 
-    private RangeHighlighter applyTransparentHighlighting(Editor editor, int startOffset, int endOffset) {
-        EditorColorsScheme scheme = EditorColorsManager.getInstance().getGlobalScheme();
-        TextAttributes attributes = new TextAttributes();
-
-        // Get the actual selection background color from the scheme
-        Color selectionColor = scheme.getColor(EditorColors.SELECTION_BACKGROUND_COLOR);
-        if (selectionColor != null) {
-            // Make a more transparent version of the selection color
-            attributes.setBackgroundColor(new Color(
-                    selectionColor.getRed(),
-                    selectionColor.getGreen(),
-                    selectionColor.getBlue(),
-                    HIGHLIGHTING_ALPHA));
-        } else {
-            // Fallback color if selection color is not defined
-            attributes.setBackgroundColor(new Color(
-                    FALLBACK_BG_RED,
-                    FALLBACK_BG_GREEN,
-                    FALLBACK_BG_BLUE,
-                    HIGHLIGHTING_ALPHA));
-        }
-
-        // Set a subtle foreground color
-        Color defaultForeground = scheme.getDefaultForeground();
-        if (defaultForeground != null) {
-            attributes.setForegroundColor(new Color(
-                    defaultForeground.getRed(),
-                    defaultForeground.getGreen(),
-                    defaultForeground.getBlue(),
-                    FOREGROUND_ALPHA));
-        }
-
-        return editor.getMarkupModel().addRangeHighlighter(
-                startOffset,
-                endOffset,
-                HighlighterLayer.SELECTION - 1,
-                attributes,
-                HighlighterTargetArea.EXACT_RANGE);
+    CompletionContextBuilder getContextBuilder() {
+        return contextBuilder;
     }
 
-    private AnAction installTabCompletionAction(Editor editor, int offset, String generatedText) {
-        ActionManager actionManager = ActionManager.getInstance();
-        AnAction defaultTabAction = actionManager.getAction(IdeActions.ACTION_EDITOR_TAB);
+    CompletionCache getCompletionCache() {
+        return completionCache;
+    }
 
-        AnAction tabAction = new AnAction() {
-            @Override
-            public void actionPerformed(@NotNull AnActionEvent e) {
-                // Calculate the position at the end of the generated text
-                int endPosition = offset + generatedText.length();
+    void countCancelledRequest() {
+        cancelledRequests.incrementAndGet();
+    }
 
-                // Set the flag to prevent immediate suggestion after acceptance
-                setSuggestionJustAccepted(true);
+    void countStaleDroppedResponse() {
+        staleDroppedResponses.incrementAndGet();
+    }
 
-                // Move the caret to the end of the generated text
-                editor.getCaretModel().moveToOffset(endPosition);
+    void countDeliveredResponse() {
+        deliveredResponses.incrementAndGet();
+    }
 
-                // Clean up and report metrics for an accepted suggestion
-                cleanupCurrentCompletion(editor, true);
+    /**
+     * Reserves a slot for a speculative request. Returns false, and counts the
+     * speculation as skipped, if the budget is used up.
+     */
+    boolean tryStartSpeculation() {
+        int inFlight;
+        do {
+            inFlight = speculativeInFlight.get();
+            if (inFlight >= MAX_SPECULATIVE_REQUESTS) {
+                speculationsSkipped.incrementAndGet();
+                return false;
             }
+        } while (!speculativeInFlight.compareAndSet(inFlight, inFlight + 1));
 
-            @Override
-            public void update(@NotNull AnActionEvent e) {
-                e.getPresentation().setEnabled(true);
-            }
-        };
+        speculationsStarted.incrementAndGet();
+        return true;
+    }
 
-        tabAction.registerCustomShortcutSet(
-                defaultTabAction.getShortcutSet(),
-                editor.getContentComponent());
+    void finishSpeculation() {
+        speculativeInFlight.decrementAndGet();
+    }
 
-        return tabAction;
+    void countSpeculationHit() {
+        speculationHits.incrementAndGet();
     }
 
-    private void installKeyListener(Editor editor, int offset, String generatedText) {
-        // Remove any existing listener
-        if (activeKeyListener != null) {
-            editor.getContentComponent().removeKeyListener(activeKeyListener);
-        }
+    void countSpeculationWasted() {
+        speculationsWasted.incrementAndGet();
+    }
 
-        // Create a new key listener
-        activeKeyListener = new KeyAdapter() {
-            @Override
-            public void keyPressed(KeyEvent e) {
-                // If Tab key is pressed, the tab action will handle it
-                if (e.getKeyCode() == KeyEvent.VK_TAB) {
-                    return;
-                }
+    void countCandidateCycled() {
+        candidatesCycled.incrementAndGet();
+    }
 
-                // For any other key, cancel the completion
-                Project project = editor.getProject();
-                if (project == null || project.isDisposed()) {
-                    return;
-                }
+    void countPartialAccept() {
+        partialAccepts.incrementAndGet();
+    }
 
-                // We need to consume the event to prevent double processing
-                e.consume();
-
-                // Get the current offset from completion state
-                int currentOffset = completionState != null ? completionState.offset : offset;
-
-                // Use invokeLater to ensure we don't block the key event thread
-                ApplicationManager.getApplication().invokeLater(() -> {
-                    WriteCommandAction.runWriteCommandAction(project, () -> {
-                        try {
-                            Document document = editor.getDocument();
-
-                            // Remove listener temporarily
-                            if (documentListener != null) {
-                                document.removeDocumentListener(documentListener);
-                            }
-
-                            int endOffset = currentOffset + generatedText.length();
-                            if (endOffset <= document.getTextLength()) {
-                                document.deleteString(currentOffset, endOffset);
-                            }
-
-                            // Re-add listener
-                            if (documentListener != null) {
-                                document.addDocumentListener(documentListener);
-                            }
-                        } catch (Exception ex) {
-                            LOG.error("Error removing completion text", ex);
-                        } finally {
-                            // Mark as rejected
-                            cleanupCurrentCompletion(editor, false);
-
-                            // Re-dispatch the key event
-                            KeyEvent newEvent = new KeyEvent(
-                                    e.getComponent(),
-                                    e.getID(),
-                                    e.getWhen(),
-                                    e.getModifiers(),
-                                    e.getKeyCode(),
-                                    e.getKeyChar(),
-                                    e.getKeyLocation());
-
-                            SwingUtilities.invokeLater(() -> {
-                                SwingUtilities.processKeyBindings(newEvent);
-                            });
-                        }
-                    });
-                });
-            }
-        };
+    void countLocalCompletion() {
+        localCompletions.incrementAndGet();
+    }
+
+    TriggerClassifier getTriggerClassifier() {
+        return triggerClassifier;
+    }
 
-        // Add the key listener
-        editor.getContentComponent().addKeyListener(activeKeyListener);
+    void setTriggerClassifier(TriggerClassifier triggerClassifier) {
+        this.triggerClassifier = triggerClassifier;
     }
 
     /**
-     * Sets the suggestionJustAccepted flag and schedules its reset after the
-     * cooldown period.
+     * Returns whether the position is worth a completion request, counting
+     * the decision.
      */
-    private void setSuggestionJustAccepted(boolean value) {
-        suggestionJustAccepted = value;
-
-        // Cancel any existing cooldown task
-        if (suggestionCooldownTask != null) {
-            suggestionCooldownTask.cancel(false);
-            suggestionCooldownTask = null;
-        }
-
-        // If we're setting the flag to true, schedule a reset
-        if (value) {
-            suggestionCooldownTask = scheduler.schedule(() -> {
-                suggestionJustAccepted = false;
-                suggestionCooldownTask = null;
-            }, COOLDOWN_AFTER_ACCEPT_MS, TimeUnit.MILLISECONDS);
+    boolean shouldTrigger(TriggerContext context) {
+        if (triggerClassifier.score(context) >= TRIGGER_THRESHOLD) {
+            triggersAllowed.incrementAndGet();
+            return true;
         }
+        triggersSuppressed.incrementAndGet();
+        return false;
     }
 
-    private String getSurroundingLines(Editor editor) {
-        CaretModel caretModel = editor.getCaretModel();
-        int currentLine = caretModel.getLogicalPosition().line;
-        int currentOffset = caretModel.getOffset();
-        Document document = editor.getDocument();
-        int lineCount = document.getLineCount();
-
-        if (lineCount == 0) {
-            return "";
-        }
+    void countSuppressedPause() {
+        suppressedThenPaused.incrementAndGet();
+    }
 
-        int startLine = Math.max(0, currentLine - TOP_CONTEXT_LINES);
-        int endLine = Math.min(lineCount - 1, currentLine + BOTTOM_CONTEXT_LINES);
-
-        StringBuilder lines = new StringBuilder(1024); // Pre-allocate buffer size
-        for (int i = startLine; i <= endLine; i++) {
-            int lineStartOffset = document.getLineStartOffset(i);
-            int lineEndOffset = document.getLineEndOffset(i);
-            String lineText = document.getText(new TextRange(lineStartOffset, lineEndOffset));
-
-            if (i == currentLine) {
-                int caretPositionInLine = currentOffset - lineStartOffset;
-                if (caretPositionInLine >= 0 && caretPositionInLine <= lineText.length()) {
-                    lines.append(lineText, 0, caretPositionInLine)
-                            .append("{caret is here}")
-                            .append(lineText.substring(caretPositionInLine));
-                } else {
-                    lines.append(lineText);
-                }
-            } else {
-                lines.append(lineText);
-            }
+    /**
+     * Returns the share of speculative requests whose result was shown after
+     * an acceptance, or 0 if none were started.
+     */
+    double getSpeculationHitRate() {
+        long started = speculationsStarted.get();
+        return started == 0 ? 0.0 : (double) speculationHits.get() / started;
+    }
 
-            lines.append('\n');
-        }
-        return lines.toString();
+    CompletionLatency getLatency() {
+        return latency;
     }
 
     /**
-     * Debounce a given task so that rapid key events cancel previous tasks.
-     * After DEBOUNCE_DELAY_MS milliseconds of inactivity, the task will be
-     * executed.
+     * Returns the shared completion metrics reported with each suggestion,
+     * including the per-phase latency percentiles.
      */
-    public void debounce(Runnable task, int delayMs) {
-        ScheduledFuture<?> oldTask = pendingTask.getAndSet(null);
-        if (oldTask != null && !oldTask.isDone()) {
-            oldTask.cancel(false);
+    Map<String, Number> getCompletionMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("debounceDelayMs", debounceScheduler.getCurrentDelayMs());
+        metrics.put("debounceHitRate", debounceScheduler.getHitRate());
+        metrics.put("requestsCancelled", cancelledRequests.get());
+        metrics.put("responsesStaleDropped", staleDroppedResponses.get());
+        metrics.put("responsesDelivered", deliveredResponses.get());
+        metrics.put("speculationsStarted", speculationsStarted.get());
+        metrics.put("speculationsWasted", speculationsWasted.get());
+        metrics.put("speculationsSkipped", speculationsSkipped.get());
+        metrics.put("speculationHitRate", getSpeculationHitRate());
+        metrics.put("candidatesCycled", candidatesCycled.get());
+        metrics.put("partialAccepts", partialAccepts.get());
+        metrics.put("localCompletions", localCompletions.get());
+        metrics.put("triggersAllowed", triggersAllowed.get());
+        metrics.put("triggersSuppressed", triggersSuppressed.get());
+        metrics.put("suppressedThenPaused", suppressedThenPaused.get());
+        metrics.putAll(latency.getMetrics());
+        VertexAiClientPool clientPool = VertexAiClientPool.getInstance();
+        metrics.putAll(clientPool.getSingleFlight().getMetrics());
+        metrics.putAll(clientPool.getAdmissionController().getMetrics());
+        metrics.putAll(clientPool.getCircuitBreaker().getMetrics());
+        // Without a location there is no router, and nothing to report for it
+        if (clientPool.isConfigured()) {
+            metrics.putAll(clientPool.getRegionRouter().getMetrics());
         }
-
-        pendingTask.set(scheduler.schedule(task, delayMs, TimeUnit.MILLISECONDS));
+        return metrics;
     }
 
-    @Override
-    public void dispose() {
-        ScheduledFuture<?> task = pendingTask.getAndSet(null);
-        if (task != null) {
-            task.cancel(true);
+    private static int contextTokenBudget() {
+        String configured = EnvironmentConfig.COMPLETION_CONTEXT_TOKEN_BUDGET;
+        if (configured == null) {
+            return CompletionContextBuilder.DEFAULT_TOKEN_BUDGET;
         }
-
-        // Cancel the suggestion cooldown timer if active
-        if (suggestionCooldownTask != null) {
-            suggestionCooldownTask.cancel(true);
-            suggestionCooldownTask = null;
+        try {
+            return Integer.parseInt(configured.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid COMPLETION_CONTEXT_TOKEN_BUDGET: " + configured);
+            return CompletionContextBuilder.DEFAULT_TOKEN_BUDGET;
         }
-
-        // No need to shutdown the scheduler as it's provided by the platform
-
-        // Ensure we clean up any UI components
-        completionState = null;
     }
 
-    public CompletionState getCompletionState() {
-        return completionState;
+    @Override
+    public void dispose() {
+        // Sessions are registered as children of the provider and are disposed
+        // with it; no need to shutdown the scheduler as it's provided by the platform
     }
-}
\ No newline at end of file
+}
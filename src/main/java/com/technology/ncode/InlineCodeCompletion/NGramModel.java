@@ -0,0 +1,408 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Token n-gram model of a project's code that predicts how the current line
+ * continues, e.g. the rest of a builder chain or a call pattern the project
+ * repeats, in a few microseconds. For every context of up to three preceding
+ * tokens it keeps the few tokens that most often follow, with counts, in an
+ * open-addressing table of primitive arrays, so memory stays fixed however
+ * much code it is trained on. Comments are skipped and spacing is kept as part
+ * of the tokens, so predictions can be inserted as they are.
+ */
+final class NGramModel {
+    // Tokens of context used for a prediction
+    static final int CONTEXT_TOKENS = 3;
+    // Following tokens remembered per context
+    static final int SLOT_WIDTH = 4;
+    static final int DEFAULT_CAPACITY = 1 << 17;
+    static final int DEFAULT_MAX_VOCABULARY = 50_000;
+
+    // Longest suggestion, in tokens
+    private static final int MAX_SUGGESTED_TOKENS = 16;
+    // A context or next token seen fewer times than this is not trusted
+    private static final int MIN_COUNT = 2;
+    // Trust in a prediction by the number of context tokens it is based on
+    private static final double[] ORDER_WEIGHT = { 0, 0.6, 0.85, 1.0 };
+    // Text before the caret that is tokenized for a prediction
+    private static final int PREDICTION_WINDOW = 400;
+    private static final int MAX_TOKEN_LENGTH = 64;
+    // Tokens interned and counted per lock hold while training
+    private static final int TRAINING_BATCH = 2048;
+
+    private static final int UNKNOWN = 0;
+    private static final int NEWLINE = 1;
+    private static final String UNKNOWN_TEXT = "\u0000";
+    private static final String NEWLINE_TEXT = "\n";
+
+    private static final Set<String> OPERATORS = Set.of(
+            "->", "::", "==", "!=", "<=", ">=", "&&", "||", "++", "--", "+=", "-=", "*=", "/=", "=>", "?.");
+
+    /**
+     * A predicted continuation and how likely the model thinks it is.
+     */
+    static final class Prediction {
+        final String text;
+        final double confidence;
+
+        Prediction(String text, double confidence) {
+            this.text = text;
+            this.confidence = confidence;
+        }
+    }
+
+    // All guarded by this; a key of 0 marks an empty slot
+    private final int mask;
+    private final int maxContexts;
+    private final long[] keys;
+    private final int[] totals;
+    private final int[] nextTokens;
+    private final int[] nextCounts;
+    private int contexts;
+
+    private final int maxVocabulary;
+    private final Map<String, Integer> tokenIds = new HashMap<>();
+    private final List<String> tokenTexts = new ArrayList<>();
+
+    NGramModel() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_VOCABULARY);
+    }
+
+    /**
+     * @param capacity      Table slots, rounded up to a power of two; about
+     *                      44 bytes each
+     * @param maxVocabulary Distinct tokens kept; rarer ones are unknown
+     */
+    NGramModel(int capacity, int maxVocabulary) {
+        int size = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.maxContexts = size / 4 * 3;
+        this.keys = new long[size];
+        this.totals = new int[size];
+        this.nextTokens = new int[size * SLOT_WIDTH];
+        this.nextCounts = new int[size * SLOT_WIDTH];
+        this.maxVocabulary = maxVocabulary;
+        tokenTexts.add(UNKNOWN_TEXT);
+        tokenTexts.add(NEWLINE_TEXT);
+        tokenIds.put(NEWLINE_TEXT, NEWLINE);
+    }
+
+    /**
+     * Counts the token sequences of the text.
+     */
+    void train(CharSequence text) {
+        List<String> lexemes = new ArrayList<>();
+        tokenize(text, 0, text.length(), lexemes);
+
+        int[] context = new int[CONTEXT_TOKENS];
+        int known = 0;
+        for (int start = 0; start < lexemes.size(); start += TRAINING_BATCH) {
+            int end = Math.min(lexemes.size(), start + TRAINING_BATCH);
+            synchronized (this) {
+                for (int i = start; i < end; i++) {
+                    int id = intern(lexemes.get(i));
+                    for (int order = 1; order <= Math.min(known, CONTEXT_TOKENS); order++) {
+                        long key = contextKey(context, order);
+                        if (key != 0) {
+                            count(key, id);
+                        }
+                    }
+                    System.arraycopy(context, 1, context, 0, CONTEXT_TOKENS - 1);
+                    context[CONTEXT_TOKENS - 1] = id;
+                    known++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Predicts how the line continues at the offset, taking the longest
+     * continuation the model is at least {@code minConfidence} sure of.
+     *
+     * @return The prediction, or null if there is none that confident
+     */
+    Prediction predict(CharSequence text, int offset, double minConfidence) {
+        int start = Math.max(0, offset - PREDICTION_WINDOW);
+        // Start at a line boundary so the first token isn't cut in half
+        if (start > 0) {
+            while (start < offset && text.charAt(start - 1) != '\n') {
+                start++;
+            }
+        }
+        List<String> lexemes = new ArrayList<>();
+        tokenize(text, start, offset, lexemes);
+
+        if (lexemes.isEmpty()) {
+            return null;
+        }
+        char last = offset > 0 ? text.charAt(offset - 1) : '\n';
+
+        // An identifier at the caret is either being typed or complete
+        if (Character.isJavaIdentifierPart(last)) {
+            String partial = lexemes.remove(lexemes.size() - 1);
+            Prediction completed = predict(lexemes, partial, minConfidence);
+            if (completed != null) {
+                return completed;
+            }
+            lexemes.add(partial);
+            return predict(lexemes, null, minConfidence);
+        }
+
+        // After a space the next token must be one that follows a space
+        boolean afterSpace = (last == ' ' || last == '\t')
+                && !lexemes.get(lexemes.size() - 1).equals(NEWLINE_TEXT);
+        return predict(lexemes, afterSpace ? " " : null, minConfidence);
+    }
+
+    // Prediction following the tokens, continuing the partial token if there
+    // is one
+    private synchronized Prediction predict(List<String> lexemes, String partial, double minConfidence) {
+        int[] context = new int[CONTEXT_TOKENS];
+        int known = Math.min(CONTEXT_TOKENS, lexemes.size());
+        for (int i = 0; i < known; i++) {
+            Integer id = tokenIds.get(lexemes.get(lexemes.size() - known + i));
+            context[CONTEXT_TOKENS - known + i] = id != null ? id : UNKNOWN;
+        }
+
+        StringBuilder suggestion = new StringBuilder();
+        double confidence = 1.0;
+        Prediction best = null;
+        for (int step = 0; step < MAX_SUGGESTED_TOKENS; step++) {
+            long next = next(context, known, partial);
+            if (next < 0) {
+                break;
+            }
+            int id = (int) (next >>> 32);
+            confidence *= Float.intBitsToFloat((int) next);
+            if (confidence < minConfidence || id == NEWLINE || id == UNKNOWN) {
+                break;
+            }
+
+            String token = tokenTexts.get(id);
+            suggestion.append(token, partial != null ? partial.length() : 0, token.length());
+            partial = null;
+            if (!suggestion.toString().isBlank()) {
+                best = new Prediction(suggestion.toString(), confidence);
+            }
+            // A statement or block header ends the suggestion
+            if (token.endsWith(";") || token.endsWith("{")) {
+                break;
+            }
+
+            System.arraycopy(context, 1, context, 0, CONTEXT_TOKENS - 1);
+            context[CONTEXT_TOKENS - 1] = id;
+            known = Math.min(CONTEXT_TOKENS, known + 1);
+        }
+        return best;
+    }
+
+    synchronized int getContextCount() {
+        return contexts;
+    }
+
+    synchronized int getVocabularySize() {
+        return tokenTexts.size();
+    }
+
+    // Most likely next token from the longest trusted context, packed as the
+    // token id in the high and the probability as float bits in the low half;
+    // -1 if there is none. Must hold the lock.
+    private long next(int[] context, int known, String partial) {
+        for (int order = Math.min(known, CONTEXT_TOKENS); order >= 1; order--) {
+            long key = contextKey(context, order);
+            if (key == 0) {
+                continue;
+            }
+            int slot = find(key, false);
+            if (slot < 0 || totals[slot] < MIN_COUNT) {
+                continue;
+            }
+
+            int bestToken = -1;
+            int bestCount = 0;
+            int matching = 0;
+            for (int i = slot * SLOT_WIDTH; i < (slot + 1) * SLOT_WIDTH; i++) {
+                int count = nextCounts[i];
+                if (count == 0) {
+                    continue;
+                }
+                String token = tokenTexts.get(nextTokens[i]);
+                if (partial != null && (!token.startsWith(partial) || token.length() == partial.length())) {
+                    continue;
+                }
+                matching += count;
+                if (count > bestCount) {
+                    bestCount = count;
+                    bestToken = nextTokens[i];
+                }
+            }
+            if (bestCount < MIN_COUNT) {
+                continue;
+            }
+
+            // With a partial token the prefix already rules out the others
+            double probability = (double) bestCount / (partial != null ? matching : totals[slot]);
+            float weighted = (float) (probability * ORDER_WEIGHT[order]);
+            return ((long) bestToken << 32) | (Float.floatToIntBits(weighted) & 0xFFFFFFFFL);
+        }
+        return -1;
+    }
+
+    // Must hold the lock
+    private int intern(String lexeme) {
+        Integer id = tokenIds.get(lexeme);
+        if (id != null) {
+            return id;
+        }
+        if (tokenTexts.size() >= maxVocabulary || lexeme.equals(UNKNOWN_TEXT)) {
+            return UNKNOWN;
+        }
+        int newId = tokenTexts.size();
+        tokenTexts.add(lexeme);
+        tokenIds.put(lexeme, newId);
+        return newId;
+    }
+
+    // Must hold the lock
+    private void count(long key, int token) {
+        int slot = find(key, true);
+        if (slot < 0) {
+            return;
+        }
+        if (++totals[slot] == Integer.MAX_VALUE / 2) {
+            halve(slot);
+        }
+
+        int base = slot * SLOT_WIDTH;
+        int min = base;
+        for (int i = base; i < base + SLOT_WIDTH; i++) {
+            if (nextCounts[i] > 0 && nextTokens[i] == token) {
+                nextCounts[i]++;
+                return;
+            }
+            if (nextCounts[i] < nextCounts[min]) {
+                min = i;
+            }
+        }
+        // Space-saving: the new token takes over the rarest entry and inherits
+        // its count, which bounds how far off any kept count can be
+        nextTokens[min] = token;
+        nextCounts[min]++;
+    }
+
+    // Must hold the lock
+    private void halve(int slot) {
+        totals[slot] /= 2;
+        for (int i = slot * SLOT_WIDTH; i < (slot + 1) * SLOT_WIDTH; i++) {
+            nextCounts[i] /= 2;
+        }
+    }
+
+    // Slot of the key, or -1 if it is absent and can't be added. Must hold
+    // the lock.
+    private int find(long key, boolean add) {
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!add || contexts >= maxContexts) {
+            return -1;
+        }
+        keys[slot] = key;
+        contexts++;
+        return slot;
+    }
+
+    // Hash of the last {@code order} tokens of the context, or 0 if one of
+    // them is unknown
+    private static long contextKey(int[] context, int order) {
+        long hash = order;
+        for (int i = CONTEXT_TOKENS - order; i < CONTEXT_TOKENS; i++) {
+            if (context[i] == UNKNOWN) {
+                return 0;
+            }
+            hash = hash * 0x9E3779B97F4A7C15L + context[i];
+        }
+        // MurmurHash3 finalizer
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Splits code into tokens. A token that follows horizontal whitespace
+     * starts with a single space, line breaks are tokens of their own and
+     * indentation, comments and blank lines are dropped.
+     */
+    static void tokenize(CharSequence text, int from, int to, List<String> out) {
+        boolean space = false;
+        boolean lineStart = true;
+        int i = from;
+        while (i < to) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                if (!out.isEmpty() && !out.get(out.size() - 1).equals(NEWLINE_TEXT)) {
+                    out.add(NEWLINE_TEXT);
+                }
+                space = false;
+                lineStart = true;
+                i++;
+                continue;
+            }
+            if (c == ' ' || c == '\t' || c == '\r') {
+                space = !lineStart;
+                i++;
+                continue;
+            }
+
+            int end;
+            if (c == '/' && i + 1 < to && text.charAt(i + 1) == '/') {
+                end = i;
+                while (end < to && text.charAt(end) != '\n') {
+                    end++;
+                }
+                i = end;
+                continue;
+            } else if (c == '/' && i + 1 < to && text.charAt(i + 1) == '*') {
+                end = i + 3;
+                while (end < to && !(text.charAt(end - 1) == '*' && text.charAt(end) == '/')) {
+                    end++;
+                }
+                i = Math.min(to, end + 1);
+                continue;
+            } else if (Character.isJavaIdentifierStart(c) || Character.isDigit(c)) {
+                end = i + 1;
+                while (end < to && Character.isJavaIdentifierPart(text.charAt(end))) {
+                    end++;
+                }
+            } else if (c == '"' || c == '\'') {
+                end = i + 1;
+                while (end < to && text.charAt(end) != c && text.charAt(end) != '\n') {
+                    end += text.charAt(end) == '\\' ? 2 : 1;
+                }
+                end = Math.min(to, end + 1);
+            } else if (i + 1 < to && OPERATORS.contains(text.subSequence(i, i + 2).toString())) {
+                end = i + 2;
+            } else {
+                end = i + 1;
+            }
+
+            String lexeme = end - i > MAX_TOKEN_LENGTH ? UNKNOWN_TEXT : text.subSequence(i, end).toString();
+            out.add(space ? " " + lexeme : lexeme);
+            space = false;
+            lineStart = false;
+            i = end;
+        }
+    }
+}
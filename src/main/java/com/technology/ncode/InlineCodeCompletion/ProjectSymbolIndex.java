@@ -0,0 +1,318 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiNameIdentifierOwner;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Index of the declarations in a project's sources, keyed by name, so the
+ * completion context can include the signatures of symbols defined in other
+ * files. Top-level declarations and their members are taken from the generic
+ * PSI, so every language with a parser is covered. The index is stored per
+ * project in a memory-mapped {@link SymbolStore} under the IDE's system
+ * directory; after a restart only files that changed on disk are parsed
+ * again, and edits are picked up from PSI and VFS events once a file has been
+ * quiet for a moment.
+ */
+@Service(Service.Level.PROJECT)
+public final class ProjectSymbolIndex implements Disposable {
+    private static final Logger LOG = Logger.getInstance(ProjectSymbolIndex.class);
+
+    // Names declared more often than this (get, run, value) say little
+    static final int MAX_DECLARATIONS_PER_NAME = 3;
+
+    private static final int MIN_NAME_LENGTH = 3;
+    private static final int MAX_SIGNATURE_CHARS = 200;
+    private static final int MAX_DECLARATIONS_PER_FILE = 500;
+    private static final int MAX_FILE_CHARS = 512 * 1024;
+    private static final int MAX_INDEXED_FILES = 20_000;
+    // Edited files are indexed once they've been quiet this long
+    private static final long UPDATE_DELAY_MS = 2_000;
+
+    private final Project project;
+    private final ExecutorService executor =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("NCode Symbol Index", 1);
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final Set<VirtualFile> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean updateScheduled = new AtomicBoolean(false);
+    // Null until opened on the executor, or if it can't be
+    private volatile SymbolStore store;
+
+    public ProjectSymbolIndex(Project project) {
+        this.project = project;
+    }
+
+    static ProjectSymbolIndex getInstance(Project project) {
+        return project.getService(ProjectSymbolIndex.class);
+    }
+
+    /**
+     * Looks up the signatures of the names declared outside the file. Until
+     * the index is open nothing is found.
+     *
+     * @param exclude File whose own declarations are already in the context
+     * @return Signatures by name, in the order of the names
+     */
+    Map<String, List<String>> lookup(List<String> names, @Nullable VirtualFile exclude) {
+        ensureStarted();
+        SymbolStore current = store;
+        if (current == null || names.isEmpty()) {
+            return Map.of();
+        }
+        return current.lookup(names, exclude != null ? exclude.getPath() : null, MAX_DECLARATIONS_PER_NAME);
+    }
+
+    private void ensureStarted() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        project.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void after(@NotNull List<? extends @NotNull VFileEvent> events) {
+                for (VFileEvent event : events) {
+                    fileChanged(event);
+                }
+            }
+        });
+        PsiManager.getInstance(project).addPsiTreeChangeListener(new PsiTreeChangeAdapter() {
+            @Override
+            public void childAdded(@NotNull PsiTreeChangeEvent event) {
+                psiChanged(event);
+            }
+
+            @Override
+            public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+                psiChanged(event);
+            }
+
+            @Override
+            public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+                psiChanged(event);
+            }
+
+            @Override
+            public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+                psiChanged(event);
+            }
+        }, this);
+        executor.execute(this::initialize);
+    }
+
+    private void initialize() {
+        Path path = Path.of(PathManager.getSystemPath(), "ncode", "symbols", project.getLocationHash() + ".dat");
+        try {
+            store = SymbolStore.open(path);
+        } catch (IOException e) {
+            LOG.warn("Could not open the symbol index at " + path, e);
+            return;
+        }
+
+        // Parse what changed since the index was last updated
+        long start = System.currentTimeMillis();
+        List<VirtualFile> files = new ArrayList<>();
+        ReadAction.run(() -> ProjectFileIndex.getInstance(project).iterateContent(file -> {
+            if (isIndexable(file)) {
+                files.add(file);
+            }
+            return files.size() < MAX_INDEXED_FILES && !project.isDisposed();
+        }));
+        Set<String> stale = store.getPaths();
+        int parsed = 0;
+        for (VirtualFile file : files) {
+            if (project.isDisposed()) {
+                return;
+            }
+            stale.remove(file.getPath());
+            if (store.getStamp(file.getPath()) != file.getTimeStamp()) {
+                indexFile(file);
+                parsed++;
+            }
+        }
+        if (files.size() < MAX_INDEXED_FILES) {
+            stale.forEach(store::remove);
+        }
+        LOG.info("Symbol index of " + files.size() + " files updated in "
+                + (System.currentTimeMillis() - start) + "ms, " + parsed + " parsed, "
+                + store.getSymbolCount() + " names");
+    }
+
+    private void fileChanged(VFileEvent event) {
+        if (event instanceof VFileDeleteEvent) {
+            String path = event.getPath();
+            executor.execute(() -> removeFile(path));
+        } else if (event instanceof VFileMoveEvent) {
+            String oldPath = ((VFileMoveEvent) event).getOldPath();
+            executor.execute(() -> removeFile(oldPath));
+            schedule(event.getFile());
+        } else if (event instanceof VFilePropertyChangeEvent && ((VFilePropertyChangeEvent) event).isRename()) {
+            String oldPath = ((VFilePropertyChangeEvent) event).getOldPath();
+            executor.execute(() -> removeFile(oldPath));
+            schedule(event.getFile());
+        } else if (event instanceof VFileContentChangeEvent || event instanceof VFileCreateEvent) {
+            schedule(event.getFile());
+        }
+    }
+
+    private void psiChanged(PsiTreeChangeEvent event) {
+        PsiFile file = event.getFile();
+        if (file != null) {
+            schedule(file.getVirtualFile());
+        }
+    }
+
+    // Collects changed files and indexes them together after a delay, so
+    // typing doesn't parse the file on every keystroke
+    private void schedule(@Nullable VirtualFile file) {
+        if (file == null || file.isDirectory()) {
+            return;
+        }
+        pending.add(file);
+        if (updateScheduled.compareAndSet(false, true)) {
+            AppExecutorUtil.getAppScheduledExecutorService().schedule(
+                    () -> executor.execute(this::indexPending), UPDATE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void indexPending() {
+        updateScheduled.set(false);
+        for (VirtualFile file : new HashSet<>(pending)) {
+            pending.remove(file);
+            if (project.isDisposed()) {
+                return;
+            }
+            indexFile(file);
+        }
+    }
+
+    private void indexFile(VirtualFile file) {
+        SymbolStore current = store;
+        if (current == null || project.isDisposed()) {
+            return;
+        }
+        try {
+            List<SymbolStore.Declaration> declarations = ReadAction.compute(() -> {
+                if (!isIndexable(file)) {
+                    return null;
+                }
+                PsiFile psiFile = PsiManager.getInstance(project).findFile(file);
+                return psiFile != null ? extractDeclarations(psiFile) : null;
+            });
+            if (declarations != null) {
+                current.put(file.getPath(), file.getTimeStamp(), declarations);
+            } else {
+                current.remove(file.getPath());
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not index symbols of " + file.getPath(), e);
+        }
+    }
+
+    private void removeFile(String path) {
+        SymbolStore current = store;
+        if (current != null) {
+            current.remove(path);
+        }
+    }
+
+    // Must be called in a read action
+    private boolean isIndexable(VirtualFile file) {
+        return file.isValid()
+                && !file.isDirectory()
+                && !file.getFileType().isBinary()
+                && file.getLength() <= MAX_FILE_CHARS
+                && ProjectFileIndex.getInstance(project).isInSourceContent(file);
+    }
+
+    /**
+     * Returns the named declarations of the file that are visible outside a
+     * body: types, functions and their members, but not locals. Must be
+     * called in a read action.
+     */
+    private static List<SymbolStore.Declaration> extractDeclarations(PsiFile file) {
+        CharSequence text = file.getViewProvider().getContents();
+        List<SymbolStore.Declaration> declarations = new ArrayList<>();
+        PsiTreeUtil.processElements(file, element -> {
+            if (element instanceof PsiNameIdentifierOwner && isOutsideBody(element)) {
+                PsiNameIdentifierOwner owner = (PsiNameIdentifierOwner) element;
+                String name = owner.getName();
+                PsiElement nameIdentifier = owner.getNameIdentifier();
+                if (name != null && name.length() >= MIN_NAME_LENGTH && nameIdentifier != null) {
+                    declarations.add(new SymbolStore.Declaration(name,
+                            signature(text, nameIdentifier.getTextOffset())));
+                }
+            }
+            return declarations.size() < MAX_DECLARATIONS_PER_FILE;
+        });
+        return declarations;
+    }
+
+    // A declaration nested in two others (a local in a method of a class)
+    // is taken to be inside a body
+    private static boolean isOutsideBody(PsiElement element) {
+        PsiElement outer = PsiTreeUtil.getParentOfType(element, PsiNameIdentifierOwner.class, true);
+        return outer == null || PsiTreeUtil.getParentOfType(outer, PsiNameIdentifierOwner.class, true) == null;
+    }
+
+    // The line with the declaration's name
+    private static String signature(CharSequence text, int offset) {
+        offset = Math.max(0, Math.min(offset, text.length()));
+        int start = offset;
+        while (start > 0 && text.charAt(start - 1) != '\n') {
+            start--;
+        }
+        int end = offset;
+        while (end < text.length() && text.charAt(end) != '\n' && end - start < MAX_SIGNATURE_CHARS) {
+            end++;
+        }
+        return text.subSequence(start, end).toString().strip();
+    }
+
+    @Override
+    public void dispose() {
+        executor.shutdownNow();
+        SymbolStore current = store;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                LOG.warn("Could not close the symbol index", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Declarations of a project's symbols, kept in a memory-mapped file with one
+ * record per source file. Only the index from names to record positions lives
+ * on the heap; signatures are read from the mapping when they are looked up.
+ * A file that is indexed again gets a new record and its old one is marked
+ * dead; once most of the file is dead it is compacted in place.
+ * <p>
+ * Layout: a header of magic, version and used length, then records of
+ * {@code [live byte][int length][long stamp][path][int count]} followed by
+ * {@code count} pairs of name and signature. Strings are an unsigned short
+ * length and UTF-8 bytes.
+ */
+final class SymbolStore implements Closeable {
+    private static final int MAGIC = 0x4E435359;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int USED_OFFSET = 8;
+    private static final int INITIAL_CAPACITY = 1 << 20;
+    private static final int MAX_CAPACITY = 1 << 30;
+    // Compact once this much is dead and it's more than half the file
+    private static final int MIN_COMPACTION_BYTES = 1 << 20;
+    private static final int MIN_RECORD_SIZE = 1 + 4 + 8 + 2 + 4;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    private static final byte LIVE = 1;
+    private static final byte DEAD = 0;
+
+    /**
+     * A declared name and the signature line of its declaration.
+     */
+    static final class Declaration {
+        final String name;
+        final String signature;
+
+        Declaration(String name, String signature) {
+            this.name = name;
+            this.signature = signature;
+        }
+    }
+
+    private static final class FileRecord {
+        final int offset;
+        final int length;
+        final long stamp;
+        final String[] names;
+
+        FileRecord(int offset, int length, long stamp, String[] names) {
+            this.offset = offset;
+            this.length = length;
+            this.stamp = stamp;
+            this.names = names;
+        }
+
+        boolean contains(int position) {
+            return position >= offset && position < offset + length;
+        }
+    }
+
+    // All guarded by this
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int used;
+    private int deadBytes;
+    private boolean closed;
+    // Symbol name -> positions of the signatures declaring it
+    private final Map<String, int[]> positions = new HashMap<>();
+    // File path -> its live record
+    private final Map<String, FileRecord> files = new HashMap<>();
+
+    private SymbolStore(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Opens the store at the path, creating it if needed. A file that isn't a
+     * valid store, such as one left by an older version, is started over.
+     */
+    static SymbolStore open(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        SymbolStore store = new SymbolStore(channel);
+        try {
+            store.load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private synchronized void load() throws IOException {
+        long size = channel.size();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, INITIAL_CAPACITY));
+        if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            reset();
+            return;
+        }
+        used = buffer.getInt(USED_OFFSET);
+        boolean valid;
+        try {
+            // Mapping past the end of a truncated file fills it with zeros,
+            // which would read as records, so the used length must be on disk
+            valid = used >= HEADER_SIZE && used <= size && scan();
+        } catch (RuntimeException e) {
+            // Truncated strings or counts of a partly written record
+            valid = false;
+        }
+        if (!valid) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        setUsed(HEADER_SIZE);
+        positions.clear();
+        files.clear();
+        deadBytes = 0;
+    }
+
+    // Rebuilds the heap index from the records; false if one is corrupt
+    private boolean scan() {
+        positions.clear();
+        files.clear();
+        deadBytes = 0;
+        int position = HEADER_SIZE;
+        while (position < used) {
+            if (position + MIN_RECORD_SIZE > used) {
+                return false;
+            }
+            int length = buffer.getInt(position + 1);
+            if (length < MIN_RECORD_SIZE || length > used - position) {
+                return false;
+            }
+            if (buffer.get(position) == LIVE) {
+                index(position, length);
+            } else {
+                deadBytes += length;
+            }
+            position += length;
+        }
+        return true;
+    }
+
+    private void index(int offset, int length) {
+        long stamp = buffer.getLong(offset + 5);
+        int position = offset + 13;
+        String path = readString(position);
+        position += stringSize(position);
+        int count = buffer.getInt(position);
+        position += 4;
+
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = readString(position);
+            position += stringSize(position);
+            addPosition(names[i], position);
+            position += stringSize(position);
+        }
+
+        // A file indexed twice without the old record being marked dead,
+        // e.g. after a crash: the later record wins
+        FileRecord previous = files.put(path, new FileRecord(offset, length, stamp, names));
+        if (previous != null) {
+            markDead(previous);
+        }
+    }
+
+    /**
+     * Returns the stamp the file was indexed at, or -1 if it isn't indexed.
+     */
+    synchronized long getStamp(String path) {
+        FileRecord record = files.get(path);
+        return record != null ? record.stamp : -1;
+    }
+
+    synchronized Set<String> getPaths() {
+        return new HashSet<>(files.keySet());
+    }
+
+    synchronized int getSymbolCount() {
+        return positions.size();
+    }
+
+    /**
+     * Replaces the declarations of the file.
+     */
+    synchronized void put(String path, long stamp, List<Declaration> declarations) throws IOException {
+        if (closed) {
+            return;
+        }
+        removeRecord(path);
+
+        byte[] record = encode(path, stamp, declarations);
+        if (!ensureCapacity(record.length)) {
+            return;
+        }
+        int offset = used;
+        buffer.put(offset, record);
+        setUsed(offset + record.length);
+        index(offset, record.length);
+    }
+
+    /**
+     * Forgets the declarations of the file.
+     */
+    synchronized void remove(String path) {
+        if (!closed) {
+            removeRecord(path);
+        }
+    }
+
+    /**
+     * Looks up the signatures declaring each name, in one pass. Names that
+     * the excluded file declares itself, or that are declared more than
+     * {@code maxDeclarations} times and so say little, are left out.
+     *
+     * @param excludePath File whose declarations are already known, or null
+     * @return Signatures by name, in the order of the names
+     */
+    synchronized Map<String, List<String>> lookup(List<String> names, String excludePath, int maxDeclarations) {
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        if (closed) {
+            return result;
+        }
+        FileRecord excluded = excludePath != null ? files.get(excludePath) : null;
+        for (String name : names) {
+            int[] declared = positions.get(name);
+            if (declared == null || declared.length > maxDeclarations || result.containsKey(name)) {
+                continue;
+            }
+            List<String> signatures = new ArrayList<>(declared.length);
+            for (int position : declared) {
+                if (excluded != null && excluded.contains(position)) {
+                    signatures = null;
+                    break;
+                }
+                signatures.add(readString(position));
+            }
+            if (signatures != null) {
+                result.put(name, signatures);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        channel.close();
+    }
+
+    private void removeRecord(String path) {
+        FileRecord record = files.remove(path);
+        if (record == null) {
+            return;
+        }
+        markDead(record);
+        if (deadBytes >= MIN_COMPACTION_BYTES && deadBytes > (used - HEADER_SIZE) / 2) {
+            compact();
+        }
+    }
+
+    private void markDead(FileRecord record) {
+        buffer.put(record.offset, DEAD);
+        deadBytes += record.length;
+        for (String name : record.names) {
+            int[] declared = positions.get(name);
+            if (declared == null) {
+                continue;
+            }
+            int kept = 0;
+            for (int position : declared) {
+                if (!record.contains(position)) {
+                    declared[kept++] = position;
+                }
+            }
+            if (kept == 0) {
+                positions.remove(name);
+            } else if (kept < declared.length) {
+                positions.put(name, Arrays.copyOf(declared, kept));
+            }
+        }
+    }
+
+    // Moves the live records to the front, in place, so there is never a
+    // second file to rename over a mapped one
+    private void compact() {
+        int read = HEADER_SIZE;
+        int write = HEADER_SIZE;
+        byte[] copy = new byte[0];
+        while (read < used) {
+            int length = buffer.getInt(read + 1);
+            if (buffer.get(read) == LIVE) {
+                if (write != read) {
+                    if (copy.length < length) {
+                        copy = new byte[length];
+                    }
+                    buffer.get(read, copy, 0, length);
+                    buffer.put(write, copy, 0, length);
+                }
+                write += length;
+            }
+            read += length;
+        }
+        setUsed(write);
+        scan();
+    }
+
+    private boolean ensureCapacity(int length) throws IOException {
+        if ((long) used + length <= buffer.capacity()) {
+            return true;
+        }
+        if (deadBytes > 0) {
+            compact();
+            if ((long) used + length <= buffer.capacity()) {
+                return true;
+            }
+        }
+        long capacity = buffer.capacity();
+        while (capacity < (long) used + length) {
+            capacity *= 2;
+        }
+        if (capacity > MAX_CAPACITY) {
+            return false;
+        }
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        return true;
+    }
+
+    private void setUsed(int used) {
+        this.used = used;
+        buffer.putInt(USED_OFFSET, used);
+    }
+
+    private static byte[] encode(String path, long stamp, List<Declaration> declarations) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + declarations.size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(LIVE);
+        out.writeInt(0);
+        out.writeLong(stamp);
+        writeString(out, path);
+        out.writeInt(declarations.size());
+        for (Declaration declaration : declarations) {
+            writeString(out, declaration.name);
+            writeString(out, declaration.signature);
+        }
+        byte[] record = bytes.toByteArray();
+        // Patch in the length
+        int length = record.length;
+        record[1] = (byte) (length >>> 24);
+        record[2] = (byte) (length >>> 16);
+        record[3] = (byte) (length >>> 8);
+        record[4] = (byte) length;
+        return record;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(utf8.length, MAX_STRING_BYTES);
+        out.writeShort(length);
+        out.write(utf8, 0, length);
+    }
+
+    private String readString(int position) {
+        int length = buffer.getShort(position) & 0xFFFF;
+        byte[] utf8 = new byte[length];
+        buffer.get(position + 2, utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private int stringSize(int position) {
+        return 2 + (buffer.getShort(position) & 0xFFFF);
+    }
+
+    private void addPosition(String name, int position) {
+        int[] declared = positions.get(name);
+        if (declared == null) {
+            positions.put(name, new int[] { position });
+        } else {
+            int[] grown = Arrays.copyOf(declared, declared.length + 1);
+            grown[declared.length] = position;
+            positions.put(name, grown);
+        }
+    }
+}
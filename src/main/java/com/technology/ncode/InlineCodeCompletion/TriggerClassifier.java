@@ -0,0 +1,21 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+/**
+ * Decides, before any request is made, whether a completion at the caret is
+ * worth asking for. Runs on the EDT after every document change, so it must
+ * be cheap.
+ */
+interface TriggerClassifier {
+
+    /**
+     * Returns how likely a suggestion at the position is to be useful, from 0
+     * to 1.
+     */
+    double score(TriggerContext context);
+
+    /**
+     * Learns from whether a suggestion shown at the position was accepted.
+     */
+    default void recordOutcome(TriggerContext context, boolean accepted) {
+    }
+}
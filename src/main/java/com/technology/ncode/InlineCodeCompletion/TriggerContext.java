@@ -0,0 +1,147 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import com.intellij.lang.LanguageParserDefinitions;
+import com.intellij.lang.ParserDefinition;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.editor.highlighter.HighlighterIterator;
+import com.intellij.psi.tree.IElementType;
+
+/**
+ * What the {@link TriggerClassifier} knows about the caret position after an
+ * edit: the kind of edit, the lexer token the caret is in and the state of
+ * the line. Collected on the EDT from the editor's highlighter, which is
+ * already up to date, so no PSI is needed.
+ */
+final class TriggerContext {
+    enum EditKind {
+        INSERT, DELETE, REPLACE
+    }
+
+    enum TokenKind {
+        CODE, COMMENT, STRING
+    }
+
+    final EditKind editKind;
+    // Last character inserted, or 0 for a deletion
+    final char typedChar;
+    final TokenKind tokenKind;
+    // Identifier characters on both sides of the caret
+    final boolean midIdentifier;
+    // Something other than closing brackets, quotes or a semicolon follows
+    // the caret on its line
+    final boolean codeAfterCaret;
+    final boolean writable;
+    final int documentLength;
+
+    TriggerContext(EditKind editKind, char typedChar, TokenKind tokenKind, boolean midIdentifier,
+            boolean codeAfterCaret, boolean writable, int documentLength) {
+        this.editKind = editKind;
+        this.typedChar = typedChar;
+        this.tokenKind = tokenKind;
+        this.midIdentifier = midIdentifier;
+        this.codeAfterCaret = codeAfterCaret;
+        this.writable = writable;
+        this.documentLength = documentLength;
+    }
+
+    /**
+     * Describes the position at the end of the change.
+     */
+    static TriggerContext of(Editor editor, DocumentEvent event) {
+        Document document = editor.getDocument();
+        CharSequence text = document.getImmutableCharSequence();
+        int offset = Math.min(text.length(), event.getOffset() + event.getNewLength());
+
+        EditKind editKind = event.getNewLength() == 0 ? EditKind.DELETE
+                : event.getOldLength() == 0 ? EditKind.INSERT
+                : EditKind.REPLACE;
+        char typedChar = event.getNewLength() > 0 ? event.getNewFragment().charAt(event.getNewLength() - 1) : 0;
+        boolean writable = document.isWritable() && !editor.isViewer();
+        return of(text, offset, editKind, typedChar, tokenKind(editor, text, offset), writable);
+    }
+
+    /**
+     * Describes the position at the offset of the text, given what the
+     * editor knows about the edit and the token there.
+     */
+    static TriggerContext of(CharSequence text, int offset, EditKind editKind, char typedChar, TokenKind tokenKind,
+            boolean writable) {
+        boolean midIdentifier = offset > 0 && offset < text.length()
+                && Character.isJavaIdentifierPart(text.charAt(offset - 1))
+                && Character.isJavaIdentifierPart(text.charAt(offset));
+
+        boolean codeAfterCaret = false;
+        for (int i = offset; i < text.length() && text.charAt(i) != '\n'; i++) {
+            if (!isClosing(text.charAt(i))) {
+                codeAfterCaret = true;
+                break;
+            }
+        }
+
+        return new TriggerContext(editKind, typedChar, tokenKind, midIdentifier, codeAfterCaret, writable,
+                text.length());
+    }
+
+    /**
+     * Returns a key shared by positions that are alike for the purpose of
+     * learning how often suggestions there are accepted.
+     */
+    String positionKey() {
+        return editKind.name() + '/' + tokenKind.name() + '/' + charClass(typedChar) + '/'
+                + (codeAfterCaret ? "mid" : "end");
+    }
+
+    private static String charClass(char c) {
+        if (c == 0) {
+            return "none";
+        }
+        if (c == '\n') {
+            return "newline";
+        }
+        if (Character.isWhitespace(c)) {
+            return "space";
+        }
+        if (Character.isJavaIdentifierPart(c)) {
+            return "word";
+        }
+        return String.valueOf(c);
+    }
+
+    private static boolean isClosing(char c) {
+        return c == ')' || c == ']' || c == '}' || c == '"' || c == '\'' || c == '`' || c == ';' || c == ','
+                || c == ' ' || c == '\t' || c == '\r';
+    }
+
+    // Token the caret is in, from the token just before it
+    private static TokenKind tokenKind(Editor editor, CharSequence text, int offset) {
+        if (!(editor instanceof EditorEx) || offset == 0) {
+            return TokenKind.CODE;
+        }
+        HighlighterIterator iterator = ((EditorEx) editor).getHighlighter().createIterator(offset - 1);
+        if (iterator.atEnd()) {
+            return TokenKind.CODE;
+        }
+        IElementType tokenType = iterator.getTokenType();
+        ParserDefinition definition = LanguageParserDefinitions.INSTANCE.forLanguage(tokenType.getLanguage());
+        if (definition == null) {
+            return TokenKind.CODE;
+        }
+
+        // A token ending at the caret is only left behind if it was closed
+        int start = iterator.getStart();
+        boolean endsAtCaret = iterator.getEnd() <= offset;
+        if (definition.getCommentTokens().contains(tokenType)) {
+            boolean closed = endsAtCaret && offset - start >= 4
+                    && text.charAt(offset - 2) == '*' && text.charAt(offset - 1) == '/';
+            return closed ? TokenKind.CODE : TokenKind.COMMENT;
+        }
+        if (definition.getStringLiteralElements().contains(tokenType)) {
+            boolean closed = endsAtCaret && offset - start >= 2 && text.charAt(offset - 1) == text.charAt(start);
+            return closed ? TokenKind.CODE : TokenKind.STRING;
+        }
+        return TokenKind.CODE;
+    }
+}
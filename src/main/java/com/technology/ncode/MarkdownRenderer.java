@@ -0,0 +1,23 @@
+package com.technology.ncode;
+
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+
+/**
+ * Renders model responses from markdown to HTML for the tool windows.
+ * The flexmark parser and renderer are immutable and thread-safe, so they are
+ * built once instead of for every response.
+ */
+public final class MarkdownRenderer {
+    private static final MutableDataSet OPTIONS = new MutableDataSet();
+    private static final Parser PARSER = Parser.builder(OPTIONS).build();
+    private static final HtmlRenderer RENDERER = HtmlRenderer.builder(OPTIONS).build();
+
+    private MarkdownRenderer() {
+    }
+
+    public static String render(String markdown) {
+        return RENDERER.render(PARSER.parse(markdown));
+    }
+}
@@ -8,6 +8,8 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 import com.intellij.openapi.diagnostic.Logger;
@@ -25,6 +27,9 @@ public class UsageMetricsReporter {
 
     private static final String API_URL = EnvironmentConfig.USAGE_METRICS_API_URL;
     private static final String USAGE_METRICS_SECRET_KEY = EnvironmentConfig.USAGE_METRICS_SECRET_KEY;
+    // Sent with every report so latency can be compared across models and regions
+    private static final String MODEL_ID = EnvironmentConfig.VERTEX_MODEL_ID;
+    private static final String LOCATION = EnvironmentConfig.VERTEX_LOCATION;
     static{
         System.out.println("API_URL (env usagemetric): " + API_URL);
         System.out.println("USAGE_METRICS_SECRET_KEY (env usagemetric): " + USAGE_METRICS_SECRET_KEY);
@@ -59,6 +64,24 @@ public class UsageMetricsReporter {
             com.intellij.openapi.editor.Editor editor,
             String generatedText,
             boolean wasAccepted) {
+        return reportEditorMetrics(editor, generatedText, wasAccepted, Collections.emptyMap());
+    }
+
+    /**
+     * Reports usage metrics for a completion together with extra numeric
+     * metrics, such as the debounce delay in effect.
+     * 
+     * @param editor        The current editor instance
+     * @param generatedText The text that was suggested
+     * @param wasAccepted   Whether the suggestion was accepted by the user
+     * @param extraMetrics  Additional numeric fields added to the payload
+     * @return CompletableFuture representing the asynchronous operation
+     */
+    public static CompletableFuture<Void> reportEditorMetrics(
+            com.intellij.openapi.editor.Editor editor,
+            String generatedText,
+            boolean wasAccepted,
+            Map<String, ? extends Number> extraMetrics) {
 
         // Count lines in the generated text for metrics reporting
         int linesOfCodeSuggested = countLines(generatedText);
@@ -77,7 +100,8 @@ public class UsageMetricsReporter {
                 linesOfCodeSuggested,
                 linesOfCodeAccepted,
                 editor.getProject(),
-                "completion");
+                "completion",
+                extraMetrics);
     }
 
     /**
@@ -119,6 +143,31 @@ public class UsageMetricsReporter {
             int linesOfCodeAccepted,
             Project project,
             String requestType) {
+        return reportMetricsAsync(email, projectId, linesOfCodeSuggested, linesOfCodeAccepted, project,
+                requestType, Collections.emptyMap());
+    }
+
+    /**
+     * Reports usage metrics asynchronously to the backend service, adding extra
+     * numeric fields to the payload.
+     * 
+     * @param email                User email (optional, can be empty)
+     * @param projectId            Project identifier (optional, can be empty)
+     * @param linesOfCodeSuggested Number of lines suggested
+     * @param linesOfCodeAccepted  Number of lines accepted
+     * @param project              Current project (for displaying notifications)
+     * @param requestType          Type of request (completion or explanation)
+     * @param extraMetrics         Additional numeric fields, keyed by JSON field name
+     * @return CompletableFuture representing the asynchronous operation
+     */
+    public static CompletableFuture<Void> reportMetricsAsync(
+            String email,
+            String projectId,
+            int linesOfCodeSuggested,
+            int linesOfCodeAccepted,
+            Project project,
+            String requestType,
+            Map<String, ? extends Number> extraMetrics) {
 
         // Use "niveus-ncode" as default value if email is empty
         String emailToUse = (email == null || email.isEmpty()) ? "niveus-ncode" : email;
@@ -126,17 +175,13 @@ public class UsageMetricsReporter {
         String projectIdToUse = (projectId == null || projectId.isEmpty()) ? "niveus-ncode" : projectId;
 
         // Create the JSON payload
-        String jsonPayload = String.format(
-                "{\"secretKey\":\"%s\",\"email\":\"%s\",\"projectId\":\"%s\"," +
-                        "\"requestType\":\"%s\",\"extensionType\":\"%s\"," +
-                        "\"linesOfCodeSuggested\":%d,\"linesOfCodeAccepted\":%d}",
-                USAGE_METRICS_SECRET_KEY,
+        String jsonPayload = buildPayload(
                 emailToUse,
                 projectIdToUse,
-                requestType,
-                EXTENSION_TYPE,
                 linesOfCodeSuggested,
-                linesOfCodeAccepted);
+                linesOfCodeAccepted,
+                requestType,
+                extraMetrics);
 
         // Create the HTTP request
         HttpRequest request = HttpRequest.newBuilder()
@@ -162,6 +207,49 @@ public class UsageMetricsReporter {
                 });
     }
 
+    /**
+     * Builds the JSON payload sent to the metrics API.
+     * 
+     * @param email                User email
+     * @param projectId            Project identifier
+     * @param linesOfCodeSuggested Number of lines suggested
+     * @param linesOfCodeAccepted  Number of lines accepted
+     * @param requestType          Type of request
+     * @param extraMetrics         Additional numeric fields, keyed by JSON field name
+     * @return The JSON payload
+     */
+    static String buildPayload(
+            String email,
+            String projectId,
+            int linesOfCodeSuggested,
+            int linesOfCodeAccepted,
+            String requestType,
+            Map<String, ? extends Number> extraMetrics) {
+        StringBuilder payload = new StringBuilder(256);
+        payload.append(String.format(
+                "{\"secretKey\":\"%s\",\"email\":\"%s\",\"projectId\":\"%s\"," +
+                        "\"requestType\":\"%s\",\"extensionType\":\"%s\"," +
+                        "\"modelId\":\"%s\",\"location\":\"%s\"," +
+                        "\"linesOfCodeSuggested\":%d,\"linesOfCodeAccepted\":%d",
+                USAGE_METRICS_SECRET_KEY,
+                email,
+                projectId,
+                requestType,
+                EXTENSION_TYPE,
+                MODEL_ID,
+                LOCATION,
+                linesOfCodeSuggested,
+                linesOfCodeAccepted));
+
+        if (extraMetrics != null) {
+            for (Map.Entry<String, ? extends Number> metric : extraMetrics.entrySet()) {
+                payload.append(",\"").append(metric.getKey()).append("\":").append(metric.getValue());
+            }
+        }
+
+        return payload.append('}').toString();
+    }
+
     /**
      * Gets the user email and project ID with default values if not available.
      * 
@@ -10,7 +10,26 @@ public class EnvironmentConfig {
     // Google Cloud/Vertex AI
     public static final String VERTEX_PROJECT_ID = dotenv.get("VERTEX_PROJECT_ID");
     public static final String VERTEX_LOCATION = dotenv.get("VERTEX_LOCATION");
+    // Comma-separated locations inline completions are routed across, e.g.
+    // "us-central1,us-east4"; defaults to VERTEX_LOCATION alone
+    public static final String VERTEX_LOCATIONS = dotenv.get("VERTEX_LOCATIONS");
     public static final String VERTEX_MODEL_ID = dotenv.get("VERTEX_MODEL_ID");
+    // Overrides the regional endpoint, e.g. for a local test server
+    public static final String VERTEX_API_ENDPOINT = dotenv.get("VERTEX_API_ENDPOINT");
+    // Set to "false" to stop registering prompt prefixes as cached content
+    public static final String VERTEX_CONTEXT_CACHE = dotenv.get("VERTEX_CONTEXT_CACHE");
+    // Vertex AI embedding model for related code, e.g. "text-embedding-005";
+    // without one, embeddings are computed locally
+    public static final String VERTEX_EMBEDDING_MODEL = dotenv.get("VERTEX_EMBEDDING_MODEL");
+    // Admission limits for model requests, see AdmissionController
+    public static final String VERTEX_MAX_IN_FLIGHT = dotenv.get("VERTEX_MAX_IN_FLIGHT");
+    public static final String VERTEX_MAX_IN_FLIGHT_PER_PROJECT = dotenv.get("VERTEX_MAX_IN_FLIGHT_PER_PROJECT");
+    public static final String VERTEX_REQUESTS_PER_MINUTE = dotenv.get("VERTEX_REQUESTS_PER_MINUTE");
+    public static final String VERTEX_TOKENS_PER_MINUTE = dotenv.get("VERTEX_TOKENS_PER_MINUTE");
+
+    // Inline completion
+    public static final String COMPLETION_CONTEXT_TOKEN_BUDGET = dotenv.get("COMPLETION_CONTEXT_TOKEN_BUDGET");
+    public static final String COMPLETION_CANDIDATES = dotenv.get("COMPLETION_CANDIDATES");
     
     // Usage metrics
     public static final String USAGE_METRICS_API_URL = dotenv.get("USAGE_METRICS_API_URL");
@@ -0,0 +1,251 @@
+package com.technology.ncode.vertexai;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.vertexai.api.GenerationConfig;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.intellij.openapi.diagnostic.Logger;
+import com.technology.ncode.config.EnvironmentConfig;
+
+/**
+ * Decides whether a model request may be sent now. Caps the number of
+ * requests in flight per project and across the IDE, and paces requests and
+ * model tokens per minute with token buckets, so a busy team stays under the
+ * Vertex AI project quota instead of everyone's completions failing with 429s.
+ * Requests wait up to a caller-given time to be admitted and are rejected with
+ * {@link AdmissionRejectedException} after that.
+ */
+public final class AdmissionController {
+    private static final Logger LOG = Logger.getInstance(AdmissionController.class);
+
+    // Scope for callers that don't belong to a project
+    public static final String DEFAULT_SCOPE = "default";
+
+    // How long chat, documentation and test generation wait for admission;
+    // inline completions don't wait, a late suggestion is useless
+    public static final Duration INTERACTIVE_WAIT = Duration.ofSeconds(30);
+
+    static final int DEFAULT_MAX_IN_FLIGHT = 8;
+    static final int DEFAULT_MAX_IN_FLIGHT_PER_PROJECT = 4;
+    static final long DEFAULT_REQUESTS_PER_MINUTE = 300;
+    static final long DEFAULT_TOKENS_PER_MINUTE = 1_000_000;
+
+    private final int maxInFlight;
+    private final int maxInFlightPerScope;
+    private final Semaphore globalSlots;
+    private final Map<String, Semaphore> scopeSlots = new ConcurrentHashMap<>();
+    private final LongSupplier nanoClock;
+
+    // Guarded by this
+    private final TokenBucket requestBucket;
+    private final TokenBucket tokenBucket;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public AdmissionController() {
+        this(configured("VERTEX_MAX_IN_FLIGHT", EnvironmentConfig.VERTEX_MAX_IN_FLIGHT, DEFAULT_MAX_IN_FLIGHT),
+                configured("VERTEX_MAX_IN_FLIGHT_PER_PROJECT", EnvironmentConfig.VERTEX_MAX_IN_FLIGHT_PER_PROJECT,
+                        DEFAULT_MAX_IN_FLIGHT_PER_PROJECT),
+                configured("VERTEX_REQUESTS_PER_MINUTE", EnvironmentConfig.VERTEX_REQUESTS_PER_MINUTE,
+                        DEFAULT_REQUESTS_PER_MINUTE),
+                configured("VERTEX_TOKENS_PER_MINUTE", EnvironmentConfig.VERTEX_TOKENS_PER_MINUTE,
+                        DEFAULT_TOKENS_PER_MINUTE),
+                System::nanoTime);
+    }
+
+    /**
+     * @param maxInFlight         Requests in flight across all projects
+     * @param maxInFlightPerScope Requests in flight per project
+     * @param requestsPerMinute   Sustained request rate; a full minute's worth
+     *                            may be sent in a burst
+     * @param tokensPerMinute     Sustained rate of estimated prompt and output
+     *                            tokens
+     * @param nanoClock           Time source in nanoseconds
+     */
+    AdmissionController(int maxInFlight, int maxInFlightPerScope, long requestsPerMinute, long tokensPerMinute,
+            LongSupplier nanoClock) {
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightPerScope = maxInFlightPerScope;
+        this.globalSlots = new Semaphore(maxInFlight);
+        this.nanoClock = nanoClock;
+        long minute = TimeUnit.MINUTES.toNanos(1);
+        long now = nanoClock.getAsLong();
+        this.requestBucket = new TokenBucket(requestsPerMinute, minute, now);
+        this.tokenBucket = new TokenBucket(tokensPerMinute, minute, now);
+    }
+
+    /**
+     * A slot for one request in flight; closing it lets the next one in.
+     */
+    public final class Permit implements AutoCloseable {
+        private final Semaphore scope;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Semaphore scope) {
+            this.scope = scope;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                globalSlots.release();
+                scope.release();
+            }
+        }
+    }
+
+    /**
+     * Waits until the request may be sent.
+     *
+     * @param scope           Project the request is made for, see
+     *                        {@link #DEFAULT_SCOPE}
+     * @param estimatedTokens Prompt and output tokens the request will use
+     * @param maxWait         How long to wait; zero to fail straight away
+     * @return A permit to close once the response is complete
+     * @throws AdmissionRejectedException If the request would have to wait
+     *                                    longer than {@code maxWait}
+     */
+    public Permit acquire(String scope, long estimatedTokens, Duration maxWait) throws IOException {
+        long deadline = nanoClock.getAsLong() + maxWait.toNanos();
+        takeRate(estimatedTokens, deadline);
+
+        Semaphore scopeSlot = scopeSlots.computeIfAbsent(scope, s -> new Semaphore(maxInFlightPerScope));
+        try {
+            if (!scopeSlot.tryAcquire(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                giveBackRate(estimatedTokens);
+                throw reject("Too many model requests in flight for this project");
+            }
+            if (!globalSlots.tryAcquire(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                scopeSlot.release();
+                giveBackRate(estimatedTokens);
+                throw reject("Too many model requests in flight");
+            }
+        } catch (InterruptedException e) {
+            giveBackRate(estimatedTokens);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send a model request");
+        }
+
+        admitted.incrementAndGet();
+        return new Permit(scopeSlot);
+    }
+
+    /**
+     * Runs a blocking call once admitted and frees its slot when it returns.
+     */
+    public <T> T call(String scope, long estimatedTokens, Duration maxWait, SingleFlight.Call<T> call)
+            throws IOException {
+        try (Permit permit = acquire(scope, estimatedTokens, maxWait)) {
+            return call.call();
+        }
+    }
+
+    /**
+     * Starts an asynchronous call once admitted and frees its slot when the
+     * returned future completes.
+     */
+    public <T> ApiFuture<T> callAsync(String scope, long estimatedTokens, Duration maxWait,
+            SingleFlight.Call<ApiFuture<T>> call) throws IOException {
+        Permit permit = acquire(scope, estimatedTokens, maxWait);
+        try {
+            ApiFuture<T> future = call.call();
+            future.addListener(permit::close, MoreExecutors.directExecutor());
+            return future;
+        } catch (IOException | RuntimeException | Error e) {
+            permit.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Estimates the tokens a request uses: about four characters per prompt
+     * token plus the most the model may generate.
+     */
+    public static long estimateTokens(GenerationConfig generationConfig, String... promptParts) {
+        long chars = 0;
+        for (String part : promptParts) {
+            if (part != null) {
+                chars += part.length();
+            }
+        }
+        return chars / 4 + generationConfig.getMaxOutputTokens();
+    }
+
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("requestsAdmitted", admitted.get());
+        metrics.put("requestsRejected", rejected.get());
+        metrics.put("requestsInFlight", maxInFlight - globalSlots.availablePermits());
+        return metrics;
+    }
+
+    private void takeRate(long estimatedTokens, long deadline) throws IOException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                long now = nanoClock.getAsLong();
+                waitNanos = requestBucket.tryTake(1, now);
+                if (waitNanos == 0) {
+                    waitNanos = tokenBucket.tryTake(estimatedTokens, now);
+                    if (waitNanos == 0) {
+                        return;
+                    }
+                    requestBucket.giveBack(1);
+                }
+                // Don't wait for capacity that won't be there in time
+                if (now + waitNanos > deadline) {
+                    throw reject("Model request rate limit reached");
+                }
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to send a model request");
+            }
+        }
+    }
+
+    private synchronized void giveBackRate(long estimatedTokens) {
+        requestBucket.giveBack(1);
+        tokenBucket.giveBack(estimatedTokens);
+    }
+
+    private long remaining(long deadline) {
+        return Math.max(0, deadline - nanoClock.getAsLong());
+    }
+
+    private AdmissionRejectedException reject(String message) {
+        rejected.incrementAndGet();
+        return new AdmissionRejectedException(message);
+    }
+
+    private static int configured(String name, String value, int defaultValue) {
+        return (int) configured(name, value, (long) defaultValue);
+    }
+
+    private static long configured(String name, String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+}
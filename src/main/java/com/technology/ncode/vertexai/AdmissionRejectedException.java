@@ -0,0 +1,14 @@
+package com.technology.ncode.vertexai;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a model request is not admitted because the plugin is at its
+ * in-flight or rate limit and the request could not wait any longer.
+ */
+public class AdmissionRejectedException extends IOException {
+
+    public AdmissionRejectedException(String message) {
+        super(message);
+    }
+}
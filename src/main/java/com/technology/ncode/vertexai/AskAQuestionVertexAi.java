@@ -3,41 +3,73 @@ package com.technology.ncode.vertexai;
 import java.io.IOException;
 import java.util.List;
 
-import com.google.cloud.vertexai.VertexAI;
 import com.google.cloud.vertexai.api.Candidate;
 import com.google.cloud.vertexai.api.Content;
 import com.google.cloud.vertexai.api.GenerateContentResponse;
 import com.google.cloud.vertexai.api.GenerationConfig;
 import com.google.cloud.vertexai.api.Part;
-import com.google.cloud.vertexai.generativeai.GenerativeModel;
 import com.technology.ncode.config.EnvironmentConfig;
 
 public class AskAQuestionVertexAi {
-    private static final String PROJECT_ID = EnvironmentConfig.VERTEX_PROJECT_ID;
-    private static final String LOCATION = EnvironmentConfig.VERTEX_LOCATION;
     private static final String MODEL_ID = EnvironmentConfig.VERTEX_MODEL_ID;
 
+    private static final GenerationConfig GENERATION_CONFIG = GenerationConfig.newBuilder()
+            .setTemperature(0.3f)
+            .setMaxOutputTokens(300)
+            .setTopP(1.0f)
+            .setTopK(40)
+            .build();
+
+    private final VertexAiClientPool clientPool;
+    private final ContextCacheManager contextCache;
+    // Project the requests count against for admission
+    private final String scope;
+
+    public AskAQuestionVertexAi() {
+        this(VertexAiClientPool.getInstance());
+    }
+
+    public AskAQuestionVertexAi(String scope) {
+        this(VertexAiClientPool.getInstance(), ContextCacheManager.getInstance(), scope);
+    }
+
+    public AskAQuestionVertexAi(VertexAiClientPool clientPool) {
+        this(clientPool, ContextCacheManager.getInstance());
+    }
+
+    public AskAQuestionVertexAi(VertexAiClientPool clientPool, ContextCacheManager contextCache) {
+        this(clientPool, contextCache, AdmissionController.DEFAULT_SCOPE);
+    }
+
+    public AskAQuestionVertexAi(VertexAiClientPool clientPool, ContextCacheManager contextCache, String scope) {
+        this.clientPool = clientPool;
+        this.contextCache = contextCache;
+        this.scope = scope;
+    }
+
     public GenerateContentResponse generateContent(String prompt) throws IOException {
+        return generateContent(null, prompt);
+    }
+
+    /**
+     * Asks with a prompt split into a prefix that stays the same across the
+     * turns of a conversation, such as the selected code, and the part that
+     * changes. A large prefix is registered as cached content once instead of
+     * being resent every turn.
+     *
+     * @param stablePrefix Leading part of the prompt, or null for none
+     * @param prompt       Rest of the prompt
+     */
+    public GenerateContentResponse generateContent(String stablePrefix, String prompt) throws IOException {
         if (prompt == null || prompt.trim().isEmpty()) {
             throw new IllegalArgumentException("Prompt cannot be null or empty");
         }
 
-        try (VertexAI vertexAi = new VertexAI(PROJECT_ID, LOCATION)) {
-            GenerationConfig generationConfig = GenerationConfig.newBuilder()
-                    .setTemperature(0.3f)
-                    .setMaxOutputTokens(300)
-                    .setTopP(1.0f)
-                    .setTopK(40)
-                    .build();
-
-            GenerativeModel model = new GenerativeModel.Builder()
-                    .setModelName(MODEL_ID)
-                    .setVertexAi(vertexAi)
-                    .setGenerationConfig(generationConfig)
-                    .build();
-
-            return model.generateContent(prompt);
-        }
+        long tokens = AdmissionController.estimateTokens(GENERATION_CONFIG, stablePrefix, prompt);
+        return clientPool.getSingleFlight().execute(SingleFlight.key("ask", stablePrefix, prompt),
+                () -> clientPool.getAdmissionController().call(scope, tokens, AdmissionController.INTERACTIVE_WAIT,
+                        () -> contextCache.generateContent(clientPool, clientPool.getLocation(), MODEL_ID,
+                                GENERATION_CONFIG, null, stablePrefix, prompt)));
     }
 
     public static String extractGeneratedText(GenerateContentResponse response) {
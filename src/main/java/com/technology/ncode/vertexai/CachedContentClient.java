@@ -0,0 +1,33 @@
+package com.technology.ncode.vertexai;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Manages Vertex AI cached content resources, which hold a system instruction
+ * and a prompt prefix server-side so requests can refer to them by name.
+ */
+interface CachedContentClient {
+
+    /**
+     * Registers the system prompt and prefix for the model.
+     *
+     * @param location     Vertex AI location, e.g. "us-central1"
+     * @param modelName    Model id
+     * @param systemPrompt System instruction, or null for none
+     * @param prefix       Leading user content, or null for none
+     * @param ttl          How long the cache lives unless refreshed
+     * @return Resource name of the cached content
+     * @throws IOException If the cache could not be created, e.g. because the
+     *                     content is below the model's minimum cache size
+     */
+    String create(String location, String modelName, String systemPrompt, String prefix, Duration ttl)
+            throws IOException;
+
+    /**
+     * Extends the lifetime of the cache to {@code ttl} from now.
+     */
+    void updateTtl(String name, Duration ttl) throws IOException;
+
+    void delete(String name) throws IOException;
+}
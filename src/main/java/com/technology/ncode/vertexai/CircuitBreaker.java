@@ -0,0 +1,372 @@
+package com.technology.ncode.vertexai;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiException;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.intellij.openapi.diagnostic.Logger;
+
+/**
+ * Stops inline completion requests while the model backend is failing or too
+ * slow to be useful. The outcomes of the most recent calls are kept in a
+ * sliding window; once enough of them failed or were slow the circuit opens
+ * and requests are rejected with {@link CircuitOpenException} without being
+ * sent. After a wait a single probe request is let through: if it succeeds
+ * in time the circuit closes again, otherwise it stays open and the wait
+ * doubles.
+ */
+public final class CircuitBreaker {
+    private static final Logger LOG = Logger.getInstance(CircuitBreaker.class);
+
+    public enum State {
+        // Requests are sent normally
+        CLOSED,
+        // Requests are rejected until the wait is over
+        OPEN,
+        // One probe request is in flight to test the backend
+        HALF_OPEN
+    }
+
+    static final int DEFAULT_WINDOW_SIZE = 20;
+    static final int DEFAULT_MIN_CALLS = 8;
+    static final double DEFAULT_FAILURE_RATE = 0.5;
+    static final long DEFAULT_SLOW_CALL_MS = 5_000;
+    static final long DEFAULT_OPEN_MS = 15_000;
+    static final long DEFAULT_MAX_OPEN_MS = 300_000;
+
+    private static final byte OK = 0;
+    private static final byte SLOW = 1;
+    private static final byte FAILED = 2;
+
+    private final int minCalls;
+    private final double failureRate;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final long maxOpenNanos;
+    private final LongSupplier nanoClock;
+    private final List<Consumer<State>> listeners = new CopyOnWriteArrayList<>();
+
+    // All guarded by this
+    private final byte[] window;
+    private int next;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+    private State state = State.CLOSED;
+    private long openUntil;
+    private long currentOpenNanos;
+    private boolean probeInFlight;
+
+    private final AtomicLong openings = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public CircuitBreaker() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MIN_CALLS, DEFAULT_FAILURE_RATE, DEFAULT_SLOW_CALL_MS, DEFAULT_OPEN_MS,
+                DEFAULT_MAX_OPEN_MS, System::nanoTime);
+    }
+
+    /**
+     * @param windowSize  Number of recent calls the rates are computed over
+     * @param minCalls    Calls needed in the window before it can open
+     * @param failureRate Share of failed, or of slow, calls that opens it
+     * @param slowCallMs  Calls taking longer than this count as slow
+     * @param openMs      First wait before a probe is sent
+     * @param maxOpenMs   Longest wait after repeated failed probes
+     * @param nanoClock   Time source in nanoseconds
+     */
+    CircuitBreaker(int windowSize, int minCalls, double failureRate, long slowCallMs, long openMs, long maxOpenMs,
+            LongSupplier nanoClock) {
+        this.window = new byte[windowSize];
+        this.minCalls = minCalls;
+        this.failureRate = failureRate;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMs);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+        this.maxOpenNanos = TimeUnit.MILLISECONDS.toNanos(maxOpenMs);
+        this.currentOpenNanos = openNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * One request let through the breaker. Report how it ended with
+     * {@link #succeeded()} or {@link #failed}; closing it without an outcome,
+     * e.g. because it was cancelled, only counts it if it was already slow.
+     */
+    public final class Attempt implements AutoCloseable {
+        private final long startNanos = nanoClock.getAsLong();
+        private final boolean probe;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Attempt(boolean probe) {
+            this.probe = probe;
+        }
+
+        /**
+         * The backend answered; the time since the attempt started decides
+         * whether it counts as slow. Call this on the first streamed chunk.
+         */
+        public void succeeded() {
+            if (done.compareAndSet(false, true)) {
+                record(probe, elapsed() > slowCallNanos ? SLOW : OK);
+            }
+        }
+
+        public void failed(Throwable t) {
+            if (done.compareAndSet(false, true)) {
+                if (isBackendFailure(t)) {
+                    record(probe, FAILED);
+                } else {
+                    abandon(probe, elapsed() > slowCallNanos);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (done.compareAndSet(false, true)) {
+                abandon(probe, elapsed() > slowCallNanos);
+            }
+        }
+
+        private long elapsed() {
+            return nanoClock.getAsLong() - startNanos;
+        }
+    }
+
+    /**
+     * Lets a request through if the circuit is closed, or as the probe once
+     * the wait is over.
+     *
+     * @throws CircuitOpenException If the request must not be sent now
+     */
+    public Attempt acquire() throws CircuitOpenException {
+        State changed = null;
+        boolean probe;
+        synchronized (this) {
+            if (state == State.OPEN && nanoClock.getAsLong() >= openUntil) {
+                state = State.HALF_OPEN;
+                changed = state;
+            }
+            if (state == State.CLOSED) {
+                probe = false;
+            } else if (state == State.HALF_OPEN && !probeInFlight) {
+                probeInFlight = true;
+                probe = true;
+            } else {
+                rejected.incrementAndGet();
+                throw new CircuitOpenException("Model backend is unavailable, completions are paused");
+            }
+        }
+        notifyListeners(changed);
+        return new Attempt(probe);
+    }
+
+    /**
+     * Runs a blocking call through the breaker.
+     */
+    public <T> T call(SingleFlight.Call<T> call) throws IOException {
+        try (Attempt attempt = acquire()) {
+            try {
+                T value = call.call();
+                attempt.succeeded();
+                return value;
+            } catch (IOException | RuntimeException | Error e) {
+                attempt.failed(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Starts an asynchronous call through the breaker; the outcome is taken
+     * from the returned future.
+     */
+    public <T> ApiFuture<T> callAsync(SingleFlight.Call<ApiFuture<T>> call) throws IOException {
+        Attempt attempt = acquire();
+        ApiFuture<T> future;
+        try {
+            future = call.call();
+        } catch (IOException | RuntimeException | Error e) {
+            attempt.failed(e);
+            throw e;
+        }
+
+        future.addListener(() -> {
+            try {
+                future.get();
+                attempt.succeeded();
+            } catch (ExecutionException e) {
+                attempt.failed(e.getCause());
+            } catch (InterruptedException | CancellationException e) {
+                attempt.close();
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    public synchronized State getState() {
+        // An expired wait shows as recovering even before the next request
+        if (state == State.OPEN && nanoClock.getAsLong() >= openUntil) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Registers a listener that is told about every state change, on the
+     * thread that caused it.
+     */
+    public void addListener(Consumer<State> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<State> listener) {
+        listeners.remove(listener);
+    }
+
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("circuitOpenings", openings.get());
+        metrics.put("circuitRejected", rejected.get());
+        return metrics;
+    }
+
+    /**
+     * Whether the error says the backend is unhealthy, as opposed to a
+     * request that was cancelled, not admitted or malformed.
+     */
+    static boolean isBackendFailure(Throwable t) {
+        while (t instanceof ExecutionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        if (t instanceof ApiException) {
+            switch (((ApiException) t).getStatusCode().getCode()) {
+                case UNAVAILABLE:
+                case DEADLINE_EXCEEDED:
+                case RESOURCE_EXHAUSTED:
+                case INTERNAL:
+                case UNKNOWN:
+                case ABORTED:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return t instanceof IOException
+                && !(t instanceof AdmissionRejectedException)
+                && !(t instanceof InterruptedIOException);
+    }
+
+    private void record(boolean probe, byte outcome) {
+        State changed;
+        synchronized (this) {
+            if (probe) {
+                probeInFlight = false;
+                changed = outcome == OK ? close() : reopen();
+            } else if (state == State.CLOSED) {
+                add(outcome);
+                changed = null;
+                if (shouldOpen()) {
+                    LOG.warn("Model backend is failing or slow (" + failures + " failed, " + slowCalls
+                            + " slow of the last " + calls + " calls); pausing completions for "
+                            + TimeUnit.NANOSECONDS.toSeconds(openNanos) + "s");
+                    changed = open(openNanos);
+                }
+            } else {
+                // A call that started before the circuit opened
+                changed = null;
+            }
+        }
+        notifyListeners(changed);
+    }
+
+    private void abandon(boolean probe, boolean slow) {
+        if (slow) {
+            record(probe, SLOW);
+            return;
+        }
+        if (probe) {
+            synchronized (this) {
+                probeInFlight = false;
+            }
+        }
+    }
+
+    // Must hold the lock
+    private void add(byte outcome) {
+        byte evicted = window[next];
+        if (calls == window.length) {
+            if (evicted == FAILED) {
+                failures--;
+            } else if (evicted == SLOW) {
+                slowCalls--;
+            }
+        } else {
+            calls++;
+        }
+        window[next] = outcome;
+        next = (next + 1) % window.length;
+        if (outcome == FAILED) {
+            failures++;
+        } else if (outcome == SLOW) {
+            slowCalls++;
+        }
+    }
+
+    // Must hold the lock
+    private boolean shouldOpen() {
+        if (calls < minCalls) {
+            return false;
+        }
+        return failures >= failureRate * calls || slowCalls >= failureRate * calls;
+    }
+
+    // Must hold the lock
+    private State open(long waitNanos) {
+        state = State.OPEN;
+        currentOpenNanos = waitNanos;
+        openUntil = nanoClock.getAsLong() + waitNanos;
+        openings.incrementAndGet();
+        return state;
+    }
+
+    // Must hold the lock
+    private State reopen() {
+        long waitNanos = Math.min(currentOpenNanos * 2, maxOpenNanos);
+        LOG.info("Model backend still failing; retrying in " + TimeUnit.NANOSECONDS.toSeconds(waitNanos) + "s");
+        return open(waitNanos);
+    }
+
+    // Must hold the lock
+    private State close() {
+        state = State.CLOSED;
+        currentOpenNanos = openNanos;
+        calls = 0;
+        next = 0;
+        failures = 0;
+        slowCalls = 0;
+        LOG.info("Model backend recovered; completions resumed");
+        return state;
+    }
+
+    private void notifyListeners(State changed) {
+        if (changed == null) {
+            return;
+        }
+        for (Consumer<State> listener : listeners) {
+            listener.accept(changed);
+        }
+    }
+}
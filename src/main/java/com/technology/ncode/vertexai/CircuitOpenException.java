@@ -0,0 +1,12 @@
+package com.technology.ncode.vertexai;
+
+/**
+ * Thrown when a model request is not sent because the backend has been failing
+ * or slow and the circuit breaker is giving it time to recover.
+ */
+public class CircuitOpenException extends AdmissionRejectedException {
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
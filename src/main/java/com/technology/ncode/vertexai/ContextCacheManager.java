@@ -0,0 +1,290 @@
+package com.technology.ncode.vertexai;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+import com.google.api.gax.rpc.NotFoundException;
+import com.google.cloud.vertexai.VertexAI;
+import com.google.cloud.vertexai.api.GenerateContentRequest;
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import com.google.cloud.vertexai.api.GenerationConfig;
+import com.google.cloud.vertexai.generativeai.ContentMaker;
+import com.google.cloud.vertexai.generativeai.GenerativeModel;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.technology.ncode.config.EnvironmentConfig;
+
+/**
+ * Registers stable prompt prefixes (system prompts, code selected into a chat)
+ * as Vertex AI cached content, so follow-up requests only send what changed.
+ * A cache is created in the background on first use of a prefix and refreshed
+ * before its TTL runs out for as long as it keeps being used. Until it exists,
+ * or when caching is not available, requests fall back to the pooled model,
+ * which reuses the prebuilt system instruction locally.
+ */
+@Service(Service.Level.APP)
+public final class ContextCacheManager implements Disposable {
+    private static final Logger LOG = Logger.getInstance(ContextCacheManager.class);
+    private static final boolean ENABLED = !"false".equalsIgnoreCase(EnvironmentConfig.VERTEX_CONTEXT_CACHE);
+
+    // Vertex AI rejects cached content below 4096 tokens; at about four
+    // characters per token, shorter prefixes are not worth a round trip
+    static final int MIN_CACHED_CHARS = 4096 * 4;
+    static final Duration TTL = Duration.ofMinutes(30);
+    // Refresh this long before expiry
+    static final Duration REFRESH_MARGIN = Duration.ofMinutes(5);
+    // Let caches nobody used for this long go
+    static final Duration IDLE_TIMEOUT = Duration.ofMinutes(20);
+    // Wait before trying again to cache a prefix that failed
+    static final Duration RETRY_DELAY = Duration.ofMinutes(10);
+    // Don't hand out a cache this close to expiry; the request could outlive it
+    private static final long EXPIRY_SAFETY_MS = 30_000;
+    private static final long REFRESH_INTERVAL_SECONDS = 60;
+
+    private final CachedContentClient client;
+    private final Executor executor;
+    private final LongSupplier clock;
+    // Periodic refresh on the platform scheduler, or null if refreshing is left
+    // to explicit calls
+    private final ScheduledFuture<?> refreshTask;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public ContextCacheManager() {
+        this(ENABLED ? new VertexCachedContentClient() : null);
+    }
+
+    private ContextCacheManager(CachedContentClient client) {
+        this.client = client;
+        this.executor = AppExecutorUtil.getAppExecutorService();
+        this.clock = System::currentTimeMillis;
+        this.refreshTask = client == null ? null
+                : AppExecutorUtil.getAppScheduledExecutorService().scheduleWithFixedDelay(this::refresh,
+                        REFRESH_INTERVAL_SECONDS, REFRESH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates a manager that creates caches on the given executor and leaves
+     * refreshing to explicit {@link #refresh()} calls.
+     *
+     * @param client   Cached content API, or null to disable remote caching
+     * @param executor Runs cache creation
+     * @param clock    Current time in milliseconds
+     */
+    ContextCacheManager(CachedContentClient client, Executor executor, LongSupplier clock) {
+        this.client = client;
+        this.executor = executor;
+        this.clock = clock;
+        this.refreshTask = null;
+    }
+
+    /**
+     * Returns the shared manager. Outside a running IDE (unit tests, benchmarks)
+     * a process-wide fallback instance is used instead of the service.
+     */
+    public static ContextCacheManager getInstance() {
+        Application application = ApplicationManager.getApplication();
+        if (application != null) {
+            return application.getService(ContextCacheManager.class);
+        }
+        return Holder.INSTANCE;
+    }
+
+    private static class Holder {
+        private static final ContextCacheManager INSTANCE = new ContextCacheManager();
+    }
+
+    /**
+     * Generates content for a prompt that continues a stable prefix. When the
+     * system prompt and prefix are cached only the prompt is sent; otherwise the
+     * pooled model gets the prefix and prompt concatenated.
+     *
+     * @param clientPool       Pool providing the client and model
+     * @param location         Vertex AI location
+     * @param modelName        Model id
+     * @param generationConfig Generation settings
+     * @param systemPrompt     System instruction, or null for none
+     * @param stablePrefix     Start of the prompt shared by consecutive requests,
+     *                         or null for none
+     * @param prompt           The part of the prompt that changes per request
+     */
+    public GenerateContentResponse generateContent(VertexAiClientPool clientPool, String location, String modelName,
+            GenerationConfig generationConfig, String systemPrompt, String stablePrefix, String prompt)
+            throws IOException {
+        String cachedContent = lookup(location, modelName, systemPrompt, stablePrefix);
+        if (cachedContent != null) {
+            try {
+                return generateCachedContent(clientPool.getClient(location), modelName, cachedContent,
+                        generationConfig, prompt);
+            } catch (NotFoundException e) {
+                // Expired or deleted on the server; send the full prompt instead
+                invalidate(cachedContent);
+            }
+        }
+
+        GenerativeModel model = clientPool.getModel(location, modelName, generationConfig, systemPrompt);
+        return model.generateContent(stablePrefix == null ? prompt : stablePrefix + prompt);
+    }
+
+    /**
+     * Returns the name of a live cache holding the system prompt and prefix, or
+     * null if there is none yet. A miss on a prefix large enough to cache starts
+     * creating one in the background.
+     */
+    String lookup(String location, String modelName, String systemPrompt, String stablePrefix) {
+        if (client == null || length(systemPrompt) + length(stablePrefix) < MIN_CACHED_CHARS) {
+            return null;
+        }
+
+        long now = clock.getAsLong();
+        Entry entry = entries.computeIfAbsent(key(location, modelName, systemPrompt, stablePrefix),
+                k -> new Entry(location, modelName));
+        entry.lastUsed = now;
+
+        String name = entry.name;
+        if (name != null && entry.expiresAt - now > EXPIRY_SAFETY_MS) {
+            return name;
+        }
+
+        if (now >= entry.retryAt && entry.pending.compareAndSet(false, true)) {
+            executor.execute(() -> create(entry, systemPrompt, stablePrefix));
+        }
+        return null;
+    }
+
+    /**
+     * Forgets a cache the server no longer knows; the next use of its prefix
+     * creates a new one.
+     */
+    void invalidate(String name) {
+        for (Entry entry : entries.values()) {
+            if (name.equals(entry.name)) {
+                entry.name = null;
+            }
+        }
+    }
+
+    /**
+     * Extends caches that are still in use and about to expire, and drops
+     * those that have been idle. Runs periodically on the manager's scheduler.
+     */
+    void refresh() {
+        long now = clock.getAsLong();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            // Leave entries alone while their cache is being created
+            if (entry.pending.get()) {
+                continue;
+            }
+
+            String name = entry.name;
+            if (now - entry.lastUsed > IDLE_TIMEOUT.toMillis()) {
+                iterator.remove();
+                if (name != null) {
+                    delete(name);
+                }
+            } else if (name != null && entry.expiresAt - now < REFRESH_MARGIN.toMillis()) {
+                try {
+                    client.updateTtl(name, TTL);
+                    entry.expiresAt = now + TTL.toMillis();
+                } catch (IOException | RuntimeException e) {
+                    LOG.warn("Failed to refresh cached content " + name, e);
+                    entry.name = null;
+                }
+            }
+        }
+    }
+
+    private void create(Entry entry, String systemPrompt, String stablePrefix) {
+        long start = clock.getAsLong();
+        try {
+            String name = client.create(entry.location, entry.modelName, systemPrompt, stablePrefix, TTL);
+            entry.expiresAt = start + TTL.toMillis();
+            entry.name = name;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to create cached content, sending full prompts for now", e);
+            entry.retryAt = start + RETRY_DELAY.toMillis();
+        } finally {
+            entry.pending.set(false);
+        }
+    }
+
+    private void delete(String name) {
+        try {
+            client.delete(name);
+        } catch (IOException | RuntimeException e) {
+            // It expires on its own
+            LOG.warn("Failed to delete cached content " + name, e);
+        }
+    }
+
+    private static GenerateContentResponse generateCachedContent(VertexAI vertexAi, String modelName,
+            String cachedContent, GenerationConfig generationConfig, String prompt) throws IOException {
+        GenerateContentRequest request = GenerateContentRequest.newBuilder()
+                .setModel(VertexCachedContentClient.modelResourceName(vertexAi.getProjectId(),
+                        vertexAi.getLocation(), modelName))
+                .setCachedContent(cachedContent)
+                .addContents(ContentMaker.fromString(prompt))
+                .setGenerationConfig(generationConfig)
+                .build();
+        return vertexAi.getPredictionServiceClient().generateContent(request);
+    }
+
+    private static int length(String text) {
+        return text == null ? 0 : text.length();
+    }
+
+    // Keyed by digest so the map doesn't keep large prefixes alive
+    private static String key(String location, String modelName, String systemPrompt, String stablePrefix) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(systemPrompt).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(stablePrefix).getBytes(StandardCharsets.UTF_8));
+            return location + "/" + modelName + "/" + HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+        }
+        // Remote caches are left to expire with their TTL rather than holding
+        // up shutdown with network calls
+        entries.clear();
+    }
+
+    private static final class Entry {
+        final String location;
+        final String modelName;
+        final AtomicBoolean pending = new AtomicBoolean();
+        volatile String name;
+        volatile long expiresAt;
+        volatile long lastUsed;
+        volatile long retryAt;
+
+        Entry(String location, String modelName) {
+            this.location = location;
+            this.modelName = modelName;
+        }
+    }
+}
@@ -3,21 +3,23 @@ package com.technology.ncode.vertexai;
 import java.io.IOException;
 import java.util.List;
 
-import com.google.cloud.vertexai.VertexAI;
 import com.google.cloud.vertexai.api.Candidate;
 import com.google.cloud.vertexai.api.Content;
 import com.google.cloud.vertexai.api.GenerateContentResponse;
 import com.google.cloud.vertexai.api.GenerationConfig;
 import com.google.cloud.vertexai.api.Part;
-import com.google.cloud.vertexai.generativeai.ContentMaker;
-import com.google.cloud.vertexai.generativeai.GenerativeModel;
 import com.technology.ncode.config.EnvironmentConfig;
 
 public class DocumentationVertexAi {
-    private static final String PROJECT_ID = EnvironmentConfig.VERTEX_PROJECT_ID;
-    private static final String LOCATION = EnvironmentConfig.VERTEX_LOCATION;
     private static final String MODEL_ID = EnvironmentConfig.VERTEX_MODEL_ID;
 
+    private static final GenerationConfig GENERATION_CONFIG = GenerationConfig.newBuilder()
+            .setTemperature(0.3f)
+            .setMaxOutputTokens(1024)
+            .setTopP(1.0f)
+            .setTopK(40)
+            .build();
+
     private static final String SYSTEM_PROMPT = """
             You are an expert documentation generator. Given code, provide comprehensive documentation in Markdown format.
 
@@ -39,28 +41,43 @@ public class DocumentationVertexAi {
             11. Do not generate code, only markdown documentation.
             """;
 
+    private final VertexAiClientPool clientPool;
+    private final ContextCacheManager contextCache;
+    // Project the requests count against for admission
+    private final String scope;
+
+    public DocumentationVertexAi() {
+        this(VertexAiClientPool.getInstance());
+    }
+
+    public DocumentationVertexAi(String scope) {
+        this(VertexAiClientPool.getInstance(), ContextCacheManager.getInstance(), scope);
+    }
+
+    public DocumentationVertexAi(VertexAiClientPool clientPool) {
+        this(clientPool, ContextCacheManager.getInstance());
+    }
+
+    public DocumentationVertexAi(VertexAiClientPool clientPool, ContextCacheManager contextCache) {
+        this(clientPool, contextCache, AdmissionController.DEFAULT_SCOPE);
+    }
+
+    public DocumentationVertexAi(VertexAiClientPool clientPool, ContextCacheManager contextCache, String scope) {
+        this.clientPool = clientPool;
+        this.contextCache = contextCache;
+        this.scope = scope;
+    }
+
     public GenerateContentResponse generateContent(String prompt) throws IOException {
         if (prompt == null || prompt.trim().isEmpty()) {
             throw new IllegalArgumentException("Prompt cannot be null or empty");
         }
 
-        try (VertexAI vertexAi = new VertexAI(PROJECT_ID, LOCATION)) {
-            GenerationConfig generationConfig = GenerationConfig.newBuilder()
-                    .setTemperature(0.3f)
-                    .setMaxOutputTokens(1024)
-                    .setTopP(1.0f)
-                    .setTopK(40)
-                    .build();
-
-            GenerativeModel model = new GenerativeModel.Builder()
-                    .setModelName(MODEL_ID)
-                    .setVertexAi(vertexAi)
-                    .setGenerationConfig(generationConfig)
-                    .setSystemInstruction(ContentMaker.fromString(SYSTEM_PROMPT))
-                    .build();
-
-            return model.generateContent(prompt);
-        }
+        long tokens = AdmissionController.estimateTokens(GENERATION_CONFIG, SYSTEM_PROMPT, prompt);
+        return clientPool.getSingleFlight().execute(SingleFlight.key("documentation", prompt),
+                () -> clientPool.getAdmissionController().call(scope, tokens, AdmissionController.INTERACTIVE_WAIT,
+                        () -> contextCache.generateContent(clientPool, clientPool.getLocation(), MODEL_ID,
+                                GENERATION_CONFIG, SYSTEM_PROMPT, null, prompt)));
     }
 
     public static String extractGeneratedDocumentation(GenerateContentResponse response) {
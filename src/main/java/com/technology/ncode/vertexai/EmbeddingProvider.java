@@ -0,0 +1,30 @@
+package com.technology.ncode.vertexai;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Turns text into embedding vectors for the {@link VectorIndex}. Vectors of
+ * similar code should point in similar directions; they need not be
+ * normalized.
+ */
+public interface EmbeddingProvider {
+
+    /**
+     * Returns the length of every vector this provider produces.
+     */
+    int getDimensions();
+
+    /**
+     * Returns how many texts one {@link #embed} call should be given at most.
+     */
+    int getMaxBatchSize();
+
+    /**
+     * Embeds the texts.
+     *
+     * @return One vector per text, in the same order
+     * @throws IOException If the embeddings could not be computed
+     */
+    List<float[]> embed(List<String> texts) throws IOException;
+}
@@ -1,23 +1,46 @@
 package com.technology.ncode.vertexai;
 
 import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ServerStream;
 import com.google.cloud.vertexai.VertexAI;
 import com.google.cloud.vertexai.generativeai.ContentMaker;
 import com.google.cloud.vertexai.generativeai.GenerativeModel;
 import com.google.cloud.vertexai.api.Candidate;
 import com.google.cloud.vertexai.api.Content;
+import com.google.cloud.vertexai.api.GenerateContentRequest;
 import com.google.cloud.vertexai.api.GenerateContentResponse;
 import com.google.cloud.vertexai.api.GenerationConfig;
 import com.google.cloud.vertexai.api.Part;
 import com.technology.ncode.config.EnvironmentConfig;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 public class InlineVertexAi {
-    private static final String PROJECT_ID = EnvironmentConfig.VERTEX_PROJECT_ID;
-    private static final String LOCATION = EnvironmentConfig.VERTEX_LOCATION;
     private static final String MODEL_ID = EnvironmentConfig.VERTEX_MODEL_ID;
 
+    private static final GenerationConfig GENERATION_CONFIG = GenerationConfig.newBuilder()
+            .setTemperature(0.3f)
+            .setMaxOutputTokens(300)
+            .setTopP(1.0f)
+            .setTopK(40)
+            .build();
+
+    // Number of alternatives requested in candidate mode
+    public static final int CANDIDATE_COUNT = 3;
+
+    private static final GenerationConfig CANDIDATES_GENERATION_CONFIG = GENERATION_CONFIG.toBuilder()
+            .setCandidateCount(CANDIDATE_COUNT)
+            .build();
+
     private static final String SYSTEM_PROMPT = """
             You are Advance Intelligent, an AI-powered inline code completion assistant in an IDE. Generate only the missing code snippet at the current caret position, ensuring seamless integration with the given context.
 
@@ -30,6 +53,7 @@ public class InlineVertexAi {
             - Output plain text with no markdown formatting.
             - If the instruction is provided as a comment, generate the corresponding function.
             - Note: The marker "{caret is here}" will always be present. You must analyze the surrounding context to decide if additional code is required. If not, return an empty string.
+            - The code to complete may be wrapped in <code> tags, preceded by <imports>, <enclosing_declarations> and <referenced_declarations> taken from elsewhere in the file, and <project_declarations> taken from other files of the project. Use those only as reference, in particular for the names and parameters of methods you call; complete the code inside <code>.
             </system_constraints>
 
             <code_formatting_info>
@@ -52,54 +76,166 @@ public class InlineVertexAi {
             </artifact_info>
             """;
 
+    private final VertexAiClientPool clientPool;
+    // Project the requests count against for admission
+    private final String scope;
+
+    public InlineVertexAi() {
+        this(VertexAiClientPool.getInstance());
+    }
+
+    public InlineVertexAi(String scope) {
+        this(VertexAiClientPool.getInstance(), scope);
+    }
+
+    public InlineVertexAi(VertexAiClientPool clientPool) {
+        this(clientPool, AdmissionController.DEFAULT_SCOPE);
+    }
+
+    public InlineVertexAi(VertexAiClientPool clientPool, String scope) {
+        this.clientPool = clientPool;
+        this.scope = scope;
+    }
+
     public ApiFuture<GenerateContentResponse> generateContentAsync(String prompt) throws IOException {
         if (prompt == null || prompt.trim().isEmpty()) {
             throw new IllegalArgumentException("Prompt cannot be null or empty");
         }
 
-        try (VertexAI vertexAi = new VertexAI(PROJECT_ID, LOCATION)) {
-            GenerationConfig generationConfig = GenerationConfig.newBuilder()
-                    .setTemperature(0.3f)
-                    .setMaxOutputTokens(300)
-                    .setTopP(1.0f)
-                    .setTopK(40)
-                    .build();
-
-            GenerativeModel model = new GenerativeModel.Builder()
-                    .setModelName(MODEL_ID)
-                    .setVertexAi(vertexAi)
-                    .setGenerationConfig(generationConfig)
-                    .setSystemInstruction(
-                            ContentMaker.fromString(SYSTEM_PROMPT))
-                    .build();
-
-            return model.generateContentAsync(prompt);
+        return clientPool.getSingleFlight().executeAsync(SingleFlight.key("inline", prompt),
+                () -> admitAsync(GENERATION_CONFIG, prompt, location -> {
+                    GenerativeModel model = clientPool.getModel(location, MODEL_ID, GENERATION_CONFIG, SYSTEM_PROMPT);
+                    return () -> model.generateContentAsync(prompt);
+                }));
+    }
+
+    /**
+     * Requests {@link #CANDIDATE_COUNT} alternative completions in a single
+     * call; use {@link #extractCandidates} on the response.
+     */
+    public ApiFuture<GenerateContentResponse> generateCandidatesAsync(String prompt) throws IOException {
+        if (prompt == null || prompt.trim().isEmpty()) {
+            throw new IllegalArgumentException("Prompt cannot be null or empty");
         }
+
+        return clientPool.getSingleFlight().executeAsync(SingleFlight.key("inline-candidates", prompt),
+                () -> admitAsync(CANDIDATES_GENERATION_CONFIG, prompt, location -> {
+                    GenerativeModel model = clientPool.getModel(location, MODEL_ID, CANDIDATES_GENERATION_CONFIG,
+                            SYSTEM_PROMPT);
+                    return () -> model.generateContentAsync(prompt);
+                }));
     }
 
-    public GenerateContentResponse generateContent(String prompt) throws IOException {
+    /**
+     * Streams the completion for the given prompt, passing each text chunk to
+     * {@code onChunk} as it arrives. Reading stops as soon as the callback
+     * returns false, so callers can abandon a stream they no longer need.
+     *
+     * @param prompt  The prompt with the caret context
+     * @param onChunk Receives each chunk; return false to stop the stream
+     * @return true if the stream was read to the end, false if it was stopped
+     */
+    public boolean generateContentStream(String prompt, Predicate<String> onChunk) throws IOException {
         if (prompt == null || prompt.trim().isEmpty()) {
             throw new IllegalArgumentException("Prompt cannot be null or empty");
         }
 
-        try (VertexAI vertexAi = new VertexAI(PROJECT_ID, LOCATION)) {
-            GenerationConfig generationConfig = GenerationConfig.newBuilder()
-                    .setTemperature(0.3f)
-                    .setMaxOutputTokens(300)
-                    .setTopP(1.0f)
-                    .setTopK(40)
-                    .build();
-
-            GenerativeModel model = new GenerativeModel.Builder()
-                    .setModelName("gemini-2.0-flash")
-                    .setVertexAi(vertexAi)
-                    .setGenerationConfig(generationConfig)
-                    .setSystemInstruction(
-                            ContentMaker.fromString(SYSTEM_PROMPT))
-                    .build();
-
-            return model.generateContent(prompt);
+        // Streams go to the preferred location without hedging, as chunks
+        // already shown can't be taken back
+        String location = clientPool.getRegionRouter().preferredLocation();
+        long tokens = AdmissionController.estimateTokens(GENERATION_CONFIG, SYSTEM_PROMPT, prompt);
+        return clientPool.getSingleFlight().stream(SingleFlight.key("inline-stream", prompt),
+                sink -> streamThroughBreaker(location, prompt, tokens, sink), onChunk);
+    }
+
+    // The time to the first chunk is what decides whether the stream was slow
+    private boolean streamThroughBreaker(String location, String prompt, long tokens, SingleFlight.StreamSink sink)
+            throws IOException {
+        RegionRouter router = clientPool.getRegionRouter();
+        CircuitBreaker.Attempt attempt = clientPool.getCircuitBreaker().acquire();
+        long start = System.nanoTime();
+        boolean[] answered = { false };
+        AtomicBoolean cancelled = new AtomicBoolean();
+        try {
+            return clientPool.getAdmissionController().call(scope, tokens, Duration.ZERO, () -> {
+                // The server stream is called directly, unlike through
+                // GenerativeModel, so that it can be cancelled on the server
+                VertexAI vertexAi = clientPool.getClient(location);
+                ServerStream<GenerateContentResponse> responses = vertexAi.getPredictionServiceClient()
+                        .streamGenerateContentCallable().call(streamRequest(vertexAi, prompt));
+                sink.onCancel(() -> {
+                    cancelled.set(true);
+                    responses.cancel();
+                });
+
+                try {
+                    for (GenerateContentResponse response : responses) {
+                        if (!answered[0]) {
+                            answered[0] = true;
+                            attempt.succeeded();
+                            router.record(location, System.nanoTime() - start, null);
+                        }
+                        String text = extractGeneratedText(response);
+                        if (text != null && !sink.test(text)) {
+                            responses.cancel();
+                            return false;
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // Whatever the stream fails with after being cancelled is our doing
+                    if (cancelled.get()) {
+                        return false;
+                    }
+                    throw e;
+                }
+                attempt.succeeded();
+                return true;
+            });
+        } catch (IOException | RuntimeException e) {
+            attempt.failed(e);
+            if (!answered[0]) {
+                router.record(location, System.nanoTime() - start, e);
+            }
+            throw e;
+        } finally {
+            attempt.close();
+        }
+    }
+
+    private static GenerateContentRequest streamRequest(VertexAI vertexAi, String prompt) {
+        return GenerateContentRequest.newBuilder()
+                .setModel(VertexCachedContentClient.modelResourceName(vertexAi.getProjectId(),
+                        vertexAi.getLocation(), MODEL_ID))
+                .setSystemInstruction(ContentMaker.fromString(SYSTEM_PROMPT))
+                .addContents(ContentMaker.fromString(prompt))
+                .setGenerationConfig(GENERATION_CONFIG)
+                .build();
+    }
+
+    public GenerateContentResponse generateContent(String prompt) throws IOException {
+        if (prompt == null || prompt.trim().isEmpty()) {
+            throw new IllegalArgumentException("Prompt cannot be null or empty");
         }
+
+        return clientPool.getSingleFlight().execute(SingleFlight.key("inline-flash", prompt),
+                () -> clientPool.getCircuitBreaker().call(() -> clientPool.getAdmissionController().call(scope,
+                        AdmissionController.estimateTokens(GENERATION_CONFIG, SYSTEM_PROMPT, prompt), Duration.ZERO,
+                        () -> clientPool.getRegionRouter().call(location -> {
+                            GenerativeModel model = clientPool.getModel(location, "gemini-2.0-flash",
+                                    GENERATION_CONFIG, SYSTEM_PROMPT);
+                            return () -> model.generateContent(prompt);
+                        }))));
+    }
+
+    // Completions are not queued: when the limits are reached, or the backend
+    // is unhealthy, the request is rejected straight away, as a suggestion
+    // that arrives late is useless
+    private ApiFuture<GenerateContentResponse> admitAsync(GenerationConfig config, String prompt,
+            Function<String, SingleFlight.Call<ApiFuture<GenerateContentResponse>>> prepare) throws IOException {
+        long tokens = AdmissionController.estimateTokens(config, SYSTEM_PROMPT, prompt);
+        return clientPool.getCircuitBreaker().callAsync(
+                () -> clientPool.getAdmissionController().callAsync(scope, tokens, Duration.ZERO,
+                        () -> clientPool.getRegionRouter().hedgeAsync(prepare)));
     }
 
     public static String extractGeneratedText(GenerateContentResponse response) {
@@ -108,7 +244,30 @@ public class InlineVertexAi {
         }
 
         // Get the first candidate response
-        Candidate candidate = response.getCandidatesList().get(0);
+        return candidateText(response.getCandidatesList().get(0));
+    }
+
+    /**
+     * Returns the text of every candidate in the response, in order, without
+     * empty candidates and without duplicates that differ only in trailing
+     * whitespace.
+     */
+    public static List<String> extractCandidates(GenerateContentResponse response) {
+        if (response == null) {
+            return Collections.emptyList();
+        }
+
+        Map<String, String> unique = new LinkedHashMap<>();
+        for (Candidate candidate : response.getCandidatesList()) {
+            String text = candidateText(candidate);
+            if (text != null && !text.isBlank()) {
+                unique.putIfAbsent(text.stripTrailing(), text);
+            }
+        }
+        return new ArrayList<>(unique.values());
+    }
+
+    private static String candidateText(Candidate candidate) {
         if (candidate == null || candidate.getContent() == null) {
             return null;
         }
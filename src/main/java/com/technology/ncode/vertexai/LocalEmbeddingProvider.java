@@ -0,0 +1,137 @@
+package com.technology.ncode.vertexai;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Embeds code without a model request by hashing its vocabulary into a fixed
+ * number of signed buckets. Identifiers count both whole and split into
+ * lowercase words (getUserName gives get, user and name), so code about the
+ * same things lands close together; similarity reflects shared names rather
+ * than meaning. Deterministic, which also makes it the stand-in for a remote
+ * model in tests.
+ */
+public final class LocalEmbeddingProvider implements EmbeddingProvider {
+    public static final int DEFAULT_DIMENSIONS = 256;
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final int MIN_WORD_LENGTH = 2;
+
+    // Words nearly every piece of code has
+    private static final Set<String> STOP_WORDS = Set.of(
+            "public", "private", "protected", "static", "final", "void", "return", "new", "this", "class",
+            "import", "package", "if", "else", "for", "while", "int", "long", "boolean", "null", "true",
+            "false", "def", "self", "function", "const", "let", "var", "the", "of", "to", "is", "in");
+
+    private final int dimensions;
+
+    public LocalEmbeddingProvider() {
+        this(DEFAULT_DIMENSIONS);
+    }
+
+    public LocalEmbeddingProvider(int dimensions) {
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("dimensions must be positive: " + dimensions);
+        }
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
+
+    @Override
+    public List<float[]> embed(List<String> texts) {
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            vectors.add(embed(text));
+        }
+        return vectors;
+    }
+
+    float[] embed(String text) {
+        Map<String, Integer> counts = new HashMap<>();
+        int i = 0;
+        while (i < text.length()) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < text.length()
+                    && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '_')) {
+                end++;
+            }
+            countFeatures(text.substring(i, end), counts);
+            i = end;
+        }
+
+        // Sublinear term frequency, so a name repeated all over a chunk
+        // doesn't drown out the rest
+        float[] vector = new float[dimensions];
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            int hash = mix(entry.getKey().hashCode());
+            float weight = (float) (1 + Math.log(entry.getValue()));
+            vector[Math.floorMod(hash, dimensions)] += (mix(hash) & 1) == 0 ? weight : -weight;
+        }
+        return vector;
+    }
+
+    private static void countFeatures(String identifier, Map<String, Integer> counts) {
+        List<String> words = splitWords(identifier);
+        for (String word : words) {
+            if (word.length() >= MIN_WORD_LENGTH && !STOP_WORDS.contains(word)) {
+                counts.merge(word, 1, Integer::sum);
+            }
+        }
+        if (words.size() > 1) {
+            counts.merge("#" + identifier.toLowerCase(Locale.ROOT), 1, Integer::sum);
+        }
+    }
+
+    // Splits camelCase, PascalCase, snake_case and digits into lowercase words
+    static List<String> splitWords(String identifier) {
+        List<String> words = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= identifier.length(); i++) {
+            boolean boundary = i == identifier.length();
+            if (!boundary) {
+                char previous = identifier.charAt(i - 1);
+                char c = identifier.charAt(i);
+                boundary = c == '_' || previous == '_'
+                        || Character.isLowerCase(previous) && Character.isUpperCase(c)
+                        || Character.isDigit(previous) != Character.isDigit(c)
+                        // The last capital of an acronym starts the next word: HTTPServer
+                        || Character.isUpperCase(previous) && Character.isUpperCase(c)
+                                && i + 1 < identifier.length() && Character.isLowerCase(identifier.charAt(i + 1));
+            }
+            if (boundary) {
+                String word = identifier.substring(start, i);
+                if (!word.isEmpty() && !word.equals("_")) {
+                    words.add(word.toLowerCase(Locale.ROOT));
+                }
+                start = i;
+            }
+        }
+        return words;
+    }
+
+    // MurmurHash3 finalizer
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,434 @@
+package com.technology.ncode.vertexai;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.SettableApiFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.technology.ncode.config.EnvironmentConfig;
+
+/**
+ * Routes model requests across several Vertex AI locations. Keeps a moving
+ * average of the latency and error rate of every location and sends each
+ * request to the fastest healthy one. An asynchronous request that is still
+ * running past the primary location's recent p95 latency is duplicated to the
+ * next best location, the first answer wins and the other request is
+ * cancelled; a location that fails hands the request over to the next one
+ * straight away. With a single location requests are passed through.
+ */
+public final class RegionRouter {
+    private static final Logger LOG = Logger.getInstance(RegionRouter.class);
+
+    // Weight of the newest sample in the moving averages
+    static final double EWMA_ALPHA = 0.2;
+    // Locations failing more often than this are avoided
+    static final double UNHEALTHY_ERROR_RATE = 0.5;
+    // Errors are forgotten over time so an avoided location gets retried
+    static final long ERROR_HALF_LIFE_MS = 60_000;
+    // Recent latencies kept per location for the hedging deadline
+    static final int LATENCY_SAMPLES = 64;
+    static final int MIN_SAMPLES_FOR_DEADLINE = 10;
+    static final long DEFAULT_HEDGE_DELAY_MS = 1_000;
+    static final long MIN_HEDGE_DELAY_MS = 50;
+    static final long MAX_HEDGE_DELAY_MS = 3_000;
+    // Latency assumed for a location without samples, so it isn't preferred
+    // over one known to be faster; unsampled locations keep the configured order
+    static final double UNSAMPLED_LATENCY_MS = DEFAULT_HEDGE_DELAY_MS;
+
+    private final List<Region> regions;
+    private final LongSupplier nanoClock;
+
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+
+    /**
+     * @param locations Locations to route across, in order of preference while
+     *                  nothing is known about them
+     */
+    public RegionRouter(List<String> locations) {
+        this(locations, System::nanoTime);
+    }
+
+    RegionRouter(List<String> locations, LongSupplier nanoClock) {
+        if (locations.isEmpty()) {
+            throw new IllegalArgumentException("At least one location is required");
+        }
+        List<Region> list = new ArrayList<>();
+        for (String location : locations) {
+            list.add(new Region(VertexAiClientPool.requireLocation(location)));
+        }
+        this.regions = List.copyOf(list);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Returns a router for the locations in {@code VERTEX_LOCATIONS}, or for
+     * the given location alone if that is not set.
+     */
+    public static RegionRouter fromConfig(String defaultLocation) {
+        String configured = EnvironmentConfig.VERTEX_LOCATIONS;
+        List<String> locations = new ArrayList<>();
+        if (configured != null) {
+            Arrays.stream(configured.split(","))
+                    .map(String::trim)
+                    .filter(location -> !location.isEmpty())
+                    .distinct()
+                    .forEach(locations::add);
+        }
+        if (locations.isEmpty()) {
+            locations.add(defaultLocation);
+        }
+        return new RegionRouter(locations);
+    }
+
+    public List<String> getLocations() {
+        List<String> locations = new ArrayList<>();
+        for (Region region : regions) {
+            locations.add(region.location);
+        }
+        return locations;
+    }
+
+    /**
+     * Returns the location the next request should go to.
+     */
+    public String preferredLocation() {
+        return ranked().get(0).location;
+    }
+
+    /**
+     * Runs a blocking call in the preferred location, and in the next one if
+     * that location fails.
+     *
+     * @param prepare Returns the call for a location; called on this thread
+     */
+    public <T> T call(Function<String, SingleFlight.Call<T>> prepare) throws IOException {
+        List<Region> candidates = candidates();
+        for (int i = 0; ; i++) {
+            Region region = candidates.get(i);
+            long start = nanoClock.getAsLong();
+            try {
+                T value = prepare.apply(region.location).call();
+                record(region, nanoClock.getAsLong() - start, null);
+                return value;
+            } catch (IOException | RuntimeException e) {
+                record(region, nanoClock.getAsLong() - start, e);
+                if (i + 1 == candidates.size() || !CircuitBreaker.isBackendFailure(e)) {
+                    throw e;
+                }
+                failovers.incrementAndGet();
+                LOG.debug("Model request failed in " + region.location + ", retrying in "
+                        + candidates.get(i + 1).location + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Starts an asynchronous call in the preferred location and, if it hasn't
+     * answered by that location's hedging deadline or fails, the same call in
+     * the next best location. The returned future completes with the first
+     * answer; cancelling it cancels both calls.
+     *
+     * @param prepare Returns the call for a location; called on this thread
+     *                for both locations so that any setup happens here
+     */
+    public <T> ApiFuture<T> hedgeAsync(Function<String, SingleFlight.Call<ApiFuture<T>>> prepare)
+            throws IOException {
+        List<Region> candidates = candidates();
+        Region primary = candidates.get(0);
+        SingleFlight.Call<ApiFuture<T>> primaryCall = prepare.apply(primary.location);
+        if (candidates.size() == 1) {
+            long start = nanoClock.getAsLong();
+            ApiFuture<T> future = primaryCall.call();
+            future.addListener(() -> record(primary, nanoClock.getAsLong() - start, outcome(future)),
+                    MoreExecutors.directExecutor());
+            return future;
+        }
+
+        Region secondary = candidates.get(1);
+        Hedge<T> hedge = new Hedge<>(secondary, prepare.apply(secondary.location));
+        hedge.start(primary, primaryCall);
+        try {
+            hedge.timer = AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> hedge.startSecondary(hedged), hedgeDelayNanos(primary),
+                    TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the primary call alone will have to do
+        }
+        return hedge.result;
+    }
+
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("hedgedRequests", hedged.get());
+        metrics.put("hedgeWins", hedgeWins.get());
+        metrics.put("regionFailovers", failovers.get());
+        return metrics;
+    }
+
+    /**
+     * Records how a request to the location went that was made outside
+     * {@link #call} and {@link #hedgeAsync}, e.g. a stream.
+     *
+     * @param failure The error, or null if it succeeded
+     */
+    void record(String location, long latencyNanos, Throwable failure) {
+        for (Region region : regions) {
+            if (region.location.equals(location)) {
+                record(region, latencyNanos, failure);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the time after which a request to the location is hedged: the
+     * p95 of its recent latencies.
+     */
+    long hedgeDelayNanos(String location) {
+        for (Region region : regions) {
+            if (region.location.equals(location)) {
+                return hedgeDelayNanos(region);
+            }
+        }
+        throw new IllegalArgumentException("Unknown location " + location);
+    }
+
+    /**
+     * One request sent to a primary and possibly a secondary location.
+     */
+    private final class Hedge<T> {
+        final SettableApiFuture<T> result = SettableApiFuture.create();
+        final Region secondary;
+        final SingleFlight.Call<ApiFuture<T>> secondaryCall;
+
+        // All guarded by this
+        final List<ApiFuture<T>> attempts = new ArrayList<>();
+        // Attempts cancelled because the other location answered first
+        final List<ApiFuture<T>> outrun = new ArrayList<>();
+        boolean secondaryStarted;
+        int running;
+        volatile ScheduledFuture<?> timer;
+
+        Hedge(Region secondary, SingleFlight.Call<ApiFuture<T>> secondaryCall) {
+            this.secondary = secondary;
+            this.secondaryCall = secondaryCall;
+            result.addListener(this::finish, MoreExecutors.directExecutor());
+        }
+
+        /**
+         * Starts the secondary call unless it is running or no longer needed.
+         *
+         * @param reason Counted if the call is started
+         */
+        void startSecondary(AtomicLong reason) {
+            synchronized (this) {
+                if (secondaryStarted || result.isDone()) {
+                    return;
+                }
+                secondaryStarted = true;
+            }
+            reason.incrementAndGet();
+            start(secondary, secondaryCall);
+        }
+
+        void start(Region region, SingleFlight.Call<ApiFuture<T>> call) {
+            long start = nanoClock.getAsLong();
+            ApiFuture<T> future;
+            synchronized (this) {
+                running++;
+            }
+            try {
+                future = call.call();
+            } catch (IOException | RuntimeException e) {
+                record(region, nanoClock.getAsLong() - start, e);
+                failed(e);
+                return;
+            }
+
+            synchronized (this) {
+                attempts.add(future);
+            }
+            // The result may have been settled while the call was being started
+            if (result.isDone()) {
+                future.cancel(true);
+            }
+            future.addListener(() -> completed(region, future, nanoClock.getAsLong() - start),
+                    MoreExecutors.directExecutor());
+        }
+
+        private void completed(Region region, ApiFuture<T> future, long latencyNanos) {
+            Throwable failure = outcome(future);
+            if (!(failure instanceof CancellationException)) {
+                record(region, latencyNanos, failure);
+            } else if (wasOutrun(future)) {
+                recordHedgeLoser(region, latencyNanos);
+            }
+            if (failure == null) {
+                try {
+                    if (result.set(future.get()) && region == secondary) {
+                        hedgeWins.incrementAndGet();
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    failed(e);
+                }
+                return;
+            }
+            failed(failure);
+        }
+
+        private synchronized boolean wasOutrun(ApiFuture<T> future) {
+            return outrun.contains(future);
+        }
+
+        private void failed(Throwable failure) {
+            // Hand over to the other location straight away
+            if (!(failure instanceof CancellationException)) {
+                startSecondary(failovers);
+            }
+            synchronized (this) {
+                // The other location is still working on it
+                if (--running > 0) {
+                    return;
+                }
+            }
+            if (failure instanceof CancellationException) {
+                result.cancel(false);
+            } else {
+                result.setException(failure);
+            }
+        }
+
+        // Cancels whatever is still running once there is a result, or the
+        // caller gave up
+        private void finish() {
+            ScheduledFuture<?> pending = timer;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            List<ApiFuture<T>> running;
+            synchronized (this) {
+                secondaryStarted = true;
+                running = new ArrayList<>(attempts);
+                if (outcome(result) == null) {
+                    outrun.addAll(running);
+                }
+            }
+            for (ApiFuture<T> attempt : running) {
+                attempt.cancel(true);
+            }
+        }
+    }
+
+    // The error a completed future failed with, or null if it succeeded
+    private static Throwable outcome(ApiFuture<?> future) {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (InterruptedException | CancellationException e) {
+            return new CancellationException();
+        }
+    }
+
+    // Ranked locations to try, at most two
+    private List<Region> candidates() {
+        List<Region> ranked = ranked();
+        return ranked.size() > 2 ? ranked.subList(0, 2) : ranked;
+    }
+
+    private synchronized List<Region> ranked() {
+        long now = nanoClock.getAsLong();
+        List<Region> ranked = new ArrayList<>(regions);
+        ranked.sort(Comparator
+                .comparing((Region region) -> region.errorRate(now) >= UNHEALTHY_ERROR_RATE)
+                .thenComparingDouble(region -> region.errorRate(now) >= UNHEALTHY_ERROR_RATE
+                        ? region.errorRate(now)
+                        : region.latencyMs()));
+        return ranked;
+    }
+
+    private synchronized void record(Region region, long latencyNanos, Throwable failure) {
+        if (failure instanceof CancellationException) {
+            // The caller gave up, which says nothing about the location
+            return;
+        }
+        long now = nanoClock.getAsLong();
+        boolean backendFailure = failure != null && CircuitBreaker.isBackendFailure(failure);
+        region.errorEwma = region.errorRate(now) * (1 - EWMA_ALPHA) + (backendFailure ? EWMA_ALPHA : 0);
+        region.errorUpdatedNanos = now;
+        if (!backendFailure) {
+            addLatencySample(region, latencyNanos);
+        }
+    }
+
+    // A location that lost a hedge took at least this long, which is still
+    // worth knowing even though its request was cancelled
+    private synchronized void recordHedgeLoser(Region region, long latencyNanos) {
+        addLatencySample(region, latencyNanos);
+    }
+
+    private void addLatencySample(Region region, long latencyNanos) {
+        double latencyMs = latencyNanos / 1_000_000.0;
+        region.latencyEwmaMs = region.sampleCount == 0
+                ? latencyMs
+                : region.latencyEwmaMs * (1 - EWMA_ALPHA) + latencyMs * EWMA_ALPHA;
+        region.samples[region.nextSample] = latencyNanos;
+        region.nextSample = (region.nextSample + 1) % LATENCY_SAMPLES;
+        region.sampleCount = Math.min(region.sampleCount + 1, LATENCY_SAMPLES);
+    }
+
+    private synchronized long hedgeDelayNanos(Region region) {
+        if (region.sampleCount < MIN_SAMPLES_FOR_DEADLINE) {
+            return TimeUnit.MILLISECONDS.toNanos(DEFAULT_HEDGE_DELAY_MS);
+        }
+        long[] sorted = Arrays.copyOf(region.samples, region.sampleCount);
+        Arrays.sort(sorted);
+        long p95 = sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+        return Math.max(TimeUnit.MILLISECONDS.toNanos(MIN_HEDGE_DELAY_MS),
+                Math.min(TimeUnit.MILLISECONDS.toNanos(MAX_HEDGE_DELAY_MS), p95));
+    }
+
+    /**
+     * What is known about one location; guarded by the router.
+     */
+    private static final class Region {
+        final String location;
+        final long[] samples = new long[LATENCY_SAMPLES];
+        int sampleCount;
+        int nextSample;
+        double latencyEwmaMs;
+        double errorEwma;
+        long errorUpdatedNanos;
+
+        Region(String location) {
+            this.location = location;
+        }
+
+        double latencyMs() {
+            return sampleCount == 0 ? UNSAMPLED_LATENCY_MS : latencyEwmaMs;
+        }
+
+        double errorRate(long now) {
+            double halfLives = (now - errorUpdatedNanos) / (double) TimeUnit.MILLISECONDS.toNanos(ERROR_HALF_LIFE_MS);
+            return errorEwma * Math.pow(0.5, Math.max(0, halfLives));
+        }
+    }
+}
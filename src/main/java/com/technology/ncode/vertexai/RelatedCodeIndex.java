@@ -0,0 +1,434 @@
+package com.technology.ncode.vertexai;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.technology.ncode.config.EnvironmentConfig;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Finds code in the project related to a piece of selected code, so Explain,
+ * Generate Documentation and Generate Test Case can show the model the
+ * helpers, callers and types the selection works with. The project's sources
+ * are split into overlapping chunks of lines whose embeddings are kept in a
+ * {@link VectorIndex}; a query embeds the selection and takes the most similar
+ * chunks. The index is built in the background on first use and follows file
+ * changes from then on. Chunk texts are not kept; they are read back from the
+ * files when they are returned.
+ * <p>
+ * Embeddings come from the Vertex AI model named by
+ * {@code VERTEX_EMBEDDING_MODEL}, or from the {@link LocalEmbeddingProvider}
+ * if none is configured.
+ */
+@Service(Service.Level.PROJECT)
+public final class RelatedCodeIndex implements Disposable {
+    private static final Logger LOG = Logger.getInstance(RelatedCodeIndex.class);
+
+    static final int CHUNK_LINES = 40;
+    // Consecutive chunks share this many lines, so code on a boundary is
+    // whole in one of them
+    static final int CHUNK_OVERLAP = 10;
+    static final int TOP_K = 5;
+    // Less similar chunks are more likely noise than help
+    static final float MIN_SCORE = 0.3f;
+    // Room the related code may take in a prompt
+    static final int MAX_RELATED_CHARS = 6_000;
+
+    private static final String RELATED_CODE_HEADING =
+            "Related code from elsewhere in the project, for reference only:\n\n";
+    private static final int VERTEX_EMBEDDING_DIMENSIONS = 256;
+    private static final int MIN_CHUNK_LINES = 3;
+    private static final int MAX_CHUNKS_PER_FILE = 200;
+    private static final int MAX_FILE_CHARS = 512 * 1024;
+    private static final int MAX_INDEXED_FILES = 20_000;
+    // After an embedding error, wait this long before trying again, doubling
+    // up to the maximum while the errors go on
+    private static final long EMBEDDING_RETRY_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAX_EMBEDDING_RETRY_MS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final class Chunk {
+        final VirtualFile file;
+        final int startLine;
+        final int endLine;
+
+        Chunk(VirtualFile file, int startLine, int endLine) {
+            this.file = file;
+            this.startLine = startLine;
+            this.endLine = endLine;
+        }
+    }
+
+    private final Project project;
+    private final EmbeddingProvider embeddings;
+    private final VectorIndex index;
+    private final ExecutorService executor =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("NCode Related Code Index", 1);
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    // Until when embedding is paused after the provider failed, so a missing
+    // credential or an exhausted quota isn't retried for every file
+    private volatile long embeddingRetryAt = 0;
+    // Guarded by this
+    private long embeddingRetryMs = EMBEDDING_RETRY_MS;
+    private boolean retryScheduled = false;
+    // Files left to index once embedding works again
+    private final Set<VirtualFile> pendingFiles = ConcurrentHashMap.newKeySet();
+    // Vector id -> chunk
+    private final Map<Integer, Chunk> chunks = new ConcurrentHashMap<>();
+    // File path -> ids of its chunks
+    private final Map<String, int[]> fileChunks = new ConcurrentHashMap<>();
+
+    public RelatedCodeIndex(Project project) {
+        this(project, createEmbeddingProvider());
+    }
+
+    RelatedCodeIndex(Project project, EmbeddingProvider embeddings) {
+        this.project = project;
+        this.embeddings = embeddings;
+        this.index = new VectorIndex(embeddings.getDimensions());
+    }
+
+    public static RelatedCodeIndex getInstance(Project project) {
+        return project.getService(RelatedCodeIndex.class);
+    }
+
+    private static EmbeddingProvider createEmbeddingProvider() {
+        String model = EnvironmentConfig.VERTEX_EMBEDDING_MODEL;
+        VertexAiClientPool clientPool = VertexAiClientPool.getInstance();
+        if (model == null || model.isBlank() || !clientPool.isConfigured()) {
+            return new LocalEmbeddingProvider();
+        }
+        return new VertexEmbeddingProvider(clientPool, EnvironmentConfig.VERTEX_PROJECT_ID,
+                clientPool.getLocation(), model, VERTEX_EMBEDDING_DIMENSIONS);
+    }
+
+    /**
+     * Returns the project code most related to the given code as a prompt
+     * section ending in a blank line, or an empty string if there is none or
+     * the index isn't built yet. Embeds the code first, so don't call it on
+     * the EDT.
+     */
+    public String findRelatedCode(String code) {
+        ensureStarted();
+        if (code == null || code.isBlank() || index.size() == 0 || isEmbeddingPaused()) {
+            return "";
+        }
+
+        List<VectorIndex.Match> matches;
+        try {
+            matches = index.search(embeddings.embed(List.of(code)).get(0), TOP_K * 2);
+            embeddingSucceeded();
+        } catch (IOException e) {
+            LOG.warn("Could not embed the selected code", e);
+            pauseEmbedding();
+            return "";
+        }
+
+        StringBuilder related = new StringBuilder();
+        int found = 0;
+        for (VectorIndex.Match match : matches) {
+            Chunk chunk = chunks.get(match.id);
+            if (match.score < MIN_SCORE || found == TOP_K) {
+                break;
+            }
+            String text = chunk != null ? readChunk(chunk) : null;
+            // The selection itself, or part of it, adds nothing
+            if (text == null || code.contains(text.strip()) || text.contains(code.strip())) {
+                continue;
+            }
+            String section = "// " + relativePath(chunk.file) + ", lines " + (chunk.startLine + 1) + "-"
+                    + chunk.endLine + "\n" + text + "\n\n";
+            if (related.length() + section.length() > MAX_RELATED_CHARS) {
+                continue;
+            }
+            related.append(section);
+            found++;
+        }
+        return found > 0 ? RELATED_CODE_HEADING + related : "";
+    }
+
+    private void ensureStarted() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        project.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void after(@NotNull List<? extends @NotNull VFileEvent> events) {
+                for (VFileEvent event : events) {
+                    if (event instanceof VFileDeleteEvent) {
+                        String path = event.getPath();
+                        executor.execute(() -> removeFile(path));
+                    } else if (event instanceof VFileMoveEvent) {
+                        String oldPath = ((VFileMoveEvent) event).getOldPath();
+                        VirtualFile file = event.getFile();
+                        executor.execute(() -> reindexMoved(oldPath, file));
+                    } else if (event instanceof VFilePropertyChangeEvent
+                            && VirtualFile.PROP_NAME.equals(((VFilePropertyChangeEvent) event).getPropertyName())) {
+                        String oldPath = ((VFilePropertyChangeEvent) event).getOldPath();
+                        VirtualFile file = event.getFile();
+                        executor.execute(() -> reindexMoved(oldPath, file));
+                    } else if (event instanceof VFileContentChangeEvent || event instanceof VFileCreateEvent) {
+                        VirtualFile file = event.getFile();
+                        if (file != null) {
+                            executor.execute(() -> indexFile(file));
+                        }
+                    }
+                }
+            }
+        });
+        executor.execute(this::indexProject);
+    }
+
+    private void indexProject() {
+        long start = System.currentTimeMillis();
+        List<VirtualFile> files = new ArrayList<>();
+        ReadAction.run(() -> ProjectFileIndex.getInstance(project).iterateContent(file -> {
+            if (isIndexable(file)) {
+                files.add(file);
+            }
+            return files.size() < MAX_INDEXED_FILES && !project.isDisposed();
+        }));
+
+        for (VirtualFile file : files) {
+            if (project.isDisposed()) {
+                return;
+            }
+            indexFile(file);
+        }
+        LOG.info("Related code index of " + files.size() + " files built in "
+                + (System.currentTimeMillis() - start) + "ms: " + index.size() + " chunks");
+    }
+
+    private void indexFile(VirtualFile file) {
+        if (project.isDisposed()) {
+            return;
+        }
+        if (isEmbeddingPaused()) {
+            pendingFiles.add(file);
+            return;
+        }
+        removeFile(file.getPath());
+        CharSequence text = ReadAction.compute(() -> isIndexable(file) ? LoadTextUtil.loadText(file) : null);
+        if (text == null) {
+            return;
+        }
+
+        List<Chunk> fileChunkList = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        List<Integer> lineStarts = lineStarts(text);
+        for (int first = 0; first < lineStarts.size() && fileChunkList.size() < MAX_CHUNKS_PER_FILE;
+                first += CHUNK_LINES - CHUNK_OVERLAP) {
+            int last = Math.min(lineStarts.size(), first + CHUNK_LINES);
+            String chunkText = lines(text, lineStarts, first, last);
+            if (countNonBlankLines(chunkText) >= MIN_CHUNK_LINES) {
+                fileChunkList.add(new Chunk(file, first, last));
+                texts.add(chunkText);
+            }
+            if (last == lineStarts.size()) {
+                break;
+            }
+        }
+
+        int[] ids = new int[fileChunkList.size()];
+        int added = 0;
+        int batchSize = Math.max(1, embeddings.getMaxBatchSize());
+        try {
+            for (int from = 0; from < texts.size(); from += batchSize) {
+                int to = Math.min(texts.size(), from + batchSize);
+                List<float[]> vectors = embeddings.embed(texts.subList(from, to));
+                for (int i = from; i < to; i++) {
+                    ids[i] = index.add(vectors.get(i - from));
+                    chunks.put(ids[i], fileChunkList.get(i));
+                    added++;
+                }
+            }
+            if (!texts.isEmpty()) {
+                embeddingSucceeded();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Paused indexing related code; embedding failed", e);
+            pendingFiles.add(file);
+            pauseEmbedding();
+        }
+        fileChunks.put(file.getPath(), Arrays.copyOf(ids, added));
+    }
+
+    /**
+     * Re-indexes a renamed or moved file, or every file under a renamed or
+     * moved directory, dropping the chunks kept under the old path.
+     */
+    private void reindexMoved(String oldPath, VirtualFile file) {
+        if (file == null) {
+            removeFile(oldPath);
+            return;
+        }
+        if (!file.isDirectory()) {
+            removeFile(oldPath);
+            indexFile(file);
+            return;
+        }
+
+        String prefix = oldPath + "/";
+        for (String path : new ArrayList<>(fileChunks.keySet())) {
+            if (path.startsWith(prefix)) {
+                removeFile(path);
+            }
+        }
+        List<VirtualFile> files = new ArrayList<>();
+        ReadAction.run(() -> VfsUtilCore.iterateChildrenRecursively(file, null, child -> {
+            if (!child.isDirectory()) {
+                files.add(child);
+            }
+            return !project.isDisposed();
+        }));
+        for (VirtualFile child : files) {
+            indexFile(child);
+        }
+    }
+
+    private boolean isEmbeddingPaused() {
+        return System.currentTimeMillis() < embeddingRetryAt;
+    }
+
+    private synchronized void embeddingSucceeded() {
+        embeddingRetryMs = EMBEDDING_RETRY_MS;
+    }
+
+    /**
+     * Stops embedding for a while after an error and indexes the files that
+     * were skipped in the meantime once it is over. Each error in a row
+     * doubles the wait.
+     */
+    private synchronized void pauseEmbedding() {
+        embeddingRetryAt = System.currentTimeMillis() + embeddingRetryMs;
+        long delayMs = embeddingRetryMs;
+        embeddingRetryMs = Math.min(MAX_EMBEDDING_RETRY_MS, embeddingRetryMs * 2);
+        if (!retryScheduled) {
+            scheduleRetry(delayMs);
+        }
+    }
+
+    // Must hold the lock
+    private void scheduleRetry(long delayMs) {
+        retryScheduled = true;
+        AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> {
+            if (!project.isDisposed()) {
+                executor.execute(this::indexPendingFiles);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void indexPendingFiles() {
+        synchronized (this) {
+            retryScheduled = false;
+            // Paused for longer by a later error
+            long remainingMs = embeddingRetryAt - System.currentTimeMillis();
+            if (remainingMs > 0) {
+                scheduleRetry(remainingMs);
+                return;
+            }
+        }
+        List<VirtualFile> files = new ArrayList<>(pendingFiles);
+        pendingFiles.removeAll(files);
+        for (VirtualFile file : files) {
+            indexFile(file);
+        }
+    }
+
+    private void removeFile(String path) {
+        int[] ids = fileChunks.remove(path);
+        if (ids == null) {
+            return;
+        }
+        for (int id : ids) {
+            if (chunks.remove(id) != null) {
+                index.remove(id);
+            }
+        }
+    }
+
+    // Must be called in a read action
+    private boolean isIndexable(VirtualFile file) {
+        return file.isValid()
+                && !file.isDirectory()
+                && !file.getFileType().isBinary()
+                && file.getLength() <= MAX_FILE_CHARS
+                && ProjectFileIndex.getInstance(project).isInSourceContent(file);
+    }
+
+    private String readChunk(Chunk chunk) {
+        CharSequence text = ReadAction.compute(() -> chunk.file.isValid() ? LoadTextUtil.loadText(chunk.file) : null);
+        if (text == null) {
+            return null;
+        }
+        List<Integer> lineStarts = lineStarts(text);
+        if (chunk.startLine >= lineStarts.size()) {
+            return null;
+        }
+        return lines(text, lineStarts, chunk.startLine, Math.min(chunk.endLine, lineStarts.size()));
+    }
+
+    private String relativePath(VirtualFile file) {
+        VirtualFile root = ReadAction.compute(() -> ProjectFileIndex.getInstance(project).getContentRootForFile(file));
+        String relative = root != null ? VfsUtilCore.getRelativePath(file, root) : null;
+        return relative != null ? relative : file.getName();
+    }
+
+    private static List<Integer> lineStarts(CharSequence text) {
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        for (int i = 0; i < text.length() - 1; i++) {
+            if (text.charAt(i) == '\n') {
+                starts.add(i + 1);
+            }
+        }
+        return starts;
+    }
+
+    // Lines first to last, exclusive
+    private static String lines(CharSequence text, List<Integer> lineStarts, int first, int last) {
+        int end = last < lineStarts.size() ? lineStarts.get(last) - 1 : text.length();
+        return text.subSequence(lineStarts.get(first), Math.max(lineStarts.get(first), end)).toString();
+    }
+
+    private static int countNonBlankLines(String text) {
+        int count = 0;
+        for (String line : text.split("\n")) {
+            if (!line.isBlank()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void dispose() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,405 @@
+package com.technology.ncode.vertexai;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+/**
+ * Coalesces identical model requests that are in flight at the same time,
+ * e.g. the same file open in two splits or the same selection sent to Explain
+ * twice. The first caller for a key makes the request and every caller that
+ * arrives before it finishes gets the same result; streamed chunks are
+ * replayed to late joiners and then delivered live. Nothing is kept once the
+ * request completes, so this is not a response cache.
+ */
+public final class SingleFlight {
+
+    /**
+     * A blocking model call.
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * A streaming model call that hands each chunk to the sink and stops when
+     * the sink returns false.
+     */
+    @FunctionalInterface
+    public interface StreamCall {
+        /**
+         * @return true if the stream was read to the end
+         */
+        boolean run(StreamSink sink) throws IOException;
+    }
+
+    /**
+     * Receives the chunks of a streaming call; returns false once nobody
+     * wants more of them.
+     */
+    public interface StreamSink extends Predicate<String> {
+        /**
+         * Registers how to cancel the underlying request. It runs as soon as
+         * the last subscriber stops or is interrupted, rather than when the
+         * next chunk arrives, or straight away if that has already happened.
+         */
+        void onCancel(Runnable cancel);
+    }
+
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    // More streams than the admission controller lets through by default
+    // would only wait for it there
+    private final ExecutorService streamExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "NCode Streaming Request", AdmissionController.DEFAULT_MAX_IN_FLIGHT);
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Returns a key for the request, hashing the prompt parts so the map does
+     * not hold on to large prompts.
+     *
+     * @param operation Identifies the client, model settings and kind of call
+     * @param parts     Everything else that determines the response
+     */
+    public static String key(String operation, String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return operation + ":" + HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Runs a blocking call, or waits for the identical call already running.
+     */
+    public <T> T execute(String key, Call<T> call) throws IOException {
+        UnaryFlight<T> flight = new UnaryFlight<>();
+        UnaryFlight<T> running = join(key, flight);
+        if (running != null) {
+            return await(running.result);
+        }
+
+        try {
+            T value = call.call();
+            flights.remove(key, flight);
+            flight.result.set(value);
+            return value;
+        } catch (IOException | RuntimeException | Error e) {
+            flights.remove(key, flight);
+            flight.result.setException(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Starts an asynchronous call, or attaches to the identical call already
+     * running. Each caller gets its own future; cancelling it detaches only
+     * that caller, and the underlying call is cancelled once nobody waits for
+     * it any more.
+     */
+    public <T> ApiFuture<T> executeAsync(String key, Call<ApiFuture<T>> call) throws IOException {
+        UnaryFlight<T> flight = new UnaryFlight<>();
+        UnaryFlight<T> running = join(key, flight);
+        if (running != null) {
+            return view(key, running);
+        }
+
+        ApiFuture<T> upstream;
+        try {
+            upstream = call.call();
+        } catch (IOException | RuntimeException | Error e) {
+            flights.remove(key, flight);
+            flight.result.setException(e);
+            throw e;
+        }
+
+        flight.upstream = upstream;
+        ApiFutures.addCallback(upstream, new ApiFutureCallback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                flights.remove(key, flight);
+                flight.result.set(value);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                flights.remove(key, flight);
+                flight.result.setException(t);
+            }
+        }, MoreExecutors.directExecutor());
+        ApiFuture<T> view = view(key, flight);
+        // Everyone may have left while the call was being started
+        if (flight.result.isCancelled()) {
+            upstream.cancel(true);
+        }
+        return view;
+    }
+
+    /**
+     * Streams a response, or subscribes to the identical stream already
+     * running and first receives the chunks it has produced so far. The
+     * stream is read on a background thread and stops once every subscriber
+     * has returned false.
+     *
+     * @return true if the stream was read to the end, false if this caller
+     *         stopped it
+     */
+    public boolean stream(String key, StreamCall call, Predicate<String> onChunk) throws IOException {
+        StreamFlight flight = new StreamFlight();
+        StreamFlight running = join(key, flight);
+        if (running != null) {
+            return subscribe(running, onChunk);
+        }
+
+        try {
+            streamExecutor.execute(() -> pump(key, flight, call));
+        } catch (RejectedExecutionException e) {
+            flights.remove(key, flight);
+            flight.finish(false, e);
+        }
+        return subscribe(flight, onChunk);
+    }
+
+    /**
+     * Returns the number of requests and the share that were served by a
+     * request already in flight.
+     */
+    public Map<String, Number> getMetrics() {
+        long total = requests.get();
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("coalescedRequests", coalesced.get());
+        metrics.put("coalescingRate", total == 0 ? 0.0 : (double) coalesced.get() / total);
+        return metrics;
+    }
+
+    void shutdown() {
+        streamExecutor.shutdownNow();
+    }
+
+    // Registers the new flight, or returns the running one after joining it
+    @SuppressWarnings("unchecked")
+    private <F extends Flight> F join(String key, F flight) {
+        requests.incrementAndGet();
+        while (true) {
+            Flight existing = flights.putIfAbsent(key, flight);
+            if (existing == null) {
+                return null;
+            }
+            if (existing.tryJoin()) {
+                coalesced.incrementAndGet();
+                return (F) existing;
+            }
+            // Everyone left it; it is on its way out of the map
+            flights.remove(key, existing);
+        }
+    }
+
+    private <T> ApiFuture<T> view(String key, UnaryFlight<T> flight) {
+        SettableApiFuture<T> view = SettableApiFuture.create();
+        ApiFutures.addCallback(flight.result, new ApiFutureCallback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                view.set(value);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                view.setException(t);
+            }
+        }, MoreExecutors.directExecutor());
+
+        view.addListener(() -> {
+            if (view.isCancelled() && flight.leave()) {
+                flights.remove(key, flight);
+                flight.result.cancel(false);
+                Future<?> upstream = flight.upstream;
+                if (upstream != null) {
+                    upstream.cancel(true);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return view;
+    }
+
+    private static <T> T await(SettableApiFuture<T> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a coalesced request");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void pump(String key, StreamFlight flight, StreamCall call) {
+        boolean completed = false;
+        Throwable failure = null;
+        try {
+            completed = call.run(flight);
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            flights.remove(key, flight);
+            flight.finish(completed, failure);
+        }
+    }
+
+    private static boolean subscribe(StreamFlight flight, Predicate<String> onChunk) throws IOException {
+        int next = 0;
+        while (true) {
+            String chunk;
+            synchronized (flight) {
+                try {
+                    while (next >= flight.chunks.size() && !flight.done) {
+                        flight.wait();
+                    }
+                } catch (InterruptedException e) {
+                    leave(flight);
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while streaming");
+                }
+
+                if (next < flight.chunks.size()) {
+                    chunk = flight.chunks.get(next++);
+                } else if (flight.failure instanceof IOException) {
+                    throw (IOException) flight.failure;
+                } else if (flight.failure instanceof RuntimeException) {
+                    throw (RuntimeException) flight.failure;
+                } else if (flight.failure != null) {
+                    throw new IOException(flight.failure);
+                } else {
+                    return flight.completed;
+                }
+            }
+
+            // Deliver outside the lock so a slow subscriber doesn't hold up the stream
+            if (!onChunk.test(chunk)) {
+                leave(flight);
+                return false;
+            }
+        }
+    }
+
+    private static void leave(StreamFlight flight) {
+        if (flight.leave()) {
+            flight.cancelUpstream();
+        }
+    }
+
+    /**
+     * An in-flight request and the number of callers waiting for it.
+     */
+    private abstract static class Flight {
+        // Guarded by this; the flight can't be joined once it drops to zero
+        int waiters = 1;
+
+        synchronized boolean tryJoin() {
+            if (waiters == 0) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        /**
+         * @return true if that was the last waiter
+         */
+        synchronized boolean leave() {
+            return --waiters == 0;
+        }
+    }
+
+    private static final class UnaryFlight<T> extends Flight {
+        final SettableApiFuture<T> result = SettableApiFuture.create();
+        volatile Future<?> upstream;
+    }
+
+    private static final class StreamFlight extends Flight implements StreamSink {
+        // All guarded by this
+        final List<String> chunks = new ArrayList<>();
+        boolean done;
+        boolean completed;
+        Throwable failure;
+        Runnable cancel;
+
+        @Override
+        public synchronized boolean test(String chunk) {
+            if (waiters == 0) {
+                return false;
+            }
+            chunks.add(chunk);
+            notifyAll();
+            return true;
+        }
+
+        @Override
+        public void onCancel(Runnable cancel) {
+            boolean abandoned;
+            synchronized (this) {
+                abandoned = waiters == 0;
+                if (!abandoned) {
+                    this.cancel = cancel;
+                }
+            }
+            if (abandoned) {
+                cancel.run();
+            }
+        }
+
+        // Called once the last subscriber has left
+        void cancelUpstream() {
+            Runnable pending;
+            synchronized (this) {
+                pending = cancel;
+                cancel = null;
+            }
+            if (pending != null) {
+                pending.run();
+            }
+        }
+
+        synchronized void finish(boolean completed, Throwable failure) {
+            this.done = true;
+            this.completed = completed;
+            this.failure = failure;
+            this.cancel = null;
+            notifyAll();
+        }
+    }
+}
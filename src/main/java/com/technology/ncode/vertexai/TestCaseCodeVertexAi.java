@@ -4,21 +4,24 @@ import java.io.IOException;
 import java.util.List;
 import java.util.function.Consumer;
 
-import com.google.cloud.vertexai.VertexAI;
 import com.google.cloud.vertexai.api.Candidate;
 import com.google.cloud.vertexai.api.Content;
 import com.google.cloud.vertexai.api.GenerateContentResponse;
 import com.google.cloud.vertexai.api.GenerationConfig;
 import com.google.cloud.vertexai.api.Part;
-import com.google.cloud.vertexai.generativeai.ContentMaker;
 import com.google.cloud.vertexai.generativeai.GenerativeModel;
 import com.technology.ncode.config.EnvironmentConfig;
 
 public class TestCaseCodeVertexAi {
-    private static final String PROJECT_ID = EnvironmentConfig.VERTEX_PROJECT_ID;
-    private static final String LOCATION = EnvironmentConfig.VERTEX_LOCATION;
     private static final String MODEL_ID = EnvironmentConfig.VERTEX_MODEL_ID;
 
+    private static final GenerationConfig GENERATION_CONFIG = GenerationConfig.newBuilder()
+            .setTemperature(0.3f)
+            .setMaxOutputTokens(1024)
+            .setTopP(1.0f)
+            .setTopK(40)
+            .build();
+
     private static final String SYSTEM_PROMPT = """
             You are an expert test code generator. Given code, generate executable test code to ensure its correctness.
 
@@ -45,6 +48,33 @@ public class TestCaseCodeVertexAi {
             13. The generated test code should be able to compile and run without errors.
             """;
 
+    private final VertexAiClientPool clientPool;
+    private final ContextCacheManager contextCache;
+    // Project the requests count against for admission
+    private final String scope;
+
+    public TestCaseCodeVertexAi() {
+        this(VertexAiClientPool.getInstance());
+    }
+
+    public TestCaseCodeVertexAi(String scope) {
+        this(VertexAiClientPool.getInstance(), ContextCacheManager.getInstance(), scope);
+    }
+
+    public TestCaseCodeVertexAi(VertexAiClientPool clientPool) {
+        this(clientPool, ContextCacheManager.getInstance());
+    }
+
+    public TestCaseCodeVertexAi(VertexAiClientPool clientPool, ContextCacheManager contextCache) {
+        this(clientPool, contextCache, AdmissionController.DEFAULT_SCOPE);
+    }
+
+    public TestCaseCodeVertexAi(VertexAiClientPool clientPool, ContextCacheManager contextCache, String scope) {
+        this.clientPool = clientPool;
+        this.contextCache = contextCache;
+        this.scope = scope;
+    }
+
     public void generateContentStream(String prompt, Consumer<String> onNext) throws IOException {
         if (prompt == null) {
             throw new IllegalArgumentException("Prompt cannot be null");
@@ -54,30 +84,24 @@ public class TestCaseCodeVertexAi {
             throw new IOException("Prompt cannot be empty or contain only whitespace");
         }
 
-        try (VertexAI vertexAi = new VertexAI(PROJECT_ID, LOCATION)) {
-            GenerationConfig generationConfig = GenerationConfig.newBuilder()
-                    .setTemperature(0.3f)
-                    .setMaxOutputTokens(1024)
-                    .setTopP(1.0f)
-                    .setTopK(40)
-                    .build();
-
-            GenerativeModel model = new GenerativeModel.Builder()
-                    .setModelName(MODEL_ID)
-                    .setVertexAi(vertexAi)
-                    .setGenerationConfig(generationConfig)
-                    .setSystemInstruction(
-                            ContentMaker.fromString(SYSTEM_PROMPT))
-                    .build();
-
-            model.generateContentStream(prompt)
-                    .forEach(response -> {
-                        String text = extractTestCaseCode(response);
-                        if (text != null && !text.isEmpty()) {
-                            onNext.accept(text);
-                        }
-                    });
-        }
+        GenerativeModel model = clientPool.getModel(clientPool.getLocation(), MODEL_ID, GENERATION_CONFIG,
+                SYSTEM_PROMPT);
+        long tokens = AdmissionController.estimateTokens(GENERATION_CONFIG, SYSTEM_PROMPT, prompt);
+        clientPool.getSingleFlight().stream(SingleFlight.key("testcase-stream", prompt),
+                sink -> clientPool.getAdmissionController().call(scope, tokens, AdmissionController.INTERACTIVE_WAIT,
+                        () -> {
+                            model.generateContentStream(prompt)
+                                    .forEach(response -> {
+                                        String text = extractTestCaseCode(response);
+                                        if (text != null && !text.isEmpty()) {
+                                            sink.test(text);
+                                        }
+                                    });
+                            return true;
+                        }), text -> {
+            onNext.accept(text);
+            return true;
+        });
     }
 
     public String generateContent(String prompt) throws IOException {
@@ -89,25 +113,13 @@ public class TestCaseCodeVertexAi {
             throw new IOException("Prompt cannot be empty or contain only whitespace");
         }
 
-        try (VertexAI vertexAi = new VertexAI(PROJECT_ID, LOCATION)) {
-            GenerationConfig generationConfig = GenerationConfig.newBuilder()
-                    .setTemperature(0.3f)
-                    .setMaxOutputTokens(1024)
-                    .setTopP(1.0f)
-                    .setTopK(40)
-                    .build();
-
-            GenerativeModel model = new GenerativeModel.Builder()
-                    .setModelName(MODEL_ID)
-                    .setVertexAi(vertexAi)
-                    .setGenerationConfig(generationConfig)
-                    .setSystemInstruction(
-                            ContentMaker.fromString(SYSTEM_PROMPT))
-                    .build();
-
-            GenerateContentResponse response = model.generateContent(prompt);
-            return extractTestCaseCode(response);
-        }
+        long tokens = AdmissionController.estimateTokens(GENERATION_CONFIG, SYSTEM_PROMPT, prompt);
+        GenerateContentResponse response = clientPool.getSingleFlight().execute(
+                SingleFlight.key("testcase", prompt),
+                () -> clientPool.getAdmissionController().call(scope, tokens, AdmissionController.INTERACTIVE_WAIT,
+                        () -> contextCache.generateContent(clientPool, clientPool.getLocation(), MODEL_ID,
+                                GENERATION_CONFIG, SYSTEM_PROMPT, null, prompt)));
+        return extractTestCaseCode(response);
     }
 
     public static String extractTestCaseCode(GenerateContentResponse response) {
@@ -0,0 +1,52 @@
+package com.technology.ncode.vertexai;
+
+/**
+ * Token bucket refilled continuously at {@code capacity} tokens per period,
+ * e.g. requests or model tokens per minute. Not thread-safe on its own; the
+ * owner synchronizes.
+ */
+final class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefillNanos;
+
+    TokenBucket(long capacity, long periodNanos, long nowNanos) {
+        this.capacity = capacity;
+        this.tokensPerNano = (double) capacity / periodNanos;
+        this.tokens = capacity;
+        this.lastRefillNanos = nowNanos;
+    }
+
+    /**
+     * Takes {@code amount} tokens if available. A request larger than the
+     * bucket is treated as a request for the whole bucket.
+     *
+     * @return 0 if the tokens were taken, otherwise the nanoseconds until
+     *         enough will have been refilled
+     */
+    long tryTake(long amount, long nowNanos) {
+        refill(nowNanos);
+        double needed = Math.min(amount, capacity);
+        if (tokens >= needed) {
+            tokens -= needed;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((needed - tokens) / tokensPerNano));
+    }
+
+    /**
+     * Returns tokens taken for a request that was not sent after all.
+     */
+    void giveBack(long amount) {
+        tokens = Math.min(capacity, tokens + Math.min(amount, capacity));
+    }
+
+    private void refill(long nowNanos) {
+        long elapsed = nowNanos - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+            lastRefillNanos = nowNanos;
+        }
+    }
+}
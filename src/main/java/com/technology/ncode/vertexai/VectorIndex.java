@@ -0,0 +1,257 @@
+package com.technology.ncode.vertexai;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cosine-similarity index of embedding vectors. Vectors are normalized when
+ * added and stored off-heap, back to back in one direct buffer, so a search is
+ * a single sequential pass of dot products: rows are copied a block at a time
+ * into a reused array and summed with independent accumulators, a loop the JIT
+ * can vectorize and the prefetcher can follow. The best {@code k} are kept in
+ * a bounded heap of primitives. Removed rows are reused by later additions.
+ */
+public final class VectorIndex {
+    private static final int INITIAL_ROWS = 1024;
+    // Rows copied on-heap per step of a search
+    private static final int BLOCK_ROWS = 64;
+
+    /**
+     * A row and its similarity to the query, from -1 to 1.
+     */
+    public static final class Match {
+        public final int id;
+        public final float score;
+
+        Match(int id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        @Override
+        public String toString() {
+            return id + ":" + score;
+        }
+    }
+
+    // All guarded by this
+    private final int dimensions;
+    private FloatBuffer vectors;
+    private boolean[] live;
+    private int rows;
+    private int liveRows;
+    private int[] freeRows = new int[16];
+    private int freeCount;
+    private final float[] block;
+
+    public VectorIndex(int dimensions) {
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("dimensions must be positive: " + dimensions);
+        }
+        this.dimensions = dimensions;
+        this.vectors = allocate(INITIAL_ROWS);
+        this.live = new boolean[INITIAL_ROWS];
+        this.block = new float[BLOCK_ROWS * dimensions];
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public synchronized int size() {
+        return liveRows;
+    }
+
+    /**
+     * Adds the vector and returns its id. A zero vector can be added but
+     * never matches.
+     */
+    public synchronized int add(float[] vector) {
+        checkDimensions(vector);
+        int id;
+        if (freeCount > 0) {
+            id = freeRows[--freeCount];
+        } else {
+            if (rows == live.length) {
+                grow();
+            }
+            id = rows++;
+        }
+
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        float scale = norm > 0 ? (float) (1 / Math.sqrt(norm)) : 0;
+        int base = id * dimensions;
+        for (int i = 0; i < dimensions; i++) {
+            vectors.put(base + i, vector[i] * scale);
+        }
+        live[id] = true;
+        liveRows++;
+        return id;
+    }
+
+    /**
+     * Removes the vector with the id; its id may be handed out again.
+     */
+    public synchronized void remove(int id) {
+        if (id < 0 || id >= rows || !live[id]) {
+            return;
+        }
+        live[id] = false;
+        liveRows--;
+        if (freeCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+        }
+        freeRows[freeCount++] = id;
+    }
+
+    /**
+     * Returns the up to {@code k} vectors most similar to the query, most
+     * similar first.
+     */
+    public synchronized List<Match> search(float[] query, int k) {
+        checkDimensions(query);
+        if (k <= 0 || liveRows == 0) {
+            return List.of();
+        }
+        float[] normalized = normalize(query);
+        if (normalized == null) {
+            return List.of();
+        }
+
+        // Min-heap of the best so far, worst at the root
+        int[] heapIds = new int[Math.min(k, liveRows)];
+        float[] heapScores = new float[heapIds.length];
+        int heapSize = 0;
+
+        for (int first = 0; first < rows; first += BLOCK_ROWS) {
+            int count = Math.min(BLOCK_ROWS, rows - first);
+            vectors.get(first * dimensions, block, 0, count * dimensions);
+            for (int row = 0; row < count; row++) {
+                int id = first + row;
+                if (!live[id]) {
+                    continue;
+                }
+                float score = dot(block, row * dimensions, normalized, dimensions);
+                if (heapSize < heapIds.length) {
+                    heapIds[heapSize] = id;
+                    heapScores[heapSize] = score;
+                    siftUp(heapIds, heapScores, heapSize++);
+                } else if (score > heapScores[0]) {
+                    heapIds[0] = id;
+                    heapScores[0] = score;
+                    siftDown(heapIds, heapScores, heapSize);
+                }
+            }
+        }
+
+        List<Match> matches = new ArrayList<>(heapSize);
+        for (int i = 0; i < heapSize; i++) {
+            matches.add(new Match(heapIds[i], heapScores[i]));
+        }
+        matches.sort((a, b) -> Float.compare(b.score, a.score));
+        return matches;
+    }
+
+    // Four independent sums, so the additions don't wait on each other
+    static float dot(float[] rows, int offset, float[] query, int dimensions) {
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int i = 0;
+        for (; i + 3 < dimensions; i += 4) {
+            s0 += rows[offset + i] * query[i];
+            s1 += rows[offset + i + 1] * query[i + 1];
+            s2 += rows[offset + i + 2] * query[i + 2];
+            s3 += rows[offset + i + 3] * query[i + 3];
+        }
+        for (; i < dimensions; i++) {
+            s0 += rows[offset + i] * query[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            return null;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    private static void siftUp(int[] ids, float[] scores, int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (scores[parent] <= scores[index]) {
+                return;
+            }
+            swap(ids, scores, parent, index);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(int[] ids, float[] scores, int size) {
+        int index = 0;
+        while (true) {
+            int smallest = index;
+            int left = index * 2 + 1;
+            int right = left + 1;
+            if (left < size && scores[left] < scores[smallest]) {
+                smallest = left;
+            }
+            if (right < size && scores[right] < scores[smallest]) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+            swap(ids, scores, smallest, index);
+            index = smallest;
+        }
+    }
+
+    private static void swap(int[] ids, float[] scores, int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+
+    private void grow() {
+        int capacity = live.length * 2;
+        FloatBuffer grown = allocate(capacity);
+        grown.put(0, vectors, 0, rows * dimensions);
+        vectors = grown;
+        live = Arrays.copyOf(live, capacity);
+    }
+
+    private FloatBuffer allocate(int capacityRows) {
+        return ByteBuffer.allocateDirect(capacityRows * dimensions * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    private void checkDimensions(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException(
+                    "Expected " + dimensions + " dimensions but got " + vector.length);
+        }
+    }
+}
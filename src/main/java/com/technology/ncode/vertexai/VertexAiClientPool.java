@@ -0,0 +1,271 @@
+package com.technology.ncode.vertexai;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import com.google.cloud.vertexai.VertexAI;
+import com.google.cloud.vertexai.api.GenerationConfig;
+import com.google.cloud.vertexai.generativeai.ContentMaker;
+import com.google.cloud.vertexai.generativeai.GenerativeModel;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.technology.ncode.config.EnvironmentConfig;
+
+/**
+ * Application-wide pool of Vertex AI clients.
+ * Keeps one {@link VertexAI} transport per location open for the lifetime of
+ * the plugin and hands out cached {@link GenerativeModel} instances per model
+ * configuration, so a request no longer pays for channel setup, TLS and
+ * credential loading.
+ */
+@Service(Service.Level.APP)
+public final class VertexAiClientPool implements Disposable {
+    private static final Logger LOG = Logger.getInstance(VertexAiClientPool.class);
+    private static final String PROJECT_ID = EnvironmentConfig.VERTEX_PROJECT_ID;
+    private static final String API_ENDPOINT = EnvironmentConfig.VERTEX_API_ENDPOINT;
+
+    private final String location;
+    private final Function<String, VertexAI> clientFactory;
+    private final Map<String, VertexAI> clients = new ConcurrentHashMap<>();
+    private final Map<ModelKey, GenerativeModel> models = new ConcurrentHashMap<>();
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final AdmissionController admissionController;
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+    // Created on first use, as it needs the location
+    private volatile RegionRouter regionRouter;
+    private volatile boolean disposed = false;
+
+    public VertexAiClientPool() {
+        this(EnvironmentConfig.VERTEX_LOCATION);
+    }
+
+    /**
+     * @param location Vertex AI location of requests that aren't routed
+     *                 across locations, or null if none is configured; a
+     *                 request then fails with a message naming the setting
+     */
+    public VertexAiClientPool(String location) {
+        this(location, VertexAiClientPool::createClient);
+    }
+
+    /**
+     * Creates a pool whose clients come from the given factory, e.g. clients
+     * connected to a local fake server.
+     *
+     * @param clientFactory Creates the client for a location
+     */
+    public VertexAiClientPool(String location, Function<String, VertexAI> clientFactory) {
+        this(location, clientFactory, new AdmissionController());
+    }
+
+    /**
+     * Creates a pool whose requests are admitted by the given controller.
+     */
+    public VertexAiClientPool(String location, Function<String, VertexAI> clientFactory,
+            AdmissionController admissionController) {
+        this(location, clientFactory, admissionController, null);
+    }
+
+    /**
+     * Creates a pool whose inline completions are routed across the locations
+     * of the given router, or of the configured locations if it is null.
+     */
+    public VertexAiClientPool(String location, Function<String, VertexAI> clientFactory,
+            AdmissionController admissionController, RegionRouter regionRouter) {
+        this.location = location;
+        this.clientFactory = clientFactory;
+        this.admissionController = admissionController;
+        this.regionRouter = regionRouter;
+    }
+
+    /**
+     * Returns the location, failing with a message that names the setting if
+     * it is missing.
+     */
+    static String requireLocation(String location) {
+        if (location == null || location.isBlank()) {
+            throw new IllegalStateException("No Vertex AI location configured; set VERTEX_LOCATION");
+        }
+        return location;
+    }
+
+    /**
+     * Returns the shared pool. Outside a running IDE (unit tests, benchmarks)
+     * a process-wide fallback instance is used instead of the service.
+     */
+    public static VertexAiClientPool getInstance() {
+        Application application = ApplicationManager.getApplication();
+        if (application != null) {
+            return application.getService(VertexAiClientPool.class);
+        }
+        return Holder.INSTANCE;
+    }
+
+    private static class Holder {
+        private static final VertexAiClientPool INSTANCE = new VertexAiClientPool();
+    }
+
+    /**
+     * Returns whether a location is configured. Without one the pool can be
+     * created and its state shown, but every request fails.
+     */
+    public boolean isConfigured() {
+        return location != null && !location.isBlank();
+    }
+
+    /**
+     * Returns the location of requests that aren't routed across locations.
+     *
+     * @throws IllegalStateException If no location is configured
+     */
+    public String getLocation() {
+        return requireLocation(location);
+    }
+
+    /**
+     * Returns the long-lived client for the given location, creating it on first
+     * use.
+     */
+    public VertexAI getClient(String location) {
+        if (disposed) {
+            throw new IllegalStateException("Vertex AI client pool has been disposed");
+        }
+        return clients.computeIfAbsent(requireLocation(location), clientFactory);
+    }
+
+    private static VertexAI createClient(String location) {
+        if (API_ENDPOINT == null || API_ENDPOINT.isBlank()) {
+            return new VertexAI(PROJECT_ID, location);
+        }
+        return new VertexAI.Builder()
+                .setProjectId(PROJECT_ID)
+                .setLocation(location)
+                .setApiEndpoint(API_ENDPOINT)
+                .build();
+    }
+
+    /**
+     * Returns a cached model bound to the pooled client of the given location.
+     *
+     * @param location         Vertex AI location, e.g. "us-central1"
+     * @param modelName        Model id
+     * @param generationConfig Generation settings for the model
+     * @param systemPrompt     System instruction, or null for none
+     * @return A model instance shared by every caller with the same settings
+     */
+    public GenerativeModel getModel(String location, String modelName, GenerationConfig generationConfig,
+            String systemPrompt) {
+        ModelKey key = new ModelKey(location, modelName, generationConfig, systemPrompt);
+        return models.computeIfAbsent(key, k -> {
+            GenerativeModel.Builder builder = new GenerativeModel.Builder()
+                    .setModelName(modelName)
+                    .setVertexAi(getClient(location))
+                    .setGenerationConfig(generationConfig);
+            if (systemPrompt != null) {
+                builder.setSystemInstruction(ContentMaker.fromString(systemPrompt));
+            }
+            return builder.build();
+        });
+    }
+
+    /**
+     * Returns the coalescing layer shared by every request made through this
+     * pool's clients.
+     */
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Returns the limits every request made through this pool's clients has
+     * to pass.
+     */
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * Returns the breaker that pauses inline completions while the backend is
+     * failing or slow.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Returns the router that picks the location for inline completions,
+     * creating it on first use.
+     *
+     * @throws IllegalStateException If no location is configured
+     */
+    public RegionRouter getRegionRouter() {
+        RegionRouter router = regionRouter;
+        if (router == null) {
+            synchronized (this) {
+                router = regionRouter;
+                if (router == null) {
+                    router = RegionRouter.fromConfig(location);
+                    regionRouter = router;
+                }
+            }
+        }
+        return router;
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        models.clear();
+        singleFlight.shutdown();
+
+        for (VertexAI client : clients.values()) {
+            try {
+                client.close();
+            } catch (Exception e) {
+                LOG.warn("Failed to close Vertex AI client", e);
+            }
+        }
+        clients.clear();
+    }
+
+    // Cache key for model instances; GenerationConfig is a protobuf message so
+    // it already has value semantics
+    private static final class ModelKey {
+        final String location;
+        final String modelName;
+        final GenerationConfig generationConfig;
+        final String systemPrompt;
+
+        ModelKey(String location, String modelName, GenerationConfig generationConfig, String systemPrompt) {
+            this.location = location;
+            this.modelName = modelName;
+            this.generationConfig = generationConfig;
+            this.systemPrompt = systemPrompt;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ModelKey)) {
+                return false;
+            }
+            ModelKey other = (ModelKey) o;
+            return Objects.equals(location, other.location)
+                    && Objects.equals(modelName, other.modelName)
+                    && Objects.equals(generationConfig, other.generationConfig)
+                    && Objects.equals(systemPrompt, other.systemPrompt);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(location, modelName, generationConfig, systemPrompt);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.technology.ncode.vertexai;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.technology.ncode.config.EnvironmentConfig;
+
+/**
+ * {@link CachedContentClient} backed by the Vertex AI REST API. The
+ * {@code cachedContents} resource is not part of the Vertex AI SDK, so the
+ * calls are made directly with the application default credentials.
+ */
+final class VertexCachedContentClient implements CachedContentClient {
+    private static final String PROJECT_ID = EnvironmentConfig.VERTEX_PROJECT_ID;
+    private static final String API_ENDPOINT = EnvironmentConfig.VERTEX_API_ENDPOINT;
+    private static final String SCOPE = "https://www.googleapis.com/auth/cloud-platform";
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(TIMEOUT)
+            .build();
+    private volatile GoogleCredentials credentials;
+
+    @Override
+    public String create(String location, String modelName, String systemPrompt, String prefix, Duration ttl)
+            throws IOException {
+        JsonObject body = new JsonObject();
+        body.addProperty("model", modelResourceName(PROJECT_ID, location, modelName));
+        if (systemPrompt != null) {
+            body.add("systemInstruction", content(null, systemPrompt));
+        }
+        if (prefix != null) {
+            JsonArray contents = new JsonArray();
+            contents.add(content("user", prefix));
+            body.add("contents", contents);
+        }
+        body.addProperty("ttl", ttl.toSeconds() + "s");
+
+        String url = baseUrl(location) + "/v1/projects/" + PROJECT_ID + "/locations/" + location + "/cachedContents";
+        JsonObject response = send(HttpRequest.newBuilder(URI.create(url))
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString())));
+        if (!response.has("name")) {
+            throw new IOException("Cached content response has no name");
+        }
+        return response.get("name").getAsString();
+    }
+
+    @Override
+    public void updateTtl(String name, Duration ttl) throws IOException {
+        JsonObject body = new JsonObject();
+        body.addProperty("ttl", ttl.toSeconds() + "s");
+
+        String url = baseUrl(locationOf(name)) + "/v1/" + name + "?updateMask=ttl";
+        send(HttpRequest.newBuilder(URI.create(url))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString(body.toString())));
+    }
+
+    @Override
+    public void delete(String name) throws IOException {
+        send(HttpRequest.newBuilder(URI.create(baseUrl(locationOf(name)) + "/v1/" + name)).DELETE());
+    }
+
+    static String modelResourceName(String projectId, String location, String modelName) {
+        return "projects/" + projectId + "/locations/" + location + "/publishers/google/models/" + modelName;
+    }
+
+    private JsonObject send(HttpRequest.Builder request) throws IOException {
+        HttpResponse<String> response;
+        try {
+            response = httpClient.send(request
+                    .header("Authorization", "Bearer " + accessToken())
+                    .header("Content-Type", "application/json")
+                    .timeout(TIMEOUT)
+                    .build(), HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calling the cached content API", e);
+        }
+
+        if (response.statusCode() < 200 || response.statusCode() >= 300) {
+            throw new IOException("Cached content API returned status code " + response.statusCode()
+                    + ": " + response.body());
+        }
+        String responseBody = response.body();
+        return responseBody == null || responseBody.isBlank()
+                ? new JsonObject()
+                : JsonParser.parseString(responseBody).getAsJsonObject();
+    }
+
+    private String accessToken() throws IOException {
+        GoogleCredentials current = credentials;
+        if (current == null) {
+            current = GoogleCredentials.getApplicationDefault().createScoped(SCOPE);
+            credentials = current;
+        }
+        current.refreshIfExpired();
+        return current.getAccessToken().getTokenValue();
+    }
+
+    private static String baseUrl(String location) {
+        if (API_ENDPOINT != null && !API_ENDPOINT.isBlank()) {
+            return "https://" + API_ENDPOINT;
+        }
+        return "global".equals(location)
+                ? "https://aiplatform.googleapis.com"
+                : "https://" + location + "-aiplatform.googleapis.com";
+    }
+
+    // Resource names look like projects/{project}/locations/{location}/cachedContents/{id}
+    private static String locationOf(String name) {
+        String[] segments = name.split("/");
+        for (int i = 0; i < segments.length - 1; i++) {
+            if ("locations".equals(segments[i])) {
+                return segments[i + 1];
+            }
+        }
+        throw new IllegalArgumentException("Not a cached content resource name: " + name);
+    }
+
+    private static JsonObject content(String role, String text) {
+        JsonObject part = new JsonObject();
+        part.addProperty("text", text);
+        JsonArray parts = new JsonArray();
+        parts.add(part);
+
+        JsonObject content = new JsonObject();
+        if (role != null) {
+            content.addProperty("role", role);
+        }
+        content.add("parts", parts);
+        return content;
+    }
+}
@@ -0,0 +1,104 @@
+package com.technology.ncode.vertexai;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.vertexai.api.PredictRequest;
+import com.google.cloud.vertexai.api.PredictResponse;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+
+/**
+ * Embeds text with a Vertex AI text embedding model, such as
+ * {@code text-embedding-005}, through the pooled client of a location.
+ */
+public final class VertexEmbeddingProvider implements EmbeddingProvider {
+    // The models take up to 250 texts per request but at most 20k tokens
+    private static final int MAX_BATCH_SIZE = 16;
+    // Inputs are capped at 2048 tokens; the model truncates, but sending the
+    // excess is wasted bandwidth
+    private static final int MAX_INPUT_CHARS = 8_000;
+
+    private final VertexAiClientPool clientPool;
+    private final String location;
+    private final String endpoint;
+    private final int dimensions;
+
+    /**
+     * @param location   Vertex AI location of the model
+     * @param model      Embedding model id
+     * @param dimensions Requested vector length
+     */
+    public VertexEmbeddingProvider(VertexAiClientPool clientPool, String projectId, String location, String model,
+            int dimensions) {
+        this.clientPool = clientPool;
+        this.location = location;
+        this.endpoint = "projects/" + projectId + "/locations/" + location + "/publishers/google/models/" + model;
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
+
+    @Override
+    public List<float[]> embed(List<String> texts) throws IOException {
+        PredictRequest.Builder request = PredictRequest.newBuilder()
+                .setEndpoint(endpoint)
+                .setParameters(struct("outputDimensionality", Value.newBuilder().setNumberValue(dimensions).build()));
+        for (String text : texts) {
+            String content = text.length() > MAX_INPUT_CHARS ? text.substring(0, MAX_INPUT_CHARS) : text;
+            request.addInstances(struct("content", Value.newBuilder().setStringValue(content).build()));
+        }
+
+        PredictResponse response;
+        try {
+            response = clientPool.getClient(location).getPredictionServiceClient().predict(request.build());
+        } catch (ApiException e) {
+            throw new IOException("Embedding request failed: " + e.getMessage(), e);
+        }
+        if (response.getPredictionsCount() != texts.size()) {
+            throw new IOException("Expected " + texts.size() + " embeddings but got "
+                    + response.getPredictionsCount());
+        }
+
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        for (Value prediction : response.getPredictionsList()) {
+            ListValue values = embeddingValues(prediction);
+            if (values.getValuesCount() != dimensions) {
+                throw new IOException("Expected " + dimensions + " dimensions but got "
+                        + values.getValuesCount());
+            }
+            float[] vector = new float[dimensions];
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = (float) values.getValues(i).getNumberValue();
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+
+    // The prediction is {"embeddings": {"values": [...], "statistics": {...}}}
+    private static ListValue embeddingValues(Value prediction) throws IOException {
+        try {
+            return prediction.getStructValue()
+                    .getFieldsOrThrow("embeddings").getStructValue()
+                    .getFieldsOrThrow("values").getListValue();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unexpected embedding response: " + prediction, e);
+        }
+    }
+
+    private static Value struct(String field, Value value) {
+        return Value.newBuilder().setStructValue(Struct.newBuilder().putFields(field, value)).build();
+    }
+}
@@ -0,0 +1,25 @@
+package com.google.cloud.vertexai;
+
+import com.google.auth.Credentials;
+import com.google.cloud.vertexai.api.PredictionServiceClient;
+import com.google.common.base.Supplier;
+
+/**
+ * Exposes the package-private prediction client hook of {@link VertexAI} so
+ * tests can connect the SDK to an in-process server.
+ */
+public final class VertexAiTestAccess {
+
+    private VertexAiTestAccess() {
+    }
+
+    public static VertexAI create(String projectId, String location, Credentials credentials,
+            Supplier<PredictionServiceClient> predictionClientSupplier) {
+        return new VertexAI.Builder()
+                .setProjectId(projectId)
+                .setLocation(location)
+                .setCredentials(credentials)
+                .setPredictionClientSupplier(predictionClientSupplier)
+                .build();
+    }
+}
@@ -0,0 +1,179 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class AdaptiveDebounceSchedulerTest {
+
+    private static final long FLOOR_MS = 50;
+    private static final long CEILING_MS = 500;
+
+    private final AtomicLong now = new AtomicLong(10_000);
+    private final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+    private final AdaptiveDebounceScheduler scheduler =
+            new AdaptiveDebounceScheduler(executor, FLOOR_MS, CEILING_MS, now::get);
+
+    @Test
+    void testComputeDelay_usesCeilingUntilEnoughSamples() {
+        // Arrange
+        type(20, 100);
+
+        // Act
+        long delay = scheduler.computeDelayMs();
+
+        // Assert
+        assertEquals(CEILING_MS, delay);
+    }
+
+    @Test
+    void testComputeDelay_adaptsToTypingCadence() {
+        // Arrange
+        type(31, 100);
+
+        // Act
+        long delay = scheduler.computeDelayMs();
+
+        // Assert
+        assertEquals(120, delay);
+    }
+
+    @Test
+    void testComputeDelay_clampsToFloor() {
+        // Arrange
+        type(31, 10);
+
+        // Act
+        long delay = scheduler.computeDelayMs();
+
+        // Assert
+        assertEquals(FLOOR_MS, delay);
+    }
+
+    @Test
+    void testComputeDelay_clampsToCeiling() {
+        // Arrange
+        type(31, 1_000);
+
+        // Act
+        long delay = scheduler.computeDelayMs();
+
+        // Assert
+        assertEquals(CEILING_MS, delay);
+    }
+
+    @Test
+    void testComputeDelay_ignoresLongPauses() {
+        // Arrange
+        type(31, 100);
+        type(5, 10_000);
+
+        // Act
+        long delay = scheduler.computeDelayMs();
+
+        // Assert
+        assertEquals(120, delay);
+    }
+
+    @Test
+    void testComputeDelay_waitsLongerWhenModelIsSlow() {
+        // Arrange
+        type(92, 100);
+        type(10, 300);
+        long fastModelDelay = scheduler.computeDelayMs();
+
+        // Act
+        scheduler.recordModelLatency(2_000);
+        long slowModelDelay = scheduler.computeDelayMs();
+
+        // Assert
+        assertEquals(120, fastModelDelay);
+        assertEquals(360, slowModelDelay);
+    }
+
+    @Test
+    void testSchedule_usesAdaptiveDelayAndCancelsPendingTask() {
+        // Arrange
+        ScheduledFuture<?> first = mock(ScheduledFuture.class);
+        ScheduledFuture<?> second = mock(ScheduledFuture.class);
+        doReturn(first, second).when(executor).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        type(31, 100);
+        AdaptiveDebounceScheduler.Debounce debounce = scheduler.newDebounce();
+
+        // Act
+        debounce.schedule(() -> {
+        });
+        debounce.schedule(() -> {
+        });
+
+        // Assert
+        verify(executor, times(2)).schedule(any(Runnable.class), eq(120L), eq(TimeUnit.MILLISECONDS));
+        verify(first).cancel(false);
+        verify(second, never()).cancel(anyBoolean());
+        assertEquals(120, scheduler.getCurrentDelayMs());
+    }
+
+    @Test
+    void testHitRate_judgesFiresByNextKeystroke() {
+        // Arrange
+        doReturn(mock(ScheduledFuture.class)).when(executor)
+                .schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        scheduler.recordModelLatency(300);
+        AdaptiveDebounceScheduler.Debounce debounce = scheduler.newDebounce();
+        AtomicLong runs = new AtomicLong();
+
+        // Act
+        // Typing resumes before a suggestion could have been shown
+        fire(debounce, runs::incrementAndGet);
+        now.addAndGet(100);
+        scheduler.recordKeystroke();
+        // Typing resumes after it
+        fire(debounce, runs::incrementAndGet);
+        now.addAndGet(500);
+        scheduler.recordKeystroke();
+        // Not judged until the next keystroke
+        fire(debounce, runs::incrementAndGet);
+
+        // Assert
+        assertEquals(3, runs.get());
+        assertEquals(3, scheduler.getFires());
+        assertEquals(1, scheduler.getFalseFires());
+        assertEquals(0.5, scheduler.getHitRate(), 1e-9);
+    }
+
+    @Test
+    void testHitRate_isZeroBeforeAnyFireIsJudged() {
+        // Act
+        scheduler.recordKeystroke();
+
+        // Assert
+        assertEquals(0.0, scheduler.getHitRate());
+        assertEquals(0, scheduler.getFires());
+    }
+
+    // Records keystrokes the given interval apart; the very first keystroke
+    // has no interval
+    private void type(int keystrokes, long intervalMs) {
+        for (int i = 0; i < keystrokes; i++) {
+            now.addAndGet(intervalMs);
+            scheduler.recordKeystroke();
+        }
+    }
+
+    // Schedules the task and runs it as the executor would once the delay passed
+    private void fire(AdaptiveDebounceScheduler.Debounce debounce, Runnable task) {
+        clearInvocations(executor);
+        debounce.schedule(task);
+        ArgumentCaptor<Runnable> scheduled = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).schedule(scheduled.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        now.addAndGet(scheduler.getCurrentDelayMs());
+        scheduled.getValue().run();
+    }
+}
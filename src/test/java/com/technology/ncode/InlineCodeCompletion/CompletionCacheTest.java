@@ -0,0 +1,156 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompletionCacheTest {
+
+    // Key of two, text of ten and 64 characters of overhead
+    private static final int ENTRY_WEIGHT = 76;
+    private static final long TTL_MS = 60_000;
+    private static final long NEGATIVE_TTL_MS = 5_000;
+
+    private final AtomicLong now = new AtomicLong(1_000);
+    private final CompletionCache cache = new CompletionCache(3 * ENTRY_WEIGHT, TTL_MS, NEGATIVE_TTL_MS, now::get);
+
+    @Test
+    void testPut_evictsLeastRecentlyUsedOverCharacterBudget() {
+        // Arrange
+        cache.put("k1", "text one 1");
+        cache.put("k2", "text two 2");
+        cache.put("k3", "text thr 3");
+        cache.get("k1");
+
+        // Act
+        cache.put("k4", "text fou 4");
+
+        // Assert
+        assertEquals(3, cache.size());
+        assertEquals(3 * ENTRY_WEIGHT, cache.usedChars());
+        assertEquals(1, cache.getEvictions());
+        assertFalse(cache.contains("k2"));
+        assertTrue(cache.contains("k1"));
+        assertTrue(cache.contains("k3"));
+        assertTrue(cache.contains("k4"));
+    }
+
+    @Test
+    void testPut_evictsSeveralEntriesForALargeOne() {
+        // Arrange
+        cache.put("k1", "text one 1");
+        cache.put("k2", "text two 2");
+        cache.put("k3", "text thr 3");
+
+        // Act
+        cache.put("k4", "x".repeat(ENTRY_WEIGHT + 10));
+
+        // Assert
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getEvictions());
+        assertTrue(cache.contains("k3"));
+        assertTrue(cache.contains("k4"));
+    }
+
+    @Test
+    void testPut_skipsEntryLargerThanBudget() {
+        // Arrange
+        cache.put("k1", "text one 1");
+
+        // Act
+        cache.put("k2", "x".repeat(3 * ENTRY_WEIGHT));
+
+        // Assert
+        assertEquals(1, cache.size());
+        assertTrue(cache.contains("k1"));
+        assertFalse(cache.contains("k2"));
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    void testPut_replacingEntryKeepsWeightAccurate() {
+        // Arrange
+        cache.put("k1", "text one 1");
+
+        // Act
+        cache.put("k1", "text one 2");
+
+        // Assert
+        assertEquals(1, cache.size());
+        assertEquals(ENTRY_WEIGHT, cache.usedChars());
+        assertEquals("text one 2", cache.get("k1").text);
+    }
+
+    @Test
+    void testGet_expiresEntryAfterTtl() {
+        // Arrange
+        cache.put("k1", "text one 1");
+
+        // Act
+        now.addAndGet(TTL_MS - 1);
+        CompletionCache.Lookup fresh = cache.get("k1");
+        now.addAndGet(1);
+        CompletionCache.Lookup expired = cache.get("k1");
+
+        // Assert
+        assertTrue(fresh.hit);
+        assertEquals("text one 1", fresh.text);
+        assertFalse(expired.hit);
+        assertEquals(1, cache.getExpirations());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.usedChars());
+    }
+
+    @Test
+    void testGet_expiresNegativeEntryAfterShorterTtl() {
+        // Arrange
+        cache.put("k1", null);
+        cache.put("k2", "");
+        cache.put("k3", "text thr 3");
+
+        // Act
+        CompletionCache.Lookup negative = cache.get("k1");
+        now.addAndGet(NEGATIVE_TTL_MS);
+
+        // Assert
+        assertTrue(negative.hit);
+        assertNull(negative.text);
+        assertFalse(cache.get("k1").hit);
+        assertFalse(cache.get("k2").hit);
+        assertTrue(cache.get("k3").hit);
+        assertEquals(1, cache.getNegativeHits());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void testContains_doesNotCountLookups() {
+        // Arrange
+        cache.put("k1", "text one 1");
+
+        // Act
+        boolean present = cache.contains("k1");
+        now.addAndGet(TTL_MS);
+        boolean expired = cache.contains("k1");
+
+        // Assert
+        assertTrue(present);
+        assertFalse(expired);
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+        assertEquals(0, cache.getExpirations());
+    }
+
+    @Test
+    void testKey_ignoresLineEndingsAndTrailingWhitespace() {
+        // Act
+        String key = CompletionCache.key("int a = 1;  \r\nint b", "JAVA", "model");
+
+        // Assert
+        assertEquals(key, CompletionCache.key("int a = 1;\nint b\t", "JAVA", "model"));
+        assertNotEquals(key, CompletionCache.key("int a = 1;\nint b", "Kotlin", "model"));
+        assertNotEquals(key, CompletionCache.key("int a = 1;\nint b", "JAVA", "other-model"));
+    }
+}
@@ -0,0 +1,126 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompletionContextBuilderTest {
+
+    private static final String CARET = CompletionContextBuilder.CARET_MARKER;
+    private static final String TEN_LINES = "line0\nline1\nline2\nline3\nline4\nline5\nline6\nline7\nline8\nline9";
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    @Test
+    void testBuild_clampsCaretPastEndOfDocument() {
+        // Arrange
+        CompletionContextBuilder builder = new CompletionContextBuilder(CompletionContextBuilder.DEFAULT_TOKEN_BUDGET);
+
+        // Act
+        String context = builder.build(ContextText.of("a\nb"), 99, null, buffer);
+
+        // Assert
+        assertEquals("a\nb" + CARET + "\n", context);
+    }
+
+    @Test
+    void testBuild_clampsCaretBeforeStartOfDocument() {
+        // Arrange
+        CompletionContextBuilder builder = new CompletionContextBuilder(CompletionContextBuilder.DEFAULT_TOKEN_BUDGET);
+
+        // Act
+        String context = builder.build(ContextText.of("a\nb"), -5, null, buffer);
+
+        // Assert
+        assertEquals(CARET + "a\nb\n", context);
+    }
+
+    @Test
+    void testBuild_returnsEmptyContextForEmptyDocument() {
+        // Arrange
+        CompletionContextBuilder builder = new CompletionContextBuilder(CompletionContextBuilder.DEFAULT_TOKEN_BUDGET);
+        buffer.append("left over");
+
+        // Act
+        String context = builder.build(ContextText.of(""), 0, null, buffer);
+
+        // Assert
+        assertEquals("", context);
+        assertEquals(0, buffer.length());
+    }
+
+    @Test
+    void testBuild_growsWindowAlternatelyWithinBudget() {
+        // Arrange
+        // 80 characters, 48 of them for the window
+        CompletionContextBuilder builder = new CompletionContextBuilder(20);
+
+        // Act
+        String context = builder.build(ContextText.of(TEN_LINES), TEN_LINES.indexOf("line5"), null, buffer);
+
+        // Assert
+        assertEquals("line3\nline4\n" + CARET + "line5\nline6\nline7\n", context);
+    }
+
+    @Test
+    void testBuild_growsWindowDownwardAtStartOfDocument() {
+        // Arrange
+        CompletionContextBuilder builder = new CompletionContextBuilder(20);
+
+        // Act
+        String context = builder.build(ContextText.of(TEN_LINES), 2, null, buffer);
+
+        // Assert
+        assertEquals("li" + CARET + "ne0\nline1\nline2\nline3\nline4\n", context);
+    }
+
+    @Test
+    void testBuild_growsWindowUpwardAtEndOfDocument() {
+        // Arrange
+        CompletionContextBuilder builder = new CompletionContextBuilder(20);
+
+        // Act
+        String context = builder.build(ContextText.of(TEN_LINES), TEN_LINES.length(), null, buffer);
+
+        // Assert
+        assertEquals("line5\nline6\nline7\nline8\nline9" + CARET + "\n", context);
+    }
+
+    @Test
+    void testBuild_keepsCaretLineWhenBudgetIsTooSmall() {
+        // Arrange
+        CompletionContextBuilder builder = new CompletionContextBuilder(1);
+
+        // Act
+        String context = builder.build(ContextText.of(TEN_LINES), TEN_LINES.indexOf("line5") + 4, null, buffer);
+
+        // Assert
+        assertEquals("line" + CARET + "5\n", context);
+    }
+
+    @Test
+    void testBuild_clipsLongCaretLineAroundCaret() {
+        // Arrange
+        CompletionContextBuilder builder = new CompletionContextBuilder(CompletionContextBuilder.DEFAULT_TOKEN_BUDGET);
+        String line = "x".repeat(1000);
+
+        // Act
+        String context = builder.build(ContextText.of("short\n" + line + "\nend"), 6 + 900, null, buffer);
+
+        // Assert
+        assertEquals("short\n" + "x".repeat(300) + CARET + "x".repeat(100) + "\nend\n", context);
+    }
+
+    @Test
+    void testBuild_includesPendingInsertion() {
+        // Arrange
+        CompletionContextBuilder builder = new CompletionContextBuilder(CompletionContextBuilder.DEFAULT_TOKEN_BUDGET);
+        ContextText text = ContextText.withInsertion("if (ok) {\n}", 10, "    run();\n");
+
+        // Act
+        String context = builder.build(text, 20, null, buffer);
+
+        // Assert
+        assertEquals("if (ok) {\n    run();" + CARET + "\n}\n", context);
+    }
+}
@@ -0,0 +1,76 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CustomShortcutSet;
+import com.intellij.openapi.actionSystem.ex.ActionUtil;
+import com.intellij.openapi.editor.Editor;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.JPanel;
+import javax.swing.KeyStroke;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class CompletionStateTest {
+
+    private final JPanel contentComponent = new JPanel();
+    private final Editor editor = mock(Editor.class);
+
+    @Test
+    void testCleanup_afterStreamedTextUnregistersShortcuts() {
+        // Arrange
+        when(editor.getContentComponent()).thenReturn(contentComponent);
+        AnAction tabAction = registeredAction(KeyStroke.getKeyStroke(KeyEvent.VK_TAB, 0));
+        List<AnAction> shortcutActions = List.of(
+                registeredAction(KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT, InputEvent.CTRL_DOWN_MASK)),
+                registeredAction(KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, InputEvent.CTRL_DOWN_MASK)));
+        CompletionSession.CompletionState streamed = new CompletionSession.CompletionState(
+                List.of("int total"), 0, 10, List.of(), tabAction, shortcutActions, null);
+
+        // Act
+        CompletionSession.CompletionState extended = streamed
+                .withText("int total = ", List.of())
+                .withText("int total = 0;\n", List.of());
+        extended.cleanup(editor);
+
+        // Assert
+        assertEquals("int total = 0;\n", extended.text);
+        assertEquals(10, extended.offset);
+        assertSame(shortcutActions, extended.shortcutActions);
+        assertTrue(ActionUtil.getActions(contentComponent).isEmpty());
+    }
+
+    @Test
+    void testWithText_keepsOtherCandidatesAndTrigger() {
+        // Arrange
+        TriggerContext trigger = TriggerContext.of("ret", 3, TriggerContext.EditKind.INSERT, 't',
+                TriggerContext.TokenKind.CODE, true);
+        CompletionSession.CompletionState state = new CompletionSession.CompletionState(
+                List.of("return a;", "return b"), 1, 4, List.of(), null, List.of(), trigger);
+
+        // Act
+        CompletionSession.CompletionState extended = state.withText("return b;", List.of());
+
+        // Assert
+        assertEquals(List.of("return a;", "return b;"), extended.candidates);
+        assertEquals(1, extended.candidateIndex);
+        assertEquals("return b;", extended.text);
+        assertSame(trigger, extended.trigger);
+    }
+
+    private AnAction registeredAction(KeyStroke keyStroke) {
+        AnAction action = new AnAction() {
+            @Override
+            public void actionPerformed(@NotNull AnActionEvent e) {
+            }
+        };
+        action.registerCustomShortcutSet(new CustomShortcutSet(keyStroke), contentComponent);
+        return action;
+    }
+}
@@ -0,0 +1,127 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextTextTest {
+
+    @Test
+    void testLineBounds_atStartOfDocument() {
+        // Arrange
+        ContextText text = ContextText.of("first\nsecond\n");
+
+        // Act & Assert
+        assertEquals(0, text.lineStart(0));
+        assertEquals(5, text.lineEnd(0));
+    }
+
+    @Test
+    void testLineBounds_atEndOfDocument() {
+        // Arrange
+        ContextText unterminated = ContextText.of("first\nlast");
+        ContextText terminated = ContextText.of("first\n");
+
+        // Act & Assert
+        assertEquals(6, unterminated.lineStart(10));
+        assertEquals(10, unterminated.lineEnd(10));
+        assertEquals(6, terminated.lineStart(6));
+        assertEquals(6, terminated.lineEnd(6));
+    }
+
+    @Test
+    void testLineBounds_ofEmptyDocument() {
+        // Arrange
+        ContextText text = ContextText.of("");
+
+        // Act & Assert
+        assertEquals(0, text.length());
+        assertEquals(0, text.lineStart(0));
+        assertEquals(0, text.lineEnd(0));
+    }
+
+    @Test
+    void testLineBounds_withCrlfKeepCarriageReturnInLine() {
+        // Arrange
+        ContextText text = ContextText.of("ab\r\ncd\r\n");
+
+        // Act & Assert
+        assertEquals(0, text.lineStart(2));
+        assertEquals(3, text.lineEnd(0));
+        assertEquals(4, text.lineStart(5));
+        assertEquals(7, text.lineEnd(4));
+        assertEquals("cd\r", text.subSequence(text.lineStart(5), text.lineEnd(5)).toString());
+    }
+
+    @Test
+    void testLineBounds_acrossMultiLineInsertion() {
+        // Arrange
+        ContextText text = ContextText.withInsertion("int a = 1;\nif (ok) {}\nreturn;", 20,
+                "\n    run();\n");
+
+        // Act & Assert
+        assertEquals("int a = 1;\nif (ok) {\n    run();\n}\nreturn;", text.toString());
+        // Line before the insertion ends at its first line break
+        assertEquals(11, text.lineStart(15));
+        assertEquals(20, text.lineEnd(15));
+        // Line made up of inserted text only
+        assertEquals(21, text.lineStart(25));
+        assertEquals(31, text.lineEnd(25));
+        // Line that starts in the insertion and ends in the document
+        assertEquals(32, text.lineStart(33));
+        assertEquals(33, text.lineEnd(32));
+        // Line after the insertion
+        assertEquals(34, text.lineStart(40));
+        assertEquals(41, text.lineEnd(34));
+    }
+
+    @Test
+    void testLineBounds_withSingleLineInsertionInsideLine() {
+        // Arrange
+        ContextText text = ContextText.withInsertion("a\nfoo();\nb", 5, "bar");
+
+        // Act & Assert
+        assertEquals("a\nfoobar();\nb", text.toString());
+        assertEquals(2, text.lineStart(4));
+        assertEquals(2, text.lineStart(10));
+        assertEquals(11, text.lineEnd(4));
+        assertEquals(11, text.lineEnd(6));
+        assertEquals(12, text.lineStart(12));
+    }
+
+    @Test
+    void testInsertion_atStartAndEndOfDocument() {
+        // Arrange
+        ContextText atStart = ContextText.withInsertion("body", 0, "head\n");
+        ContextText atEnd = ContextText.withInsertion("head", 4, "\ntail");
+
+        // Act & Assert
+        assertEquals("head\nbody", atStart.toString());
+        assertEquals(0, atStart.lineStart(2));
+        assertEquals(4, atStart.lineEnd(0));
+        assertEquals(5, atStart.lineStart(9));
+        assertEquals(9, atStart.lineEnd(9));
+
+        assertEquals("head\ntail", atEnd.toString());
+        assertEquals(5, atEnd.lineStart(9));
+        assertEquals(9, atEnd.lineEnd(9));
+        assertEquals(4, atEnd.lineEnd(0));
+    }
+
+    @Test
+    void testAppendTo_spansDocumentAndInsertion() {
+        // Arrange
+        ContextText text = ContextText.withInsertion("abcdef", 3, "XYZ");
+        StringBuilder builder = new StringBuilder();
+
+        // Act
+        text.appendTo(builder, 1, 8);
+
+        // Assert
+        assertEquals("bcXYZde", builder.toString());
+        assertEquals('X', text.charAt(3));
+        assertEquals('d', text.charAt(6));
+        assertEquals("Zde", text.subSequence(5, 8).toString());
+        assertEquals(9, text.length());
+    }
+}
@@ -0,0 +1,142 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import com.technology.ncode.InlineCodeCompletion.TriggerContext.EditKind;
+import com.technology.ncode.InlineCodeCompletion.TriggerContext.TokenKind;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class DefaultTriggerClassifierTest {
+
+    // Marks the caret in the texts below
+    private static final String CARET = "|";
+
+    private final DefaultTriggerClassifier classifier = new DefaultTriggerClassifier();
+
+    static Stream<Arguments> positions() {
+        return Stream.of(
+                // Text, edit, token at the caret, whether to trigger
+                arguments("foo.|", EditKind.INSERT, TokenKind.CODE, true),
+                arguments("int total = |", EditKind.INSERT, TokenKind.CODE, true),
+                arguments("call(|)", EditKind.INSERT, TokenKind.CODE, true),
+                arguments("print(a, |b)", EditKind.INSERT, TokenKind.CODE, true),
+                arguments("return resu|", EditKind.INSERT, TokenKind.CODE, true),
+                arguments("int a;\n|", EditKind.INSERT, TokenKind.CODE, true),
+                arguments("int a;\n    |\nint b;", EditKind.INSERT, TokenKind.CODE, true),
+                arguments("if (ok) {|", EditKind.REPLACE, TokenKind.CODE, true),
+                arguments("tot|al = 1;", EditKind.INSERT, TokenKind.CODE, false),
+                arguments("foo.ba|r()", EditKind.INSERT, TokenKind.CODE, false),
+                arguments("String s = \"hel|", EditKind.INSERT, TokenKind.STRING, false),
+                arguments("String s = \"a.|\";", EditKind.INSERT, TokenKind.STRING, false),
+                arguments("// explain th|", EditKind.INSERT, TokenKind.COMMENT, false),
+                arguments("/* note |", EditKind.INSERT, TokenKind.COMMENT, false),
+                arguments("foo.|", EditKind.DELETE, TokenKind.CODE, false),
+                arguments("int a;\n|", EditKind.DELETE, TokenKind.CODE, false));
+    }
+
+    @ParameterizedTest
+    @MethodSource("positions")
+    void testScore_triggersOnlyWhereUseful(String marked, EditKind editKind, TokenKind tokenKind, boolean expected) {
+        // Arrange
+        TriggerContext context = context(marked, editKind, tokenKind, true);
+
+        // Act
+        double score = classifier.score(context);
+
+        // Assert
+        assertEquals(expected, score >= NCodeInlineCompletionProvider.TRIGGER_THRESHOLD, marked + " scored " + score);
+    }
+
+    @Test
+    void testScore_isZeroInReadOnlyDocument() {
+        // Arrange
+        TriggerContext context = context("foo.|", EditKind.INSERT, TokenKind.CODE, false);
+
+        // Act & Assert
+        assertEquals(0.0, classifier.score(context));
+    }
+
+    @Test
+    void testScore_isZeroInHugeDocument() {
+        // Arrange
+        String text = "x".repeat(DefaultTriggerClassifier.MAX_DOCUMENT_LENGTH) + "\nfoo.";
+        TriggerContext context = TriggerContext.of(text, text.length(), EditKind.INSERT, '.', TokenKind.CODE, true);
+
+        // Act & Assert
+        assertEquals(0.0, classifier.score(context));
+    }
+
+    @Test
+    void testScore_followsAcceptanceHistory() {
+        // Arrange
+        DefaultTriggerClassifier rejected = new DefaultTriggerClassifier();
+        TriggerContext context = context("print(a, |b)", EditKind.INSERT, TokenKind.CODE, true);
+        double before = classifier.score(context);
+
+        // Act
+        for (int i = 0; i < 20; i++) {
+            classifier.recordOutcome(context, true);
+            rejected.recordOutcome(context, false);
+        }
+
+        // Assert
+        assertTrue(classifier.score(context) > before);
+        assertTrue(rejected.score(context) < before);
+    }
+
+    @Test
+    void testScore_ignoresShortAcceptanceHistory() {
+        // Arrange
+        TriggerContext context = context("foo.|", EditKind.INSERT, TokenKind.CODE, true);
+        double before = classifier.score(context);
+
+        // Act
+        for (int i = 0; i < 4; i++) {
+            classifier.recordOutcome(context, false);
+        }
+
+        // Assert
+        assertEquals(before, classifier.score(context));
+    }
+
+    @Test
+    void testOf_describesPositionAtStartAndEndOfDocument() {
+        // Act
+        TriggerContext atStart = TriggerContext.of("abc", 0, EditKind.DELETE, (char) 0, TokenKind.CODE, true);
+        TriggerContext atEnd = TriggerContext.of("abc", 3, EditKind.INSERT, 'c', TokenKind.CODE, true);
+
+        // Assert
+        assertFalse(atStart.midIdentifier);
+        assertTrue(atStart.codeAfterCaret);
+        assertFalse(atEnd.midIdentifier);
+        assertFalse(atEnd.codeAfterCaret);
+        assertEquals(3, atEnd.documentLength);
+    }
+
+    @Test
+    void testPositionKey_groupsAlikePositions() {
+        // Arrange
+        TriggerContext afterDot = context("foo.|", EditKind.INSERT, TokenKind.CODE, true);
+        TriggerContext afterOtherDot = context("bar.baz.|", EditKind.INSERT, TokenKind.CODE, true);
+        TriggerContext afterWord = context("foo|", EditKind.INSERT, TokenKind.CODE, true);
+
+        // Act & Assert
+        assertEquals(afterDot.positionKey(), afterOtherDot.positionKey());
+        assertNotEquals(afterDot.positionKey(), afterWord.positionKey());
+    }
+
+    // The context for a text with the caret marked, as if the character
+    // before the caret had just been typed
+    private static TriggerContext context(String marked, EditKind editKind, TokenKind tokenKind, boolean writable) {
+        int offset = marked.indexOf(CARET);
+        String text = marked.substring(0, offset) + marked.substring(offset + CARET.length());
+        char typedChar = editKind == EditKind.DELETE || offset == 0 ? 0 : text.charAt(offset - 1);
+        return TriggerContext.of(text, offset, editKind, typedChar, tokenKind, writable);
+    }
+}
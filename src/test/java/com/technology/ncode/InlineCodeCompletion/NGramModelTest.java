@@ -0,0 +1,147 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NGramModelTest {
+
+    private static final String BUILDER_CHAIN = "Request request = builder.setName(name).build();\n";
+
+    private final NGramModel model = new NGramModel(1 << 10, 1_000);
+
+    @Test
+    void testPredict_completesRepeatedPattern() {
+        // Arrange
+        trainTimes(BUILDER_CHAIN, 5);
+
+        // Act
+        NGramModel.Prediction prediction = model.predict("x = builder.", 12, LocalCompletionTier.CONFIDENT);
+
+        // Assert
+        assertNotNull(prediction);
+        assertEquals("setName(name).build();", prediction.text);
+        assertTrue(prediction.confidence >= LocalCompletionTier.CONFIDENT);
+        assertTrue(prediction.confidence <= 1.0);
+    }
+
+    @Test
+    void testPredict_completesPartialIdentifier() {
+        // Arrange
+        trainTimes(BUILDER_CHAIN, 5);
+        String text = "x = builder.setNa";
+
+        // Act
+        NGramModel.Prediction prediction = model.predict(text, text.length(), LocalCompletionTier.CONFIDENT);
+
+        // Assert
+        assertNotNull(prediction);
+        assertEquals("me(name).build();", prediction.text);
+    }
+
+    @Test
+    void testPredict_stopsAtEndOfStatement() {
+        // Arrange
+        trainTimes("total = total + 1;\nreturn total;\n", 5);
+        String text = "total = total + ";
+
+        // Act
+        NGramModel.Prediction prediction = model.predict(text, text.length(), LocalCompletionTier.FALLBACK);
+
+        // Assert
+        assertNotNull(prediction);
+        assertEquals("1;", prediction.text);
+    }
+
+    @Test
+    void testPredict_confidenceReflectsAlternatives() {
+        // Arrange
+        trainTimes("value = first();\n", 3);
+        trainTimes("value = second();\n", 2);
+        String text = "value =";
+
+        // Act
+        NGramModel.Prediction likely = model.predict(text, text.length(), LocalCompletionTier.FALLBACK);
+        NGramModel.Prediction confident = model.predict(text, text.length(), LocalCompletionTier.CONFIDENT);
+
+        // Assert
+        assertNotNull(likely);
+        assertEquals(" first();", likely.text);
+        assertTrue(likely.confidence < LocalCompletionTier.CONFIDENT);
+        assertNull(confident);
+    }
+
+    @Test
+    void testPredict_returnsNullForUnseenContext() {
+        // Arrange
+        trainTimes(BUILDER_CHAIN, 5);
+        String text = "int unrelated";
+
+        // Act
+        NGramModel.Prediction prediction = model.predict(text, text.length(), 0.0);
+
+        // Assert
+        assertNull(prediction);
+    }
+
+    @Test
+    void testPredict_ignoresPatternsSeenOnce() {
+        // Arrange
+        model.train(BUILDER_CHAIN);
+
+        // Act
+        NGramModel.Prediction prediction = model.predict("x = builder.", 12, 0.0);
+
+        // Assert
+        assertNull(prediction);
+    }
+
+    @Test
+    void testPredict_returnsNullOnEmptyText() {
+        // Arrange
+        trainTimes(BUILDER_CHAIN, 5);
+
+        // Act & Assert
+        assertNull(model.predict("", 0, 0.0));
+        assertNull(model.predict("  \n", 3, 0.0));
+    }
+
+    @Test
+    void testTrain_keepsTableAndVocabularyBounded() {
+        // Arrange
+        NGramModel small = new NGramModel(16, 8);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append("int v").append(i).append(" = w").append(i).append(";\n");
+        }
+
+        // Act
+        small.train(text);
+
+        // Assert
+        assertEquals(8, small.getVocabularySize());
+        assertTrue(small.getContextCount() <= 24);
+    }
+
+    @Test
+    void testTokenize_dropsCommentsAndIndentationAndKeepsSpacing() {
+        // Arrange
+        String text = "    // setup\n    a.b(c, d); /* note */\n\n    x -> y\n";
+        List<String> tokens = new ArrayList<>();
+
+        // Act
+        NGramModel.tokenize(text, 0, text.length(), tokens);
+
+        // Assert
+        assertEquals(List.of("a", ".", "b", "(", "c", ",", " d", ")", ";", "\n", "x", " ->", " y", "\n"), tokens);
+    }
+
+    private void trainTimes(String text, int times) {
+        for (int i = 0; i < times; i++) {
+            model.train(text);
+        }
+    }
+}
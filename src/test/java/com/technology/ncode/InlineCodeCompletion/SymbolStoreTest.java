@@ -0,0 +1,199 @@
+package com.technology.ncode.InlineCodeCompletion;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SymbolStoreTest {
+
+    // Offset of the first record, after the header
+    private static final int FIRST_RECORD = 12;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testOpen_readsBackWhatWasWritten() throws IOException {
+        // Arrange
+        Path path = directory.resolve("index/symbols.bin");
+        try (SymbolStore store = SymbolStore.open(path)) {
+            store.put("/src/Order.java", 42L, List.of(
+                    declaration("Order", "public class Order {"),
+                    declaration("total", "public long total() {")));
+            store.put("/src/Cart.java", 7L, List.of(declaration("Cart", "public class Cart {")));
+        }
+
+        // Act
+        try (SymbolStore store = SymbolStore.open(path)) {
+            Map<String, List<String>> found = store.lookup(List.of("total", "Cart", "Order"), null, 4);
+
+            // Assert
+            assertEquals(List.of("total", "Cart", "Order"), List.copyOf(found.keySet()));
+            assertEquals(List.of("public long total() {"), found.get("total"));
+            assertEquals(List.of("public class Cart {"), found.get("Cart"));
+            assertEquals(42L, store.getStamp("/src/Order.java"));
+            assertEquals(7L, store.getStamp("/src/Cart.java"));
+            assertEquals(Set.of("/src/Order.java", "/src/Cart.java"), store.getPaths());
+            assertEquals(3, store.getSymbolCount());
+        }
+    }
+
+    @Test
+    void testOpen_keepsNonAsciiText() throws IOException {
+        // Arrange
+        Path path = directory.resolve("symbols.bin");
+        try (SymbolStore store = SymbolStore.open(path)) {
+            store.put("/src/Größe.kt", 1L, List.of(declaration("größe", "fun größe(): Int = 1 // ≈")));
+        }
+
+        // Act
+        try (SymbolStore store = SymbolStore.open(path)) {
+            // Assert
+            assertEquals(List.of("fun größe(): Int = 1 // ≈"), store.lookup(List.of("größe"), null, 4).get("größe"));
+            assertEquals(1L, store.getStamp("/src/Größe.kt"));
+        }
+    }
+
+    @Test
+    void testOpen_startsOverAfterTruncation() throws IOException {
+        // Arrange
+        Path path = directory.resolve("symbols.bin");
+        try (SymbolStore store = SymbolStore.open(path)) {
+            store.put("/src/Order.java", 1L, List.of(declaration("Order", "public class Order {")));
+        }
+        // The header still counts the whole record
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(FIRST_RECORD + 8);
+        }
+
+        // Act
+        try (SymbolStore store = SymbolStore.open(path)) {
+            // Assert
+            assertTrue(store.getPaths().isEmpty());
+            assertEquals(-1L, store.getStamp("/src/Order.java"));
+
+            store.put("/src/Cart.java", 2L, List.of(declaration("Cart", "public class Cart {")));
+            assertEquals(List.of("public class Cart {"), store.lookup(List.of("Cart"), null, 4).get("Cart"));
+        }
+    }
+
+    @Test
+    void testOpen_startsOverOnCorruptRecordLength() throws IOException {
+        // Arrange
+        Path path = directory.resolve("symbols.bin");
+        try (SymbolStore store = SymbolStore.open(path)) {
+            store.put("/src/Order.java", 1L, List.of(declaration("Order", "public class Order {")));
+        }
+        writeInt(path, FIRST_RECORD + 1, Integer.MAX_VALUE);
+
+        // Act
+        try (SymbolStore store = SymbolStore.open(path)) {
+            // Assert
+            assertTrue(store.getPaths().isEmpty());
+            assertEquals(0, store.getSymbolCount());
+        }
+    }
+
+    @Test
+    void testOpen_startsOverOnForeignFile() throws IOException {
+        // Arrange
+        Path path = directory.resolve("symbols.bin");
+        Files.writeString(path, "not a symbol store");
+
+        // Act
+        try (SymbolStore store = SymbolStore.open(path)) {
+            // Assert
+            assertTrue(store.getPaths().isEmpty());
+        }
+    }
+
+    @Test
+    void testLookup_skipsExcludedFileAndCommonNames() throws IOException {
+        // Arrange
+        try (SymbolStore store = SymbolStore.open(directory.resolve("symbols.bin"))) {
+            store.put("/src/A.java", 1L, List.of(
+                    declaration("parse", "static Node parse(String text) {"),
+                    declaration("get", "A get() {")));
+            store.put("/src/B.java", 1L, List.of(
+                    declaration("render", "String render(Node node) {"),
+                    declaration("get", "B get() {")));
+            store.put("/src/C.java", 1L, List.of(declaration("get", "C get() {")));
+
+            // Act
+            Map<String, List<String>> fromB = store.lookup(List.of("parse", "render", "get", "missing"), "/src/B.java", 2);
+            Map<String, List<String>> all = store.lookup(List.of("get"), null, 3);
+
+            // Assert
+            assertEquals(Map.of("parse", List.of("static Node parse(String text) {")), fromB);
+            assertEquals(List.of("A get() {", "B get() {", "C get() {"), all.get("get"));
+        }
+    }
+
+    @Test
+    void testPut_replacesAndRemoveForgetsDeclarations() throws IOException {
+        // Arrange
+        Path path = directory.resolve("symbols.bin");
+        try (SymbolStore store = SymbolStore.open(path)) {
+            store.put("/src/A.java", 1L, List.of(declaration("oldName", "void oldName() {")));
+            store.put("/src/B.java", 1L, List.of(declaration("other", "void other() {")));
+
+            // Act
+            store.put("/src/A.java", 2L, List.of(declaration("newName", "void newName() {")));
+            store.remove("/src/B.java");
+        }
+
+        // Assert
+        try (SymbolStore store = SymbolStore.open(path)) {
+            assertEquals(1, store.getSymbolCount());
+            assertEquals(Map.of("newName", List.of("void newName() {")),
+                    store.lookup(List.of("oldName", "newName", "other"), null, 4));
+            assertEquals(2L, store.getStamp("/src/A.java"));
+            assertEquals(Set.of("/src/A.java"), store.getPaths());
+        }
+    }
+
+    @Test
+    void testPut_compactsAndGrowsWithoutLosingDeclarations() throws IOException {
+        // Arrange
+        String large = "x".repeat(60_000);
+        Path path = directory.resolve("symbols.bin");
+
+        // Act
+        try (SymbolStore store = SymbolStore.open(path)) {
+            for (int i = 0; i < 40; i++) {
+                store.put("/src/Large.java", i, List.of(declaration("large", large + i)));
+                store.put("/src/Kept" + i + ".java", i, List.of(declaration("kept" + i, large)));
+            }
+        }
+
+        // Assert
+        try (SymbolStore store = SymbolStore.open(path)) {
+            assertEquals(List.of(large + 39), store.lookup(List.of("large"), null, 4).get("large"));
+            assertEquals(List.of(large), store.lookup(List.of("kept0"), null, 4).get("kept0"));
+            assertEquals(41, store.getPaths().size());
+        }
+    }
+
+    private static SymbolStore.Declaration declaration(String name, String signature) {
+        return new SymbolStore.Declaration(name, signature);
+    }
+
+    private static void writeInt(Path path, long position, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.allocate(4).putInt(value);
+            bytes.flip();
+            channel.write(bytes, position);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.technology.ncode.vertexai;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.vertexai.api.GenerationConfig;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControllerTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private AdmissionController controller(int maxInFlight, int maxInFlightPerProject, long requestsPerMinute,
+            long tokensPerMinute) {
+        return new AdmissionController(maxInFlight, maxInFlightPerProject, requestsPerMinute, tokensPerMinute,
+                nanos::get);
+    }
+
+    @Test
+    void testAcquire_rejectsBeyondPerProjectLimit() throws Exception {
+        // Arrange
+        AdmissionController controller = controller(8, 2, 1000, 1_000_000);
+        controller.acquire("a", 10, Duration.ZERO);
+        controller.acquire("a", 10, Duration.ZERO);
+
+        // Act & Assert
+        assertThrows(AdmissionRejectedException.class, () -> controller.acquire("a", 10, Duration.ZERO));
+        assertNotNull(controller.acquire("b", 10, Duration.ZERO));
+    }
+
+    @Test
+    void testAcquire_rejectsBeyondGlobalLimitUntilReleased() throws Exception {
+        // Arrange
+        AdmissionController controller = controller(2, 2, 1000, 1_000_000);
+        AdmissionController.Permit first = controller.acquire("a", 10, Duration.ZERO);
+        controller.acquire("b", 10, Duration.ZERO);
+
+        // Act
+        assertThrows(AdmissionRejectedException.class, () -> controller.acquire("c", 10, Duration.ZERO));
+        first.close();
+        first.close();
+
+        // Assert
+        assertNotNull(controller.acquire("c", 10, Duration.ZERO));
+        assertThrows(AdmissionRejectedException.class, () -> controller.acquire("d", 10, Duration.ZERO));
+        assertEquals(2, controller.getMetrics().get("requestsRejected").intValue());
+    }
+
+    @Test
+    void testAcquire_requestRateRefillsOverTime() throws Exception {
+        // Arrange
+        AdmissionController controller = controller(8, 8, 2, 1_000_000);
+        controller.acquire("a", 10, Duration.ZERO).close();
+        controller.acquire("a", 10, Duration.ZERO).close();
+
+        // Act & Assert
+        assertThrows(AdmissionRejectedException.class, () -> controller.acquire("a", 10, Duration.ZERO));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        assertNotNull(controller.acquire("a", 10, Duration.ZERO));
+    }
+
+    @Test
+    void testAcquire_tokenRateLimitsLargePrompts() throws Exception {
+        // Arrange
+        AdmissionController controller = controller(8, 8, 1000, 1000);
+        controller.acquire("a", 800, Duration.ZERO).close();
+
+        // Act & Assert
+        assertThrows(AdmissionRejectedException.class, () -> controller.acquire("a", 800, Duration.ZERO));
+        assertNotNull(controller.acquire("a", 100, Duration.ZERO));
+    }
+
+    @Test
+    void testCallAsync_releasesSlotWhenFutureCompletes() throws Exception {
+        // Arrange
+        AdmissionController controller = controller(1, 1, 1000, 1_000_000);
+        SettableApiFuture<String> response = SettableApiFuture.create();
+
+        // Act
+        ApiFuture<String> future = controller.callAsync("a", 10, Duration.ZERO, () -> response);
+        assertThrows(AdmissionRejectedException.class, () -> controller.acquire("a", 10, Duration.ZERO));
+        response.set("done");
+
+        // Assert
+        assertEquals("done", future.get());
+        assertNotNull(controller.acquire("a", 10, Duration.ZERO));
+    }
+
+    @Test
+    void testAcquire_waitsForFreeSlot() throws Exception {
+        // Arrange
+        AdmissionController controller = new AdmissionController(1, 1, 1000, 1_000_000, System::nanoTime);
+        AdmissionController.Permit held = controller.acquire("a", 10, Duration.ZERO);
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            held.close();
+        });
+
+        // Act
+        releaser.start();
+        AdmissionController.Permit permit = controller.acquire("a", 10, Duration.ofSeconds(5));
+
+        // Assert
+        assertNotNull(permit);
+        releaser.join();
+    }
+
+    @Test
+    void testEstimateTokens_countsPromptAndMaxOutput() {
+        // Arrange
+        GenerationConfig config = GenerationConfig.newBuilder().setMaxOutputTokens(300).build();
+
+        // Act
+        long tokens = AdmissionController.estimateTokens(config, "x".repeat(400), null);
+
+        // Assert
+        assertEquals(400, tokens);
+    }
+}
@@ -19,6 +19,8 @@ import com.google.cloud.vertexai.generativeai.GenerativeModel;
 
 class AskAQuestionVertexAiTest {
 
+    private static final String LOCATION = "us-central1";
+
     @Test
     void testExtractGeneratedText_validResponse() {
         // Arrange
@@ -85,7 +87,7 @@ class AskAQuestionVertexAiTest {
     @Test
     void testGenerateContent_validPrompt() throws IOException {
         // Arrange
-        AskAQuestionVertexAi askAQuestionVertexAi = new AskAQuestionVertexAi();
+        AskAQuestionVertexAi askAQuestionVertexAi = new AskAQuestionVertexAi(new VertexAiClientPool(LOCATION));
         String testPrompt = "Test prompt for generation";
         GenerateContentResponse mockResponse = mock(GenerateContentResponse.class);
 
@@ -109,7 +111,7 @@ class AskAQuestionVertexAiTest {
     @Test
     void testGenerateContent_nullPrompt() {
         // Arrange
-        AskAQuestionVertexAi askAQuestionVertexAi = new AskAQuestionVertexAi();
+        AskAQuestionVertexAi askAQuestionVertexAi = new AskAQuestionVertexAi(new VertexAiClientPool());
 
         // Act & Assert
         assertThrows(IllegalArgumentException.class, () -> askAQuestionVertexAi.generateContent(null));
@@ -118,7 +120,7 @@ class AskAQuestionVertexAiTest {
     @Test
     void testGenerateContent_emptyPrompt() {
         // Arrange
-        AskAQuestionVertexAi askAQuestionVertexAi = new AskAQuestionVertexAi();
+        AskAQuestionVertexAi askAQuestionVertexAi = new AskAQuestionVertexAi(new VertexAiClientPool());
 
         // Act & Assert
         assertThrows(IllegalArgumentException.class, () -> askAQuestionVertexAi.generateContent(""));
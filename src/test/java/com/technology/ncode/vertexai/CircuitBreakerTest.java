@@ -0,0 +1,162 @@
+package com.technology.ncode.vertexai;
+
+import com.google.api.core.SettableApiFuture;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    // Window of 4 calls, opens at 50% failed or slow, 1s slow threshold,
+    // waits 10s and at most 40s
+    private final CircuitBreaker breaker = new CircuitBreaker(4, 4, 0.5, 1_000, 10_000, 40_000, nanos::get);
+
+    @Test
+    void testAcquire_opensWhenFailureRateReached() throws Exception {
+        // Arrange
+        succeedCall();
+        succeedCall();
+        failCall();
+
+        // Act
+        failCall();
+
+        // Assert
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+        assertEquals(1L, breaker.getMetrics().get("circuitOpenings"));
+        assertEquals(1L, breaker.getMetrics().get("circuitRejected"));
+    }
+
+    @Test
+    void testAcquire_staysClosedBelowMinimumCalls() throws Exception {
+        // Act
+        failCall();
+        failCall();
+        failCall();
+
+        // Assert
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertNotNull(breaker.acquire());
+    }
+
+    @Test
+    void testAcquire_opensWhenCallsAreSlow() throws Exception {
+        // Arrange
+        succeedCall();
+        succeedCall();
+        slowCall();
+
+        // Act
+        slowCall();
+
+        // Assert
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void testAcquire_ignoresRejectionsAndFastCancellations() throws Exception {
+        // Act
+        for (int i = 0; i < 4; i++) {
+            breaker.acquire().failed(new AdmissionRejectedException("at the limit"));
+            breaker.acquire().close();
+        }
+
+        // Assert
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void testAcquire_successfulProbeClosesCircuit() throws Exception {
+        // Arrange
+        openCircuit();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        // Act
+        CircuitBreaker.Attempt probe = breaker.acquire();
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+        probe.succeeded();
+
+        // Assert
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertNotNull(breaker.acquire());
+    }
+
+    @Test
+    void testAcquire_failedProbeDoublesWait() throws Exception {
+        // Arrange
+        openCircuit();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        // Act
+        breaker.acquire().failed(new IOException("unavailable"));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        // Assert
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertNotNull(breaker.acquire());
+    }
+
+    @Test
+    void testCallAsync_recordsOutcomeWhenFutureCompletes() throws Exception {
+        // Arrange
+        succeedCall();
+        succeedCall();
+        failCall();
+        SettableApiFuture<String> response = SettableApiFuture.create();
+
+        // Act
+        breaker.callAsync(() -> response);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        response.setException(new IOException("unavailable"));
+
+        // Assert
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void testAddListener_receivesStateChanges() throws Exception {
+        // Arrange
+        List<CircuitBreaker.State> states = new CopyOnWriteArrayList<>();
+        breaker.addListener(states::add);
+
+        // Act
+        openCircuit();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        breaker.acquire().succeeded();
+
+        // Assert
+        assertEquals(List.of(CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN,
+                CircuitBreaker.State.CLOSED), states);
+    }
+
+    private void openCircuit() throws IOException {
+        for (int i = 0; i < 4; i++) {
+            failCall();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void succeedCall() throws IOException {
+        breaker.acquire().succeeded();
+    }
+
+    private void failCall() throws IOException {
+        breaker.acquire().failed(new IOException("unavailable"));
+    }
+
+    private void slowCall() throws IOException {
+        CircuitBreaker.Attempt attempt = breaker.acquire();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        attempt.succeeded();
+    }
+}
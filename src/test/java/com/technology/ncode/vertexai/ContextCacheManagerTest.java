@@ -0,0 +1,174 @@
+package com.technology.ncode.vertexai;
+
+import com.google.cloud.vertexai.api.GenerateContentRequest;
+import com.google.cloud.vertexai.api.GenerationConfig;
+import io.grpc.Status;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ContextCacheManagerTest {
+
+    private static final String LOCATION = "us-central1";
+    private static final String MODEL = "model";
+    private static final String LARGE_PREFIX = "x".repeat(ContextCacheManager.MIN_CACHED_CHARS);
+    private static final GenerationConfig CONFIG = GenerationConfig.newBuilder()
+            .setMaxOutputTokens(300)
+            .build();
+
+    private CachedContentClient client;
+    private AtomicLong now;
+    private ContextCacheManager manager;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        client = mock(CachedContentClient.class);
+        when(client.create(anyString(), anyString(), any(), any(), any())).thenReturn("cachedContents/1");
+        now = new AtomicLong(1_000_000);
+        manager = new ContextCacheManager(client, Runnable::run, now::get);
+    }
+
+    @Test
+    void testLookup_shortPrefixIsNotCached() {
+        // Act
+        String name = manager.lookup(LOCATION, MODEL, "system", "short prefix");
+
+        // Assert
+        assertNull(name);
+        verifyNoInteractions(client);
+    }
+
+    @Test
+    void testLookup_createsCacheThenHits() throws IOException {
+        // Act
+        String first = manager.lookup(LOCATION, MODEL, "system", LARGE_PREFIX);
+        String second = manager.lookup(LOCATION, MODEL, "system", LARGE_PREFIX);
+
+        // Assert
+        assertNull(first);
+        assertEquals("cachedContents/1", second);
+        verify(client, times(1)).create(LOCATION, MODEL, "system", LARGE_PREFIX, ContextCacheManager.TTL);
+    }
+
+    @Test
+    void testLookup_failedCreationWaitsBeforeRetry() throws IOException {
+        // Arrange
+        when(client.create(anyString(), anyString(), any(), any(), any())).thenThrow(new IOException("too small"));
+
+        // Act
+        manager.lookup(LOCATION, MODEL, null, LARGE_PREFIX);
+        manager.lookup(LOCATION, MODEL, null, LARGE_PREFIX);
+        now.addAndGet(ContextCacheManager.RETRY_DELAY.toMillis());
+        manager.lookup(LOCATION, MODEL, null, LARGE_PREFIX);
+
+        // Assert
+        verify(client, times(2)).create(anyString(), anyString(), any(), any(), any());
+    }
+
+    @Test
+    void testRefresh_extendsCacheInUseBeforeExpiry() throws IOException {
+        // Arrange
+        manager.lookup(LOCATION, MODEL, null, LARGE_PREFIX);
+        now.addAndGet(Duration.ofMinutes(15).toMillis());
+        manager.lookup(LOCATION, MODEL, null, LARGE_PREFIX);
+        now.addAndGet(Duration.ofMinutes(11).toMillis());
+
+        // Act
+        manager.refresh();
+
+        // Assert
+        verify(client).updateTtl("cachedContents/1", ContextCacheManager.TTL);
+        verify(client, never()).delete(anyString());
+    }
+
+    @Test
+    void testRefresh_deletesIdleCache() throws IOException {
+        // Arrange
+        manager.lookup(LOCATION, MODEL, null, LARGE_PREFIX);
+        now.addAndGet(ContextCacheManager.IDLE_TIMEOUT.plusMinutes(1).toMillis());
+
+        // Act
+        manager.refresh();
+        String afterIdle = manager.lookup(LOCATION, MODEL, null, LARGE_PREFIX);
+
+        // Assert
+        verify(client).delete("cachedContents/1");
+        verify(client, never()).updateTtl(anyString(), any());
+        assertNull(afterIdle);
+    }
+
+    @Test
+    void testRefresh_failedUpdateDropsCache() throws IOException {
+        // Arrange
+        doThrow(new IOException("gone")).when(client).updateTtl(anyString(), any());
+        manager.lookup(LOCATION, MODEL, null, LARGE_PREFIX);
+        now.addAndGet(Duration.ofMinutes(15).toMillis());
+        manager.lookup(LOCATION, MODEL, null, LARGE_PREFIX);
+        now.addAndGet(Duration.ofMinutes(11).toMillis());
+
+        // Act
+        manager.refresh();
+        String afterFailure = manager.lookup(LOCATION, MODEL, null, LARGE_PREFIX);
+
+        // Assert
+        assertNull(afterFailure);
+    }
+
+    @Test
+    void testGenerateContent_sendsOnlyPromptOnceCached() throws Exception {
+        // Arrange
+        try (FakePredictionServer server = new FakePredictionServer()) {
+            VertexAiClientPool clientPool = server.newClientPool();
+
+            // Act
+            manager.generateContent(clientPool, LOCATION, MODEL, CONFIG, "system", LARGE_PREFIX, "question 1");
+            manager.generateContent(clientPool, LOCATION, MODEL, CONFIG, "system", LARGE_PREFIX, "question 2");
+            clientPool.dispose();
+
+            // Assert
+            List<GenerateContentRequest> requests = server.getRequests();
+            assertEquals(2, requests.size());
+
+            GenerateContentRequest full = requests.get(0);
+            assertTrue(full.getCachedContent().isEmpty());
+            assertEquals(LARGE_PREFIX + "question 1", full.getContents(0).getParts(0).getText());
+            assertTrue(full.hasSystemInstruction());
+
+            GenerateContentRequest cached = requests.get(1);
+            assertEquals("cachedContents/1", cached.getCachedContent());
+            assertEquals("question 2", cached.getContents(0).getParts(0).getText());
+            assertFalse(cached.hasSystemInstruction());
+            assertTrue(cached.getModel().endsWith("/publishers/google/models/" + MODEL));
+        }
+    }
+
+    @Test
+    void testGenerateContent_expiredCacheFallsBackToFullPrompt() throws Exception {
+        // Arrange
+        try (FakePredictionServer server = new FakePredictionServer()) {
+            VertexAiClientPool clientPool = server.newClientPool();
+            manager.lookup(LOCATION, MODEL, null, LARGE_PREFIX);
+            server.enqueue(FakePredictionServer.Reply.error(Status.Code.NOT_FOUND));
+            server.enqueue(FakePredictionServer.Reply.text("answer"));
+
+            // Act
+            String answer = AskAQuestionVertexAi.extractGeneratedText(
+                    manager.generateContent(clientPool, LOCATION, MODEL, CONFIG, null, LARGE_PREFIX, "question"));
+            clientPool.dispose();
+
+            // Assert
+            assertEquals("answer", answer);
+            List<GenerateContentRequest> requests = server.getRequests();
+            assertEquals(2, requests.size());
+            assertEquals("cachedContents/1", requests.get(0).getCachedContent());
+            assertTrue(requests.get(1).getCachedContent().isEmpty());
+        }
+    }
+}
@@ -21,10 +21,12 @@ import com.google.cloud.vertexai.generativeai.GenerativeModel;
 
 class DocumentationVertexAiTest {
 
+    private static final String LOCATION = "us-central1";
+
     @Test
     void testGenerateContent_validPrompt() throws IOException {
         // Arrange
-        DocumentationVertexAi documentationVertexAi = new DocumentationVertexAi();
+        DocumentationVertexAi documentationVertexAi = new DocumentationVertexAi(new VertexAiClientPool(LOCATION));
         String testPrompt = "Test prompt for content generation";
 
         GenerateContentResponse mockResponse = mock(GenerateContentResponse.class);
@@ -58,7 +60,7 @@ class DocumentationVertexAiTest {
     @Test
     void testGenerateContent_nullPrompt() {
         // Arrange
-        DocumentationVertexAi documentationVertexAi = new DocumentationVertexAi();
+        DocumentationVertexAi documentationVertexAi = new DocumentationVertexAi(new VertexAiClientPool());
 
         // Act & Assert
         assertThrows(IllegalArgumentException.class,
@@ -68,7 +70,7 @@ class DocumentationVertexAiTest {
     @Test
     void testGenerateContent_emptyPrompt() {
         // Arrange
-        DocumentationVertexAi documentationVertexAi = new DocumentationVertexAi();
+        DocumentationVertexAi documentationVertexAi = new DocumentationVertexAi(new VertexAiClientPool());
 
         // Act & Assert
         assertThrows(IllegalArgumentException.class,
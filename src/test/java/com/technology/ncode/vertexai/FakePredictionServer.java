@@ -0,0 +1,359 @@
+package com.technology.ncode.vertexai;
+
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.vertexai.VertexAI;
+import com.google.cloud.vertexai.VertexAiTestAccess;
+import com.google.cloud.vertexai.api.Candidate;
+import com.google.cloud.vertexai.api.Content;
+import com.google.cloud.vertexai.api.GenerateContentRequest;
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import com.google.cloud.vertexai.api.Part;
+import com.google.cloud.vertexai.api.PredictionServiceClient;
+import com.google.cloud.vertexai.api.PredictionServiceSettings;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * In-process fake of the Vertex AI {@code PredictionService}, serving the
+ * GenerateContent and StreamGenerateContent RPCs over a real gRPC transport.
+ * Replies are scripted per request, and latency, chunk pacing and errors can be
+ * injected, so the clients can be exercised end to end without network access.
+ * Point them at it with {@link #newClientPool()}.
+ */
+class FakePredictionServer implements AutoCloseable {
+    private static final String SERVICE_NAME = "google.cloud.vertexai.v1.PredictionService";
+    // Location of the pools handed out by newClientPool()
+    static final String LOCATION = "us-central1";
+
+    static final MethodDescriptor<GenerateContentRequest, GenerateContentResponse> GENERATE_CONTENT =
+            MethodDescriptor.<GenerateContentRequest, GenerateContentResponse>newBuilder()
+                    .setType(MethodDescriptor.MethodType.UNARY)
+                    .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, "GenerateContent"))
+                    .setRequestMarshaller(ProtoUtils.marshaller(GenerateContentRequest.getDefaultInstance()))
+                    .setResponseMarshaller(ProtoUtils.marshaller(GenerateContentResponse.getDefaultInstance()))
+                    .build();
+
+    static final MethodDescriptor<GenerateContentRequest, GenerateContentResponse> STREAM_GENERATE_CONTENT =
+            MethodDescriptor.<GenerateContentRequest, GenerateContentResponse>newBuilder()
+                    .setType(MethodDescriptor.MethodType.SERVER_STREAMING)
+                    .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, "StreamGenerateContent"))
+                    .setRequestMarshaller(ProtoUtils.marshaller(GenerateContentRequest.getDefaultInstance()))
+                    .setResponseMarshaller(ProtoUtils.marshaller(GenerateContentResponse.getDefaultInstance()))
+                    .build();
+
+    private final String serverName = InProcessServerBuilder.generateName();
+    private final Server server;
+    private final List<ManagedChannel> channels = new CopyOnWriteArrayList<>();
+
+    private final Queue<Reply> scriptedReplies = new ConcurrentLinkedQueue<>();
+    private final List<GenerateContentRequest> requests = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean recordRequests = true;
+    private final Random random = new Random(42);
+
+    private volatile Reply defaultReply = Reply.text("// fake completion\n");
+    private volatile LongSupplier latencyMs = fixedLatency(0);
+    private volatile long chunkIntervalMs = 0;
+    private volatile double errorRate = 0;
+    private volatile Status.Code errorCode = Status.Code.UNAVAILABLE;
+
+    /**
+     * What the server sends for one request: text chunks, alternative
+     * candidates or an error.
+     */
+    static final class Reply {
+        final List<String> chunks;
+        final List<String> candidates;
+        final Status.Code error;
+        // Error sent after the chunks of a stream, if any
+        final Status.Code trailingError;
+
+        private Reply(List<String> chunks, List<String> candidates, Status.Code error, Status.Code trailingError) {
+            this.chunks = chunks;
+            this.candidates = candidates;
+            this.error = error;
+            this.trailingError = trailingError;
+        }
+
+        /**
+         * Streams one response per chunk; a unary call gets them concatenated.
+         */
+        static Reply text(String... chunks) {
+            return new Reply(Arrays.asList(chunks), List.of(), null, null);
+        }
+
+        /**
+         * A single response with one candidate per text.
+         */
+        static Reply candidates(String... texts) {
+            return new Reply(List.of(), Arrays.asList(texts), null, null);
+        }
+
+        static Reply error(Status.Code code) {
+            return new Reply(List.of(), List.of(), code, null);
+        }
+
+        /**
+         * Fails a stream with the code after its chunks were sent.
+         */
+        Reply thenFail(Status.Code code) {
+            return new Reply(chunks, candidates, error, code);
+        }
+    }
+
+    FakePredictionServer() throws IOException {
+        ServerServiceDefinition service = ServerServiceDefinition.builder(SERVICE_NAME)
+                .addMethod(GENERATE_CONTENT, ServerCalls.asyncUnaryCall(this::generateContent))
+                .addMethod(STREAM_GENERATE_CONTENT, ServerCalls.asyncServerStreamingCall(this::streamGenerateContent))
+                .build();
+        server = InProcessServerBuilder.forName(serverName)
+                .addService(service)
+                .build()
+                .start();
+    }
+
+    static LongSupplier fixedLatency(long millis) {
+        return () -> millis;
+    }
+
+    static LongSupplier uniformLatency(long minMillis, long maxMillis, long seed) {
+        Random random = new Random(seed);
+        return () -> {
+            synchronized (random) {
+                return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+            }
+        };
+    }
+
+    /**
+     * Long-tailed latency as seen from real model endpoints: the median is
+     * {@code medianMillis} and {@code sigma} controls the tail.
+     */
+    static LongSupplier logNormalLatency(long medianMillis, double sigma, long seed) {
+        Random random = new Random(seed);
+        return () -> {
+            synchronized (random) {
+                return Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+            }
+        };
+    }
+
+    /**
+     * Queues the reply for the next request; unscripted requests get the
+     * default reply.
+     */
+    void enqueue(Reply reply) {
+        scriptedReplies.add(reply);
+    }
+
+    void setDefaultReply(Reply reply) {
+        this.defaultReply = reply;
+    }
+
+    /**
+     * Sets the delay before the first response of every call.
+     */
+    void setLatency(LongSupplier latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /**
+     * Sets the delay between consecutive chunks of a stream.
+     */
+    void setChunkIntervalMs(long chunkIntervalMs) {
+        this.chunkIntervalMs = chunkIntervalMs;
+    }
+
+    /**
+     * Fails the given share of unscripted requests with the status code.
+     */
+    void setErrorRate(double errorRate, Status.Code errorCode) {
+        this.errorRate = errorRate;
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * Turns off keeping received requests, for long benchmark runs.
+     */
+    void setRecordRequests(boolean recordRequests) {
+        this.recordRequests = recordRequests;
+    }
+
+    List<GenerateContentRequest> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    /**
+     * Returns a client whose prediction calls go to this server.
+     */
+    VertexAI newClient(String location) {
+        ManagedChannel channel = InProcessChannelBuilder.forName(serverName).build();
+        channels.add(channel);
+
+        PredictionServiceSettings settings;
+        try {
+            settings = PredictionServiceSettings.newBuilder()
+                    .setTransportChannelProvider(
+                            FixedTransportChannelProvider.create(GrpcTransportChannel.create(channel)))
+                    .setCredentialsProvider(NoCredentialsProvider.create())
+                    .build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        GoogleCredentials credentials = GoogleCredentials.create(new AccessToken("fake-token", null));
+        return VertexAiTestAccess.create("fake-project", location, credentials, () -> {
+            try {
+                return PredictionServiceClient.create(settings);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Returns a pool whose clients all talk to this server, for use with the
+     * Vertex AI wrappers.
+     */
+    VertexAiClientPool newClientPool() {
+        return new VertexAiClientPool(LOCATION, this::newClient, new AdmissionController(),
+                new RegionRouter(List.of(LOCATION)));
+    }
+
+    /**
+     * Shuts down the channels of the clients handed out so far. Closing a
+     * client leaves its channel open, as the channel is provided from outside.
+     */
+    void shutdownClientChannels() {
+        for (ManagedChannel channel : channels) {
+            channel.shutdownNow();
+        }
+        channels.clear();
+    }
+
+    private void generateContent(GenerateContentRequest request,
+            StreamObserver<GenerateContentResponse> responseObserver) {
+        Reply reply = nextReply(request);
+        if (!await(latencyMs.getAsLong())) {
+            responseObserver.onError(Status.CANCELLED.asRuntimeException());
+            return;
+        }
+        if (reply.error != null) {
+            responseObserver.onError(Status.fromCode(reply.error).asRuntimeException());
+            return;
+        }
+
+        responseObserver.onNext(reply.candidates.isEmpty()
+                ? response(List.of(String.join("", reply.chunks)))
+                : response(reply.candidates));
+        responseObserver.onCompleted();
+    }
+
+    private void streamGenerateContent(GenerateContentRequest request,
+            StreamObserver<GenerateContentResponse> responseObserver) {
+        ServerCallStreamObserver<GenerateContentResponse> call =
+                (ServerCallStreamObserver<GenerateContentResponse>) responseObserver;
+        Reply reply = nextReply(request);
+        if (!await(latencyMs.getAsLong())) {
+            call.onError(Status.CANCELLED.asRuntimeException());
+            return;
+        }
+        if (reply.error != null) {
+            call.onError(Status.fromCode(reply.error).asRuntimeException());
+            return;
+        }
+
+        if (!reply.candidates.isEmpty()) {
+            call.onNext(response(reply.candidates));
+        }
+        for (int i = 0; i < reply.chunks.size(); i++) {
+            // The client stopped reading; don't keep producing chunks
+            if (call.isCancelled() || (i > 0 && !await(chunkIntervalMs))) {
+                return;
+            }
+            call.onNext(response(List.of(reply.chunks.get(i))));
+        }
+
+        if (reply.trailingError != null) {
+            call.onError(Status.fromCode(reply.trailingError).asRuntimeException());
+        } else {
+            call.onCompleted();
+        }
+    }
+
+    private Reply nextReply(GenerateContentRequest request) {
+        if (recordRequests) {
+            requests.add(request);
+        }
+
+        Reply scripted = scriptedReplies.poll();
+        if (scripted != null) {
+            return scripted;
+        }
+
+        double roll;
+        synchronized (random) {
+            roll = random.nextDouble();
+        }
+        return roll < errorRate ? Reply.error(errorCode) : defaultReply;
+    }
+
+    private static GenerateContentResponse response(List<String> texts) {
+        GenerateContentResponse.Builder response = GenerateContentResponse.newBuilder();
+        for (int i = 0; i < texts.size(); i++) {
+            response.addCandidates(Candidate.newBuilder()
+                    .setIndex(i)
+                    .setContent(Content.newBuilder()
+                            .setRole("model")
+                            .addParts(Part.newBuilder().setText(texts.get(i)))));
+        }
+        return response.build();
+    }
+
+    private static boolean await(long millis) {
+        if (millis <= 0) {
+            return true;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        shutdownClientChannels();
+        server.shutdownNow();
+        server.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
@@ -1,28 +1,39 @@
 package com.technology.ncode.vertexai;
 
 import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ServerStream;
+import com.google.api.gax.rpc.ServerStreamingCallable;
 import com.google.cloud.vertexai.VertexAI;
 import com.google.cloud.vertexai.api.Candidate;
 import com.google.cloud.vertexai.api.Content;
+import com.google.cloud.vertexai.api.GenerateContentRequest;
 import com.google.cloud.vertexai.api.GenerateContentResponse;
 import com.google.cloud.vertexai.api.Part;
+import com.google.cloud.vertexai.api.PredictionServiceClient;
 import com.google.cloud.vertexai.generativeai.GenerativeModel;
 import org.junit.jupiter.api.Test;
 import org.mockito.MockedConstruction;
 import org.mockito.Mockito;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 class InlineVertexAiTest {
 
+    private static final String LOCATION = "us-central1";
+
     @Test
     void testGenerateContentAsync_validPrompt() throws IOException {
         // Arrange
-        InlineVertexAi inlineVertexAi = new InlineVertexAi();
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(new VertexAiClientPool(LOCATION));
         String testPrompt = "Test prompt for async generation";
 
         // Use MockedConstruction to mock the VertexAI and GenerativeModel
@@ -46,7 +57,7 @@ class InlineVertexAiTest {
     @Test
     void testGenerateContentAsync_nullPrompt() {
         // Arrange
-        InlineVertexAi inlineVertexAi = new InlineVertexAi();
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(new VertexAiClientPool());
 
         // Act & Assert
         assertThrows(IllegalArgumentException.class,
@@ -56,17 +67,83 @@ class InlineVertexAiTest {
     @Test
     void testGenerateContentAsync_emptyPrompt() {
         // Arrange
-        InlineVertexAi inlineVertexAi = new InlineVertexAi();
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(new VertexAiClientPool());
 
         // Act & Assert
         assertThrows(IllegalArgumentException.class,
                 () -> inlineVertexAi.generateContentAsync("   "));
     }
 
+    @Test
+    void testGenerateContentStream_readsAllChunks() throws IOException {
+        // Arrange
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(new VertexAiClientPool(LOCATION));
+        String testPrompt = "Test prompt for streaming";
+        ServerStream<GenerateContentResponse> serverStream = serverStream(
+                List.of(textResponse("int a = 1;\n"), textResponse("int b = 2;\n")).iterator());
+        List<GenerateContentRequest> requests = new ArrayList<>();
+
+        try (MockedConstruction<VertexAI> vertexAiMock = Mockito.mockConstruction(VertexAI.class,
+                (mock, context) -> stubStreaming(mock, serverStream, requests))) {
+
+            // Act
+            List<String> received = new ArrayList<>();
+            boolean completed = inlineVertexAi.generateContentStream(testPrompt, received::add);
+
+            // Assert
+            assertTrue(completed);
+            assertEquals(List.of("int a = 1;\n", "int b = 2;\n"), received);
+            assertEquals(testPrompt, requests.get(0).getContents(0).getParts(0).getText());
+            verify(serverStream, never()).cancel();
+        }
+    }
+
+    @Test
+    void testGenerateContentStream_stopsWhenCallbackReturnsFalse() throws IOException {
+        // Arrange
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(new VertexAiClientPool(LOCATION));
+        String testPrompt = "Test prompt for streaming";
+        // The server is still generating after the first chunk
+        CountDownLatch cancelled = new CountDownLatch(1);
+        ServerStream<GenerateContentResponse> serverStream = serverStream(
+                openIterator(cancelled, textResponse("first\n")));
+        doAnswer(invocation -> {
+            cancelled.countDown();
+            return null;
+        }).when(serverStream).cancel();
+
+        try (MockedConstruction<VertexAI> vertexAiMock = Mockito.mockConstruction(VertexAI.class,
+                (mock, context) -> stubStreaming(mock, serverStream, new ArrayList<>()))) {
+
+            // Act
+            List<String> received = new ArrayList<>();
+            boolean completed = inlineVertexAi.generateContentStream(testPrompt, chunk -> {
+                received.add(chunk);
+                return false;
+            });
+
+            // Assert
+            assertFalse(completed);
+            assertEquals(List.of("first\n"), received);
+            // The rest is not generated for nothing
+            assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testGenerateContentStream_emptyPrompt() {
+        // Arrange
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(new VertexAiClientPool());
+
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class,
+                () -> inlineVertexAi.generateContentStream("   ", chunk -> true));
+    }
+
     @Test
     void testGenerateContent_validPrompt() throws IOException {
         // Arrange
-        InlineVertexAi inlineVertexAi = new InlineVertexAi();
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(new VertexAiClientPool(LOCATION));
         String testPrompt = "Test prompt for content generation";
 
         // Use MockedConstruction to mock the VertexAI and GenerativeModel
@@ -90,7 +167,7 @@ class InlineVertexAiTest {
     @Test
     void testGenerateContent_nullPrompt() {
         // Arrange
-        InlineVertexAi inlineVertexAi = new InlineVertexAi();
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(new VertexAiClientPool());
 
         // Act & Assert
         assertThrows(IllegalArgumentException.class,
@@ -159,4 +236,135 @@ class InlineVertexAiTest {
         // Assert
         assertNull(result);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testGenerateCandidatesAsync_validPrompt() throws IOException {
+        // Arrange
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(new VertexAiClientPool(LOCATION));
+        String testPrompt = "Test prompt for candidates";
+
+        try (MockedConstruction<VertexAI> vertexAiMock = Mockito.mockConstruction(VertexAI.class);
+                MockedConstruction<GenerativeModel> modelMock = Mockito.mockConstruction(GenerativeModel.class,
+                        (mock, context) -> {
+                            ApiFuture<GenerateContentResponse> mockFuture = mock(ApiFuture.class);
+                            when(mock.generateContentAsync(testPrompt)).thenReturn(mockFuture);
+                        })) {
+
+            // Act
+            ApiFuture<GenerateContentResponse> result = inlineVertexAi.generateCandidatesAsync(testPrompt);
+
+            // Assert
+            assertNotNull(result);
+            assertEquals(1, modelMock.constructed().size());
+        }
+    }
+
+    @Test
+    void testGenerateCandidatesAsync_emptyPrompt() {
+        // Arrange
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(new VertexAiClientPool());
+
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class,
+                () -> inlineVertexAi.generateCandidatesAsync(" "));
+    }
+
+    @Test
+    void testExtractCandidates_dedupesAndSkipsEmpty() {
+        // Arrange
+        GenerateContentResponse response = candidatesResponse("return a;", "return a;  \n", "", "return b;");
+
+        // Act
+        List<String> result = InlineVertexAi.extractCandidates(response);
+
+        // Assert
+        assertEquals(List.of("return a;", "return b;"), result);
+    }
+
+    @Test
+    void testExtractCandidates_nullResponse() {
+        // Act
+        List<String> result = InlineVertexAi.extractCandidates(null);
+
+        // Assert
+        assertTrue(result.isEmpty());
+    }
+
+    private static GenerateContentResponse candidatesResponse(String... texts) {
+        GenerateContentResponse response = mock(GenerateContentResponse.class);
+        List<Candidate> candidates = new ArrayList<>();
+        for (String text : texts) {
+            Candidate candidate = mock(Candidate.class);
+            Content content = mock(Content.class);
+            Part part = mock(Part.class);
+            when(candidate.getContent()).thenReturn(content);
+            when(content.getPartsList()).thenReturn(Collections.singletonList(part));
+            when(part.hasText()).thenReturn(true);
+            when(part.getText()).thenReturn(text);
+            candidates.add(candidate);
+        }
+        when(response.getCandidatesList()).thenReturn(candidates);
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ServerStream<GenerateContentResponse> serverStream(
+            Iterator<GenerateContentResponse> responses) {
+        ServerStream<GenerateContentResponse> stream = mock(ServerStream.class);
+        when(stream.iterator()).thenReturn(responses);
+        return stream;
+    }
+
+    // Returns the responses, then blocks like an open stream until cancelled
+    private static Iterator<GenerateContentResponse> openIterator(CountDownLatch cancelled,
+            GenerateContentResponse... responses) {
+        Iterator<GenerateContentResponse> iterator = List.of(responses).iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                if (iterator.hasNext()) {
+                    return true;
+                }
+                try {
+                    cancelled.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return false;
+            }
+
+            @Override
+            public GenerateContentResponse next() {
+                return iterator.next();
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void stubStreaming(VertexAI vertexAi, ServerStream<GenerateContentResponse> stream,
+            List<GenerateContentRequest> requests) throws IOException {
+        PredictionServiceClient client = mock(PredictionServiceClient.class);
+        ServerStreamingCallable<GenerateContentRequest, GenerateContentResponse> callable =
+                mock(ServerStreamingCallable.class);
+        when(vertexAi.getPredictionServiceClient()).thenReturn(client);
+        when(client.streamGenerateContentCallable()).thenReturn(callable);
+        when(callable.call(any(GenerateContentRequest.class))).thenAnswer(invocation -> {
+            requests.add(invocation.getArgument(0));
+            return stream;
+        });
+    }
+
+    private static GenerateContentResponse textResponse(String text) {
+        GenerateContentResponse response = mock(GenerateContentResponse.class);
+        Candidate candidate = mock(Candidate.class);
+        Content content = mock(Content.class);
+        Part part = mock(Part.class);
+
+        when(response.getCandidatesList()).thenReturn(Collections.singletonList(candidate));
+        when(candidate.getContent()).thenReturn(content);
+        when(content.getPartsList()).thenReturn(Collections.singletonList(part));
+        when(part.hasText()).thenReturn(true);
+        when(part.getText()).thenReturn(text);
+        return response;
+    }
+}
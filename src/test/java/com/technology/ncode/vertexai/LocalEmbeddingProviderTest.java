@@ -0,0 +1,52 @@
+package com.technology.ncode.vertexai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalEmbeddingProviderTest {
+
+    private final LocalEmbeddingProvider provider = new LocalEmbeddingProvider();
+
+    @Test
+    void testEmbed_isDeterministic() {
+        // Act
+        List<float[]> first = provider.embed(List.of("int total = orderTotal(items);"));
+        List<float[]> second = provider.embed(List.of("int total = orderTotal(items);"));
+
+        // Assert
+        assertEquals(LocalEmbeddingProvider.DEFAULT_DIMENSIONS, first.get(0).length);
+        assertArrayEquals(first.get(0), second.get(0));
+    }
+
+    @Test
+    void testEmbed_relatedCodeRanksAboveUnrelatedCode() {
+        // Arrange
+        VectorIndex index = new VectorIndex(provider.getDimensions());
+        List<float[]> chunks = provider.embed(List.of(
+                "class OrderRepository {\n  Order findOrder(long orderId) { return orders.get(orderId); }\n}",
+                "class HttpServer {\n  void listen(int port) { socket.bind(port); }\n}",
+                "String formatDate(LocalDate date) { return DATE_FORMAT.format(date); }"));
+        for (float[] chunk : chunks) {
+            index.add(chunk);
+        }
+
+        // Act
+        List<VectorIndex.Match> matches = index.search(
+                provider.embed(List.of("Order order = orderRepository.findOrder(orderId);")).get(0), 3);
+
+        // Assert
+        assertEquals(0, matches.get(0).id);
+        assertTrue(matches.get(0).score > matches.get(1).score);
+    }
+
+    @Test
+    void testSplitWords_splitsIdentifierStyles() {
+        // Act & Assert
+        assertEquals(List.of("get", "user", "name"), LocalEmbeddingProvider.splitWords("getUserName"));
+        assertEquals(List.of("http", "server", "2"), LocalEmbeddingProvider.splitWords("HTTPServer2"));
+        assertEquals(List.of("max", "retry", "count"), LocalEmbeddingProvider.splitWords("MAX_RETRY_COUNT"));
+    }
+}
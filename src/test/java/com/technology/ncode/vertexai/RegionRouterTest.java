@@ -0,0 +1,254 @@
+package com.technology.ncode.vertexai;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RegionRouterTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final RegionRouter router = new RegionRouter(List.of("a", "b"), nanos::get);
+
+    @Test
+    void testPreferredLocation_picksLowerLatency() {
+        // Arrange
+        router.record("a", millis(300), null);
+        router.record("b", millis(50), null);
+
+        // Act
+        String location = router.preferredLocation();
+
+        // Assert
+        assertEquals("b", location);
+    }
+
+    @Test
+    void testPreferredLocation_ranksUnsampledLocationAtDefaultLatency() {
+        // Arrange
+        RegionRouter three = new RegionRouter(List.of("a", "b", "c"), nanos::get);
+
+        // Act & Assert
+        // Nothing known yet: configured order
+        assertEquals("a", router.preferredLocation());
+        // Known to be fast beats unknown
+        router.record("a", millis(300), null);
+        assertEquals("a", router.preferredLocation());
+        router.record("b", millis(50), null);
+        assertEquals("b", router.preferredLocation());
+        // Unknown beats known to be slow, in configured order
+        three.record("a", millis(RegionRouter.DEFAULT_HEDGE_DELAY_MS * 3), null);
+        assertEquals("b", three.preferredLocation());
+    }
+
+    @Test
+    void testPreferredLocation_avoidsFailingLocationUntilErrorsDecay() {
+        // Arrange
+        router.record("a", millis(300), null);
+        router.record("b", millis(50), null);
+        for (int i = 0; i < 4; i++) {
+            router.record("b", millis(50), new IOException("unavailable"));
+        }
+
+        // Act & Assert
+        assertEquals("a", router.preferredLocation());
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        assertEquals("b", router.preferredLocation());
+    }
+
+    @Test
+    void testHedgeDelay_isP95OfRecentLatencies() {
+        // Arrange
+        for (int i = 1; i <= 20; i++) {
+            router.record("a", millis(i * 10), null);
+        }
+        for (int i = 0; i < 5; i++) {
+            router.record("b", millis(100), null);
+        }
+
+        // Act & Assert
+        assertEquals(millis(190), router.hedgeDelayNanos("a"));
+        assertEquals(millis(RegionRouter.DEFAULT_HEDGE_DELAY_MS), router.hedgeDelayNanos("b"));
+    }
+
+    @Test
+    void testHedgeAsync_failsOverWhenPrimaryFails() throws Exception {
+        // Act
+        ApiFuture<String> result = router.hedgeAsync(location -> () -> location.equals("a")
+                ? ApiFutures.immediateFailedFuture(new IOException("unavailable"))
+                : ApiFutures.immediateFuture("from b"));
+
+        // Assert
+        assertEquals("from b", result.get(5, TimeUnit.SECONDS));
+        assertEquals(1L, router.getMetrics().get("regionFailovers"));
+    }
+
+    @Test
+    void testHedgeAsync_failsWhenBothLocationsFail() {
+        // Act
+        ApiFuture<String> result = assertDoesNotThrow(() -> router.hedgeAsync(
+                location -> () -> ApiFutures.immediateFailedFuture(new IOException("unavailable in " + location))));
+
+        // Assert
+        Exception failure = assertThrows(Exception.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, failure.getCause());
+    }
+
+    @Test
+    void testHedgeAsync_hedgesPastDeadlineAndCancelsLoser() throws Exception {
+        // Arrange
+        for (int i = 0; i < 10; i++) {
+            router.record("a", millis(50), null);
+            router.record("b", millis(80), null);
+        }
+        SettableApiFuture<String> stalled = SettableApiFuture.create();
+
+        // Act
+        ApiFuture<String> result = router.hedgeAsync(location -> () -> location.equals("a")
+                ? stalled
+                : ApiFutures.immediateFuture("from b"));
+
+        // Assert
+        assertEquals("from b", result.get(5, TimeUnit.SECONDS));
+        waitUntil(stalled::isCancelled);
+        waitUntil(() -> router.getMetrics().get("hedgeWins").longValue() == 1);
+        assertEquals(1L, router.getMetrics().get("hedgedRequests"));
+    }
+
+    @Test
+    void testHedgeAsync_cancellingResultCancelsRequest() throws Exception {
+        // Arrange
+        SettableApiFuture<String> primary = SettableApiFuture.create();
+        ApiFuture<String> result = router.hedgeAsync(location -> () -> primary);
+
+        // Act
+        result.cancel(true);
+
+        // Assert
+        assertTrue(primary.isCancelled());
+    }
+
+    @Test
+    void testHedgeAsync_recordsLatencyOfOutrunLoser() throws Exception {
+        // Arrange
+        for (int i = 0; i < 10; i++) {
+            router.record("a", millis(50), null);
+            router.record("b", millis(80), null);
+        }
+        SettableApiFuture<String> stalled = SettableApiFuture.create();
+
+        // Act
+        ApiFuture<String> result = router.hedgeAsync(location -> () -> {
+            if (location.equals("a")) {
+                return stalled;
+            }
+            nanos.addAndGet(millis(5_000));
+            return ApiFutures.immediateFuture("from b");
+        });
+
+        // Assert
+        assertEquals("from b", result.get(5, TimeUnit.SECONDS));
+        waitUntil(stalled::isCancelled);
+        assertEquals(millis(RegionRouter.MAX_HEDGE_DELAY_MS), router.hedgeDelayNanos("a"));
+    }
+
+    @Test
+    void testHedgeAsync_ignoresLatencyOfCallerCancellation() throws Exception {
+        // Arrange
+        for (int i = 0; i < 10; i++) {
+            router.record("a", millis(50), null);
+            router.record("b", millis(80), null);
+        }
+        SettableApiFuture<String> primary = SettableApiFuture.create();
+        ApiFuture<String> result = router.hedgeAsync(location -> () -> primary);
+        nanos.addAndGet(millis(5_000));
+
+        // Act
+        result.cancel(true);
+        router.record("b", millis(5_000), new CancellationException());
+
+        // Assert
+        assertTrue(primary.isCancelled());
+        assertEquals(millis(50), router.hedgeDelayNanos("a"));
+        assertEquals(millis(80), router.hedgeDelayNanos("b"));
+        assertEquals("a", router.preferredLocation());
+    }
+
+    @Test
+    void testCall_failsOverWhenPrimaryFails() throws Exception {
+        // Act
+        String value = router.call(location -> () -> {
+            if (location.equals("a")) {
+                throw new IOException("unavailable");
+            }
+            return "from " + location;
+        });
+
+        // Assert
+        assertEquals("from b", value);
+        assertEquals(1L, router.getMetrics().get("regionFailovers"));
+    }
+
+    @Test
+    void testInlineCompletions_routeToFasterEndpointAndHedgeSlowRequests() throws Exception {
+        // Arrange
+        try (FakePredictionServer slow = new FakePredictionServer();
+                FakePredictionServer fast = new FakePredictionServer()) {
+            slow.setLatency(FakePredictionServer.fixedLatency(300));
+            fast.setLatency(FakePredictionServer.fixedLatency(10));
+            RegionRouter regions = new RegionRouter(List.of("slow-region", "fast-region"));
+            VertexAiClientPool pool = new VertexAiClientPool("slow-region",
+                    location -> (location.equals("fast-region") ? fast : slow).newClient(location),
+                    new AdmissionController(), regions);
+            InlineVertexAi inlineVertexAi = new InlineVertexAi(pool);
+
+            try {
+                // Act: the first request tries the slow region, the rest follow the faster one
+                for (int i = 0; i < 12; i++) {
+                    GenerateContentResponse response = inlineVertexAi.generateContentAsync("prompt " + i)
+                            .get(5, TimeUnit.SECONDS);
+                    assertNotNull(InlineVertexAi.extractGeneratedText(response));
+                }
+
+                // The fast region stalls; its requests are hedged to the slow one
+                fast.setLatency(FakePredictionServer.fixedLatency(3_000));
+                long start = System.nanoTime();
+                GenerateContentResponse hedged = inlineVertexAi.generateContentAsync("stalled prompt")
+                        .get(5, TimeUnit.SECONDS);
+                long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+                // Assert
+                assertEquals(2, slow.getRequests().size());
+                assertEquals(12, fast.getRequests().size());
+                assertNotNull(InlineVertexAi.extractGeneratedText(hedged));
+                assertTrue(elapsedMs < 2_000, "Hedged request took " + elapsedMs + "ms");
+                waitUntil(() -> regions.getMetrics().get("hedgeWins").longValue() == 1);
+            } finally {
+                pool.dispose();
+            }
+        }
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    // Listeners may still be running when a future's get() returns
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not reached in time");
+            Thread.sleep(5);
+        }
+    }
+}
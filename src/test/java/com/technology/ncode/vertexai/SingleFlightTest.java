@@ -0,0 +1,258 @@
+package com.technology.ncode.vertexai;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.SettableApiFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    @AfterEach
+    void tearDown() {
+        singleFlight.shutdown();
+    }
+
+    @Test
+    void testExecute_identicalCallsShareOneRequest() throws Exception {
+        // Arrange
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        String key = SingleFlight.key("test", "prompt");
+        SingleFlight.Call<String> call = () -> {
+            calls.incrementAndGet();
+            await(release);
+            return "result";
+        };
+
+        // Act
+        CompletableFuture<String> first = runAsync(() -> singleFlight.execute(key, call));
+        waitUntil(() -> calls.get() == 1);
+        CompletableFuture<String> second = runAsync(() -> singleFlight.execute(key, call));
+        waitUntil(() -> singleFlight.getMetrics().get("coalescedRequests").longValue() == 1);
+        release.countDown();
+
+        // Assert
+        assertEquals("result", first.get(5, TimeUnit.SECONDS));
+        assertEquals("result", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(0.5, singleFlight.getMetrics().get("coalescingRate").doubleValue());
+    }
+
+    @Test
+    void testExecute_failureReachesEveryWaiter() throws Exception {
+        // Arrange
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        String key = SingleFlight.key("test", "prompt");
+        SingleFlight.Call<String> call = () -> {
+            calls.incrementAndGet();
+            await(release);
+            throw new IOException("quota exceeded");
+        };
+
+        // Act
+        CompletableFuture<String> first = runAsync(() -> singleFlight.execute(key, call));
+        waitUntil(() -> calls.get() == 1);
+        CompletableFuture<String> second = runAsync(() -> singleFlight.execute(key, call));
+        waitUntil(() -> singleFlight.getMetrics().get("coalescedRequests").longValue() == 1);
+        release.countDown();
+
+        // Assert
+        Exception firstFailure = assertThrows(Exception.class, () -> first.get(5, TimeUnit.SECONDS));
+        Exception secondFailure = assertThrows(Exception.class, () -> second.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, firstFailure.getCause());
+        assertInstanceOf(IOException.class, secondFailure.getCause());
+    }
+
+    @Test
+    void testExecute_sequentialCallsAreNotCoalesced() throws IOException {
+        // Arrange
+        AtomicInteger calls = new AtomicInteger();
+        String key = SingleFlight.key("test", "prompt");
+
+        // Act
+        singleFlight.execute(key, calls::incrementAndGet);
+        singleFlight.execute(key, calls::incrementAndGet);
+
+        // Assert
+        assertEquals(2, calls.get());
+        assertEquals(0L, singleFlight.getMetrics().get("coalescedRequests"));
+    }
+
+    @Test
+    void testExecuteAsync_cancellingOneWaiterKeepsRequestForOthers() throws Exception {
+        // Arrange
+        SettableApiFuture<String> upstream = SettableApiFuture.create();
+        String key = SingleFlight.key("test", "prompt");
+
+        // Act
+        ApiFuture<String> first = singleFlight.executeAsync(key, () -> upstream);
+        ApiFuture<String> second = singleFlight.executeAsync(key, () -> fail("Should have joined"));
+        first.cancel(true);
+        upstream.set("result");
+
+        // Assert
+        assertFalse(upstream.isCancelled());
+        assertTrue(first.isCancelled());
+        assertEquals("result", second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testExecuteAsync_cancellingAllWaitersCancelsRequest() throws Exception {
+        // Arrange
+        SettableApiFuture<String> upstream = SettableApiFuture.create();
+        SettableApiFuture<String> next = SettableApiFuture.create();
+        String key = SingleFlight.key("test", "prompt");
+
+        // Act
+        ApiFuture<String> first = singleFlight.executeAsync(key, () -> upstream);
+        ApiFuture<String> second = singleFlight.executeAsync(key, () -> fail("Should have joined"));
+        first.cancel(true);
+        second.cancel(true);
+        ApiFuture<String> afterCancel = singleFlight.executeAsync(key, () -> next);
+        next.set("fresh");
+
+        // Assert
+        assertTrue(upstream.isCancelled());
+        assertEquals("fresh", afterCancel.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testStream_lateSubscriberReplaysEarlierChunks() throws Exception {
+        // Arrange
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        String key = SingleFlight.key("stream", "prompt");
+        SingleFlight.StreamCall call = sink -> {
+            calls.incrementAndGet();
+            sink.test("a");
+            await(release);
+            sink.test("b");
+            return true;
+        };
+        List<String> firstChunks = new CopyOnWriteArrayList<>();
+        List<String> secondChunks = new CopyOnWriteArrayList<>();
+
+        // Act
+        CompletableFuture<Boolean> first = runAsync(() -> singleFlight.stream(key, call, firstChunks::add));
+        waitUntil(() -> firstChunks.size() == 1);
+        CompletableFuture<Boolean> second = runAsync(() -> singleFlight.stream(key, call, secondChunks::add));
+        waitUntil(() -> secondChunks.size() == 1);
+        release.countDown();
+
+        // Assert
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("a", "b"), firstChunks);
+        assertEquals(List.of("a", "b"), secondChunks);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void testStream_stopsUpstreamWhenLastSubscriberLeaves() throws Exception {
+        // Arrange
+        CompletableFuture<Boolean> upstreamStopped = new CompletableFuture<>();
+        SingleFlight.StreamCall call = sink -> {
+            sink.test("a");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (sink.test("b")) {
+                if (System.nanoTime() > deadline) {
+                    upstreamStopped.complete(false);
+                    return false;
+                }
+                Thread.onSpinWait();
+            }
+            upstreamStopped.complete(true);
+            return false;
+        };
+
+        // Act
+        boolean completed = singleFlight.stream(SingleFlight.key("stream", "prompt"), call, chunk -> false);
+
+        // Assert
+        assertFalse(completed);
+        assertTrue(upstreamStopped.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testStream_cancelsUpstreamWhenSubscriberIsInterrupted() throws Exception {
+        // Arrange
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        SingleFlight.StreamCall call = sink -> {
+            sink.onCancel(cancelled::countDown);
+            started.countDown();
+            // Blocked waiting for a chunk that never comes
+            await(cancelled);
+            return false;
+        };
+        CompletableFuture<Thread> subscriber = new CompletableFuture<>();
+        CompletableFuture<Boolean> result = runAsync(() -> {
+            subscriber.complete(Thread.currentThread());
+            return singleFlight.stream(SingleFlight.key("stream", "prompt"), call, chunk -> true);
+        });
+        await(started);
+
+        // Act
+        subscriber.get(5, TimeUnit.SECONDS).interrupt();
+
+        // Assert
+        assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+        ExecutionException exception = assertThrows(ExecutionException.class,
+                () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(InterruptedIOException.class, exception.getCause());
+    }
+
+    @FunctionalInterface
+    private interface Action<T> {
+        T run() throws Exception;
+    }
+
+    private static <T> CompletableFuture<T> runAsync(Action<T> action) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                future.complete(action.run());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IOException("Timed out");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not reached in time");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -22,10 +22,12 @@ import static org.mockito.Mockito.*;
 
 class TestCaseCodeVertexAiTest {
 
+    private static final String LOCATION = "us-central1";
+
     @Test
     void testGenerateContentStream_validPrompt() throws IOException {
         // Arrange
-        TestCaseCodeVertexAi testCaseCodeVertexAi = new TestCaseCodeVertexAi();
+        TestCaseCodeVertexAi testCaseCodeVertexAi = new TestCaseCodeVertexAi(new VertexAiClientPool(LOCATION));
         String testPrompt = "Test prompt for test case generation";
 
         GenerateContentResponse mockResponse = mock(GenerateContentResponse.class);
@@ -74,7 +76,7 @@ class TestCaseCodeVertexAiTest {
     @Test
     void testGenerateContentStream_nullPrompt() {
         // Arrange
-        TestCaseCodeVertexAi testCaseCodeVertexAi = new TestCaseCodeVertexAi();
+        TestCaseCodeVertexAi testCaseCodeVertexAi = new TestCaseCodeVertexAi(new VertexAiClientPool());
         Consumer<String> onNext = mock(Consumer.class);
 
         // Act & Assert
@@ -85,7 +87,7 @@ class TestCaseCodeVertexAiTest {
     @Test
     void testGenerateContentStream_emptyPrompt() {
         // Arrange
-        TestCaseCodeVertexAi testCaseCodeVertexAi = new TestCaseCodeVertexAi();
+        TestCaseCodeVertexAi testCaseCodeVertexAi = new TestCaseCodeVertexAi(new VertexAiClientPool());
         Consumer<String> onNext = mock(Consumer.class);
 
         // Act
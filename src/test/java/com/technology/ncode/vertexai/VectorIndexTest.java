@@ -0,0 +1,107 @@
+package com.technology.ncode.vertexai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VectorIndexTest {
+
+    @Test
+    void testSearch_returnsMostSimilarFirst() {
+        // Arrange
+        VectorIndex index = new VectorIndex(3);
+        int x = index.add(new float[] { 1, 0, 0 });
+        int xy = index.add(new float[] { 1, 1, 0 });
+        index.add(new float[] { 0, 0, 1 });
+
+        // Act
+        List<VectorIndex.Match> matches = index.search(new float[] { 2, 0.1f, 0 }, 2);
+
+        // Assert
+        assertEquals(2, matches.size());
+        assertEquals(x, matches.get(0).id);
+        assertEquals(xy, matches.get(1).id);
+        assertEquals(0.74f, matches.get(1).score, 0.01f);
+    }
+
+    @Test
+    void testSearch_matchesBruteForceAcrossGrowth() {
+        // Arrange
+        Random random = new Random(7);
+        VectorIndex index = new VectorIndex(37);
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            float[] vector = randomVector(random, 37);
+            vectors.add(vector);
+            assertEquals(i, index.add(vector));
+        }
+        float[] query = randomVector(random, 37);
+
+        // Act
+        List<VectorIndex.Match> matches = index.search(query, 10);
+
+        // Assert
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < vectors.size(); i++) {
+            expected.add(i);
+        }
+        expected.sort(Comparator.comparingDouble(i -> -cosine(vectors.get(i), query)));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(expected.get(i), matches.get(i).id);
+            assertEquals(cosine(vectors.get(expected.get(i)), query), matches.get(i).score, 1e-4);
+        }
+    }
+
+    @Test
+    void testRemove_excludesVectorAndReusesId() {
+        // Arrange
+        VectorIndex index = new VectorIndex(2);
+        int first = index.add(new float[] { 1, 0 });
+        index.add(new float[] { 0, 1 });
+
+        // Act
+        index.remove(first);
+
+        // Assert
+        assertEquals(1, index.size());
+        assertEquals(1, index.search(new float[] { 1, 0 }, 5).size());
+        assertNotEquals(first, index.search(new float[] { 1, 0 }, 1).get(0).id);
+        assertEquals(first, index.add(new float[] { 1, 1 }));
+    }
+
+    @Test
+    void testSearch_ignoresZeroQuery() {
+        // Arrange
+        VectorIndex index = new VectorIndex(2);
+        index.add(new float[] { 1, 0 });
+
+        // Act & Assert
+        assertTrue(index.search(new float[] { 0, 0 }, 1).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> index.search(new float[] { 1 }, 1));
+    }
+
+    private static float[] randomVector(Random random, int dimensions) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+}
@@ -0,0 +1,112 @@
+package com.technology.ncode.vertexai;
+
+import com.google.cloud.vertexai.VertexAI;
+import com.google.cloud.vertexai.api.GenerationConfig;
+import com.google.cloud.vertexai.generativeai.GenerativeModel;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class VertexAiClientPoolTest {
+
+    private static final String LOCATION = "us-central1";
+
+    private static final GenerationConfig CONFIG = GenerationConfig.newBuilder()
+            .setTemperature(0.3f)
+            .setMaxOutputTokens(300)
+            .build();
+
+    @Test
+    void testGetModel_reusesClientAndModel() {
+        // Arrange
+        VertexAiClientPool pool = new VertexAiClientPool(LOCATION);
+
+        try (MockedConstruction<VertexAI> vertexAiMock = Mockito.mockConstruction(VertexAI.class);
+                MockedConstruction<GenerativeModel> modelMock = Mockito.mockConstruction(GenerativeModel.class)) {
+
+            // Act
+            GenerativeModel first = pool.getModel("us-central1", "model", CONFIG, "system");
+            GenerativeModel second = pool.getModel("us-central1", "model", CONFIG, "system");
+
+            // Assert
+            assertSame(first, second);
+            assertEquals(1, vertexAiMock.constructed().size());
+            assertEquals(1, modelMock.constructed().size());
+        }
+    }
+
+    @Test
+    void testGetModel_differentConfigSharesClient() {
+        // Arrange
+        VertexAiClientPool pool = new VertexAiClientPool(LOCATION);
+        GenerationConfig otherConfig = CONFIG.toBuilder().setMaxOutputTokens(1024).build();
+
+        try (MockedConstruction<VertexAI> vertexAiMock = Mockito.mockConstruction(VertexAI.class);
+                MockedConstruction<GenerativeModel> modelMock = Mockito.mockConstruction(GenerativeModel.class)) {
+
+            // Act
+            GenerativeModel first = pool.getModel("us-central1", "model", CONFIG, "system");
+            GenerativeModel second = pool.getModel("us-central1", "model", otherConfig, "system");
+
+            // Assert
+            assertNotSame(first, second);
+            assertEquals(1, vertexAiMock.constructed().size());
+            assertEquals(2, modelMock.constructed().size());
+        }
+    }
+
+    @Test
+    void testGetClient_onePerLocation() {
+        // Arrange
+        VertexAiClientPool pool = new VertexAiClientPool(LOCATION);
+
+        try (MockedConstruction<VertexAI> vertexAiMock = Mockito.mockConstruction(VertexAI.class)) {
+
+            // Act
+            VertexAI first = pool.getClient("us-central1");
+            VertexAI second = pool.getClient("europe-west1");
+            VertexAI third = pool.getClient("us-central1");
+
+            // Assert
+            assertSame(first, third);
+            assertNotSame(first, second);
+            assertEquals(2, vertexAiMock.constructed().size());
+        }
+    }
+
+    @Test
+    void testDispose_closesClients() {
+        // Arrange
+        VertexAiClientPool pool = new VertexAiClientPool(LOCATION);
+
+        try (MockedConstruction<VertexAI> vertexAiMock = Mockito.mockConstruction(VertexAI.class)) {
+            pool.getClient("us-central1");
+
+            // Act
+            pool.dispose();
+
+            // Assert
+            verify(vertexAiMock.constructed().get(0)).close();
+            assertThrows(IllegalStateException.class, () -> pool.getClient("us-central1"));
+        }
+    }
+
+    @Test
+    void testMissingLocation_failsOnlyWhenRequested() {
+        // Arrange
+        VertexAiClientPool pool = new VertexAiClientPool(" ");
+
+        // Act & Assert
+        assertFalse(pool.isConfigured());
+        assertNotNull(pool.getCircuitBreaker());
+        assertThrows(IllegalStateException.class, pool::getLocation);
+        assertThrows(IllegalStateException.class, () -> pool.getClient(null));
+        assertThrows(IllegalStateException.class, () -> new RegionRouter(Arrays.asList(LOCATION, null)));
+        assertTrue(new VertexAiClientPool(LOCATION).isConfigured());
+    }
+}
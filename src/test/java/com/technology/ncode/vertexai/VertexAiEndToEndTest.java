@@ -0,0 +1,183 @@
+package com.technology.ncode.vertexai;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.vertexai.api.GenerateContentResponse;
+import io.grpc.Status;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the Vertex AI wrappers against {@link FakePredictionServer}, so the
+ * real gRPC transport, streaming and error mapping are exercised offline.
+ */
+class VertexAiEndToEndTest {
+
+    // Transport and scheduling overhead allowed on top of injected latency
+    private static final long LATENCY_TOLERANCE_MS = 40;
+
+    private FakePredictionServer server;
+    private VertexAiClientPool clientPool;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new FakePredictionServer();
+        clientPool = server.newClientPool();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        clientPool.dispose();
+        server.close();
+    }
+
+    @Test
+    void testInlineGenerateContentAsync_returnsScriptedReply() throws Exception {
+        // Arrange
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(clientPool);
+        server.enqueue(FakePredictionServer.Reply.text("return a + b;", "\n"));
+
+        // Act
+        GenerateContentResponse response = inlineVertexAi.generateContentAsync("int add(int a, int b) {")
+                .get(5, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals("return a + b;\n", InlineVertexAi.extractGeneratedText(response));
+        assertEquals(1, server.getRequests().size());
+    }
+
+    @Test
+    void testInlineGenerateContentStream_receivesPacedChunks() throws Exception {
+        // Arrange
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(clientPool);
+        server.enqueue(FakePredictionServer.Reply.text("if (a) {\n", "    b();\n", "}\n"));
+        server.setChunkIntervalMs(20);
+        List<String> chunks = new ArrayList<>();
+
+        // Act
+        boolean completed = inlineVertexAi.generateContentStream("void f() {", chunks::add);
+
+        // Assert
+        assertTrue(completed);
+        assertEquals(List.of("if (a) {\n", "    b();\n", "}\n"), chunks);
+    }
+
+    @Test
+    void testInlineGenerateContentStream_stopsEarly() throws Exception {
+        // Arrange
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(clientPool);
+        server.enqueue(FakePredictionServer.Reply.text("a\n", "b\n", "c\n", "d\n"));
+        server.setChunkIntervalMs(50);
+        List<String> chunks = new ArrayList<>();
+
+        // Act
+        boolean completed = inlineVertexAi.generateContentStream("prompt", chunk -> {
+            chunks.add(chunk);
+            return false;
+        });
+
+        // Assert
+        assertFalse(completed);
+        assertEquals(List.of("a\n"), chunks);
+    }
+
+    @Test
+    void testInlineGenerateCandidatesAsync_dedupesCandidates() throws Exception {
+        // Arrange
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(clientPool);
+        server.enqueue(FakePredictionServer.Reply.candidates("return a;", "return a;\n", "return b;"));
+
+        // Act
+        GenerateContentResponse response = inlineVertexAi.generateCandidatesAsync("prompt")
+                .get(5, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals(List.of("return a;", "return b;"), InlineVertexAi.extractCandidates(response));
+        assertEquals(InlineVertexAi.CANDIDATE_COUNT,
+                server.getRequests().get(0).getGenerationConfig().getCandidateCount());
+    }
+
+    @Test
+    void testAllClients_reachServer() throws Exception {
+        // Arrange
+        server.setDefaultReply(FakePredictionServer.Reply.text("generated"));
+
+        // Act
+        GenerateContentResponse answer = new AskAQuestionVertexAi(clientPool).generateContent("question");
+        GenerateContentResponse documentation = new DocumentationVertexAi(clientPool).generateContent("code");
+        String testCode = new TestCaseCodeVertexAi(clientPool).generateContent("code");
+        List<String> streamed = new ArrayList<>();
+        new TestCaseCodeVertexAi(clientPool).generateContentStream("code", streamed::add);
+
+        // Assert
+        assertEquals("generated", AskAQuestionVertexAi.extractGeneratedText(answer));
+        assertEquals("generated", DocumentationVertexAi.extractGeneratedDocumentation(documentation));
+        assertNotNull(testCode);
+        assertEquals(List.of("generated"), streamed);
+        assertEquals(4, server.getRequests().size());
+    }
+
+    @Test
+    void testInjectedError_surfacesAsApiException() {
+        // Arrange
+        AskAQuestionVertexAi askAQuestionVertexAi = new AskAQuestionVertexAi(clientPool);
+        server.setErrorRate(1.0, Status.Code.INVALID_ARGUMENT);
+
+        // Act
+        ApiException exception = assertThrows(ApiException.class,
+                () -> askAQuestionVertexAi.generateContent("question"));
+
+        // Assert
+        assertEquals(StatusCode.Code.INVALID_ARGUMENT, exception.getStatusCode().getCode());
+    }
+
+    @Test
+    void testLatencyPercentiles_reflectInjectedLatency() throws Exception {
+        // Arrange
+        InlineVertexAi inlineVertexAi = new InlineVertexAi(clientPool);
+        int requests = 50;
+        // Same seed, so these are the delays the server will inject
+        long[] injectedMs = new long[requests];
+        LongSupplier injected = FakePredictionServer.uniformLatency(10, 30, 7);
+        for (int i = 0; i < requests; i++) {
+            injectedMs[i] = injected.getAsLong();
+        }
+        // Keep channel setup out of the measurements
+        inlineVertexAi.generateContentAsync("warm up").get(5, TimeUnit.SECONDS);
+        server.setLatency(FakePredictionServer.uniformLatency(10, 30, 7));
+        long[] latenciesMs = new long[requests];
+
+        // Act
+        for (int i = 0; i < requests; i++) {
+            long start = System.nanoTime();
+            inlineVertexAi.generateContentAsync("prompt " + i).get(5, TimeUnit.SECONDS);
+            latenciesMs[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+
+        // Assert
+        long p50 = percentile(latenciesMs, 0.50);
+        long p99 = percentile(latenciesMs, 0.99);
+        long injectedP50 = percentile(injectedMs, 0.50);
+        long injectedP99 = percentile(injectedMs, 0.99);
+        assertTrue(p50 >= injectedP50 && p50 <= injectedP50 + LATENCY_TOLERANCE_MS,
+                "p50 " + p50 + "ms outside the band around the injected " + injectedP50 + "ms");
+        assertTrue(p99 >= injectedP99 && p99 <= injectedP99 + LATENCY_TOLERANCE_MS,
+                "p99 " + p99 + "ms outside the band around the injected " + injectedP99 + "ms");
+    }
+
+    private static long percentile(long[] values, double quantile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}